@@ -25,7 +25,6 @@ import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
@@ -42,17 +41,22 @@ import com.cloud.agent.api.Command;
 import com.cloud.agent.api.CronCommand;
 import com.cloud.agent.api.MaintainAnswer;
 import com.cloud.agent.api.MaintainCommand;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
+import com.cloud.agent.transport.Compression;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.resource.ServerResource;
+import com.cloud.resource.VmStateReportingResource;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.PropertiesUtil;
 import com.cloud.utils.backoff.BackoffAlgorithm;
+import com.cloud.utils.concurrency.HashedWheelTimer;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.NioConnectionException;
@@ -65,7 +69,7 @@ import com.cloud.utils.nio.Task;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
 
-import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -108,8 +112,9 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource _resource;
     Link _link;
     Long _id;
+    volatile short _serverCapabilities;
 
-    Timer _timer = new Timer("Agent Timer");
+    HashedWheelTimer _timer = new HashedWheelTimer("Agent Timer", 100, TimeUnit.MILLISECONDS, 512);
 
     List<WatchTask> _watchList = new ArrayList<>();
     long _sequence = 0;
@@ -143,6 +148,16 @@ public class Agent implements HandlerFactory, IAgentControl {
             params.put(cmdLineProp.getKey(), cmdLineProp.getValue());
         }
 
+        final Object compression = params.get("compression");
+        if (compression != null) {
+            Compression.setPreferred(compression.toString());
+        }
+        final Object compressionThreshold = params.get("compression.threshold");
+        if (compressionThreshold != null) {
+            Compression.setThreshold(NumbersUtil.parseInt(compressionThreshold.toString(), Compression.DEFAULT_THRESHOLD));
+        }
+        Compression.registerMBeans();
+
         if (!_resource.configure(getResourceName(), params)) {
             throw new ConfigurationException("Unable to configure " + _resource.getName());
         }
@@ -185,6 +200,15 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     protected void setLink(final Link link) {
         _link = link;
+        _serverCapabilities = 0;
+    }
+
+    /**
+     * Picks the data format and compressor the management server announced
+     * it reads; responses already follow their request.
+     */
+    protected void negotiate(final Request request) {
+        request.negotiate(_serverCapabilities);
     }
 
     public ServerResource getResource() {
@@ -230,6 +254,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             try {
                 if (_link != null) {
                     final Request req = new Request(_id != null ? _id : -1, -1, cmd, false);
+                    negotiate(req);
                     _link.send(req.toBytes());
                 }
             } catch (final ClosedChannelException e) {
@@ -270,8 +295,8 @@ public class Agent implements HandlerFactory, IAgentControl {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Adding a watch list");
             }
-            final WatchTask task = new WatchTask(link, request, this);
-            _timer.schedule(task, 0, period);
+            final WatchTask task = new WatchTask(link, request, this, period);
+            task.schedule(0);
             _watchList.add(task);
         }
     }
@@ -290,7 +315,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     public synchronized void lockStartupTask(final Link link) {
         _startup = new StartupTask(link);
-        _timer.schedule(_startup, _startupWait);
+        _startup.schedule(_startupWait);
     }
 
     public void sendStartup(final Link link) {
@@ -561,6 +586,9 @@ public class Agent implements HandlerFactory, IAgentControl {
                 }
             }
         } else {
+            if (answer instanceof PingAnswer && _resource instanceof VmStateReportingResource) {
+                ((VmStateReportingResource) _resource).processPingAnswer((PingAnswer) answer);
+            }
             setLastPingResponseTime();
         }
     }
@@ -593,6 +621,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
 
             try {
+                negotiate(request);
                 task.getLink().send(request.toBytes());
                 //if i can send pingcommand out, means the link is ok
                 setLastPingResponseTime();
@@ -686,6 +715,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(final Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
+                negotiate(request);
                 _link.send(request.toBytes());
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
@@ -738,20 +768,42 @@ public class Agent implements HandlerFactory, IAgentControl {
         }
     }
 
-    public class WatchTask extends ManagedContextTimerTask {
+    public class WatchTask extends ManagedContextRunnable {
         protected Request _request;
         protected Agent _agent;
         protected Link _link;
+        protected final long _period;
+        protected volatile boolean _cancelled = false;
+        protected volatile HashedWheelTimer.Timeout _timeout;
 
-        public WatchTask(final Link link, final Request request, final Agent agent) {
+        public WatchTask(final Link link, final Request request, final Agent agent, final long period) {
             super();
             _request = request;
             _link = link;
             _agent = agent;
+            _period = period;
+        }
+
+        protected void schedule(final long delay) {
+            _timeout = _timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+            if (_cancelled) {
+                _timeout.cancel();
+            }
+        }
+
+        public boolean cancel() {
+            _cancelled = true;
+            final HashedWheelTimer.Timeout timeout = _timeout;
+            return timeout != null && timeout.cancel();
         }
 
         @Override
         protected void runInContext() {
+            if (_cancelled) {
+                return;
+            }
+            // Rescheduled up front, like a fixed rate TimerTask
+            schedule(_period);
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Scheduling " + (_request instanceof Response ? "Ping" : "Watch Task"));
             }
@@ -767,23 +819,27 @@ public class Agent implements HandlerFactory, IAgentControl {
         }
     }
 
-    public class StartupTask extends ManagedContextTimerTask {
+    public class StartupTask extends ManagedContextRunnable {
         protected Link _link;
         protected volatile boolean cancelled = false;
+        protected HashedWheelTimer.Timeout _timeout;
 
         public StartupTask(final Link link) {
             s_logger.debug("Startup task created");
             _link = link;
         }
 
-        @Override
+        protected synchronized void schedule(final long delay) {
+            _timeout = _timer.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+        }
+
         public synchronized boolean cancel() {
-            // TimerTask.cancel may fail depends on the calling context
+            // The timeout may already have fired depending on the calling context
             if (!cancelled) {
                 cancelled = true;
                 _startupWait = _startupWaitDefault;
                 s_logger.debug("Startup task cancelled");
-                return super.cancel();
+                return _timeout == null || _timeout.cancel();
             }
             return true;
         }
@@ -835,6 +891,7 @@ public class Agent implements HandlerFactory, IAgentControl {
                 final Request request;
                 try {
                     request = Request.parse(task.getData());
+                    _serverCapabilities = request.getPeerCapabilities();
                     if (request instanceof Response) {
                         //It's for pinganswer etc, should be processed immediately.
                         processResponse((Response) request, task.getLink());
@@ -16,6 +16,7 @@
 // under the License.
 package org.apache.cloudstack.api;
 
+import java.io.Writer;
 import java.net.InetAddress;
 import java.util.Map;
 
@@ -41,5 +42,11 @@ public interface ApiServerService {
 
     public String handleRequest(Map params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Handles the request like handleRequest(Map, String, StringBuilder), but streams the response to out
+     * instead of returning it; nothing is written for the login and logout APIs.
+     */
+    public void handleRequest(Map params, String responseType, StringBuilder auditTrailSb, Writer out) throws ServerApiException;
+
     public Class<?> getCmdClass(String cmdName);
 }
@@ -40,6 +40,14 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.START_AFTER, type = CommandType.STRING, description = "list the page following the one that returned this "
+            + ApiConstants.NEXT_START_AFTER + " token, mutually exclusive with page", since = "5.1.1")
+    private String startAfter;
+
+    @Parameter(name = ApiConstants.WITH_COUNT, type = CommandType.BOOLEAN, description = "count all matching rows when " + ApiConstants.START_AFTER
+            + " is specified, otherwise count only reflects the returned page", since = "5.1.1")
+    private Boolean withCount;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -57,6 +65,25 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return page;
     }
 
+    public String getStartAfter() {
+        return startAfter;
+    }
+
+    /**
+     * The total is always counted for the first page, later pages reached through
+     * startafter only count when asked to as that is a query of its own.
+     */
+    public boolean isCountRequested() {
+        return startAfter == null || Boolean.TRUE.equals(withCount);
+    }
+
+    /**
+     * Commands whose listing is ordered on a unique key can page with startafter
+     */
+    protected boolean supportsStartAfter() {
+        return false;
+    }
+
     @Override
     public Integer getPageSize() {
         if (pageSize != null && s_maxPageSize.longValue() != s_pageSizeUnlimited && pageSize.longValue() > s_maxPageSize.longValue()) {
@@ -132,7 +159,14 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
-        if (params.get(ApiConstants.PAGE) == null &&
+        if (params.get(ApiConstants.START_AFTER) != null) {
+            if (!supportsStartAfter()) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"" + ApiConstants.START_AFTER + "\" parameter is not supported by this command");
+            }
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" and \"" + ApiConstants.START_AFTER + "\" parameters are mutually exclusive");
+            }
+        } else if (params.get(ApiConstants.PAGE) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
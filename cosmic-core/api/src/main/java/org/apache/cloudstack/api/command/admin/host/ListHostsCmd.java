@@ -92,6 +92,11 @@ public class ListHostsCmd extends BaseListCmd {
             description = "comma separated list of host details requested, value can be a list of [ min, all, capacity, events, stats]")
     private List<String> viewDetails;
 
+    @Parameter(name = ApiConstants.STATS_WINDOW,
+            type = CommandType.INTEGER,
+            description = "report the stats averaged over the last given number of minutes, up to 1440, instead of the latest ones")
+    private Integer statsWindow;
+
     @Parameter(name = ApiConstants.HA_HOST, type = CommandType.BOOLEAN, description = "if true, list only hosts dedicated to HA")
     private Boolean haHost;
 
@@ -165,6 +170,10 @@ public class ListHostsCmd extends BaseListCmd {
         return resourceState;
     }
 
+    public Integer getStatsWindow() {
+        return statsWindow;
+    }
+
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
@@ -174,6 +183,11 @@ public class ListHostsCmd extends BaseListCmd {
         return s_name;
     }
 
+    @Override
+    protected boolean supportsStartAfter() {
+        return true;
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.Host;
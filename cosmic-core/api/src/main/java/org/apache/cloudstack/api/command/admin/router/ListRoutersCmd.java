@@ -141,6 +141,11 @@ public class ListRoutersCmd extends BaseListProjectAndAccountResourcesCmd {
         return s_name;
     }
 
+    @Override
+    protected boolean supportsStartAfter() {
+        return true;
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.DomainRouter;
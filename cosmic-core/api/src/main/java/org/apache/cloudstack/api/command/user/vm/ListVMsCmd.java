@@ -109,6 +109,12 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
                    + " If no parameter is passed in, the details will be defaulted to all")
     private List<String> viewDetails;
 
+    @Parameter(name = ApiConstants.STATS_WINDOW,
+               type = CommandType.INTEGER,
+               description = "report the stats of the last given number of minutes, up to 1440, instead of the latest ones: "
+                   + "average CPU utilization and the network and disk traffic within that time")
+    private Integer statsWindow;
+
     @Parameter(name = ApiConstants.TEMPLATE_ID, type = CommandType.UUID, entityType = TemplateResponse.class, description = "list vms by template")
     private Long templateId;
 
@@ -217,6 +223,10 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         return dv;
     }
 
+    public Integer getStatsWindow() {
+        return statsWindow;
+    }
+
     @Override
     public Boolean getDisplay() {
         if (display != null) {
@@ -232,6 +242,11 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         return s_name;
     }
 
+    @Override
+    protected boolean supportsStartAfter() {
+        return true;
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.VirtualMachine;
@@ -142,6 +142,11 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd {
         return s_name;
     }
 
+    @Override
+    protected boolean supportsStartAfter() {
+        return true;
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.Volume;
@@ -18,18 +18,17 @@ package com.cloud.agent.manager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.cloud.agent.Listener;
 import com.cloud.agent.api.Answer;
@@ -54,6 +53,7 @@ import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
 import com.cloud.host.Status;
+import com.cloud.utils.concurrency.HashedWheelTimer;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
@@ -66,47 +66,37 @@ import org.slf4j.LoggerFactory;
 public abstract class AgentAttache {
     private static final Logger s_logger = LoggerFactory.getLogger(AgentAttache.class);
 
-    private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    private static final HashedWheelTimer s_timeoutTimer = new HashedWheelTimer("ListenerTimer", 100, TimeUnit.MILLISECONDS, 1024,
+            Executors.newFixedThreadPool(10, new NamedThreadFactory("ListenerTimeout")));
     private static final Random s_rand = new Random(System.currentTimeMillis());
 
-    protected static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
-        @Override
-        public int compare(final Request o1, final Request o2) {
-            long seq1 = o1.getSequence();
-            long seq2 = o2.getSequence();
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
-    protected static final Comparator<Object> s_seqComparator = new Comparator<Object>() {
-        @Override
-        public int compare(final Object o1, final Object o2) {
-            long seq1 = ((Request)o1).getSequence();
-            long seq2 = (Long)o2;
-            if (seq1 < seq2) {
-                return -1;
-            } else if (seq1 > seq2) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
-    protected final LinkedList<Request> _requests;
-    protected Long _currentSequence;
+    protected final ConcurrentHashMap<Long, HashedWheelTimer.Timeout> _timeouts = new ConcurrentHashMap<Long, HashedWheelTimer.Timeout>();
+    /**
+     * Sequential requests waiting for the current one to be answered, keyed
+     * by sequence so the oldest is sent next.  Lookups and cancels don't
+     * need a lock; dispatching does, see _sequenceLock.
+     */
+    protected final ConcurrentSkipListMap<Long, PendingRequest> _requests;
+    /**
+     * Guards _currentSequence and the hand-off from _requests to the link.
+     * Only sequential requests take it, and it is separate from the attache
+     * monitor that the subclasses use for the link itself.
+     */
+    protected final Object _sequenceLock = new Object();
+    protected volatile Long _currentSequence;
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
+    protected volatile short _peerCapabilities;
+
+    private final AtomicInteger _queueSize = new AtomicInteger();
+    private final AtomicInteger _maxQueueSize = new AtomicInteger();
+    private final AtomicLong _queuedCount = new AtomicLong();
+    private final AtomicLong _queueWaitNanos = new AtomicLong();
+    private final AtomicLong _maxQueueWaitNanos = new AtomicLong();
 
     protected AgentManagerImpl _agentMgr;
 
@@ -126,7 +116,7 @@ public abstract class AgentAttache {
         _waitForList = new ConcurrentHashMap<Long, Listener>();
         _currentSequence = null;
         _maintenance = maintenance;
-        _requests = new LinkedList<Request>();
+        _requests = new ConcurrentSkipListMap<Long, PendingRequest>();
         _agentMgr = agentMgr;
         _nextSequence = new Long(s_rand.nextInt(Short.MAX_VALUE)).longValue() << 48;
     }
@@ -177,10 +167,51 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void addRequest(final Request req) {
-        int index = findRequest(req);
-        assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
-        _requests.add(-index - 1, req);
+    protected void addRequest(final Request req) {
+        final PendingRequest existing = _requests.putIfAbsent(req.getSequence(), new PendingRequest(req));
+        assert (existing == null) : "How can we get the same sequence again? " + req.toString();
+        if (existing == null) {
+            final int size = _queueSize.incrementAndGet();
+            int max = _maxQueueSize.get();
+            while (size > max && !_maxQueueSize.compareAndSet(max, size)) {
+                max = _maxQueueSize.get();
+            }
+        }
+    }
+
+    protected Request removeRequest(final long seq) {
+        final PendingRequest pending = _requests.remove(seq);
+        if (pending == null) {
+            return null;
+        }
+        _queueSize.decrementAndGet();
+        return pending.request;
+    }
+
+    /**
+     * Takes the oldest waiting request off the queue and accounts for the
+     * time it spent there.
+     */
+    protected Request pollRequest() {
+        final Map.Entry<Long, PendingRequest> entry = _requests.pollFirstEntry();
+        if (entry == null) {
+            return null;
+        }
+        _queueSize.decrementAndGet();
+        final long waited = System.nanoTime() - entry.getValue().queuedAt;
+        _queuedCount.incrementAndGet();
+        _queueWaitNanos.addAndGet(waited);
+        long max = _maxQueueWaitNanos.get();
+        while (waited > max && !_maxQueueWaitNanos.compareAndSet(max, waited)) {
+            max = _maxQueueWaitNanos.get();
+        }
+        return entry.getValue().request;
+    }
+
+    protected void clearRequests() {
+        while (_requests.pollFirstEntry() != null) {
+            _queueSize.decrementAndGet();
+        }
     }
 
     protected void cancel(final Request req) {
@@ -188,26 +219,16 @@ public abstract class AgentAttache {
         cancel(seq);
     }
 
-    protected synchronized void cancel(final long seq) {
+    protected void cancel(final long seq) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(seq, "Cancelling."));
         }
         final Listener listener = _waitForList.remove(seq);
+        cancelTimeout(seq);
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
         }
-        int index = findRequest(seq);
-        if (index >= 0) {
-            _requests.remove(index);
-        }
-    }
-
-    protected synchronized int findRequest(final Request req) {
-        return Collections.binarySearch(_requests, req, s_reqComparator);
-    }
-
-    protected synchronized int findRequest(final long seq) {
-        return Collections.binarySearch(_requests, seq, s_seqComparator);
+        removeRequest(seq);
     }
 
     protected String log(final long seq, final String msg) {
@@ -218,19 +239,34 @@ public abstract class AgentAttache {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace(log(seq, "Registering listener"));
         }
+        _waitForList.put(seq, listener);
         if (listener.getTimeout() != -1) {
-            s_listenerExecutor.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS);
+            _timeouts.put(seq, s_timeoutTimer.newTimeout(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS));
         }
-        _waitForList.put(seq, listener);
     }
 
     protected Listener unregisterListener(final long sequence) {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace(log(sequence, "Unregistering listener"));
         }
+        cancelTimeout(sequence);
         return _waitForList.remove(sequence);
     }
 
+    private void cancelTimeout(final long sequence) {
+        final HashedWheelTimer.Timeout timeout = _timeouts.remove(sequence);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Timer shared by all attaches for listener timeouts and synchronous waits.
+     */
+    static HashedWheelTimer getTimeoutTimer() {
+        return s_timeoutTimer;
+    }
+
     protected Listener getListener(final long sequence) {
         return _waitForList.get(sequence);
     }
@@ -244,7 +280,31 @@ public abstract class AgentAttache {
     }
 
     public int getQueueSize() {
-        return _requests.size();
+        return _queueSize.get();
+    }
+
+    public int getMaxQueueSize() {
+        return _maxQueueSize.get();
+    }
+
+    /**
+     * @return number of sequential requests that had to wait for an earlier one before being sent.
+     */
+    public long getQueuedCount() {
+        return _queuedCount.get();
+    }
+
+    public long getAverageQueueWaitMillis() {
+        final long count = _queuedCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(_queueWaitNanos.get() / count);
+    }
+
+    long getQueueWaitNanos() {
+        return _queueWaitNanos.get();
+    }
+
+    public long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(_maxQueueWaitNanos.get());
     }
 
     public int getNonRecurringListenersSize() {
@@ -315,6 +375,7 @@ public abstract class AgentAttache {
             while (it.hasNext()) {
                 final Map.Entry<Long, Listener> entry = it.next();
                 it.remove();
+                cancelTimeout(entry.getKey());
                 final Listener monitor = entry.getValue();
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug(log(entry.getKey(), "Sending disconnect to " + monitor.getClass()));
@@ -326,7 +387,7 @@ public abstract class AgentAttache {
 
     public void cleanup(final Status state) {
         cancelAllCommands(state, true);
-        _requests.clear();
+        clearRequests();
     }
 
     @Override
@@ -353,39 +414,40 @@ public abstract class AgentAttache {
             s_logger.debug(log(seq, "Routed from " + req.getManagementServerId()));
         }
 
-        synchronized (this) {
-            try {
-                if (isClosed()) {
-                    throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
-                }
+        try {
+            if (isClosed()) {
+                throw new AgentUnavailableException("The link to the agent " + _name + " has been closed", _id);
+            }
+
+            if (!req.executeInSequence()) {
+                req.logD("Sending ", true);
+                send(req);
+                return;
+            }
 
-                if (req.executeInSequence() && _currentSequence != null) {
+            synchronized (_sequenceLock) {
+                if (_currentSequence != null) {
                     req.logD("Waiting for Seq " + _currentSequence + " Scheduling: ", true);
                     addRequest(req);
                     return;
                 }
 
-                // If we got to here either we're not suppose to set
-                // the _currentSequence or it is null already.
-
                 req.logD("Sending ", true);
                 send(req);
 
-                if (req.executeInSequence() && _currentSequence == null) {
-                    _currentSequence = seq;
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace(log(seq, " is current sequence"));
-                    }
+                _currentSequence = seq;
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace(log(seq, " is current sequence"));
                 }
-            } catch (AgentUnavailableException e) {
-                s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
-                cancel(seq);
-                throw e;
-            } catch (Exception e) {
-                s_logger.warn(log(seq, "Unable to send due to "), e);
-                cancel(seq);
-                throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
             }
+        } catch (AgentUnavailableException e) {
+            s_logger.info(log(seq, "Unable to send due to " + e.getMessage()));
+            cancel(seq);
+            throw e;
+        } catch (Exception e) {
+            s_logger.warn(log(seq, "Unable to send due to "), e);
+            cancel(seq);
+            throw new AgentUnavailableException("Problem due to other exception " + e.getMessage(), _id);
         }
     }
 
@@ -456,34 +518,47 @@ public abstract class AgentAttache {
         }
     }
 
-    protected synchronized void sendNext(final long seq) {
-        _currentSequence = null;
-        if (_requests.isEmpty()) {
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug(log(seq, "No more commands found"));
+    protected void sendNext(final long seq) {
+        synchronized (_sequenceLock) {
+            _currentSequence = null;
+            final Request req = pollRequest();
+            if (req == null) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug(log(seq, "No more commands found"));
+                }
+                return;
             }
-            return;
-        }
 
-        Request req = _requests.pop();
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
-        }
-        try {
-            send(req);
-        } catch (AgentUnavailableException e) {
             if (s_logger.isDebugEnabled()) {
-                s_logger.debug(log(req.getSequence(), "Unable to send the next sequence"));
+                s_logger.debug(log(req.getSequence(), "Sending now.  is current sequence."));
+            }
+            try {
+                send(req);
+            } catch (AgentUnavailableException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug(log(req.getSequence(), "Unable to send the next sequence"));
+                }
+                cancel(req.getSequence());
             }
-            cancel(req.getSequence());
+            _currentSequence = req.getSequence();
         }
-        _currentSequence = req.getSequence();
     }
 
     public void process(final Answer[] answers) {
         //do nothing
     }
 
+    /**
+     * Records the data formats and compressors the agent announced it reads.
+     */
+    public void setPeerCapabilities(final short peerCapabilities) {
+        _peerCapabilities = peerCapabilities;
+    }
+
+    public short getPeerCapabilities() {
+        return _peerCapabilities;
+    }
+
     /**
      * sends the request asynchronously.
      *
@@ -504,6 +579,16 @@ public abstract class AgentAttache {
      */
     protected abstract boolean isClosed();
 
+    protected static final class PendingRequest {
+        final Request request;
+        final long queuedAt;
+
+        PendingRequest(final Request request) {
+            this.request = request;
+            queuedAt = System.nanoTime();
+        }
+    }
+
     protected class Alarm extends ManagedContextRunnable {
         long _seq;
 
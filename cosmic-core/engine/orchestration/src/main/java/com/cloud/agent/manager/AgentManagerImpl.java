@@ -20,6 +20,7 @@ import com.cloud.agent.AgentManager;
 import com.cloud.agent.Listener;
 import com.cloud.agent.StartupCommandProcessor;
 import com.cloud.agent.api.*;
+import com.cloud.agent.transport.Compression;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
@@ -59,11 +60,13 @@ import com.cloud.utils.exception.NioConnectionException;
 import com.cloud.utils.exception.TaskExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
 import com.cloud.utils.nio.Task;
 import com.cloud.utils.time.InaccurateClock;
+import com.cloud.vm.VirtualMachinePowerStateSync;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
@@ -126,6 +129,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Inject
     protected HypervisorGuruManager _hvGuruMgr;
+    @Inject
+    protected VirtualMachinePowerStateSync _powerStateSync;
 
     protected int _retry = 2;
 
@@ -148,6 +153,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected final ConfigKey<Integer> Workers = new ConfigKey<>("Advanced", Integer.class, "workers", "5",
             "Number of worker threads handling remote agent connections.", false);
     protected final ConfigKey<Integer> Port = new ConfigKey<>("Advanced", Integer.class, "port", "8250", "Port to listen on for remote agent connections.", false);
+    protected final ConfigKey<Integer> Reactors = new ConfigKey<>("Advanced", Integer.class, "agent.reactors", "0",
+            "Number of selector threads serving remote agent connections. With 0 a single thread accepts, handshakes and serves all agents.", false);
+    protected final ConfigKey<Boolean> BinaryFormat = new ConfigKey<>("Advanced", Boolean.class, "agent.binary.format", "false",
+            "Exchange commands with agents that support it in a compact binary format instead of json. Enable only when all management servers support it.", false);
+    protected final ConfigKey<String> CompressionType = new ConfigKey<>("Advanced", String.class, "agent.compression", "lz4",
+            "Compression used for large messages to agents that support it, lz4 or gzip. Other agents always get gzip.", false);
+    protected final ConfigKey<Integer> CompressionThreshold = new ConfigKey<>("Advanced", Integer.class, "agent.compression.threshold", "8192",
+            "Size in bytes from which messages to agents get compressed.", false);
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<>("Advanced", Integer.class, "ping.interval", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
     protected final ConfigKey<Float> PingTimeout = new ConfigKey<>("Advanced", Float.class, "ping.timeout", "2.5",
@@ -189,8 +202,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         // allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        Request.setAcceptsBinary(BinaryFormat.value());
+        Compression.setPreferred(CompressionType.value());
+        Compression.setThreshold(CompressionThreshold.value());
+
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, Reactors.value(), this);
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + Reactors.value() + " reactors");
 
         // executes all agent commands other than cron and ping
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
@@ -281,6 +298,14 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    /**
+     * @return the answer to a ping that went through handleCommands(), asking for a full VM state report
+     * if a delta one could not be applied.
+     */
+    PingAnswer createPingAnswer(final PingCommand ping) {
+        return new PingAnswer(ping, ping instanceof PingRoutingCommand && _powerStateSync.isFullReportRequested(ping.getHostId()));
+    }
+
     public void notifyAnswersToMonitors(final long agentId, final long seq, final Answer[] answers) {
         for (final Pair<Integer, Listener> listener : _cmdMonitors) {
             listener.second().processAnswers(agentId, seq, answers);
@@ -576,6 +601,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), PingInterval.value(), PingInterval.value(), TimeUnit.SECONDS);
 
+        Compression.registerMBeans();
+        try {
+            JmxUtil.registerMBean("AgentManager", "Agent Queues", new AgentQueueStats(_agents.values()));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the agent queue statistics", e);
+        }
+
         return true;
     }
 
@@ -1236,7 +1268,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                                             "; can't find the host in the DB");
                                 }
                             }
-                            answer = new PingAnswer((PingCommand) cmd);
+                            answer = createPingAnswer((PingCommand) cmd);
                         } else if (cmd instanceof ReadyAnswer) {
                             final HostVO host = _hostDao.findById(attache.getId());
                             if (host == null) {
@@ -1289,6 +1321,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                     final byte[] data = task.getData();
                     try {
                         final Request event = Request.parse(data);
+                        final AgentAttache attache = (AgentAttache) task.getLink().attachment();
+                        if (attache != null) {
+                            attache.setPeerCapabilities(event.getPeerCapabilities());
+                        }
                         if (event instanceof Response) {
                             processResponse(task.getLink(), (Response) event);
                         } else {
@@ -1624,7 +1660,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[]{CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
+        return new ConfigKey<?>[]{CheckTxnBeforeSending, Workers, Port, Reactors, BinaryFormat, CompressionType, CompressionThreshold, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
                 DirectAgentThreadCap};
     }
 
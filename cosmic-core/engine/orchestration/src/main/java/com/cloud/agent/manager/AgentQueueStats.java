@@ -0,0 +1,92 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.StandardMBean;
+
+public class AgentQueueStats extends StandardMBean implements AgentQueueStatsMBean {
+    private final Collection<AgentAttache> _attaches;
+
+    public AgentQueueStats(final Collection<AgentAttache> attaches) {
+        super(AgentQueueStatsMBean.class, false);
+        _attaches = attaches;
+    }
+
+    @Override
+    public int getQueueSize() {
+        int size = 0;
+        for (final AgentAttache attache : _attaches) {
+            size += attache.getQueueSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxQueueSize() {
+        int max = 0;
+        for (final AgentAttache attache : _attaches) {
+            max = Math.max(max, attache.getMaxQueueSize());
+        }
+        return max;
+    }
+
+    @Override
+    public long getQueuedCount() {
+        long count = 0;
+        for (final AgentAttache attache : _attaches) {
+            count += attache.getQueuedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getAverageQueueWaitMillis() {
+        long count = 0;
+        long waitNanos = 0;
+        for (final AgentAttache attache : _attaches) {
+            count += attache.getQueuedCount();
+            waitNanos += attache.getQueueWaitNanos();
+        }
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / count);
+    }
+
+    @Override
+    public long getMaxQueueWaitMillis() {
+        long max = 0;
+        for (final AgentAttache attache : _attaches) {
+            max = Math.max(max, attache.getMaxQueueWaitMillis());
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueSizeByAgent() {
+        final Map<String, Integer> sizes = new HashMap<String, Integer>();
+        for (final AgentAttache attache : _attaches) {
+            final int size = attache.getQueueSize();
+            if (size > 0) {
+                sizes.put(attache.getName(), size);
+            }
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,48 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Map;
+
+/**
+ * Request queue statistics of the agents connected to this management server.
+ */
+public interface AgentQueueStatsMBean {
+    /**
+     * @return number of sequential requests waiting for an earlier one, over all agents.
+     */
+    public int getQueueSize();
+
+    /**
+     * @return largest queue any agent had.
+     */
+    public int getMaxQueueSize();
+
+    /**
+     * @return number of sequential requests that had to wait for an earlier one before being sent.
+     */
+    public long getQueuedCount();
+
+    public long getAverageQueueWaitMillis();
+
+    public long getMaxQueueWaitMillis();
+
+    /**
+     * @return the waiting requests of each agent that has any, by agent name.
+     */
+    public Map<String, Integer> getQueueSizeByAgent();
+}
@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 
 import javax.net.ssl.SSLEngine;
@@ -37,6 +38,20 @@ import org.slf4j.LoggerFactory;
 
 public class ClusteredAgentAttache extends ConnectedAgentAttache implements Routable {
     private final static Logger s_logger = LoggerFactory.getLogger(ClusteredAgentAttache.class);
+    private static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
+        @Override
+        public int compare(final Request o1, final Request o2) {
+            long seq1 = o1.getSequence();
+            long seq2 = o2.getSequence();
+            if (seq1 < seq2) {
+                return -1;
+            } else if (seq1 > seq2) {
+                return 1;
+            } else {
+                return 0;
+            }
+        }
+    };
     private static ClusteredAgentManagerImpl s_clusteredAgentMgr;
     protected ByteBuffer _buffer = ByteBuffer.allocate(2048);
     private boolean _forward = false;
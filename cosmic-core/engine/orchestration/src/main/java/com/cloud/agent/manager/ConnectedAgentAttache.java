@@ -41,6 +41,7 @@ public class ConnectedAgentAttache extends AgentAttache {
 
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
+        req.negotiate(_peerCapabilities);
         try {
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
@@ -64,7 +65,7 @@ public class ConnectedAgentAttache extends AgentAttache {
             _link = null;
         }
         cancelAllCommands(state, true);
-        _requests.clear();
+        clearRequests();
     }
 
     @Override
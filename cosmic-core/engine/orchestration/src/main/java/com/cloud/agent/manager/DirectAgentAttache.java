@@ -33,6 +33,7 @@ import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.resource.ServerResource;
+import com.cloud.resource.VmStateReportingResource;
 
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
@@ -191,6 +192,9 @@ public class DirectAgentAttache extends AgentAttache {
                     }
 
                     _agentMgr.handleCommands(DirectAgentAttache.this, seq, new Command[] {cmd});
+                    if (resource instanceof VmStateReportingResource) {
+                        ((VmStateReportingResource)resource).processPingAnswer(_agentMgr.createPingAnswer(cmd));
+                    }
                 } else {
                     s_logger.debug("Unable to send ping because agent is disconnected " + _id + "(" + _name + ")");
                 }
@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.agent.manager;
 
+import java.util.concurrent.TimeUnit;
+
 import com.cloud.agent.Listener;
 import com.cloud.agent.api.AgentControlAnswer;
 import com.cloud.agent.api.AgentControlCommand;
@@ -25,6 +27,7 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.host.Host;
 import com.cloud.host.Status;
 import com.cloud.utils.Profiler;
+import com.cloud.utils.concurrency.HashedWheelTimer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -108,11 +111,16 @@ public class SynchronousListener implements Listener {
 
         Profiler profiler = new Profiler();
         profiler.start();
-        if (s <= 0) {
-            wait();
-        } else {
-            int ms = s * 1000;
-            wait(ms);
+        final WaitTimeout waitTimeout = s <= 0 ? null : new WaitTimeout();
+        final HashedWheelTimer.Timeout timeout = waitTimeout == null ? null : AgentAttache.getTimeoutTimer().newTimeout(waitTimeout, s, TimeUnit.SECONDS);
+        try {
+            while (_answers == null && !_disconnected && (waitTimeout == null || !waitTimeout._expired)) {
+                wait();
+            }
+        } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
         }
         profiler.stop();
 
@@ -133,4 +141,20 @@ public class SynchronousListener implements Listener {
         return -1;
     }
 
+    /**
+     * Wakes up the waiter once its wait time has passed; one per waitFor call so
+     * a late firing can't cut a later wait short.
+     */
+    private class WaitTimeout implements Runnable {
+        boolean _expired;
+
+        @Override
+        public void run() {
+            synchronized (SynchronousListener.this) {
+                _expired = true;
+                SynchronousListener.this.notifyAll();
+            }
+        }
+    }
+
 }
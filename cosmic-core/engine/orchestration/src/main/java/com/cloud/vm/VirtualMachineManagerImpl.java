@@ -2660,7 +2660,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
             if (cmd instanceof PingRoutingCommand) {
                 final PingRoutingCommand ping = (PingRoutingCommand) cmd;
                 if (ping.getHostVmStateReport() != null) {
-                    _syncMgr.processHostVmStatePingReport(agentId, ping.getHostVmStateReport());
+                    _syncMgr.processHostVmStatePingReport(agentId, ping);
                 }
 
                 // take the chance to scan VMs that are stuck in transitional states
@@ -2679,6 +2679,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
     @Override
     public boolean processDisconnect(final long agentId, final Status state) {
+        _syncMgr.clearHostReports(agentId);
         return true;
     }
 
@@ -19,15 +19,32 @@ package com.cloud.vm;
 import java.util.Map;
 
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
 
 public interface VirtualMachinePowerStateSync {
 
     void resetHostSyncState(long hostId);
 
+    /**
+     * Forgets the VM state reports of a host that disconnected or was removed, its next report has to be a full one.
+     */
+    void clearHostReports(long hostId);
+
     void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
     // to adapt legacy ping report
     void processHostVmStatePingReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
+    /**
+     * Processes the VM state report of a ping, which may be a delta from the report of the previous generation.
+     */
+    void processHostVmStatePingReport(long hostId, PingRoutingCommand ping);
+
+    /**
+     * @return true if a delta report of the host could not be applied and the host should send a full report;
+     * the request is cleared by the call.
+     */
+    boolean isFullReportRequested(long hostId);
+
     Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states);
 }
@@ -16,16 +16,25 @@
 // under the License.
 package com.cloud.vm;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.management.StandardMBean;
 
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.dao.VMInstanceDao;
 
 import org.apache.cloudstack.framework.config.ConfigKey;
@@ -34,7 +43,7 @@ import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStateSync {
+public class VirtualMachinePowerStateSyncImpl extends StandardMBean implements VirtualMachinePowerStateSync, VirtualMachinePowerStateSyncMBean {
     private static final Logger s_logger = LoggerFactory.getLogger(VirtualMachinePowerStateSyncImpl.class);
 
     @Inject MessageBus _messageBus;
@@ -44,13 +53,45 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>(Integer.class, "ping.interval", "Advanced", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
 
+    private final AtomicLong _reports = new AtomicLong();
+    private final AtomicLong _reportedVms = new AtomicLong();
+    private final AtomicLong _unknownVms = new AtomicLong();
+    private final AtomicLong _updatedRows = new AtomicLong();
+    private final AtomicLong _maxUpdatedRows = new AtomicLong();
+    private final AtomicLong _deltaReports = new AtomicLong();
+    private final AtomicLong _fullReportRequests = new AtomicLong();
+
+    // Number of reports a changed power state is written in, the same state count of VMInstanceDaoImpl
+    private static final int SAME_STATE_REPORT_COUNT = 3;
+
+    // Last full VM state picture of the hosts that send delta reports
+    private final Map<Long, HostReportState> _hostReports = new ConcurrentHashMap<Long, HostReportState>();
+    private final Set<Long> _hostsToResync = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
     public VirtualMachinePowerStateSyncImpl() {
+        super(VirtualMachinePowerStateSyncMBean.class, false);
+    }
+
+    @PostConstruct
+    public void registerMBean() {
+        try {
+            JmxUtil.registerMBean("VirtualMachineManager", "Power State Sync", this);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register power state sync MBean", e);
+        }
     }
 
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
         _instanceDao.resetHostPowerStateTracking(hostId);
+        clearHostReports(hostId);
+    }
+
+    @Override
+    public void clearHostReports(long hostId) {
+        _hostReports.remove(hostId);
+        _hostsToResync.remove(hostId);
     }
 
     @Override
@@ -71,26 +112,87 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         processReport(hostId, translatedInfo);
     }
 
+    @Override
+    public void processHostVmStatePingReport(long hostId, PingRoutingCommand ping) {
+        if (ping.getReportGeneration() == 0) {
+            // The agent does not number its reports
+            processHostVmStatePingReport(hostId, ping.getHostVmStateReport());
+            return;
+        }
+
+        if (!ping.isDeltaReport()) {
+            if (s_logger.isDebugEnabled())
+                s_logger.debug("Process full VM state report of generation " + ping.getReportGeneration() + ". host: " + hostId);
+
+            final HostReportState state = new HostReportState(ping.getReportGeneration());
+            synchronized (state) {
+                _hostReports.put(hostId, state);
+                _hostsToResync.remove(hostId);
+                final Map<Long, VirtualMachine.PowerState> reported = state.addAll(ping.getHostVmStateReport());
+                processReport(hostId, state.nextUpdates(reported), state._powerStates);
+            }
+            return;
+        }
+
+        final HostReportState state = _hostReports.get(hostId);
+        if (state == null) {
+            requestFullReport(hostId, "no full report received yet");
+            return;
+        }
+        synchronized (state) {
+            if (ping.getReportGeneration() != state._generation + 1) {
+                requestFullReport(hostId, "expected generation " + (state._generation + 1) + " but got " + ping.getReportGeneration());
+                return;
+            }
+            _deltaReports.incrementAndGet();
+            if (s_logger.isDebugEnabled())
+                s_logger.debug("Process delta VM state report of generation " + ping.getReportGeneration() + ". host: " + hostId);
+
+            state._generation = ping.getReportGeneration();
+            if (ping.getRemovedVms() != null) {
+                for (final String vmName : ping.getRemovedVms()) {
+                    state.remove(vmName);
+                }
+            }
+            final Map<Long, VirtualMachine.PowerState> changed = state.addAll(ping.getHostVmStateReport());
+            processReport(hostId, state.nextUpdates(changed), state._powerStates);
+        }
+    }
+
+    @Override
+    public boolean isFullReportRequested(long hostId) {
+        return _hostsToResync.remove(hostId);
+    }
+
+    private void requestFullReport(final long hostId, final String reason) {
+        s_logger.info("Skip delta VM state report and request a full one from host " + hostId + ": " + reason);
+        _hostsToResync.add(hostId);
+        _fullReportRequests.incrementAndGet();
+    }
+
     private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+        processReport(hostId, translatedInfo, translatedInfo);
+    }
+
+    /**
+     * @param translatedInfo power states to write.
+     * @param reportedVms power states of all VMs on the host, used to detect the missing ones.
+     */
+    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo, Map<Long, VirtualMachine.PowerState> reportedVms) {
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
 
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
-
+        final List<Long> updatedVms = _instanceDao.updatePowerStates(hostId, translatedInfo);
+        for (final Long vmId : updatedVms) {
             if (s_logger.isDebugEnabled())
-                s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
+                s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + vmId + ", power state: " + translatedInfo.get(vmId));
 
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue())) {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
-            }
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, vmId);
         }
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("VM power state does not change, skip DB writing for " + (translatedInfo.size() - updatedVms.size()) + " VMs of host: " + hostId);
+        recordReport(translatedInfo.size(), updatedVms.size());
 
         // for all running/stopping VMs, we provide monitoring of missing report
         List<VMInstanceVO> vmsThatAreMissingReport = _instanceDao.findByHostInStates(hostId, VirtualMachine.State.Running,
@@ -98,7 +200,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         java.util.Iterator<VMInstanceVO> it = vmsThatAreMissingReport.iterator();
         while (it.hasNext()) {
             VMInstanceVO instance = it.next();
-            if (translatedInfo.get(instance.getId()) != null)
+            if (reportedVms.get(instance.getId()) != null)
                 it.remove();
         }
 
@@ -165,11 +267,17 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             return map;
         }
 
+        final Map<String, VMInstanceVO> vms = new HashMap<String, VMInstanceVO>();
+        for (VMInstanceVO vm : _instanceDao.listByInstanceNames(states.keySet())) {
+            vms.put(vm.getInstanceName(), vm);
+        }
+
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
+            VMInstanceVO vm = vms.get(entry.getKey());
             if (vm != null) {
                 map.put(vm.getId(), entry.getValue().getState());
             } else {
+                _unknownVms.incrementAndGet();
                 s_logger.info("Unable to find matched VM in CloudStack DB. name: " + entry.getKey());
             }
         }
@@ -177,7 +285,122 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         return map;
     }
 
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
+    /**
+     * Full VM state picture of a host, rebuilt from its delta reports.
+     */
+    private class HostReportState {
+        long _generation;
+        final Map<String, Long> _vmIds = new HashMap<String, Long>();
+        final Map<Long, VirtualMachine.PowerState> _powerStates = new HashMap<Long, VirtualMachine.PowerState>();
+        // VMs whose power state changed in one of the last reports, with the number of reports to write it in yet
+        final Map<Long, Integer> _pendingUpdates = new HashMap<Long, Integer>();
+
+        HostReportState(final long generation) {
+            _generation = generation;
+        }
+
+        Map<Long, VirtualMachine.PowerState> addAll(final Map<String, HostVmStateReportEntry> report) {
+            final Map<Long, VirtualMachine.PowerState> translated = new HashMap<Long, VirtualMachine.PowerState>();
+            if (report == null || report.isEmpty()) {
+                return translated;
+            }
+            for (VMInstanceVO vm : _instanceDao.listByInstanceNames(report.keySet())) {
+                final VirtualMachine.PowerState powerState = report.get(vm.getInstanceName()).getState();
+                _vmIds.put(vm.getInstanceName(), vm.getId());
+                _powerStates.put(vm.getId(), powerState);
+                translated.put(vm.getId(), powerState);
+            }
+            for (final String vmName : report.keySet()) {
+                if (!_vmIds.containsKey(vmName)) {
+                    _unknownVms.incrementAndGet();
+                    s_logger.info("Unable to find matched VM in CloudStack DB. name: " + vmName);
+                }
+            }
+            return translated;
+        }
+
+        void remove(final String vmName) {
+            final Long vmId = _vmIds.remove(vmName);
+            if (vmId != null) {
+                _powerStates.remove(vmId);
+                _pendingUpdates.remove(vmId);
+            }
+        }
+
+        /**
+         * A full report writes every VM until its same state count is up to date; keep doing that for
+         * the VMs that changed recently, so isPowerStateUpToDate() behaves as with full reports.
+         */
+        Map<Long, VirtualMachine.PowerState> nextUpdates(final Map<Long, VirtualMachine.PowerState> changed) {
+            final Map<Long, VirtualMachine.PowerState> updates = new HashMap<Long, VirtualMachine.PowerState>(changed);
+            final Iterator<Map.Entry<Long, Integer>> it = _pendingUpdates.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Long, Integer> entry = it.next();
+                if (changed.containsKey(entry.getKey())) {
+                    continue;
+                }
+                updates.put(entry.getKey(), _powerStates.get(entry.getKey()));
+                if (entry.getValue() <= 1) {
+                    it.remove();
+                } else {
+                    entry.setValue(entry.getValue() - 1);
+                }
+            }
+            for (final Long vmId : changed.keySet()) {
+                _pendingUpdates.put(vmId, SAME_STATE_REPORT_COUNT - 1);
+            }
+            return updates;
+        }
+    }
+
+    private void recordReport(final int vms, final int updatedRows) {
+        _reports.incrementAndGet();
+        _reportedVms.addAndGet(vms);
+        _updatedRows.addAndGet(updatedRows);
+        long max = _maxUpdatedRows.get();
+        while (updatedRows > max && !_maxUpdatedRows.compareAndSet(max, updatedRows)) {
+            max = _maxUpdatedRows.get();
+        }
+    }
+
+    @Override
+    public long getReportCount() {
+        return _reports.get();
+    }
+
+    @Override
+    public long getReportedVmCount() {
+        return _reportedVms.get();
+    }
+
+    @Override
+    public long getUnknownVmCount() {
+        return _unknownVms.get();
+    }
+
+    @Override
+    public long getUpdatedRowCount() {
+        return _updatedRows.get();
+    }
+
+    @Override
+    public double getAverageUpdatedRowsPerReport() {
+        final long reports = _reports.get();
+        return reports == 0 ? 0 : (double)_updatedRows.get() / reports;
+    }
+
+    @Override
+    public long getMaxUpdatedRowsPerReport() {
+        return _maxUpdatedRows.get();
+    }
+
+    @Override
+    public long getDeltaReportCount() {
+        return _deltaReports.get();
+    }
+
+    @Override
+    public long getFullReportRequestCount() {
+        return _fullReportRequests.get();
     }
 }
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+public interface VirtualMachinePowerStateSyncMBean {
+    public long getReportCount();
+
+    public long getReportedVmCount();
+
+    /**
+     * @return number of reported VMs whose instance name is not known.
+     */
+    public long getUnknownVmCount();
+
+    /**
+     * @return number of VM rows written, i.e. whose power state, power host or same state count changed.
+     */
+    public long getUpdatedRowCount();
+
+    public double getAverageUpdatedRowsPerReport();
+
+    public long getMaxUpdatedRowsPerReport();
+
+    /**
+     * @return number of ping reports that only held the VMs whose state changed.
+     */
+    public long getDeltaReportCount();
+
+    /**
+     * @return number of times a host was asked for a full report because a delta report did not follow the previous one.
+     */
+    public long getFullReportRequestCount();
+}
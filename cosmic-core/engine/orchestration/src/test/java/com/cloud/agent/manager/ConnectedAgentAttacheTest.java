@@ -16,13 +16,26 @@
 // under the License.
 package com.cloud.agent.manager;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.transport.Request;
 import com.cloud.utils.nio.Link;
 
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class ConnectedAgentAttacheTest {
 
@@ -79,4 +92,52 @@ public class ConnectedAgentAttacheTest {
 
         assertFalse(agentAttache1.equals("abc"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSequentialRequestsAreQueuedInOrder() throws Exception {
+        final Link link = mock(Link.class);
+        final List<Long> sent = new ArrayList<Long>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer[] data = (ByteBuffer[])invocation.getArguments()[0];
+                final byte[] header = new byte[data[0].remaining()];
+                data[0].duplicate().get(header);
+                sent.add(Request.getSequence(header));
+                return null;
+            }
+        }).when(link).send(any(ByteBuffer[].class));
+
+        final ConnectedAgentAttache attache = new ConnectedAgentAttache(null, 1, "host", link, false);
+        final Request first = newSequentialRequest(attache);
+        final Request second = newSequentialRequest(attache);
+        final Request third = newSequentialRequest(attache);
+        attache.send(first, null);
+        attache.send(third, null);
+        attache.send(second, null);
+
+        assertEquals(1, sent.size());
+        assertEquals(2, attache.getQueueSize());
+        assertEquals(2, attache.getMaxQueueSize());
+        final AgentQueueStats stats = new AgentQueueStats(Collections.<AgentAttache>singletonList(attache));
+        assertEquals(2, stats.getQueueSize());
+        assertEquals(Integer.valueOf(2), stats.getQueueSizeByAgent().get("host"));
+
+        attache.sendNext(first.getSequence());
+        assertEquals(second.getSequence(), (long)sent.get(1));
+
+        attache.cancel(third.getSequence());
+        assertEquals(0, attache.getQueueSize());
+        attache.sendNext(second.getSequence());
+        assertEquals(2, sent.size());
+        assertEquals(1, attache.getQueuedCount());
+        assertEquals(1, stats.getQueuedCount());
+        assertTrue(stats.getQueueSizeByAgent().isEmpty());
+    }
+
+    private static Request newSequentialRequest(final AgentAttache attache) {
+        final Request req = new Request(attache.getId(), 1, new Command[] {new ReadyCommand()}, true, true);
+        req.setSequence(attache.getNextSequence());
+        return req;
+    }
+}
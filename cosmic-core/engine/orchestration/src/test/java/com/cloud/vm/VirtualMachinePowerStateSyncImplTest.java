@@ -0,0 +1,191 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.dao.VMInstanceDao;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+public class VirtualMachinePowerStateSyncImplTest {
+    @Mock
+    MessageBus _messageBus;
+    @Mock
+    VMInstanceDao _instanceDao;
+    @Mock
+    VirtualMachineManager _vmMgr;
+    @InjectMocks
+    VirtualMachinePowerStateSyncImpl _sync = new VirtualMachinePowerStateSyncImpl();
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    private static VMInstanceVO vm(final long id, final String name) {
+        final VMInstanceVO vm = Mockito.mock(VMInstanceVO.class);
+        Mockito.when(vm.getId()).thenReturn(id);
+        Mockito.when(vm.getInstanceName()).thenReturn(name);
+        return vm;
+    }
+
+    @Test
+    public void reportIsReconciledInOneBatch() {
+        final Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        report.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        report.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host"));
+        report.put("i-2-3-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        final VMInstanceVO vm1 = vm(1, "i-2-1-VM");
+        final VMInstanceVO vm2 = vm(2, "i-2-2-VM");
+        Mockito.when(_instanceDao.listByInstanceNames(report.keySet())).thenReturn(Arrays.asList(vm1, vm2));
+
+        final Map<Long, PowerState> expected = new HashMap<Long, PowerState>();
+        expected.put(1L, PowerState.PowerOn);
+        expected.put(2L, PowerState.PowerOff);
+        Mockito.when(_instanceDao.updatePowerStates(42L, expected)).thenReturn(Arrays.asList(2L));
+
+        _sync.processHostVmStatePingReport(42L, report);
+
+        Mockito.verify(_instanceDao, Mockito.never()).findVMByInstanceName(Mockito.anyString());
+        Mockito.verify(_instanceDao, Mockito.never()).updatePowerState(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(PowerState.class));
+        Mockito.verify(_messageBus).publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, 2L);
+        Mockito.verify(_messageBus, Mockito.times(1)).publish(Mockito.anyString(), Mockito.anyString(), Mockito.any(PublishScope.class), Mockito.any());
+
+        assertEquals(1, _sync.getReportCount());
+        assertEquals(2, _sync.getReportedVmCount());
+        assertEquals(1, _sync.getUnknownVmCount());
+        assertEquals(1, _sync.getUpdatedRowCount());
+        assertEquals(1, _sync.getMaxUpdatedRowsPerReport());
+    }
+
+    private static PingRoutingCommand ping(final long generation, final Map<String, HostVmStateReportEntry> report, final List<String> removedVms) {
+        final PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 42, report);
+        ping.setReportGeneration(generation);
+        if (removedVms != null) {
+            ping.setDeltaReport(removedVms);
+        }
+        return ping;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<Long, PowerState>> captureUpdates(final int times) {
+        final ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(_instanceDao, Mockito.times(times)).updatePowerStates(Mockito.eq(42L), captor.capture());
+        final List<Map<Long, PowerState>> updates = new ArrayList<Map<Long, PowerState>>();
+        for (final Map map : captor.getAllValues()) {
+            updates.add(new HashMap<Long, PowerState>(map));
+        }
+        return updates;
+    }
+
+    @Test
+    public void deltaReportIsAppliedOnTopOfFullReport() {
+        final Map<String, HostVmStateReportEntry> full = new HashMap<String, HostVmStateReportEntry>();
+        full.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        full.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        final VMInstanceVO vm1 = vm(1, "i-2-1-VM");
+        final VMInstanceVO vm2 = vm(2, "i-2-2-VM");
+        Mockito.when(_instanceDao.listByInstanceNames(full.keySet())).thenReturn(Arrays.asList(vm1, vm2));
+        final Map<String, HostVmStateReportEntry> changed = new HashMap<String, HostVmStateReportEntry>();
+        changed.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host"));
+        Mockito.when(_instanceDao.listByInstanceNames(changed.keySet())).thenReturn(Arrays.asList(vm2));
+        Mockito.when(_instanceDao.findByHostInStates(Mockito.eq(42L), Mockito.<VirtualMachine.State>anyVararg())).thenReturn(new ArrayList<VMInstanceVO>(Arrays.asList(vm1)));
+
+        _sync.processHostVmStatePingReport(42L, ping(1, full, null));
+        _sync.processHostVmStatePingReport(42L, ping(2, changed, Collections.<String>emptyList()));
+        _sync.processHostVmStatePingReport(42L, ping(3, new HashMap<String, HostVmStateReportEntry>(), Collections.<String>emptyList()));
+        _sync.processHostVmStatePingReport(42L, ping(4, new HashMap<String, HostVmStateReportEntry>(), Collections.<String>emptyList()));
+        _sync.processHostVmStatePingReport(42L, ping(5, new HashMap<String, HostVmStateReportEntry>(), Arrays.asList("i-2-2-VM")));
+
+        final List<Map<Long, PowerState>> updates = captureUpdates(5);
+        assertEquals(2, updates.get(0).size());
+        // The changed VM is written until its same state count is up to date, the unchanged one only as long as after the full report
+        assertEquals(2, updates.get(1).size());
+        assertEquals(PowerState.PowerOff, updates.get(1).get(2L));
+        assertEquals(2, updates.get(2).size());
+        assertEquals(Collections.singletonMap(2L, PowerState.PowerOff), updates.get(3));
+        assertTrue(updates.get(4).isEmpty());
+
+        // VM 1 is still reported through the full report, so never considered missing
+        Mockito.verify(_instanceDao, Mockito.never()).isPowerStateUpToDate(Mockito.anyLong());
+        assertEquals(4, _sync.getDeltaReportCount());
+        assertFalse(_sync.isFullReportRequested(42L));
+    }
+
+    @Test
+    public void generationGapRequestsFullReport() {
+        final Map<String, HostVmStateReportEntry> full = new HashMap<String, HostVmStateReportEntry>();
+        full.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        final VMInstanceVO vm1 = vm(1, "i-2-1-VM");
+        Mockito.when(_instanceDao.listByInstanceNames(full.keySet())).thenReturn(Arrays.asList(vm1));
+
+        // A delta without a preceding full report can not be applied
+        _sync.processHostVmStatePingReport(42L, ping(7, full, Collections.<String>emptyList()));
+        assertTrue(_sync.isFullReportRequested(42L));
+        assertFalse(_sync.isFullReportRequested(42L));
+
+        _sync.processHostVmStatePingReport(42L, ping(8, full, null));
+        _sync.processHostVmStatePingReport(42L, ping(10, full, Collections.<String>emptyList()));
+        assertTrue(_sync.isFullReportRequested(42L));
+
+        _sync.processHostVmStatePingReport(42L, ping(11, full, null));
+        assertFalse(_sync.isFullReportRequested(42L));
+        captureUpdates(2);
+        assertEquals(2, _sync.getFullReportRequestCount());
+        assertEquals(0, _sync.getDeltaReportCount());
+    }
+
+    @Test
+    public void clearedHostNeedsFullReportAgain() {
+        final Map<String, HostVmStateReportEntry> full = new HashMap<String, HostVmStateReportEntry>();
+        full.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        final VMInstanceVO vm1 = vm(1, "i-2-1-VM");
+        Mockito.when(_instanceDao.listByInstanceNames(full.keySet())).thenReturn(Arrays.asList(vm1));
+
+        _sync.processHostVmStatePingReport(42L, ping(1, full, null));
+        _sync.processHostVmStatePingReport(42L, ping(3, full, Collections.<String>emptyList()));
+        _sync.clearHostReports(42L);
+        // The pending request is dropped with the host, the next delta can not be applied on the old report
+        assertFalse(_sync.isFullReportRequested(42L));
+
+        _sync.processHostVmStatePingReport(42L, ping(4, full, Collections.<String>emptyList()));
+        assertTrue(_sync.isFullReportRequested(42L));
+        captureUpdates(1);
+    }
+}
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.gpu.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.gpu.HostGpuGroupsVO;
@@ -44,6 +45,13 @@ public interface HostGpuGroupsDao extends GenericDao<HostGpuGroupsVO, Long> {
      */
     List<HostGpuGroupsVO> listByHostId(long hostId);
 
+    /**
+     * Return a list by hostIds.
+     * @param hostIds the hosts
+     * @return HostGpuGroupsVO of all the hosts
+     */
+    List<HostGpuGroupsVO> listByHostIds(Collection<Long> hostIds);
+
     /**
      * Delete entries by hostId.
      * @param hostId the host
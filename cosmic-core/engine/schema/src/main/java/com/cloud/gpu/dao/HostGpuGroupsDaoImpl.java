@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.gpu.dao;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import com.cloud.gpu.HostGpuGroupsVO;
@@ -34,6 +36,7 @@ public class HostGpuGroupsDaoImpl extends GenericDaoBase<HostGpuGroupsVO, Long>
 
     private final SearchBuilder<HostGpuGroupsVO> _hostIdGroupNameSearch;
     private final SearchBuilder<HostGpuGroupsVO> _searchByHostId;
+    private final SearchBuilder<HostGpuGroupsVO> _searchByHostIds;
     private final GenericSearchBuilder<HostGpuGroupsVO, Long> _searchHostIds;
 
     public HostGpuGroupsDaoImpl() {
@@ -47,6 +50,10 @@ public class HostGpuGroupsDaoImpl extends GenericDaoBase<HostGpuGroupsVO, Long>
         _searchByHostId.and("hostId", _searchByHostId.entity().getHostId(), SearchCriteria.Op.EQ);
         _searchByHostId.done();
 
+        _searchByHostIds = createSearchBuilder();
+        _searchByHostIds.and("hostIds", _searchByHostIds.entity().getHostId(), SearchCriteria.Op.IN);
+        _searchByHostIds.done();
+
         _searchHostIds = createSearchBuilder(Long.class);
         _searchHostIds.selectFields(_searchHostIds.entity().getHostId());
         _searchHostIds.done();
@@ -73,6 +80,16 @@ public class HostGpuGroupsDaoImpl extends GenericDaoBase<HostGpuGroupsVO, Long>
         return listBy(sc);
     }
 
+    @Override
+    public List<HostGpuGroupsVO> listByHostIds(Collection<Long> hostIds) {
+        if (hostIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SearchCriteria<HostGpuGroupsVO> sc = _searchByHostIds.create();
+        sc.setParameters("hostIds", hostIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public void persist(long hostId, List<String> gpuGroups) {
         for (String groupName : gpuGroups) {
@@ -16,6 +16,7 @@
 //under the License.
 package com.cloud.gpu.dao;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -41,6 +42,13 @@ public interface VGPUTypesDao extends GenericDao<VGPUTypesVO, Long> {
      */
     List<VGPUTypesVO> listByGroupId(long groupId);
 
+    /**
+     * Find VGPU types by group Ids
+     * @param groupIds of the GPU groups
+     * @return list of VGPUTypesVO of all the groups
+     */
+    List<VGPUTypesVO> listByGroupIds(Collection<Long> groupIds);
+
     /**
      * Find VGPU type by group Id and VGPU type
      * @param groupId of the GPU group
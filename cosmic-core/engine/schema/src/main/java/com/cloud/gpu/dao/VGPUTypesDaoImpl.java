@@ -20,6 +20,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -45,6 +47,7 @@ public class VGPUTypesDaoImpl extends GenericDaoBase<VGPUTypesVO, Long> implemen
     private static final Logger s_logger = LoggerFactory.getLogger(VGPUTypesDaoImpl.class);
 
     private final SearchBuilder<VGPUTypesVO> _searchByGroupId;
+    private final SearchBuilder<VGPUTypesVO> _searchByGroupIds;
     private final SearchBuilder<VGPUTypesVO> _searchByGroupIdVGPUType;
 
     @Inject protected HostGpuGroupsDao _hostGpuGroupsDao;
@@ -60,6 +63,10 @@ public class VGPUTypesDaoImpl extends GenericDaoBase<VGPUTypesVO, Long> implemen
         _searchByGroupId.and("groupId", _searchByGroupId.entity().getGpuGroupId(), SearchCriteria.Op.EQ);
         _searchByGroupId.done();
 
+        _searchByGroupIds = createSearchBuilder();
+        _searchByGroupIds.and("groupIds", _searchByGroupIds.entity().getGpuGroupId(), SearchCriteria.Op.IN);
+        _searchByGroupIds.done();
+
         _searchByGroupIdVGPUType = createSearchBuilder();
         _searchByGroupIdVGPUType.and("groupId", _searchByGroupIdVGPUType.entity().getGpuGroupId(), SearchCriteria.Op.EQ);
         _searchByGroupIdVGPUType.and("vgpuType", _searchByGroupIdVGPUType.entity().getVgpuType(), SearchCriteria.Op.EQ);
@@ -114,6 +121,16 @@ public class VGPUTypesDaoImpl extends GenericDaoBase<VGPUTypesVO, Long> implemen
         return listBy(sc);
     }
 
+    @Override
+    public List<VGPUTypesVO> listByGroupIds(Collection<Long> groupIds) {
+        if (groupIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SearchCriteria<VGPUTypesVO> sc = _searchByGroupIds.create();
+        sc.setParameters("groupIds", groupIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public VGPUTypesVO findByGroupIdVGPUType(long groupId, String vgpuType) {
         SearchCriteria<VGPUTypesVO> sc = _searchByGroupIdVGPUType.create();
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.storage.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.storage.DiskOfferingVO;
@@ -28,6 +29,11 @@ public interface DiskOfferingDao extends GenericDao<DiskOfferingVO, Long> {
 
     List<DiskOfferingVO> findPublicDiskOfferings();
 
+    /**
+     * @return the disk offerings, removed or not, among the given ids; service offerings are not included.
+     */
+    List<DiskOfferingVO> listByIdsIncludingRemoved(Collection<Long> ids);
+
     DiskOfferingVO findByUniqueName(String uniqueName);
 
     DiskOfferingVO persistDeafultDiskOffering(DiskOfferingVO offering);
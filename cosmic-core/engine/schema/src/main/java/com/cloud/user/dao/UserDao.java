@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.user.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.user.UserVO;
@@ -31,6 +32,8 @@ public interface UserDao extends GenericDao<UserVO, Long> {
 
     UserVO getUser(long userId);
 
+    List<UserVO> listByIds(Collection<Long> userIds);
+
     List<UserVO> findUsersLike(String username);
 
     List<UserVO> listByAccount(long accountId);
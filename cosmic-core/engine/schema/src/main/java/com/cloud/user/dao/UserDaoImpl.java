@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.user.dao;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import com.cloud.user.UserVO;
@@ -33,6 +35,7 @@ public class UserDaoImpl extends GenericDaoBase<UserVO, Long> implements UserDao
     protected SearchBuilder<UserVO> UsernameSearch;
     protected SearchBuilder<UserVO> UsernameLikeSearch;
     protected SearchBuilder<UserVO> UserIdSearch;
+    protected SearchBuilder<UserVO> UserIdsSearch;
     protected SearchBuilder<UserVO> AccountIdSearch;
     protected SearchBuilder<UserVO> SecretKeySearch;
     protected SearchBuilder<UserVO> RegistrationTokenSearch;
@@ -59,6 +62,10 @@ public class UserDaoImpl extends GenericDaoBase<UserVO, Long> implements UserDao
         UserIdSearch.and("id", UserIdSearch.entity().getId(), SearchCriteria.Op.EQ);
         UserIdSearch.done();
 
+        UserIdsSearch = createSearchBuilder();
+        UserIdsSearch.and("ids", UserIdsSearch.entity().getId(), SearchCriteria.Op.IN);
+        UserIdsSearch.done();
+
         SecretKeySearch = createSearchBuilder();
         SecretKeySearch.and("secretKey", SecretKeySearch.entity().getSecretKey(), SearchCriteria.Op.EQ);
         SecretKeySearch.done();
@@ -97,6 +104,16 @@ public class UserDaoImpl extends GenericDaoBase<UserVO, Long> implements UserDao
         return findOneBy(sc);
     }
 
+    @Override
+    public List<UserVO> listByIds(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SearchCriteria<UserVO> sc = UserIdsSearch.create();
+        sc.setParameters("ids", userIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public List<UserVO> findUsersLike(String username) {
         SearchCriteria<UserVO> sc = UsernameLikeSearch.create();
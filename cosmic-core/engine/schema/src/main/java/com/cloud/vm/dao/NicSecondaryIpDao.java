@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.utils.db.GenericDao;
@@ -44,6 +45,8 @@ public interface NicSecondaryIpDao extends GenericDao<NicSecondaryIpVO, Long> {
 
     List<NicSecondaryIpVO> listByNicId(long nicId);
 
+    List<NicSecondaryIpVO> listByNicIds(Collection<Long> nicIds);
+
     List<NicSecondaryIpVO> listByNicIdAndVmid(long nicId, long vmId);
 
     NicSecondaryIpVO findByIp4AddressAndNicId(String ip4Address, long nicId);
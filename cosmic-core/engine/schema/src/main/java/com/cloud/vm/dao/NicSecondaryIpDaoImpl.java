@@ -17,6 +17,8 @@
 package com.cloud.vm.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import com.cloud.utils.db.GenericDaoBase;
@@ -31,6 +33,7 @@ import org.springframework.stereotype.Component;
 @Component
 public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long> implements NicSecondaryIpDao {
     private final SearchBuilder<NicSecondaryIpVO> AllFieldsSearch;
+    private final SearchBuilder<NicSecondaryIpVO> NicIdsSearch;
     private final GenericSearchBuilder<NicSecondaryIpVO, String> IpSearch;
     protected GenericSearchBuilder<NicSecondaryIpVO, Long> CountByNicId;
 
@@ -43,6 +46,10 @@ public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long
         AllFieldsSearch.and("nicId", AllFieldsSearch.entity().getNicId(), Op.EQ);
         AllFieldsSearch.done();
 
+        NicIdsSearch = createSearchBuilder();
+        NicIdsSearch.and("nicIds", NicIdsSearch.entity().getNicId(), Op.IN);
+        NicIdsSearch.done();
+
         IpSearch = createSearchBuilder(String.class);
         IpSearch.select(null, Func.DISTINCT, IpSearch.entity().getIp4Address());
         IpSearch.and("network", IpSearch.entity().getNetworkId(), Op.EQ);
@@ -69,6 +76,16 @@ public class NicSecondaryIpDaoImpl extends GenericDaoBase<NicSecondaryIpVO, Long
         return listBy(sc);
     }
 
+    @Override
+    public List<NicSecondaryIpVO> listByNicIds(Collection<Long> nicIds) {
+        if (nicIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SearchCriteria<NicSecondaryIpVO> sc = NicIdsSearch.create();
+        sc.setParameters("nicIds", nicIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public List<String> listSecondaryIpAddressInNetwork(long networkId) {
         SearchCriteria<String> sc = IpSearch.create();
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -78,6 +79,8 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     VMInstanceVO findVMByInstanceName(String name);
 
+    List<VMInstanceVO> listByInstanceNames(Collection<String> names);
+
     VMInstanceVO findVMByHostName(String hostName);
 
     void updateProxyId(long id, Long proxyId, Date time);
@@ -131,6 +134,14 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState);
 
+    /**
+     * Same as updatePowerState() for all the VMs of a host report at once: the VMs are read with one query
+     * and only the ones whose power state tracking changes are written, in one batch.
+     *
+     * @return ids of the VMs that were updated.
+     */
+    List<Long> updatePowerStates(long powerHostId, Map<Long, VirtualMachine.PowerState> powerStates);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
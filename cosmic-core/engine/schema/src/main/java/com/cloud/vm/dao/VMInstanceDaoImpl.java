@@ -20,8 +20,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -83,6 +86,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostIdUpTypesSearch;
     protected SearchBuilder<VMInstanceVO> HostUpSearch;
     protected SearchBuilder<VMInstanceVO> InstanceNameSearch;
+    protected SearchBuilder<VMInstanceVO> InstanceNamesSearch;
+    protected SearchBuilder<VMInstanceVO> IdsSearch;
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostNameAndZoneSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
@@ -215,6 +220,14 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         InstanceNameSearch.and("instanceName", InstanceNameSearch.entity().getInstanceName(), Op.EQ);
         InstanceNameSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
+        IdsSearch = createSearchBuilder();
+        IdsSearch.and("ids", IdsSearch.entity().getId(), Op.IN);
+        IdsSearch.done();
+
         HostNameSearch = createSearchBuilder();
         HostNameSearch.and("hostName", HostNameSearch.entity().getHostName(), Op.EQ);
         HostNameSearch.done();
@@ -413,6 +426,16 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return findOneBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> names) {
+        if (names.isEmpty()) {
+            return new ArrayList<VMInstanceVO>();
+        }
+        SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+        sc.setParameters("instanceNames", names.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public VMInstanceVO findVMByHostName(String hostName) {
         SearchCriteria<VMInstanceVO> sc = HostNameSearch.create();
@@ -776,33 +799,64 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return Transaction.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(TransactionStatus status) {
-                boolean needToUpdate = false;
                 VMInstanceVO instance = findById(instanceId);
-                if (instance != null) {
-                    Long savedPowerHostId = instance.getPowerHostId();
-                    if (instance.getPowerState() != powerState || savedPowerHostId == null
-                            || savedPowerHostId.longValue() != powerHostId) {
-                        instance.setPowerState(powerState);
-                        instance.setPowerHostId(powerHostId);
-                        instance.setPowerStateUpdateCount(1);
-                        instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
-                        needToUpdate = true;
-                        update(instanceId, instance);
-                    } else {
-                        // to reduce DB updates, consecutive same state update for more than 3 times
-                        if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
-                            instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
-                            instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
-                            needToUpdate = true;
-                            update(instanceId, instance);
-                        }
+                if (instance != null && applyPowerState(instance, powerHostId, powerState, DateUtil.currentGMTTime())) {
+                    update(instanceId, instance);
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public List<Long> updatePowerStates(final long powerHostId, final Map<Long, VirtualMachine.PowerState> powerStates) {
+        if (powerStates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Transaction.execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                SearchCriteria<VMInstanceVO> sc = IdsSearch.create();
+                sc.setParameters("ids", powerStates.keySet().toArray());
+
+                Date now = DateUtil.currentGMTTime();
+                Map<Long, VMInstanceVO> updates = new LinkedHashMap<Long, VMInstanceVO>();
+                for (VMInstanceVO instance : listBy(sc)) {
+                    if (applyPowerState(instance, powerHostId, powerStates.get(instance.getId()), now)) {
+                        updates.put(instance.getId(), instance);
                     }
                 }
-                return needToUpdate;
+                if (!updates.isEmpty()) {
+                    updateBatch(updates);
+                }
+                return new ArrayList<Long>(updates.keySet());
             }
         });
     }
 
+    /**
+     * @return true if the power state tracking of the instance changed and needs to be written.
+     */
+    private boolean applyPowerState(VMInstanceVO instance, long powerHostId, VirtualMachine.PowerState powerState, Date now) {
+        Long savedPowerHostId = instance.getPowerHostId();
+        if (instance.getPowerState() != powerState || savedPowerHostId == null
+                || savedPowerHostId.longValue() != powerHostId) {
+            instance.setPowerState(powerState);
+            instance.setPowerHostId(powerHostId);
+            instance.setPowerStateUpdateCount(1);
+            instance.setPowerStateUpdateTime(now);
+            return true;
+        }
+        // to reduce DB updates, consecutive same state update for more than 3 times
+        if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+            instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
+            instance.setPowerStateUpdateTime(now);
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public boolean isPowerStateUpToDate(final long instanceId) {
         VMInstanceVO instance = findById(instanceId);
@@ -16,6 +16,7 @@
 // under the License.
 package org.apache.cloudstack.resourcedetail;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +33,14 @@ public interface ResourceDetailsDao<R extends ResourceDetail> extends GenericDao
      */
     public R findDetail(long resourceId, String name);
 
+    /**
+     * Finds the detail with the given key of each of the resources
+     * @param resourceIds
+     * @param name
+     * @return the details found, at most one per resource
+     */
+    public List<R> findDetails(Collection<Long> resourceIds, String name);
+
     /**
      * Find details by key,value pair
      * @param key
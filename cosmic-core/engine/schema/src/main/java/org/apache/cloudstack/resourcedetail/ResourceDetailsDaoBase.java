@@ -16,6 +16,8 @@
 // under the License.
 package org.apache.cloudstack.resourcedetail;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +31,7 @@ import org.apache.cloudstack.api.ResourceDetail;
 
 public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends GenericDaoBase<R, Long> {
     private SearchBuilder<R> AllFieldsSearch;
+    private SearchBuilder<R> ResourceIdsNameSearch;
 
     public ResourceDetailsDaoBase() {
         AllFieldsSearch = createSearchBuilder();
@@ -40,6 +43,11 @@ public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends G
             AllFieldsSearch.and("display", AllFieldsSearch.entity().isDisplay(), SearchCriteria.Op.EQ);
         }
         AllFieldsSearch.done();
+
+        ResourceIdsNameSearch = createSearchBuilder();
+        ResourceIdsNameSearch.and("resourceIds", ResourceIdsNameSearch.entity().getResourceId(), SearchCriteria.Op.IN);
+        ResourceIdsNameSearch.and("name", ResourceIdsNameSearch.entity().getName(), SearchCriteria.Op.EQ);
+        ResourceIdsNameSearch.done();
     }
 
     public R findDetail(long resourceId, String name) {
@@ -50,6 +58,17 @@ public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends G
         return findOneBy(sc);
     }
 
+    public List<R> findDetails(Collection<Long> resourceIds, String name) {
+        if (resourceIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SearchCriteria<R> sc = ResourceIdsNameSearch.create();
+        sc.setParameters("resourceIds", resourceIds.toArray());
+        sc.setParameters("name", name);
+
+        return search(sc, null);
+    }
+
     public List<R> findDetails(String name, String value, Boolean display) {
         SearchCriteria<R> sc = AllFieldsSearch.create();
 
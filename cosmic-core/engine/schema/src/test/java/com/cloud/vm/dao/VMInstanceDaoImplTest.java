@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.host.dao.HostDaoImpl;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VMInstanceDaoImplTest {
+    private static final long HOST_ID = 10L;
+
+    @Mock
+    Connection conn;
+    @Mock
+    PreparedStatement pstmt;
+    @Mock
+    ResultSet resultSet;
+    @Mock
+    ResultSetMetaData metaData;
+
+    VMInstanceDaoImpl dao;
+
+    @Before
+    public void setup() throws SQLException {
+        final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
+        Whitebox.setInternalState(txn, "_conn", conn);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(pstmt.executeQuery()).thenReturn(resultSet);
+        Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+
+        Mockito.when(metaData.getColumnCount()).thenReturn(4);
+        final String[] columns = {"id", "power_state", "power_host", "power_state_update_count"};
+        for (int i = 0; i < columns.length; i++) {
+            Mockito.when(metaData.getTableName(i + 1)).thenReturn("vm_instance");
+            Mockito.when(metaData.getColumnName(i + 1)).thenReturn(columns[i]);
+            Mockito.when(metaData.getColumnLabel(i + 1)).thenReturn(columns[i]);
+        }
+
+        dao = new VMInstanceDaoImpl();
+        dao._hostDao = new HostDaoImpl();
+        dao._nicDao = new NicDaoImpl();
+        dao.init();
+    }
+
+    @After
+    public void after() {
+        TransactionLegacy.currentTxn().close();
+    }
+
+    /**
+     * Makes the select of the instances return one row per id with the given
+     * power state, power host and update count.
+     */
+    private void returnRows(final long[] ids, final String[] states, final long[] hosts, final int[] counts) throws SQLException {
+        final Boolean[] next = new Boolean[ids.length];
+        final Long[] idValues = new Long[ids.length * 2];
+        Arrays.fill(next, Boolean.TRUE);
+        next[ids.length - 1] = Boolean.FALSE;
+        for (int i = 0; i < ids.length; i++) {
+            // id and power_host are both read with getLong, in column order
+            idValues[i * 2] = ids[i];
+            idValues[i * 2 + 1] = hosts[i];
+        }
+        Mockito.when(resultSet.next()).thenReturn(true, next);
+        Mockito.when(resultSet.getLong(Mockito.anyInt())).thenReturn(idValues[0], Arrays.copyOfRange(idValues, 1, idValues.length));
+        Mockito.when(resultSet.getString(2)).thenReturn(states[0], Arrays.copyOfRange(states, 1, states.length));
+        final Integer[] countValues = new Integer[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            countValues[i] = counts[i];
+        }
+        Mockito.when(resultSet.getInt(4)).thenReturn(countValues[0], Arrays.copyOfRange(countValues, 1, countValues.length));
+    }
+
+    @Test
+    public void updatePowerStatesWritesOnlyChangedInstances() throws SQLException {
+        returnRows(new long[] {1, 2, 3, 4}, new String[] {"PowerOn", "PowerOff", "PowerOn", "PowerOn"}, new long[] {HOST_ID, HOST_ID, 11, HOST_ID},
+                new int[] {3, 3, 1, 1});
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1});
+
+        final Map<Long, PowerState> powerStates = new LinkedHashMap<Long, PowerState>();
+        for (long id = 1; id <= 4; id++) {
+            powerStates.put(id, PowerState.PowerOn);
+        }
+
+        // 1 was reported often enough, 2 changed state, 3 moved and 4 counts another report
+        Assert.assertEquals(Arrays.asList(2L, 3L, 4L), dao.updatePowerStates(HOST_ID, powerStates));
+        Mockito.verify(pstmt).executeQuery();
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        // the ids are bound once by the select and once more by the update of the changed rows
+        Mockito.verify(pstmt).setObject(Mockito.anyInt(), Mockito.eq(1L));
+        Mockito.verify(pstmt, Mockito.times(2)).setObject(Mockito.anyInt(), Mockito.eq(2L));
+        Mockito.verify(conn, Mockito.atLeastOnce()).commit();
+    }
+
+    @Test
+    public void updatePowerStatesWithoutChangesWritesNothing() throws SQLException {
+        returnRows(new long[] {1}, new String[] {"PowerOff"}, new long[] {HOST_ID}, new int[] {3});
+
+        Assert.assertTrue(dao.updatePowerStates(HOST_ID, Collections.singletonMap(1L, PowerState.PowerOff)).isEmpty());
+        Mockito.verify(pstmt, Mockito.never()).addBatch();
+    }
+
+    @Test
+    public void updatePowerStatesWithoutReportsSkipsTheQuery() throws SQLException {
+        Assert.assertTrue(dao.updatePowerStates(HOST_ID, Collections.<Long, PowerState>emptyMap()).isEmpty());
+        Mockito.verify(conn, Mockito.never()).prepareStatement(Mockito.anyString());
+    }
+}
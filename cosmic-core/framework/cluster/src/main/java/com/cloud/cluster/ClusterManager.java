@@ -52,6 +52,15 @@ public interface ClusterManager extends Manager {
 
     void registerDispatcher(Dispatcher dispatcher);
 
+    /**
+     * Sends a message to every other management server that is up, without
+     * waiting for it to arrive.  Delivery is best effort, a peer that is
+     * partitioned or restarting misses the message.
+     */
+    void notifyPeers(String subject, String message);
+
+    void registerNotificationHandler(String subject, NotificationHandler handler);
+
     ManagementServerHost getPeer(String peerName);
 
     String getSelfPeerName();
@@ -67,4 +76,8 @@ public interface ClusterManager extends Manager {
 
         String dispatch(ClusterServicePdu pdu);
     }
+
+    public interface NotificationHandler {
+        void onNotification(String sourcePeer, String message);
+    }
 }
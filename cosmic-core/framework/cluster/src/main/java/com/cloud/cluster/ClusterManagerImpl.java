@@ -26,16 +26,24 @@ import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
 import java.sql.SQLRecoverableException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -50,6 +58,7 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.EntityCaches;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
@@ -72,10 +81,16 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private static final Logger s_logger = LoggerFactory.getLogger(ClusterManagerImpl.class);
 
     private static final int EXECUTOR_SHUTDOWN_TIMEOUT = 1000; // 1 second
-    private static final int DEFAULT_OUTGOING_WORKERS = 5;
+    // Matches the connections the servlet transport keeps open to each peer
+    private static final int PEER_LANE_SENDERS = 4;
+    private static final int MAX_BATCH_PDUS = 64;
+    private static final int MAX_BATCH_CHARS = 256 * 1024;
 
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
-    private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
+    // Updated by the heartbeat thread, read when sending notifications and cache invalidations
+    private final Map<Long, ManagementServerHostVO> _activePeers = new ConcurrentHashMap<Long, ManagementServerHostVO>();
+    private final Queue<String> _cacheInvalidations = new ConcurrentLinkedQueue<String>();
+    private final AtomicBoolean _cacheInvalidationsFlushing = new AtomicBoolean();
 
     private final Map<String, ClusterService> _clusterPeers;
 
@@ -100,6 +115,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, NotificationHandler> _notificationHandlers = new ConcurrentHashMap<String, NotificationHandler>();
 
     //
     // pay attention to _mshostId and _msid
@@ -114,8 +130,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
-    private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
+    private final Map<String, ClusterPduLane> _clusterPduLanes = new ConcurrentHashMap<String, ClusterPduLane>();
+    private final BlockingQueue<ClusterServicePdu> _clusterPduIncomingQueue = new LinkedBlockingQueue<ClusterServicePdu>();
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
 
     public ClusterManagerImpl() {
@@ -139,6 +155,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _dispatcher = dispatcher;
     }
 
+    @Override
+    public void registerNotificationHandler(final String subject, final NotificationHandler handler) {
+        _notificationHandlers.put(subject, handler);
+    }
+
     private ClusterServiceRequestPdu popRequestPdu(final long ackSequenceId) {
         synchronized (_outgoingPdusWaitingForAck) {
             if (_outgoingPdusWaitingForAck.get(ackSequenceId) != null) {
@@ -174,56 +195,74 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
+        final ClusterPduLane lane = getClusterPduLane(pdu.getDestPeer());
+        if (lane.offer(pdu)) {
+            try {
+                _executor.execute(getClusterPduSendingTask(lane));
+            } catch (final RejectedExecutionException e) {
+                lane.cancelSender();
+                throw e;
+            }
         }
     }
 
-    private ClusterServicePdu popOutgoingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
+    private ClusterPduLane getClusterPduLane(final String strPeer) {
+        ClusterPduLane lane = _clusterPduLanes.get(strPeer);
+        if (lane == null) {
+            final ClusterPduLane newLane = new ClusterPduLane(strPeer, PEER_LANE_SENDERS);
+            lane = _clusterPduLanes.putIfAbsent(strPeer, newLane);
+            if (lane == null) {
+                lane = newLane;
+                try {
+                    JmxUtil.registerMBean("ClusterManager", "Peer " + strPeer, lane);
+                } catch (final Exception e) {
+                    s_logger.warn("Unable to register cluster PDU lane MBean for peer " + strPeer, e);
+                }
             }
+        }
+        return lane;
+    }
 
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
-            }
+    private void removeClusterPduLane(final String strPeer) {
+        final ClusterPduLane lane = _clusterPduLanes.remove(strPeer);
+        if (lane == null) {
+            return;
+        }
+        final List<ClusterServicePdu> dropped = lane.clear();
+        if (!dropped.isEmpty()) {
+            s_logger.warn("Dropping " + dropped.size() + " cluster PDUs queued for peer: " + strPeer);
+            lane.recordFailed(dropped.size());
+        }
+        try {
+            JmxUtil.unregisterMBean("ClusterManager", "Peer " + strPeer);
+        } catch (final Exception e) {
+            s_logger.debug("Unable to unregister cluster PDU lane MBean for peer " + strPeer + ": " + e.getMessage());
         }
-        return null;
     }
 
     private void addIncomingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduIncomingQueue) {
-            _clusterPduIncomingQueue.add(pdu);
-            _clusterPduIncomingQueue.notifyAll();
-        }
+        _clusterPduIncomingQueue.add(pdu);
     }
 
     private ClusterServicePdu popIncomingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
-
-            if (_clusterPduIncomingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduIncomingQueue.get(0);
-                _clusterPduIncomingQueue.remove(0);
-                return pdu;
-            }
+        try {
+            return _clusterPduIncomingQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            return null;
         }
-        return null;
     }
 
-    private Runnable getClusterPduSendingTask() {
+    private Runnable getClusterPduSendingTask(final ClusterPduLane lane) {
         return new ManagedContextRunnable() {
             @Override
             protected void runInContext() {
-                onSendingClusterPdu();
+                do {
+                    List<ClusterServicePdu> pdus = lane.drain(MAX_BATCH_PDUS, MAX_BATCH_CHARS);
+                    while (!pdus.isEmpty()) {
+                        sendClusterPdus(lane, pdus);
+                        pdus = lane.drain(MAX_BATCH_PDUS, MAX_BATCH_CHARS);
+                    }
+                } while (lane.releaseSender());
             }
         };
     }
@@ -237,58 +276,72 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         };
     }
 
-    private void onSendingClusterPdu() {
-        while (true) {
-            try {
-                final ClusterServicePdu pdu = popOutgoingClusterPdu(1000);
-                if (pdu == null) {
-                    continue;
+    /**
+     * Sends the PDUs to their peer, all in one call if there is more than one.  A batch
+     * that fails is retried like a single PDU.  A peer that does not know about batches
+     * yet gets the PDUs one at a time, now and from then on.
+     *
+     * @return true if the peer took the PDUs.
+     */
+    private boolean sendClusterPdus(final ClusterPduLane lane, final List<ClusterServicePdu> pdus) {
+        final String strPeer = lane.getPeer();
+        try {
+            for (int i = 0; i < 2; i++) {
+                ClusterService peerService = null;
+                try {
+                    peerService = getPeerService(strPeer);
+                } catch (final RemoteException e) {
+                    s_logger.error("Unable to get cluster service on peer : " + strPeer);
                 }
 
-                ClusterService peerService = null;
-                for (int i = 0; i < 2; i++) {
+                if (peerService != null) {
                     try {
-                        peerService = getPeerService(pdu.getDestPeer());
-                    } catch (final RemoteException e) {
-                        s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
-                    }
-
-                    if (peerService != null) {
-                        try {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
+                        if (s_logger.isDebugEnabled()) {
+                            for (final ClusterServicePdu pdu : pdus) {
+                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + strPeer + ". agent: " + pdu.getAgentId() + ", pdu seq: " +
                                         pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
                             }
+                        }
 
-                            final Profiler profiler = new Profiler();
-                            profiler.start();
+                        final Profiler profiler = new Profiler();
+                        profiler.start();
 
-                            final String strResult = peerService.execute(pdu);
-                            profiler.stop();
+                        final String strResult = pdus.size() == 1 ? peerService.execute(pdus.get(0)) : peerService.execute(pdus);
+                        profiler.stop();
 
+                        if ("true".equals(strResult)) {
+                            lane.recordSent(pdus.size(), profiler.getDurationInMillis());
                             if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " completed. time: " +
-                                        profiler.getDurationInMillis() + "ms. agent: " + pdu.getAgentId() + ", pdu seq: " + pdu.getSequenceId() +
-                                        ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+                                s_logger.debug("Cluster PDUs " + getSelfPeerName() + " -> " + strPeer + " completed. time: " + profiler.getDurationInMillis() +
+                                        "ms. pdus: " + pdus.size());
                             }
+                            return true;
+                        }
 
-                            if ("true".equals(strResult)) {
-                                break;
+                        if (pdus.size() > 1 && ClusterService.BATCH_NOT_SUPPORTED.equals(strResult)) {
+                            if (lane.isBatchingSupported()) {
+                                s_logger.info("Peer " + strPeer + " does not take batched cluster PDUs, sending them one at a time");
+                                lane.setBatchingSupported(false);
                             }
-
-                        } catch (final RemoteException e) {
-                            invalidatePeerService(pdu.getDestPeer());
-                            if (s_logger.isInfoEnabled()) {
-                                s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: " + i + ", exception message :" +
-                                        e.getMessage());
+                            boolean delivered = false;
+                            for (final ClusterServicePdu pdu : pdus) {
+                                delivered |= sendClusterPdus(lane, Collections.singletonList(pdu));
                             }
+                            return delivered;
+                        }
+                    } catch (final RemoteException e) {
+                        invalidatePeerService(strPeer);
+                        if (s_logger.isInfoEnabled()) {
+                            s_logger.info("Exception on remote execution, peer: " + strPeer + ", iteration: " + i + ", exception message :" + e.getMessage());
                         }
                     }
                 }
-            } catch (final Throwable e) {
-                s_logger.error("Unexcpeted exception: ", e);
             }
+        } catch (final Throwable e) {
+            s_logger.error("Unexcpeted exception: ", e);
         }
+        lane.recordFailed(pdus.size());
+        return false;
     }
 
     private void onNotifyingClusterPdu() {
@@ -302,7 +355,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 _executor.execute(new ManagedContextRunnable() {
                     @Override
                     protected void runInContext() {
-                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
+                        if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_CACHE_INVALIDATION) {
+                            onCacheInvalidations(pdu.getJsonPackage());
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_NOTIFICATION) {
+                            onNotification(pdu);
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_RESPONSE) {
                             final ClusterServiceRequestPdu requestPdu = popRequestPdu(pdu.getAckSequenceId());
                             if (requestPdu != null) {
                                 requestPdu.setResponseResult(pdu.getJsonPackage());
@@ -337,6 +394,89 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    /**
+     * Queues an entity cache invalidation for the other management servers.
+     * Invalidations queued while a flush is pending go out together in one
+     * PDU per peer, one "cache id" line each; the id is empty if the whole
+     * cache is to be dropped.
+     */
+    private void publishCacheInvalidation(final String cacheName, final String id) {
+        _cacheInvalidations.add(cacheName + " " + (id == null ? "" : id));
+        if (_cacheInvalidationsFlushing.compareAndSet(false, true)) {
+            _executor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    flushCacheInvalidations();
+                }
+            });
+        }
+    }
+
+    private void flushCacheInvalidations() {
+        _cacheInvalidationsFlushing.set(false);
+        final StringBuilder invalidations = new StringBuilder();
+        String invalidation;
+        while ((invalidation = _cacheInvalidations.poll()) != null) {
+            invalidations.append(invalidation).append('\n');
+        }
+        if (invalidations.length() == 0) {
+            return;
+        }
+
+        for (final ManagementServerHostVO peer : _activePeers.values()) {
+            final String peerName = Long.toString(peer.getMsid());
+            if (getSelfPeerName().equals(peerName)) {
+                continue;
+            }
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(ClusterServicePdu.PDU_TYPE_CACHE_INVALIDATION);
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peerName);
+            pdu.setJsonPackage(invalidations.toString());
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
+    private void onCacheInvalidations(final String invalidations) {
+        for (final String invalidation : invalidations.split("\n")) {
+            final int separator = invalidation.indexOf(' ');
+            if (separator <= 0) {
+                continue;
+            }
+            final String id = invalidation.substring(separator + 1);
+            EntityCaches.onInvalidation(invalidation.substring(0, separator), id.isEmpty() ? null : id);
+        }
+    }
+
+    @Override
+    public void notifyPeers(final String subject, final String message) {
+        for (final ManagementServerHostVO peer : _activePeers.values()) {
+            final String peerName = Long.toString(peer.getMsid());
+            if (getSelfPeerName().equals(peerName)) {
+                continue;
+            }
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peerName);
+            pdu.setJsonPackage(subject + "\n" + message);
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
+    private void onNotification(final ClusterServicePdu pdu) {
+        final String notification = pdu.getJsonPackage();
+        final int separator = notification.indexOf('\n');
+        if (separator < 0) {
+            s_logger.warn("Ignoring malformed notification from " + pdu.getSourcePeer());
+            return;
+        }
+        final NotificationHandler handler = _notificationHandlers.get(notification.substring(0, separator));
+        if (handler != null) {
+            handler.onNotification(pdu.getSourcePeer(), notification.substring(separator + 1));
+        }
+    }
+
     @Override
     public void OnReceiveClusterServicePdu(final ClusterServicePdu pdu) {
         addIncomingClusterPdu(pdu);
@@ -480,6 +620,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 s_logger.debug("Leaving node, IP: " + mshost.getServiceIP() + ", msid: " + mshost.getMsid());
             }
             cancelClusterRequestToPeer(String.valueOf(mshost.getMsid()));
+            removeClusterPduLane(String.valueOf(mshost.getMsid()));
         }
 
         synchronized (_listeners) {
@@ -998,6 +1139,13 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
 
+        EntityCaches.setInvalidationPublisher(new EntityCaches.InvalidationPublisher() {
+            @Override
+            public void publish(final String cacheName, final String id) {
+                publishCacheInvalidation(cacheName, id);
+            }
+        });
+
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Cluster manager was started successfully");
         }
@@ -1012,6 +1160,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             s_logger.info("Stopping Cluster manager, msid : " + _msId);
         }
 
+        EntityCaches.setInvalidationPublisher(null);
+
         if (_mshostId != null) {
             final ManagementServerHostVO mshost = _mshostDao.findByMsid(_msId);
             mshost.setState(ManagementServerHost.State.Down);
@@ -1055,10 +1205,6 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
-        for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
-            _executor.execute(getClusterPduSendingTask());
-        }
-
         // notification task itself in turn works as a task dispatcher
         _executor.execute(getClusterPduNotificationTask());
 
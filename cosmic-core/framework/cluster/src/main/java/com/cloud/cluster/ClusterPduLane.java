@@ -0,0 +1,201 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Outgoing PDUs for one peer management server.  Up to maxSenders threads
+ * drain a lane at the same time, each taking the queued PDUs in batches so
+ * a burst of small PDUs costs one round trip per batch instead of one per PDU.
+ */
+public class ClusterPduLane extends StandardMBean implements ClusterPduLaneMBean {
+    private final String _peer;
+    private final int _maxSenders;
+    private final Queue<ClusterServicePdu> _queue = new ConcurrentLinkedQueue<ClusterServicePdu>();
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final AtomicInteger _maxQueued = new AtomicInteger();
+    private final AtomicInteger _senders = new AtomicInteger();
+    private volatile boolean _batchingSupported = true;
+
+    private final AtomicLong _sentPdus = new AtomicLong();
+    private final AtomicLong _sentBatches = new AtomicLong();
+    private final AtomicLong _failedPdus = new AtomicLong();
+    private final AtomicLong _sendMillis = new AtomicLong();
+    private final AtomicLong _maxSendMillis = new AtomicLong();
+
+    public ClusterPduLane(final String peer, final int maxSenders) {
+        super(ClusterPduLaneMBean.class, false);
+        _peer = peer;
+        _maxSenders = maxSenders;
+    }
+
+    /**
+     * Queues the PDU.
+     *
+     * @return true if the caller has to start a sender for this lane, see acquireSender().
+     */
+    public boolean offer(final ClusterServicePdu pdu) {
+        _queue.add(pdu);
+        final int queued = _queued.incrementAndGet();
+        int max = _maxQueued.get();
+        while (queued > max && !_maxQueued.compareAndSet(max, queued)) {
+            max = _maxQueued.get();
+        }
+        return acquireSender();
+    }
+
+    /**
+     * @return true if there is queued work and fewer than maxSenders senders, in which case the caller
+     * becomes a sender and must call releaseSender() when it stops draining.
+     */
+    public boolean acquireSender() {
+        while (true) {
+            final int senders = _senders.get();
+            if (senders >= _maxSenders || _queued.get() <= 0) {
+                return false;
+            }
+            if (_senders.compareAndSet(senders, senders + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the sender has to carry on because PDUs were queued while it was releasing.
+     */
+    public boolean releaseSender() {
+        _senders.decrementAndGet();
+        return acquireSender();
+    }
+
+    /**
+     * Gives back a sender slot taken by offer() or acquireSender() when no thread could be started for it.
+     */
+    public void cancelSender() {
+        _senders.decrementAndGet();
+    }
+
+    /**
+     * Takes the next batch of PDUs off the queue.
+     *
+     * @param maxPdus most PDUs in the batch.
+     * @param maxChars the batch is closed once its JSON payloads add up to this many characters;
+     * a single PDU bigger than that still goes out on its own.
+     * @return the batch; empty if the queue is.
+     */
+    public List<ClusterServicePdu> drain(final int maxPdus, final int maxChars) {
+        final int limit = _batchingSupported ? maxPdus : 1;
+        final List<ClusterServicePdu> batch = new ArrayList<ClusterServicePdu>();
+        int chars = 0;
+        while (batch.size() < limit && chars < maxChars) {
+            final ClusterServicePdu pdu = _queue.poll();
+            if (pdu == null) {
+                break;
+            }
+            _queued.decrementAndGet();
+            batch.add(pdu);
+            if (pdu.getJsonPackage() != null) {
+                chars += pdu.getJsonPackage().length();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the PDUs that were still queued.
+     */
+    public List<ClusterServicePdu> clear() {
+        return drain(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public void setBatchingSupported(final boolean batchingSupported) {
+        _batchingSupported = batchingSupported;
+    }
+
+    public void recordSent(final int pdus, final long millis) {
+        _sentPdus.addAndGet(pdus);
+        _sentBatches.incrementAndGet();
+        _sendMillis.addAndGet(millis);
+        long max = _maxSendMillis.get();
+        while (millis > max && !_maxSendMillis.compareAndSet(max, millis)) {
+            max = _maxSendMillis.get();
+        }
+    }
+
+    public void recordFailed(final int pdus) {
+        _failedPdus.addAndGet(pdus);
+    }
+
+    @Override
+    public String getPeer() {
+        return _peer;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _queued.get();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return _maxQueued.get();
+    }
+
+    @Override
+    public int getSendersInFlight() {
+        return _senders.get();
+    }
+
+    @Override
+    public long getSentPduCount() {
+        return _sentPdus.get();
+    }
+
+    @Override
+    public long getSentBatchCount() {
+        return _sentBatches.get();
+    }
+
+    @Override
+    public long getFailedPduCount() {
+        return _failedPdus.get();
+    }
+
+    @Override
+    public boolean isBatchingSupported() {
+        return _batchingSupported;
+    }
+
+    @Override
+    public double getAverageSendLatencyMillis() {
+        final long batches = _sentBatches.get();
+        return batches == 0 ? 0 : (double)_sendMillis.get() / batches;
+    }
+
+    @Override
+    public long getMaxSendLatencyMillis() {
+        return _maxSendMillis.get();
+    }
+}
@@ -18,9 +18,23 @@ package com.cloud.cluster;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ClusterService extends Remote {
+    /**
+     * Result of execute(List) when the peer does not know the batched call.
+     */
+    String BATCH_NOT_SUPPORTED = "batch-not-supported";
+
     String execute(ClusterServicePdu pdu) throws RemoteException;
 
+    /**
+     * Delivers the PDUs in one call.
+     *
+     * @return "true" once all of them are queued on the peer; BATCH_NOT_SUPPORTED if the peer
+     * does not know the call; null if the call failed.
+     */
+    String execute(List<ClusterServicePdu> pdus) throws RemoteException;
+
     boolean ping(String callingPeer) throws RemoteException;
 }
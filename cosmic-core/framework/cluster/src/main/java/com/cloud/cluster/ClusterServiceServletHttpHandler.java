@@ -20,6 +20,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URLDecoder;
 
+import com.google.gson.Gson;
+
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
@@ -34,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
     private static final Logger s_logger = LoggerFactory.getLogger(ClusterServiceServletHttpHandler.class);
+    private static final Gson s_gson = new Gson();
 
     private final ClusterManager manager;
 
@@ -118,6 +121,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
 
         int nMethod = RemoteMethodConstants.METHOD_UNKNOWN;
         String responseContent = null;
+        boolean knownMethod = true;
         try {
             if (method != null) {
                 nMethod = Integer.parseInt(method);
@@ -128,12 +132,17 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
                     responseContent = handleDeliverPduMethodCall(req);
                     break;
 
+                case RemoteMethodConstants.METHOD_DELIVER_PDUS:
+                    responseContent = handleDeliverPdusMethodCall(req);
+                    break;
+
                 case RemoteMethodConstants.METHOD_PING:
                     responseContent = handlePingMethodCall(req);
                     break;
 
                 case RemoteMethodConstants.METHOD_UNKNOWN:
                 default:
+                    knownMethod = false;
                     assert (false);
                     s_logger.error("unrecognized method " + nMethod);
                     break;
@@ -147,11 +156,17 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
                 s_logger.trace("Write reponse with HTTP OK " + responseContent);
 
             writeResponse(response, HttpStatus.SC_OK, responseContent);
+        } else if (!knownMethod) {
+            // Callers fall back to older methods on this status, so it must not be used for failures
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("Write reponse with HTTP Not implemented");
+
+            writeResponse(response, HttpStatus.SC_NOT_IMPLEMENTED, null);
         } else {
             if (s_logger.isTraceEnabled())
-                s_logger.trace("Write reponse with HTTP Bad request");
+                s_logger.trace("Write reponse with HTTP Internal server error");
 
-            writeResponse(response, HttpStatus.SC_BAD_REQUEST, null);
+            writeResponse(response, HttpStatus.SC_INTERNAL_SERVER_ERROR, null);
         }
     }
 
@@ -180,6 +195,15 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         return "true";
     }
 
+    private String handleDeliverPdusMethodCall(HttpRequest req) {
+        String pdus = (String)req.getParams().getParameter("pdus");
+
+        for (ClusterServicePdu pdu : s_gson.fromJson(pdus, ClusterServicePdu[].class)) {
+            manager.OnReceiveClusterServicePdu(pdu);
+        }
+        return "true";
+    }
+
     private String handlePingMethodCall(HttpRequest req) {
         String callingPeer = (String)req.getParams().getParameter("callingPeer");
 
@@ -18,8 +18,10 @@ package com.cloud.cluster;
 
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import com.cloud.utils.Profiler;
+import com.google.gson.Gson;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
@@ -37,6 +39,7 @@ public class ClusterServiceServletImpl implements ClusterService {
     private String _serviceUrl;
 
     protected static HttpClient s_client = null;
+    private static final Gson s_gson = new Gson();
 
     public ClusterServiceServletImpl() {
     }
@@ -67,6 +70,18 @@ public class ClusterServiceServletImpl implements ClusterService {
         return executePostMethod(client, method);
     }
 
+    @Override
+    public String execute(final List<ClusterServicePdu> pdus) throws RemoteException {
+
+        final HttpClient client = getHttpClient();
+        final PostMethod method = new PostMethod(_serviceUrl);
+
+        method.addParameter("method", Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDUS));
+        method.addParameter("pdus", s_gson.toJson(pdus.toArray(new ClusterServicePdu[pdus.size()])));
+
+        return executePostMethod(client, method, BATCH_NOT_SUPPORTED);
+    }
+
     @Override
     public boolean ping(final String callingPeer) throws RemoteException {
         if (s_logger.isDebugEnabled()) {
@@ -87,6 +102,15 @@ public class ClusterServiceServletImpl implements ClusterService {
     }
 
     private String executePostMethod(final HttpClient client, final PostMethod method) {
+        return executePostMethod(client, method, null);
+    }
+
+    /**
+     * @param notImplementedResult the result when the peer does not know the method.  Peers answer
+     * that with a not implemented status, and peers from before batching with a bad request; every
+     * other failure is answered with an internal server error.
+     */
+    private String executePostMethod(final HttpClient client, final PostMethod method, final String notImplementedResult) {
         int response = 0;
         String result = null;
         try {
@@ -99,6 +123,10 @@ public class ClusterServiceServletImpl implements ClusterService {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("POST " + _serviceUrl + " response :" + result + ", responding time: " + profiler.getDurationInMillis() + " ms");
                 }
+            } else if ((response == HttpStatus.SC_NOT_IMPLEMENTED || response == HttpStatus.SC_BAD_REQUEST) && notImplementedResult != null) {
+                profiler.stop();
+                result = notImplementedResult;
+                s_logger.info("Method not implemented by : " + _serviceUrl + ", method : " + method.getParameter("method") + ", response code : " + response);
             } else {
                 profiler.stop();
                 s_logger.error("Invalid response code : " + response + ", from : " + _serviceUrl + ", method : " + method.getParameter("method") + " responding time: " +
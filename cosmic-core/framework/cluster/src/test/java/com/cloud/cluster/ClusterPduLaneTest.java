@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ClusterPduLaneTest {
+
+    private static ClusterServicePdu pdu(final String json) {
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setDestPeer("2");
+        pdu.setJsonPackage(json);
+        return pdu;
+    }
+
+    @Test
+    public void drainHonoursBatchLimits() {
+        final ClusterPduLane lane = new ClusterPduLane("2", 4);
+        for (int i = 0; i < 10; i++) {
+            lane.offer(pdu("0123456789"));
+        }
+        lane.offer(pdu(new String(new char[100])));
+        assertEquals(11, lane.getQueueDepth());
+
+        assertEquals(4, lane.drain(4, 1000).size());
+        assertEquals(3, lane.drain(64, 25).size());
+        assertEquals(3, lane.drain(64, 30).size());
+        // Too big for any batch, still goes out on its own
+        final List<ClusterServicePdu> big = lane.drain(64, 30);
+        assertEquals(1, big.size());
+        assertEquals(100, big.get(0).getJsonPackage().length());
+        assertTrue(lane.drain(64, 30).isEmpty());
+        assertEquals(0, lane.getQueueDepth());
+        assertEquals(11, lane.getMaxQueueDepth());
+    }
+
+    @Test
+    public void drainsOneAtATimeWithoutBatching() {
+        final ClusterPduLane lane = new ClusterPduLane("2", 4);
+        lane.offer(pdu("a"));
+        lane.offer(pdu("b"));
+        lane.setBatchingSupported(false);
+        assertEquals("a", lane.drain(64, 1000).get(0).getJsonPackage());
+        assertEquals(1, lane.clear().size());
+    }
+
+    @Test
+    public void sendersAreBounded() {
+        final ClusterPduLane lane = new ClusterPduLane("2", 2);
+        assertFalse(lane.acquireSender());
+
+        assertTrue(lane.offer(pdu("a")));
+        assertTrue(lane.offer(pdu("b")));
+        assertFalse(lane.offer(pdu("c")));
+        assertEquals(2, lane.getSendersInFlight());
+
+        lane.drain(1, 1000);
+        assertTrue(lane.releaseSender());
+        assertEquals(2, lane.getSendersInFlight());
+
+        lane.clear();
+        assertFalse(lane.releaseSender());
+        assertFalse(lane.releaseSender());
+        assertEquals(0, lane.getSendersInFlight());
+    }
+
+    @Test
+    public void cancelledSenderFreesItsSlot() {
+        final ClusterPduLane lane = new ClusterPduLane("2", 1);
+        assertTrue(lane.offer(pdu("a")));
+        lane.cancelSender();
+        assertEquals(0, lane.getSendersInFlight());
+        // the PDU is still queued, the next offer starts a sender for both
+        assertTrue(lane.offer(pdu("b")));
+        assertEquals(2, lane.drain(64, 1000).size());
+    }
+
+    @Test
+    public void sendLatency() {
+        final ClusterPduLane lane = new ClusterPduLane("2", 4);
+        lane.recordSent(10, 30);
+        lane.recordSent(1, 10);
+        lane.recordFailed(2);
+        assertEquals(11, lane.getSentPduCount());
+        assertEquals(2, lane.getSentBatchCount());
+        assertEquals(20.0, lane.getAverageSendLatencyMillis(), 0.001);
+        assertEquals(30, lane.getMaxSendLatencyMillis());
+        assertEquals(2, lane.getFailedPduCount());
+    }
+}
@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ClusterServiceServletHttpHandlerTest {
+
+    @Mock
+    ClusterManager manager;
+
+    ClusterServiceServletHttpHandler handler;
+
+    @Before
+    public void setup() {
+        handler = new ClusterServiceServletHttpHandler(manager);
+    }
+
+    private int handle(final String method, final String pdus) {
+        final BasicHttpRequest request = new BasicHttpRequest("POST", "/clusterservice");
+        request.getParams().setParameter("method", method);
+        request.getParams().setParameter("pdus", pdus);
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        handler.handleRequest(request, response);
+        return response.getStatusLine().getStatusCode();
+    }
+
+    @Test
+    public void batchIsQueued() {
+        assertEquals(HttpStatus.SC_OK, handle(Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDUS), "[{},{}]"));
+        Mockito.verify(manager, Mockito.times(2)).OnReceiveClusterServicePdu(Mockito.any(ClusterServicePdu.class));
+    }
+
+    @Test
+    public void unknownMethodIsNotImplemented() {
+        assertEquals(HttpStatus.SC_NOT_IMPLEMENTED, handle("42", null));
+    }
+
+    @Test
+    public void failedBatchIsNotMistakenForAnUnknownMethod() {
+        assertEquals(HttpStatus.SC_INTERNAL_SERVER_ERROR, handle(Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDUS), "{not json"));
+
+        Mockito.doThrow(new IllegalStateException()).when(manager).OnReceiveClusterServicePdu(Mockito.any(ClusterServicePdu.class));
+        assertEquals(HttpStatus.SC_INTERNAL_SERVER_ERROR, handle(Integer.toString(RemoteMethodConstants.METHOD_DELIVER_PDUS), "[{}]"));
+    }
+}
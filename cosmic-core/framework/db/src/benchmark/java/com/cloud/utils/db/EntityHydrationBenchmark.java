@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares hydrating a row column by column, as toEntityBean(ResultSet, boolean)
+ * does, with a precompiled EntityRowMapper.  The result set is an in-memory
+ * stub so only the mapping is measured.  Compiled only with -Dbenchmarks; run the
+ * main method from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityHydrationBenchmark {
+    private static final String[] COLUMNS = {"id", "fld_int", "fld_long", "fld_string"};
+    private static final String SQL = "SELECT test.id, test.fld_int, test.fld_long, test.fld_string FROM test";
+
+    private DbTestDao _dao;
+    private ResultSet _rs;
+    private EntityRowMapper _mapper;
+
+    @Setup
+    public void setUp() throws SQLException {
+        _dao = new DbTestDao();
+        _rs = newResultSet();
+        _mapper = _dao.getRowMapper(SQL, _rs);
+    }
+
+    @Benchmark
+    public DbTestVO columnByColumn() throws SQLException {
+        return _dao.toEntityBean(_rs, false);
+    }
+
+    @Benchmark
+    public DbTestVO rowMapper() throws SQLException {
+        return _dao.toEntityBean(_rs, false, _mapper);
+    }
+
+    private static ResultSet newResultSet() {
+        final ResultSetMetaData meta = (ResultSetMetaData)Proxy.newProxyInstance(EntityHydrationBenchmark.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if (name.equals("getColumnCount")) {
+                            return COLUMNS.length;
+                        } else if (name.equals("getTableName")) {
+                            return "test";
+                        }
+                        return COLUMNS[(Integer)args[0] - 1];
+                    }
+                });
+        final byte[] string = "i-2-1234-VM".getBytes();
+        return (ResultSet)Proxy.newProxyInstance(EntityHydrationBenchmark.class.getClassLoader(), new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                final String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return meta;
+                } else if (name.equals("getLong")) {
+                    return 1234L;
+                } else if (name.equals("getInt")) {
+                    return 42;
+                } else if (name.equals("getBytes")) {
+                    return string;
+                } else if (name.equals("getObject")) {
+                    return 1234L;
+                } else if (name.equals("wasNull")) {
+                    return false;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EntityHydrationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
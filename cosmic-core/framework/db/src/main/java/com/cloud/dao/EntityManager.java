@@ -20,6 +20,7 @@
 package com.cloud.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -57,6 +58,8 @@ public interface EntityManager {
      */
     <T> T findByUuidIncludingRemoved(Class<T> entityType, String uuid);
 
+    <T> List<? extends T> listByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids);
+
     /**
      * Lists all entities.  Use this method at your own risk.
      *
@@ -22,6 +22,7 @@ import net.sf.ehcache.Cache;
 
 import javax.naming.ConfigurationException;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -55,6 +56,12 @@ public class EntityManagerImpl extends ManagerBase implements EntityManager {
         return dao.findByUuidIncludingRemoved(uuid);
     }
 
+    @Override
+    public <T> List<? extends T> listByUuidsIncludingRemoved(final Class<T> entityType, final Collection<String> uuids) {
+        final GenericDao<? extends T, ? extends Serializable> dao = GenericDaoBase.getDao(entityType);
+        return dao.listByUuidsIncludingRemoved(uuids);
+    }
+
     @Override
     public <T> List<? extends T> list(final Class<T> entityType) {
         final GenericDao<? extends T, ? extends Serializable> dao = GenericDaoBase.getDao(entityType);
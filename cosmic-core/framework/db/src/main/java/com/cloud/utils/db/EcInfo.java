@@ -34,6 +34,8 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class EcInfo {
     protected String insertSql;
     protected String selectSql;
+    // Loads the collections of several entities; append the id placeholders and ")"
+    protected String batchSelectSql;
     protected String clearSql;
     protected Class<?> targetClass;
     protected Class<?> rawClass;
@@ -96,7 +98,9 @@ public class EcInfo {
             valuesBuf.append(", ");
         }
 
-        selectSql = selectBuf.append(idAttr.table).append(".").append(idAttr.columnName).append("=?").toString();
+        final String idColumn = idAttr.table + "." + idAttr.columnName;
+        batchSelectSql = "SELECT " + idColumn + ", " + selectBuf.substring("SELECT ".length()) + idColumn + " IN (";
+        selectSql = selectBuf.append(idColumn).append("=?").toString();
         insertBuf.append(attr.columnName).append(") ");
         valuesBuf.append("? FROM ").append(attr.table);
         valuesBuf.append(" WHERE ").append(idAttr.table).append(".").append(idAttr.columnName).append("=?");
@@ -0,0 +1,45 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+/**
+ * Second level cache of the entities of one dao, keyed by id.  Entities are
+ * shared between all threads of the node, so callers must not rely on an
+ * entity being private to them.  Create caches through EntityCaches.
+ */
+public interface EntityCache<K, V> {
+
+    String getName();
+
+    /**
+     * @return the cached entity or null if it is not cached or has expired.
+     */
+    V get(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    void clear();
+
+    /**
+     * Weight of an entity against the maximum weight of the cache.
+     */
+    interface Weigher<V> {
+        int weigh(V value);
+    }
+}
@@ -0,0 +1,128 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the dao entity caches and keeps the caches of the management
+ * servers coherent.  The cache implementation can be replaced by setting a
+ * Provider before the daos are configured; TinyLfuEntityCache is the default.
+ *
+ * A dao publishes the ids it changed once the transaction commits, and the
+ * InvalidationPublisher, if one is set, forwards them to the other
+ * management servers, which hand them to onInvalidation().  Without a
+ * publisher the caches are node local only.
+ */
+public final class EntityCaches {
+    private static final Logger s_logger = LoggerFactory.getLogger(EntityCaches.class);
+
+    private static final Map<String, InvalidationListener> s_listeners = new ConcurrentHashMap<String, InvalidationListener>();
+    private static volatile Provider s_provider;
+    private static volatile InvalidationPublisher s_publisher;
+
+    private EntityCaches() {
+    }
+
+    public static void setProvider(final Provider provider) {
+        s_provider = provider;
+    }
+
+    public static void setInvalidationPublisher(final InvalidationPublisher publisher) {
+        s_publisher = publisher;
+    }
+
+    /**
+     * Creates a cache and registers it for JMX monitoring if it is an MBean.
+     * @param expireAfterWriteSeconds -1 to never expire.
+     */
+    public static <K, V> EntityCache<K, V> createCache(final String name, final long maximumWeight, final long expireAfterWriteSeconds,
+            final EntityCache.Weigher<? super V> weigher) {
+        final Provider provider = s_provider;
+        final EntityCache<K, V> cache = provider != null ? provider.<K, V>createCache(name, maximumWeight, expireAfterWriteSeconds, weigher)
+                : new TinyLfuEntityCache<K, V>(name, maximumWeight, expireAfterWriteSeconds, weigher);
+        if (cache instanceof EntityCacheMBean) {
+            try {
+                JmxUtil.registerMBean("DaoCache", name, cache);
+            } catch (final Exception e) {
+                s_logger.debug("Unable to register cache " + name + " for JMX monitoring", e);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param listener receives the invalidations of the cache published by the other management servers.
+     */
+    public static void registerInvalidationListener(final String cacheName, final InvalidationListener listener) {
+        s_listeners.put(cacheName, listener);
+    }
+
+    public static void unregisterInvalidationListener(final String cacheName) {
+        s_listeners.remove(cacheName);
+    }
+
+    /**
+     * Tells the other management servers to drop an entity from the cache.
+     * @param id id of the entity; null to drop all entities.
+     */
+    public static void publish(final String cacheName, final String id) {
+        final InvalidationPublisher publisher = s_publisher;
+        if (publisher != null) {
+            publisher.publish(cacheName, id);
+        }
+    }
+
+    /**
+     * Called with an invalidation published by another management server.
+     */
+    public static void onInvalidation(final String cacheName, final String id) {
+        final InvalidationListener listener = s_listeners.get(cacheName);
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.invalidate(id);
+        } catch (final RuntimeException e) {
+            s_logger.warn("Unable to invalidate " + id + " in cache " + cacheName, e);
+        }
+    }
+
+    public interface Provider {
+        <K, V> EntityCache<K, V> createCache(String name, long maximumWeight, long expireAfterWriteSeconds, EntityCache.Weigher<? super V> weigher);
+    }
+
+    public interface InvalidationPublisher {
+        /**
+         * @param id id of the changed entity; null if all entities of the cache may have changed.
+         */
+        void publish(String cacheName, String id);
+    }
+
+    public interface InvalidationListener {
+        /**
+         * @param id id of the changed entity; null if all entities may have changed.
+         */
+        void invalidate(String id);
+    }
+}
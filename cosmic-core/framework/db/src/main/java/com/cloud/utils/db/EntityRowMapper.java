@@ -0,0 +1,393 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * Hydrates entities from one result set layout.  Which field a column goes
+ * to and how its value is converted is worked out once, when the mapper is
+ * built from the result set meta data; mapping a row is then a loop over the
+ * columns without lookups, and the fields are written through MethodHandles.
+ * The conversions are the same as in GenericDaoBase.setField().
+ */
+public class EntityRowMapper {
+    private static final MethodHandles.Lookup s_lookup = MethodHandles.lookup();
+    private static final MethodHandle s_fieldSet;
+
+    static {
+        try {
+            s_fieldSet = s_lookup.findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String[] _labels;
+    private final ColumnMapper[] _columns;
+
+    /**
+     * @param viewTable table of the entity the columns are also looked up in, to work around mysql
+     *                  returning the original table name instead of the view name for db views.
+     */
+    EntityRowMapper(final ResultSetMetaData meta, final Map<Pair<String, String>, Attribute> allColumns, final Table viewTable) throws SQLException {
+        final int count = meta.getColumnCount();
+        _labels = new String[count];
+        _columns = new ColumnMapper[count];
+        for (int index = 1; index <= count; index++) {
+            _labels[index - 1] = meta.getColumnLabel(index);
+            Attribute attr = allColumns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
+            if (attr == null && viewTable != null) {
+                attr = allColumns.get(new Pair<String, String>(viewTable.name(), meta.getColumnLabel(index)));
+            }
+            if (attr == null) {
+                throw new CloudRuntimeException("How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index));
+            }
+            _columns[index - 1] = createColumnMapper(attr.field, index);
+        }
+    }
+
+    /**
+     * @return true if the result set has the layout this mapper was built for.
+     */
+    boolean matches(final ResultSetMetaData meta) throws SQLException {
+        if (meta.getColumnCount() != _labels.length) {
+            return false;
+        }
+        for (int index = 1; index <= _labels.length; index++) {
+            if (!_labels[index - 1].equals(meta.getColumnLabel(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void map(final Object entity, final ResultSet rs) throws SQLException {
+        for (final ColumnMapper column : _columns) {
+            try {
+                column.map(entity, rs);
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable th) {
+                throw new CloudRuntimeException("Unable to set column " + column._index + " of " + entity.getClass().getName(), th);
+            }
+        }
+    }
+
+    private static MethodHandle setter(final Field field, final Class<?> valueType) {
+        MethodHandle setter;
+        try {
+            setter = s_lookup.unreflectSetter(field);
+        } catch (final IllegalAccessException e) {
+            // Final fields can only be written through reflection
+            setter = s_fieldSet.bindTo(field);
+        }
+        return setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+    }
+
+    private static ColumnMapper createColumnMapper(final Field field, final int index) {
+        final Class<?> type = field.getType();
+        if (type == String.class) {
+            final Encrypt encrypt = field.getAnnotation(Encrypt.class);
+            return new StringMapper(index, setter(field, Object.class), encrypt != null && encrypt.encrypt());
+        } else if (type == long.class) {
+            return new LongMapper(index, setter(field, long.class));
+        } else if (type == int.class) {
+            return new IntMapper(index, setter(field, int.class));
+        } else if (type == boolean.class) {
+            return new BooleanMapper(index, setter(field, boolean.class));
+        } else if (type == short.class) {
+            return new ShortMapper(index, setter(field, short.class));
+        } else if (type == float.class) {
+            return new FloatMapper(index, setter(field, float.class));
+        } else if (type == double.class) {
+            return new DoubleMapper(index, setter(field, double.class));
+        } else if (type == byte.class) {
+            return new ByteMapper(index, setter(field, byte.class));
+        }
+
+        final MethodHandle setter = setter(field, Object.class);
+        if (type.isEnum()) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+            return new EnumMapper(index, setter, enumType, (Enum<?>[])type.getEnumConstants());
+        } else if (type == Ip.class) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+            return new IpMapper(index, setter, enumType == EnumType.STRING);
+        }
+        return new ObjectMapper(index, setter, type);
+    }
+
+    abstract static class ColumnMapper {
+        final int _index;
+        final MethodHandle _setter;
+
+        ColumnMapper(final int index, final MethodHandle setter) {
+            _index = index;
+            _setter = setter;
+        }
+
+        abstract void map(Object entity, ResultSet rs) throws Throwable;
+    }
+
+    static final class StringMapper extends ColumnMapper {
+        private final boolean _encrypted;
+
+        StringMapper(final int index, final MethodHandle setter, final boolean encrypted) {
+            super(index, setter);
+            _encrypted = encrypted;
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            final byte[] bytes = rs.getBytes(_index);
+            Object value = null;
+            if (bytes != null) {
+                final String str = new String(bytes, StandardCharsets.UTF_8);
+                value = _encrypted ? DBEncryptionUtil.decrypt(str) : str;
+            }
+            _setter.invokeExact(entity, value);
+        }
+    }
+
+    static final class LongMapper extends ColumnMapper {
+        LongMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getLong(_index));
+        }
+    }
+
+    static final class IntMapper extends ColumnMapper {
+        IntMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getInt(_index));
+        }
+    }
+
+    static final class BooleanMapper extends ColumnMapper {
+        BooleanMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getBoolean(_index));
+        }
+    }
+
+    static final class ShortMapper extends ColumnMapper {
+        ShortMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getShort(_index));
+        }
+    }
+
+    static final class FloatMapper extends ColumnMapper {
+        FloatMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getFloat(_index));
+        }
+    }
+
+    static final class DoubleMapper extends ColumnMapper {
+        DoubleMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getDouble(_index));
+        }
+    }
+
+    static final class ByteMapper extends ColumnMapper {
+        ByteMapper(final int index, final MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, rs.getByte(_index));
+        }
+    }
+
+    static final class EnumMapper extends ColumnMapper {
+        private final boolean _byName;
+        private final Enum<?>[] _constants;
+        private final Map<String, Enum<?>> _byNameIgnoreCase;
+
+        EnumMapper(final int index, final MethodHandle setter, final EnumType enumType, final Enum<?>[] constants) {
+            super(index, setter);
+            _byName = enumType == EnumType.STRING;
+            _constants = constants;
+            _byNameIgnoreCase = new TreeMap<String, Enum<?>>(String.CASE_INSENSITIVE_ORDER);
+            // Same precedence as the linear search in setField(), the first constant wins
+            for (int i = constants.length - 1; i >= 0; i--) {
+                _byNameIgnoreCase.put(constants[i].name(), constants[i]);
+            }
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            final Enum<?> value;
+            if (_byName) {
+                final String name = rs.getString(_index);
+                value = name == null ? null : _byNameIgnoreCase.get(name);
+            } else {
+                final int ordinal = rs.getInt(_index);
+                value = ordinal >= 0 && ordinal < _constants.length ? _constants[ordinal] : null;
+            }
+            // Unknown values leave the field alone
+            if (value != null) {
+                _setter.invokeExact(entity, (Object)value);
+            }
+        }
+    }
+
+    static final class IpMapper extends ColumnMapper {
+        private final boolean _asString;
+
+        IpMapper(final int index, final MethodHandle setter, final boolean asString) {
+            super(index, setter);
+            _asString = asString;
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            Ip ip = null;
+            if (_asString) {
+                final String s = rs.getString(_index);
+                ip = s == null ? null : new Ip(NetUtils.ip2Long(s));
+            } else {
+                ip = new Ip(rs.getLong(_index));
+            }
+            _setter.invokeExact(entity, (Object)ip);
+        }
+    }
+
+    /**
+     * The boxed types and everything else that needs no per field settings.
+     */
+    static final class ObjectMapper extends ColumnMapper {
+        private final Class<?> _type;
+
+        ObjectMapper(final int index, final MethodHandle setter, final Class<?> type) {
+            super(index, setter);
+            _type = type;
+        }
+
+        @Override
+        void map(final Object entity, final ResultSet rs) throws Throwable {
+            _setter.invokeExact(entity, read(rs));
+        }
+
+        private Object read(final ResultSet rs) throws SQLException {
+            final int index = _index;
+            if (_type == Long.class) {
+                final long value = rs.getLong(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == Integer.class) {
+                final int value = rs.getInt(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == Date.class) {
+                return rs.getDate(index) == null ? null : DateUtil.parseDateString(GenericDaoBase.s_gmtTimeZone, rs.getString(index));
+            } else if (_type == Calendar.class) {
+                if (rs.getDate(index) == null) {
+                    return null;
+                }
+                final Calendar cal = Calendar.getInstance();
+                cal.setTime(DateUtil.parseDateString(GenericDaoBase.s_gmtTimeZone, rs.getString(index)));
+                return cal;
+            } else if (_type == Boolean.class) {
+                final boolean value = rs.getBoolean(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == URI.class) {
+                final String str = rs.getString(index);
+                try {
+                    return str == null ? null : new URI(str);
+                } catch (final URISyntaxException e) {
+                    throw new CloudRuntimeException("Invalid URI: " + str, e);
+                }
+            } else if (_type == URL.class) {
+                final String str = rs.getString(index);
+                try {
+                    return str != null ? new URL(str) : null;
+                } catch (final MalformedURLException e) {
+                    throw new CloudRuntimeException("Invalid URL: " + str, e);
+                }
+            } else if (_type == Short.class) {
+                final short value = rs.getShort(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == Float.class) {
+                final float value = rs.getFloat(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == Double.class) {
+                final double value = rs.getDouble(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == Byte.class) {
+                final byte value = rs.getByte(index);
+                return rs.wasNull() ? null : value;
+            } else if (_type == byte[].class) {
+                return rs.getBytes(index);
+            }
+            return rs.getObject(index);
+        }
+    }
+}
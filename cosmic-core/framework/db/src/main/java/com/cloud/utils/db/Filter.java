@@ -17,6 +17,8 @@
 package com.cloud.utils.db;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.persistence.Column;
 
@@ -37,6 +39,9 @@ public class Filter {
     Long _offset;
     Long _limit;
     String _orderBy;
+    List<String> _orderColumns = new ArrayList<String>();
+    List<Boolean> _orderAscending = new ArrayList<Boolean>();
+    Object[] _seekValues;
 
     /**
      * @param clazz the VO object type
@@ -61,6 +66,8 @@ public class Filter {
      */
     public Filter(Filter that) {
         this._orderBy = that._orderBy;
+        this._orderColumns.addAll(that._orderColumns);
+        this._orderAscending.addAll(that._orderAscending);
         this._limit = null;
         that._limit = null;
     }
@@ -84,7 +91,10 @@ public class Filter {
         } else {
             order.append(column.table());
         }
-        order.append(".").append(name).append(ascending ? " ASC " : " DESC ");
+        order.append(".").append(name);
+        _orderColumns.add(order.toString());
+        _orderAscending.add(ascending);
+        order.append(ascending ? " ASC " : " DESC ");
 
         if (_orderBy == null) {
             _orderBy = order.insert(0, " ORDER BY ").toString();
@@ -97,6 +107,61 @@ public class Filter {
         return _orderBy;
     }
 
+    /**
+     * Seek (keyset) pagination: only return the rows that sort after the given
+     * values of the order by columns, one value per column in the order they
+     * were added.  The offset is reset as the predicate replaces it.
+     *
+     * @param values values of the order by columns of the last row of the previous page
+     */
+    public void setSeekAfter(Object... values) {
+        if (values == null || values.length == 0) {
+            _seekValues = null;
+            return;
+        }
+        if (values.length != _orderColumns.size()) {
+            throw new IllegalArgumentException("Expected " + _orderColumns.size() + " seek values, got " + values.length);
+        }
+        if (_orderAscending.contains(Boolean.TRUE) && _orderAscending.contains(Boolean.FALSE)) {
+            throw new IllegalArgumentException("Can't seek on a mixed ascending/descending order: " + _orderBy);
+        }
+        _seekValues = values;
+        if (_offset != null) {
+            _offset = 0L;
+        }
+    }
+
+    public Object[] getSeekValues() {
+        return _seekValues;
+    }
+
+    /**
+     * @return the predicate selecting the rows after the seek values, or null if not seeking.
+     */
+    public String getSeekClause() {
+        if (_seekValues == null) {
+            return null;
+        }
+
+        final String op = _orderAscending.get(0) ? " > " : " < ";
+        final StringBuilder clause = new StringBuilder();
+        if (_orderColumns.size() == 1) {
+            return clause.append(_orderColumns.get(0)).append(op).append("?").toString();
+        }
+
+        final StringBuilder params = new StringBuilder();
+        clause.append("(");
+        for (int i = 0; i < _orderColumns.size(); i++) {
+            if (i > 0) {
+                clause.append(", ");
+                params.append(", ");
+            }
+            clause.append(_orderColumns.get(i));
+            params.append("?");
+        }
+        return clause.append(")").append(op).append("(").append(params).append(")").toString();
+    }
+
     public void setOffset(Long offset) {
         _offset = offset;
     }
@@ -17,6 +17,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -59,6 +60,9 @@ public interface GenericDao<T, ID extends Serializable> {
     // Finds one unique VO using uuid including removed entities
     T findByUuidIncludingRemoved(String uuid);
 
+    // Finds the VOs with the given uuids including removed entities, in one query
+    List<T> listByUuidsIncludingRemoved(Collection<String> uuids);
+
     /**
      * @return VO object ready to be used for update.  It won't have any fields filled in.
      */
@@ -135,6 +139,13 @@ public interface GenericDao<T, ID extends Serializable> {
 
     int update(T entity, SearchCriteria<T> sc);
 
+    /**
+     * Update the entity beans using batched updates.
+     * @param entities entity beans retrieved through this dao, by id.
+     * @return rows updated.
+     */
+    int updateBatch(Map<ID, T> entities);
+
     /**
      * Look for all active rows.
      * @return list of entity beans.
@@ -199,6 +210,14 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans using batched inserts.  The id fields of the
+     * entities are updated with the new ids.
+     * @param entities the beans to persist.
+     * @return the ids of the entities, in the order of the list.
+     */
+    List<ID> persistBatch(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -229,6 +248,13 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     int expunge(final SearchCriteria<T> sc);
 
+    /**
+     * Expunge the rows of the ids using batched deletes.
+     * @param ids
+     * @return number of rows deleted
+     */
+    int expungeBatch(Collection<ID> ids);
+
     /**
      * expunge the removed rows.
      */
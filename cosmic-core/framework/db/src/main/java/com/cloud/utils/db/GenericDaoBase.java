@@ -39,6 +39,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
@@ -77,9 +79,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 /**
  *  GenericDaoBase is a simple way to implement DAOs.  It DOES NOT
@@ -149,10 +148,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
     protected Map<Pair<String, String>, Attribute> _allColumns;
+    private final ConcurrentHashMap<String, EntityRowMapper> _rowMappers = new ConcurrentHashMap<String, EntityRowMapper>();
     protected Enhancer _enhancer;
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
     protected int _timeoutSeconds;
+    protected int _batchSize = DEFAULT_BATCH_SIZE;
 
     protected final static CallbackFilter s_callbackFilter = new UpdateFilter();
 
@@ -160,6 +161,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected static final String SHARE_MODE_CLAUSE = " LOCK IN SHARE MODE";
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
 
+    protected static final int MAX_ROW_MAPPERS = 64;
+    protected static final int COLLECTION_BATCH_SIZE = 500;
+    protected static final int DEFAULT_BATCH_SIZE = 500;
+
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
 
     public static <J> GenericDao<? extends J, ? extends Serializable> getDao(Class<J> entityType) {
@@ -370,10 +375,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (clause != null && clause.length() == 0) {
             clause = null;
         }
+        final String seekClause = addSeek(clause, filter);
 
-        final StringBuilder str = createPartialSelectSql(sc, clause != null, enableQueryCache);
-        if (clause != null) {
-            str.append(clause);
+        final StringBuilder str = createPartialSelectSql(sc, seekClause != null, enableQueryCache);
+        if (seekClause != null) {
+            str.append(seekClause);
         }
 
         Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
@@ -396,7 +402,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final String sql = str.toString();
 
         PreparedStatement pstmt = null;
-        final List<T> result = new ArrayList<T>();
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
@@ -405,6 +410,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     prepareAttribute(i++, pstmt, value.first(), value.second());
                 }
             }
+            i = addSeekValues(i, pstmt, filter);
 
             if (joins != null) {
                 i = addJoinAttributes(i, pstmt, joins);
@@ -420,10 +426,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 txn.registerLock(pstmt.toString());
             }
             final ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
-            }
-            return result;
+            return toEntityBeans(rs, cache, getRowMapper(sql, rs));
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -444,10 +447,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (clause != null && clause.length() == 0) {
             clause = null;
         }
+        final String seekClause = addSeek(clause, filter);
 
-        final StringBuilder str = createPartialSelectSql(sc, clause != null);
-        if (clause != null) {
-            str.append(clause);
+        final StringBuilder str = createPartialSelectSql(sc, seekClause != null);
+        if (seekClause != null) {
+            str.append(seekClause);
         }
 
         Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
@@ -471,6 +475,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     prepareAttribute(i++, pstmt, value.first(), value.second());
                 }
             }
+            i = addSeekValues(i, pstmt, filter);
 
             if (joins != null) {
                 i = addJoinAttributes(i, pstmt, joins);
@@ -484,12 +489,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             ResultSet rs = pstmt.executeQuery();
             SelectType st = sc.getSelectType();
+            if (st == SelectType.Entity) {
+                return (List<M>)toEntityBeans(rs, false, getRowMapper(sql, rs));
+            }
             ArrayList<M> results = new ArrayList<M>();
             List<Field> fields = sc.getSelectFields();
             while (rs.next()) {
-                if (st == SelectType.Entity) {
-                    results.add((M)toEntityBean(rs, false));
-                } else if (st == SelectType.Fields || st == SelectType.Result) {
+                if (st == SelectType.Fields || st == SelectType.Result) {
                     M m = sc.getResultType().newInstance();
                     for (int j = 1; j <= fields.size(); j++) {
                         setField(m, fields.get(j - 1), rs, j);
@@ -788,9 +794,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -804,7 +807,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        int rowsUpdated = executeUpdate(ub, sc, null);
+        invalidateCache(id);
 
         txn.commit();
 
@@ -812,6 +816,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        // With a row limit the rows changed need not be the ones a lock query picks, so the whole cache is dropped instead
+        final List<ID> ids = ub.getChanges().isEmpty() || rows != null ? null : lockIds(_tables, sc.getWhereClause(), sc.getValues());
+        final int result = executeUpdate(ub, sc, rows);
+        invalidateCache(ids, result);
+        txn.commit();
+        return result;
+    }
+
+    private int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -903,6 +918,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return findOneIncludingRemovedBy(sc);
     }
 
+    @Override
+    @DB()
+    public List<T> listByUuidsIncludingRemoved(final Collection<String> uuids) {
+        if (uuids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd("uuid", SearchCriteria.Op.IN, uuids.toArray());
+        return searchIncludingRemoved(sc, null, null, false);
+    }
+
     @DB()
     protected List<T> listBy(final SearchCriteria<T> sc, final Filter filter) {
         if (_removed != null) {
@@ -943,18 +969,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
-        T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = lockRow(id, null);
-            } else {
-                result = (T)element.getObjectValue();
+            final T result = _cache.get(id);
+            if (result != null) {
+                return result;
             }
-        } else {
-            result = lockRow(id, null);
         }
-        return result;
+        return lockRow(id, null);
     }
 
     @Override
@@ -976,18 +997,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override
     @DB()
     public T findByIdIncludingRemoved(final ID id) {
-        T result = null;
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = findById(id, true, null);
-            } else {
-                result = (T)element.getObjectValue();
+            final T result = _cache.get(id);
+            if (result != null) {
+                return result;
             }
-        } else {
-            result = findById(id, true, null);
         }
-        return result;
+        return findById(id, true, null);
     }
 
     @Override
@@ -1027,7 +1043,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            return rs.next() ? toEntityBean(rs, true, getRowMapper(_selectByIdSql, rs)) : null;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1102,6 +1118,28 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    protected String addSeek(final String clause, final Filter filter) {
+        final String seek = filter != null ? filter.getSeekClause() : null;
+        if (seek == null) {
+            return clause;
+        }
+        return clause == null ? seek : "(" + clause + ") AND " + seek;
+    }
+
+    protected int addSeekValues(int i, final PreparedStatement pstmt, final Filter filter) throws SQLException {
+        if (filter == null || filter.getSeekValues() == null) {
+            return i;
+        }
+        for (final Object value : filter.getSeekValues()) {
+            if (value instanceof Date) {
+                pstmt.setString(i++, DateUtil.getDateDisplayString(s_gmtTimeZone, (Date)value));
+            } else {
+                pstmt.setObject(i++, value);
+            }
+        }
+        return i;
+    }
+
     @DB()
     protected void addFilter(final StringBuilder sql, final Filter filter) {
         if (filter != null) {
@@ -1130,7 +1168,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected List<T> executeList(final String sql, final Object... params) {
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
-        final List<T> result = new ArrayList<T>();
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 0;
@@ -1139,10 +1176,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                result.add(toEntityBean(rs, true));
-            }
-            return result;
+            return toEntityBeans(rs, true, getRowMapper(sql, rs));
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1189,10 +1223,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.executeUpdate();
             }
 
+            invalidateCache(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1219,12 +1251,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
         try {
+            txn.start();
+            final List<ID> ids = lockIds(_table, sc.getWhereClause(), sc.getValues());
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 0;
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int rows = pstmt.executeUpdate();
+            invalidateCache(ids, rows);
+            txn.commit();
+            return rows;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1436,6 +1473,245 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    /**
+     * Persists the entity beans with one batched insert per table, flushed
+     * every batch.size rows.  The id fields of the entities are updated with
+     * the new ids.  With rewriteBatchedStatements=true on the JDBC url each
+     * flush is a single multi-row insert.
+     * @return the ids of the entities, in the order of the list.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ID> persistBatch(final List<T> entities) {
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        final List<T> inserts = new ArrayList<T>(entities.size());
+        final Map<ID, T> updates = new LinkedHashMap<ID, T>();
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass()) && _idField != null) {
+                try {
+                    updates.put((ID)_idField.get(entity), entity);
+                } catch (final IllegalAccessException e) {
+                    throw new CloudRuntimeException("How can it be illegal access...come on", e);
+                }
+            } else {
+                inserts.add(entity);
+            }
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            if (!updates.isEmpty()) {
+                updateBatch(updates);
+            }
+
+            for (int from = 0; from < inserts.size(); from += _batchSize) {
+                final List<T> batch = inserts.subList(from, Math.min(from + _batchSize, inserts.size()));
+                boolean first = true;
+                for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                    final Attribute[] attrs = pair.second();
+                    pstmt = first ? txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS) : txn.prepareAutoCloseStatement(pair.first());
+                    for (final T entity : batch) {
+                        prepareAttributes(pstmt, entity, attrs, 1);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+
+                    if (first) {
+                        // The secondary tables take the id from the entity, so it has to be set before they are inserted
+                        final ResultSet rs = pstmt.getGeneratedKeys();
+                        for (final T entity : batch) {
+                            ID id = null;
+                            if (rs != null && rs.next()) {
+                                id = (ID)rs.getObject(1);
+                            }
+                            if (_idField != null) {
+                                if (id != null) {
+                                    _idField.set(entity, id);
+                                } else {
+                                    id = (ID)_idField.get(entity);
+                                }
+                            }
+                            ids.add(id);
+                        }
+                        first = false;
+                    }
+                }
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                for (int i = 0; i < inserts.size(); i++) {
+                    final HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+                    for (final Attribute attr : _ecAttributes) {
+                        final Object ec = attr.field.get(inserts.get(i));
+                        if (ec != null) {
+                            ecAttributes.put(attr, ec);
+                        }
+                    }
+                    insertElementCollection(inserts.get(i), _idAttributes.get(_table)[0], ids.get(i), ecAttributes);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        }
+
+        if (updates.isEmpty()) {
+            return ids;
+        }
+        // Put the ids of the updated entities back in their place in the list
+        final List<ID> result = new ArrayList<ID>(entities.size());
+        final Iterator<ID> inserted = ids.iterator();
+        try {
+            for (final T entity : entities) {
+                result.add(Enhancer.isEnhanced(entity.getClass()) && _idField != null ? (ID)_idField.get(entity) : inserted.next());
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("How can it be illegal access...come on", e);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the changes made to the entity beans, which must have been
+     * retrieved through this dao.  Entities with the same set of changed
+     * columns share one batched update, flushed every batch.size rows.
+     * @return rows updated.
+     */
+    @Override
+    public int updateBatch(final Map<ID, T> entities) {
+        final SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, (Object)null);
+        final String whereClause = sc.getWhereClause();
+
+        final Map<String, List<Pair<ID, UpdateBuilder>>> statements = new LinkedHashMap<String, List<Pair<ID, UpdateBuilder>>>();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (final Map.Entry<ID, T> entry : entities.entrySet()) {
+                assert Enhancer.isEnhanced(entry.getValue().getClass()) : "Entity is not generated by this dao";
+                final UpdateBuilder ub = getUpdateBuilder(entry.getValue());
+                if (ub.getCollectionChanges() != null) {
+                    insertElementCollection(entry.getValue(), _idAttributes.get(_table)[0], entry.getKey(), ub.getCollectionChanges());
+                }
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                final String key = sql.append(whereClause).toString();
+                List<Pair<ID, UpdateBuilder>> updates = statements.get(key);
+                if (updates == null) {
+                    updates = new ArrayList<Pair<ID, UpdateBuilder>>();
+                    statements.put(key, updates);
+                }
+                updates.add(new Pair<ID, UpdateBuilder>(entry.getKey(), ub));
+            }
+
+            int rows = 0;
+            for (final Map.Entry<String, List<Pair<ID, UpdateBuilder>>> statement : statements.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(statement.getKey());
+                int pending = 0;
+                for (final Pair<ID, UpdateBuilder> update : statement.getValue()) {
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : update.second().getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(i, pstmt, _idAttributes.get(_table)[0], update.first());
+                    pstmt.addBatch();
+                    if (++pending == _batchSize) {
+                        rows += countRows(pstmt.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    rows += countRows(pstmt.executeBatch());
+                }
+            }
+            for (final ID id : entities.keySet()) {
+                invalidateCache(id);
+            }
+            txn.commit();
+
+            for (final Map.Entry<String, List<Pair<ID, UpdateBuilder>>> statement : statements.entrySet()) {
+                for (final Pair<ID, UpdateBuilder> update : statement.getValue()) {
+                    update.second().clear();
+                }
+            }
+            return rows;
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+    }
+
+    /**
+     * Deletes the rows of the ids, even if they are REMOVED, with one batched
+     * delete per table flushed every batch.size rows.
+     * @return rows deleted from the entity's table.
+     */
+    @Override
+    public int expungeBatch(final Collection<ID> ids) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            int rows = 0;
+            // The delete of the primary table comes last, see SqlGenerator.buildDeleteSqls()
+            for (final Pair<String, Attribute[]> deleteSql : _deleteSqls) {
+                final Attribute[] attrs = deleteSql.second();
+                pstmt = txn.prepareAutoCloseStatement(deleteSql.first());
+                rows = 0;
+                int pending = 0;
+                for (final ID id : ids) {
+                    for (int i = 0; i < attrs.length; i++) {
+                        prepareAttribute(i + 1, pstmt, attrs[i], id);
+                    }
+                    pstmt.addBatch();
+                    if (++pending == _batchSize) {
+                        rows += countRows(pstmt.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    rows += countRows(pstmt.executeBatch());
+                }
+            }
+            for (final ID id : ids) {
+                invalidateCache(id);
+            }
+            txn.commit();
+            return rows;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+    }
+
+    /**
+     * Sums the update counts of a batch.  A rewritten batch reports
+     * SUCCESS_NO_INFO for its statements, which is counted as one row.
+     */
+    protected static int countRows(final int[] counts) {
+        int rows = 0;
+        for (final int count : counts) {
+            if (count > 0) {
+                rows += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1614,22 +1890,155 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return j;
     }
 
-    @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
+        return toEntityBean(result, cache, null);
+    }
+
+    /**
+     * @param mapper mapper for the layout of the result set, see getRowMapper(); null to resolve the columns row by row.
+     */
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected T toEntityBean(final ResultSet result, final boolean cache, final EntityRowMapper mapper) throws SQLException {
         final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
-        toEntityBean(result, entity);
+        if (mapper != null) {
+            mapper.map(entity, result);
+            for (Attribute attr : _ecAttributes) {
+                loadCollection(entity, attr);
+            }
+        } else {
+            toEntityBean(result, entity);
+        }
+
+        if (cache) {
+            cacheEntity(entity);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Reads all the remaining rows of the result set.  Unlike calling
+     * toEntityBean() per row, element collections are loaded in batches
+     * once all rows are read, see loadCollections().
+     */
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected List<T> toEntityBeans(final ResultSet result, final boolean cache, final EntityRowMapper mapper) throws SQLException {
+        final List<T> entities = new ArrayList<T>();
+        while (result.next()) {
+            final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+            mapper.map(entity, result);
+            entities.add(entity);
+        }
+
+        loadCollections(entities);
+
+        if (cache) {
+            for (final T entity : entities) {
+                cacheEntity(entity);
+            }
+        }
+        return entities;
+    }
 
-        if (cache && _cache != null) {
+    @SuppressWarnings("unchecked")
+    protected void cacheEntity(final T entity) {
+        if (_cache != null) {
             try {
-                _cache.put(new Element(_idField.get(entity), entity));
+                _cache.put((ID)_idField.get(entity), entity);
             } catch (final Exception e) {
                 s_logger.debug("Can't put it in the cache", e);
             }
         }
+    }
 
-        return entity;
+    /**
+     * Drops the entity from the caches of all management servers.  It is
+     * dropped locally right away and again, together with the other
+     * management servers, once the current transaction commits, so a
+     * concurrent reader cannot put back the row as it was before the change.
+     * @param id id of the changed entity; null if any entity may have changed.
+     */
+    protected void invalidateCache(final ID id) {
+        final EntityCache<ID, T> cache = _cache;
+        if (cache == null) {
+            return;
+        }
+        if (id == null) {
+            cache.clear();
+        } else {
+            cache.remove(id);
+        }
+        final Runnable invalidation = new Runnable() {
+            @Override
+            public void run() {
+                if (id == null) {
+                    cache.clear();
+                } else {
+                    cache.remove(id);
+                }
+                EntityCaches.publish(cache.getName(), id == null ? null : id.toString());
+            }
+        };
+        TransactionLegacy.runAfterCurrentCommit(invalidation);
+    }
+
+    /**
+     * Drops the entities a bulk update or delete changed from the cache.
+     * @param ids ids of the rows that matched, see lockIds(); null if not known.
+     * @param rows rows changed, nothing is dropped when it is 0.
+     */
+    protected void invalidateCache(final List<ID> ids, final int rows) {
+        if (_cache == null || rows == 0) {
+            return;
+        }
+        if (ids == null || ids.size() > _batchSize) {
+            // Cheaper to have every management server drop the cache of this dao than to send each id
+            invalidateCache(null);
+            return;
+        }
+        for (final ID id : ids) {
+            invalidateCache(id);
+        }
+    }
+
+    /**
+     * Selects and locks the rows a bulk update or delete is about to change,
+     * to know which cached entities it touches.  Has to be called within a
+     * transaction so no other row can start matching before the change.
+     * @return the ids of the rows, null if this dao doesn't cache its entities.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<ID> lockIds(final String tables, final String whereClause, final List<Pair<Attribute, Object>> values) {
+        if (_cache == null || _idField == null) {
+            return null;
+        }
+        final StringBuilder sql = new StringBuilder("SELECT DISTINCT ").append(_idAttributes.get(_table)[0]).append(" FROM ").append(tables);
+        if (whereClause != null && whereClause.length() > 0) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        sql.append(" FOR UPDATE");
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            int i = 0;
+            for (final Pair<Attribute, Object> value : values) {
+                prepareAttribute(++i, pstmt, value.first(), value.second());
+            }
+            final ResultSet rs = pstmt.executeQuery();
+            final List<ID> ids = new ArrayList<ID>();
+            while (rs.next()) {
+                ids.add((ID)getObject(_idField.getType(), rs, 1));
+            }
+            return ids;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
     }
 
     @DB()
@@ -1643,12 +2052,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1666,7 +2071,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     @DB()
-    @SuppressWarnings("unchecked")
     protected void loadCollection(T entity, Attribute attr) {
         EcInfo ec = (EcInfo)attr.attache;
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -1675,55 +2079,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             pstmt.setObject(1, _idField.get(entity));
             try(ResultSet rs = pstmt.executeQuery();)
             {
-                ArrayList lst = new ArrayList();
-                if (ec.targetClass == Integer.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getInt(1));
-                    }
-                } else if (ec.targetClass == Long.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getLong(1));
-                    }
-                } else if (ec.targetClass == String.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getString(1));
-                    }
-                } else if (ec.targetClass == Short.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getShort(1));
-                    }
-                } else if (ec.targetClass == Date.class) {
-                    while (rs.next()) {
-                        lst.add(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(1)));
-                    }
-                } else if (ec.targetClass == Boolean.class) {
-                    while (rs.next()) {
-                        lst.add(rs.getBoolean(1));
-                    }
-                } else {
-                    assert (false) : "You'll need to add more classeses";
-                }
-                if (ec.rawClass == null) {
-                    Object[] array = (Object[]) Array.newInstance(ec.targetClass);
-                    lst.toArray(array);
-                    try {
-                        attr.field.set(entity, array);
-                    } catch (IllegalArgumentException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    }
-                } else {
-                    try {
-                        Collection coll = (Collection) ec.rawClass.newInstance();
-                        coll.addAll(lst);
-                        attr.field.set(entity, coll);
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
-                    } catch (InstantiationException e) {
-                        throw new CloudRuntimeException("Never should happen", e);
-                    }
+                List<Object> lst = new ArrayList<Object>();
+                while (rs.next()) {
+                    lst.add(getCollectionValue(ec, rs, 1));
                 }
+                setCollection(entity, attr, lst);
             }
             catch (SQLException e) {
                 throw new CloudRuntimeException("loadCollection: Exception : " +e.getMessage(), e);
@@ -1737,6 +2097,113 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    /**
+     * Loads the element collections of all the entities with one query per
+     * collection for every COLLECTION_BATCH_SIZE entities, instead of one
+     * query per collection per entity as toEntityBean() does.
+     */
+    @DB()
+    protected void loadCollections(final List<? extends T> entities) {
+        if (_ecAttributes.isEmpty() || entities.isEmpty()) {
+            return;
+        }
+        try {
+            for (int from = 0; from < entities.size(); from += COLLECTION_BATCH_SIZE) {
+                final List<? extends T> page = entities.subList(from, Math.min(from + COLLECTION_BATCH_SIZE, entities.size()));
+                final List<Object> ids = new ArrayList<Object>(page.size());
+                for (final T entity : page) {
+                    ids.add(_idField.get(entity));
+                }
+                for (final Attribute attr : _ecAttributes) {
+                    loadCollections(page, ids, attr);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("loadCollections: Exception : " + e.getMessage(), e);
+        }
+    }
+
+    private void loadCollections(final List<? extends T> page, final List<Object> ids, final Attribute attr) throws IllegalAccessException {
+        final EcInfo ec = (EcInfo)attr.attache;
+        final StringBuilder sql = new StringBuilder(ec.batchSelectSql);
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+
+        final Map<Object, List<Object>> values = new HashMap<Object, List<Object>>(ids.size() * 2);
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try (PreparedStatement pstmt = txn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (final Object id : ids) {
+                pstmt.setObject(i++, id);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    final Object id = getObject(_idField.getType(), rs, 1);
+                    List<Object> lst = values.get(id);
+                    if (lst == null) {
+                        lst = new ArrayList<Object>();
+                        values.put(id, lst);
+                    }
+                    lst.add(getCollectionValue(ec, rs, 2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("loadCollections: Exception : " + e.getMessage(), e);
+        }
+
+        for (int i = 0; i < page.size(); i++) {
+            final List<Object> lst = values.get(ids.get(i));
+            setCollection(page.get(i), attr, lst == null ? new ArrayList<Object>() : lst);
+        }
+    }
+
+    protected Object getCollectionValue(final EcInfo ec, final ResultSet rs, final int index) throws SQLException {
+        if (ec.targetClass == Integer.class) {
+            return rs.getInt(index);
+        } else if (ec.targetClass == Long.class) {
+            return rs.getLong(index);
+        } else if (ec.targetClass == String.class) {
+            return rs.getString(index);
+        } else if (ec.targetClass == Short.class) {
+            return rs.getShort(index);
+        } else if (ec.targetClass == Date.class) {
+            return DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index));
+        } else if (ec.targetClass == Boolean.class) {
+            return rs.getBoolean(index);
+        } else {
+            assert (false) : "You'll need to add more classeses";
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void setCollection(final Object entity, final Attribute attr, final List<Object> lst) {
+        EcInfo ec = (EcInfo)attr.attache;
+        if (ec.rawClass == null) {
+            Object[] array = (Object[]) Array.newInstance(ec.targetClass);
+            lst.toArray(array);
+            try {
+                attr.field.set(entity, array);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            }
+        } else {
+            try {
+                Collection coll = (Collection) ec.rawClass.newInstance();
+                coll.addAll(lst);
+                attr.field.set(entity, coll);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Come on we screen for this stuff, don't we?", e);
+            } catch (InstantiationException e) {
+                throw new CloudRuntimeException("Never should happen", e);
+            }
+        }
+    }
+
     @Override
     public void expunge() {
         if (_removed == null) {
@@ -1748,15 +2215,36 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         PreparedStatement pstmt = null;
         try {
             txn.start();
+            final List<ID> ids = lockIds(_table, _removed.first() + " IS NOT NULL", Collections.<Pair<Attribute, Object>>emptyList());
             pstmt = txn.prepareAutoCloseStatement(sql.toString());
 
-            pstmt.executeUpdate();
+            invalidateCache(ids, pstmt.executeUpdate());
             txn.commit();
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on " + pstmt, e);
         }
     }
 
+    /**
+     * Returns the mapper for the columns of the result set.  Mappers are
+     * shared by all queries selecting the same column list, which is the
+     * part of the sql before FROM.
+     */
+    protected EntityRowMapper getRowMapper(final String sql, final ResultSet rs) throws SQLException {
+        final ResultSetMetaData meta = rs.getMetaData();
+        final int from = sql.indexOf(" FROM ");
+        final String key = from < 0 ? sql : sql.substring(0, from);
+        EntityRowMapper mapper = _rowMappers.get(key);
+        if (mapper != null && mapper.matches(meta)) {
+            return mapper;
+        }
+        mapper = new EntityRowMapper(meta, _allColumns, _entityBeanType.getAnnotation(Table.class));
+        if (_rowMappers.size() < MAX_ROW_MAPPERS) {
+            _rowMappers.putIfAbsent(key, mapper);
+        }
+        return mapper;
+    }
+
     @DB()
     protected void setField(final Object entity, final ResultSet rs, ResultSetMetaData meta, final int index) throws SQLException {
         Attribute attr = _allColumns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
@@ -1790,10 +2278,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final int result = pstmt.executeUpdate();
+            invalidateCache(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1813,25 +2299,70 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache<ID, T> _cache;
 
+    /**
+     * Creates the entity cache if the dao is configured with cache.size, the
+     * maximum weight of the cached entities (see getCacheWeight()), and
+     * optionally cache.time.to.live in seconds, -1 to never expire.
+     */
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
-            final int maxElements = NumbersUtil.parseInt(value, 0);
+        if (value != null && _idField != null) {
+            // Like before, a size of 0 means unbounded
+            final int size = NumbersUtil.parseInt(value, 0);
+            final int maxWeight = size > 0 ? size : Integer.MAX_VALUE;
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
-            s_logger.info("Cache created: " + _cache.toString());
+            _cache = EntityCaches.createCache(getName(), maxWeight, live, new EntityCache.Weigher<T>() {
+                @Override
+                public int weigh(final T entity) {
+                    return getCacheWeight(entity);
+                }
+            });
+            EntityCaches.registerInvalidationListener(getName(), new EntityCaches.InvalidationListener() {
+                @Override
+                public void invalidate(final String id) {
+                    final ID key = id == null ? null : parseId(id);
+                    if (key == null) {
+                        _cache.clear();
+                    } else {
+                        _cache.remove(key);
+                    }
+                }
+            });
+            s_logger.info("Cache created: " + getName() + " max weight " + maxWeight + " time to live " + live);
         } else {
             _cache = null;
         }
     }
 
+    /**
+     * Weight of a cached entity against cache.size; override for entities
+     * that differ much in size.
+     */
+    protected int getCacheWeight(final T entity) {
+        return 1;
+    }
+
+    /**
+     * @return the id published by another management server, or null if
+     * the id type is not supported and the whole cache has to be dropped.
+     */
+    @SuppressWarnings("unchecked")
+    protected ID parseId(final String id) {
+        final Class<?> type = _idField.getType();
+        if (type == Long.class || type == long.class) {
+            return (ID)Long.valueOf(id);
+        } else if (type == Integer.class || type == int.class) {
+            return (ID)Integer.valueOf(id);
+        } else if (type == String.class) {
+            return (ID)id;
+        }
+        return null;
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -1839,6 +2370,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         final String value = (String)params.get("lock.timeout");
         _timeoutSeconds = NumbersUtil.parseInt(value, 300);
+        _batchSize = Math.max(NumbersUtil.parseInt((String)params.get("batch.size"), DEFAULT_BATCH_SIZE), 1);
 
         createCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
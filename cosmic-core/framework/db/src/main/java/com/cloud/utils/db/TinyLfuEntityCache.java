@@ -0,0 +1,460 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.StandardMBean;
+
+/**
+ * Weight bounded EntityCache with W-TinyLFU eviction.  New entries go to a
+ * small LRU window; an entry pushed out of the window is only admitted to
+ * the main segmented LRU if it has been used more often than the entry it
+ * would evict, as estimated by a count-min sketch.  One-off scans therefore
+ * do not flush the hot entries.
+ *
+ * Reads do not lock: they are recorded in a lossy buffer that is replayed
+ * under the eviction lock by the next write or when the buffer fills up.
+ */
+public class TinyLfuEntityCache<K, V> extends StandardMBean implements EntityCache<K, V>, EntityCacheMBean {
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+    private final String _name;
+    private final long _maximumWeight;
+    private final long _maxWindowWeight;
+    private final long _maxProtectedWeight;
+    private final long _expireAfterWriteNanos;
+    private final Weigher<? super V> _weigher;
+
+    private final ConcurrentHashMap<K, Node<K, V>> _data = new ConcurrentHashMap<K, Node<K, V>>();
+    private final Queue<Node<K, V>> _readBuffer = new ConcurrentLinkedQueue<Node<K, V>>();
+    private final AtomicInteger _readBufferSize = new AtomicInteger();
+
+    // Guarded by _evictionLock
+    private final ReentrantLock _evictionLock = new ReentrantLock();
+    private final FrequencySketch _sketch;
+    private final AccessOrder<K, V> _window = new AccessOrder<K, V>();
+    private final AccessOrder<K, V> _probation = new AccessOrder<K, V>();
+    private final AccessOrder<K, V> _protected = new AccessOrder<K, V>();
+    private long _windowWeight;
+    private long _protectedWeight;
+    private long _weightedSize;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    /**
+     * @param maximumWeight maximum total weight of the entries.
+     * @param expireAfterWriteSeconds seconds an entry lives after it is put; -1 or 0 to never expire.
+     * @param weigher weight of an entry; null to weigh every entry 1.
+     */
+    public TinyLfuEntityCache(final String name, final long maximumWeight, final long expireAfterWriteSeconds, final Weigher<? super V> weigher) {
+        super(EntityCacheMBean.class, false);
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be greater than 0: " + maximumWeight);
+        }
+        _name = name;
+        _maximumWeight = maximumWeight;
+        _maxWindowWeight = Math.max(maximumWeight / 100, 1);
+        _maxProtectedWeight = (maximumWeight - _maxWindowWeight) * 8 / 10;
+        _expireAfterWriteNanos = expireAfterWriteSeconds > 0 ? TimeUnit.SECONDS.toNanos(expireAfterWriteSeconds) : 0;
+        _weigher = weigher;
+        _sketch = new FrequencySketch(maximumWeight);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public V get(final K key) {
+        final Node<K, V> node = _data.get(key);
+        if (node == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        if (_expireAfterWriteNanos > 0 && System.nanoTime() - node.writeTime >= _expireAfterWriteNanos) {
+            if (_data.remove(key, node)) {
+                retire(node);
+            }
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        recordRead(node);
+        return node.value;
+    }
+
+    @Override
+    public void put(final K key, final V value) {
+        final Node<K, V> node = new Node<K, V>(key, value, _weigher != null ? Math.max(_weigher.weigh(value), 0) : 1, System.nanoTime());
+        if (node.weight > _maximumWeight) {
+            remove(key);
+            return;
+        }
+
+        final Node<K, V> old = _data.put(key, node);
+        _evictionLock.lock();
+        try {
+            if (old != null) {
+                old.retired = true;
+                unlink(old);
+            }
+            drainReadBuffer();
+            // A concurrent remove() or put() may have replaced the node already
+            if (!node.retired && _data.get(key) == node) {
+                node.queue = Node.WINDOW;
+                _window.addLast(node);
+                _windowWeight += node.weight;
+                _weightedSize += node.weight;
+                _sketch.increment(key);
+                evict();
+            }
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(final K key) {
+        final Node<K, V> node = _data.remove(key);
+        if (node != null) {
+            _invalidations.incrementAndGet();
+            retire(node);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (final K key : _data.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return _data.size();
+    }
+
+    @Override
+    public long getWeightedSize() {
+        _evictionLock.lock();
+        try {
+            return _weightedSize;
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long getMaximumWeight() {
+        return _maximumWeight;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = _hits.get();
+        final long requests = hits + _misses.get();
+        return requests == 0 ? 1.0 : (double)hits / requests;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return _evictions.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return _invalidations.get();
+    }
+
+    private void retire(final Node<K, V> node) {
+        node.retired = true;
+        _evictionLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    private void recordRead(final Node<K, V> node) {
+        // Reads are only hints for the eviction policy, so they are dropped when the buffer is full
+        final int size = _readBufferSize.incrementAndGet();
+        if (size > READ_BUFFER_SIZE) {
+            _readBufferSize.decrementAndGet();
+        } else {
+            _readBuffer.add(node);
+        }
+        if (size >= READ_BUFFER_DRAIN_THRESHOLD && _evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        Node<K, V> node;
+        for (int i = 0; i < READ_BUFFER_SIZE && (node = _readBuffer.poll()) != null; i++) {
+            _readBufferSize.decrementAndGet();
+            onAccess(node);
+        }
+    }
+
+    private void onAccess(final Node<K, V> node) {
+        if (node.queue == Node.NONE) {
+            return;
+        }
+        _sketch.increment(node.key);
+        if (node.queue == Node.WINDOW) {
+            _window.moveToLast(node);
+        } else if (node.queue == Node.PROBATION) {
+            _probation.remove(node);
+            node.queue = Node.PROTECTED;
+            _protected.addLast(node);
+            _protectedWeight += node.weight;
+            while (_protectedWeight > _maxProtectedWeight) {
+                final Node<K, V> demoted = _protected.first();
+                _protected.remove(demoted);
+                _protectedWeight -= demoted.weight;
+                demoted.queue = Node.PROBATION;
+                _probation.addLast(demoted);
+            }
+        } else {
+            _protected.moveToLast(node);
+        }
+    }
+
+    private void evict() {
+        // Entries pushed out of the window become candidates at the tail of probation
+        while (_windowWeight > _maxWindowWeight) {
+            final Node<K, V> node = _window.first();
+            _window.remove(node);
+            _windowWeight -= node.weight;
+            node.queue = Node.PROBATION;
+            _probation.addLast(node);
+        }
+
+        while (_weightedSize > _maximumWeight) {
+            final Node<K, V> victim = _probation.first();
+            final Node<K, V> candidate = _probation.last();
+            if (victim == null) {
+                evictNode(_protected.first() != null ? _protected.first() : _window.first());
+            } else if (victim == candidate || _sketch.frequency(candidate.key) > _sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(final Node<K, V> node) {
+        _data.remove(node.key, node);
+        node.retired = true;
+        unlink(node);
+        _evictions.incrementAndGet();
+    }
+
+    private void unlink(final Node<K, V> node) {
+        switch (node.queue) {
+        case Node.WINDOW:
+            _window.remove(node);
+            _windowWeight -= node.weight;
+            break;
+        case Node.PROBATION:
+            _probation.remove(node);
+            break;
+        case Node.PROTECTED:
+            _protected.remove(node);
+            _protectedWeight -= node.weight;
+            break;
+        default:
+            return;
+        }
+        _weightedSize -= node.weight;
+        node.queue = Node.NONE;
+    }
+
+    static final class Node<K, V> {
+        static final int NONE = 0;
+        static final int WINDOW = 1;
+        static final int PROBATION = 2;
+        static final int PROTECTED = 3;
+
+        final K key;
+        final V value;
+        final int weight;
+        final long writeTime;
+        volatile boolean retired;
+
+        // Guarded by the eviction lock
+        int queue = NONE;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(final K key, final V value, final int weight, final long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, least recently used first.
+     */
+    static final class AccessOrder<K, V> {
+        private Node<K, V> _first;
+        private Node<K, V> _last;
+
+        Node<K, V> first() {
+            return _first;
+        }
+
+        Node<K, V> last() {
+            return _last;
+        }
+
+        void addLast(final Node<K, V> node) {
+            node.prev = _last;
+            node.next = null;
+            if (_last == null) {
+                _first = node;
+            } else {
+                _last.next = node;
+            }
+            _last = node;
+        }
+
+        void remove(final Node<K, V> node) {
+            if (node.prev == null) {
+                _first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                _last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToLast(final Node<K, V> node) {
+            if (node != _last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters estimating how often keys were used.
+     * The counters are halved every 10 * width increments so the estimates
+     * favor recent use.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] _table;
+        private final int _sampleSize;
+        private int _size;
+
+        FrequencySketch(final long maximumSize) {
+            final int width = (int)Math.min(Math.max(maximumSize, 16), 1 << 24);
+            int length = 1;
+            while (length < width) {
+                length <<= 1;
+            }
+            _table = new long[length];
+            _sampleSize = 10 * length;
+        }
+
+        int frequency(final Object key) {
+            final int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int)((_table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(final Object key) {
+            final int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final long mask = 0xfL << offsetOf(hash, i);
+                if ((_table[index] & mask) != mask) {
+                    _table[index] += 1L << offsetOf(hash, i);
+                    added = true;
+                }
+            }
+            if (added && ++_size >= _sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < _table.length; i++) {
+                _table[i] = (_table[i] >>> 1) & RESET_MASK;
+            }
+            _size /= 2;
+        }
+
+        private int indexOf(final int hash, final int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int)h & (_table.length - 1);
+        }
+
+        private static int offsetOf(final int hash, final int i) {
+            // One of the 16 counters in a long, picked by a different nibble of the hash per row
+            return ((hash >>> (i << 3)) & 0xf) << 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
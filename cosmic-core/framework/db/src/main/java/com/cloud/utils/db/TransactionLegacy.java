@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -103,6 +104,7 @@ public class TransactionLegacy implements Closeable {
     private long _txnTime;
     private Statement _stmt;
     private String _creator;
+    private List<Runnable> _afterCommit;
 
     public static TransactionLegacy currentTxn() {
         return currentTxn(true);
@@ -605,6 +607,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        _afterCommit = null;
 
         closeConnection();
 
@@ -699,6 +702,7 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
+            runAfterCommitTasks();
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
@@ -706,6 +710,49 @@ public class TransactionLegacy implements Closeable {
         }
     }
 
+    /**
+     * Runs the task once the transaction commits, or right away if there is
+     * no transaction.  The task is dropped if the transaction rolls back.
+     */
+    public void runAfterCommit(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        if (_afterCommit == null) {
+            _afterCommit = new ArrayList<>();
+        }
+        _afterCommit.add(task);
+    }
+
+    /**
+     * Runs the task once the transaction on this thread's stack commits, or
+     * right away if there is none.
+     */
+    public static void runAfterCurrentCommit(final Runnable task) {
+        final TransactionLegacy txn = currentTxn(false);
+        if (txn != null) {
+            txn.runAfterCommit(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void runAfterCommitTasks() {
+        final List<Runnable> tasks = _afterCommit;
+        _afterCommit = null;
+        if (tasks == null) {
+            return;
+        }
+        for (final Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                s_logger.warn("Unable to run after commit task " + task, e);
+            }
+        }
+    }
+
     protected void closeConnection() {
         closePreviousStatement();
 
@@ -808,6 +855,7 @@ public class TransactionLegacy implements Closeable {
         }
         assert !hasTxnInStack() : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _afterCommit = null;
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
@@ -41,4 +41,42 @@ public class FilterTest {
         Assert.assertTrue(filter.getOrderBy().split(",").length == 3);
         Assert.assertTrue(filter.getOrderBy().split(",")[2].trim().toLowerCase().equals("test.fld_int asc"));
     }
+
+    @Test
+    public void testSeekAfterSingleColumn() {
+        Filter filter = new Filter(DbTestVO.class, "fieldLong", true, 40L, 20L);
+        Assert.assertNull(filter.getSeekClause());
+
+        filter.setSeekAfter(42L);
+
+        Assert.assertEquals("test.fld_long > ?", filter.getSeekClause());
+        Assert.assertArrayEquals(new Object[] {42L}, filter.getSeekValues());
+        Assert.assertEquals(Long.valueOf(0L), filter.getOffset());
+        Assert.assertEquals(Long.valueOf(20L), filter.getLimit());
+    }
+
+    @Test
+    public void testSeekAfterMultipleColumnsDescending() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", false, 0L, 20L);
+        filter.addOrderBy(DbTestVO.class, "fieldLong", false);
+
+        filter.setSeekAfter("abc", 42L);
+
+        Assert.assertEquals("(test.fld_string, test.fld_long) < (?, ?)", filter.getSeekClause());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeekAfterMixedOrder() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", false, 0L, 20L);
+        filter.addOrderBy(DbTestVO.class, "fieldLong", true);
+
+        filter.setSeekAfter("abc", 42L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeekAfterWrongValueCount() {
+        Filter filter = new Filter(DbTestVO.class, "fieldLong", true, 0L, 20L);
+
+        filter.setSeekAfter("abc", 42L);
+    }
 }
@@ -16,10 +16,33 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -30,6 +53,27 @@ import org.mockito.runners.MockitoJUnitRunner;
 public class GenericDaoBaseTest {
     @Mock
     ResultSet resultSet;
+    @Mock
+    ResultSetMetaData metaData;
+    @Mock
+    Connection conn;
+    @Mock
+    PreparedStatement pstmt;
+
+    TransactionLegacy txn;
+
+    @Before
+    public void setup() throws SQLException {
+        txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
+        txn.setConnection(conn);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenReturn(pstmt);
+        Mockito.when(conn.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(pstmt);
+    }
+
+    @After
+    public void after() {
+        TransactionLegacy.currentTxn().close();
+    }
 
     @Test
     public void getObjectBoolean() throws SQLException {
@@ -148,4 +192,219 @@ public class GenericDaoBaseTest {
         Mockito.verify(resultSet).getByte(1);
     }
 
+    @Test
+    public void rowMapperHydratesEntity() throws SQLException {
+        final String[] columns = {"id", "fld_int", "fld_long", "fld_string"};
+        Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+        Mockito.when(metaData.getColumnCount()).thenReturn(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            Mockito.when(metaData.getTableName(i + 1)).thenReturn("test");
+            Mockito.when(metaData.getColumnName(i + 1)).thenReturn(columns[i]);
+            Mockito.when(metaData.getColumnLabel(i + 1)).thenReturn(columns[i]);
+        }
+        Mockito.when(resultSet.getLong(1)).thenReturn(5L);
+        Mockito.when(resultSet.getInt(2)).thenReturn(7);
+        Mockito.when(resultSet.getLong(3)).thenReturn(9L);
+        Mockito.when(resultSet.getBytes(4)).thenReturn("abc".getBytes());
+
+        final DbTestDao dao = new DbTestDao();
+        final EntityRowMapper mapper = dao.getRowMapper("SELECT test.id, test.fld_int, test.fld_long, test.fld_string FROM test", resultSet);
+        final DbTestVO vo = dao.toEntityBean(resultSet, false, mapper);
+        Assert.assertEquals(5L, vo.id);
+        Assert.assertEquals(7, vo.getFieldInt());
+        Assert.assertEquals(9L, vo.getFieldLong());
+        Assert.assertEquals("abc", vo.getFieldString());
+
+        Assert.assertSame(mapper, dao.getRowMapper("SELECT test.id, test.fld_int, test.fld_long, test.fld_string FROM test WHERE test.id = ?", resultSet));
+
+        Mockito.when(resultSet.wasNull()).thenReturn(true);
+        Assert.assertNull(dao.toEntityBean(resultSet, false, mapper).fieldLong);
+    }
+
+    @Test
+    public void countRowsOfRewrittenBatch() {
+        Assert.assertEquals(3, GenericDaoBase.countRows(new int[] {1, 0, 2}));
+        Assert.assertEquals(2, GenericDaoBase.countRows(new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}));
+        Assert.assertEquals(0, GenericDaoBase.countRows(new int[] {Statement.EXECUTE_FAILED}));
+    }
+
+    @Test
+    public void elementCollectionBatchSelect() {
+        final GenericDaoBase<TaggedVO, Long> dao = new GenericDaoBase<TaggedVO, Long>() {
+        };
+        final EcInfo ec = (EcInfo)dao._ecAttributes.get(0).attache;
+        Assert.assertEquals("SELECT tagged.id, tag FROM tagged_tags, tagged WHERE tagged_tags.tagged_id=tagged.id AND tagged.id IN (", ec.batchSelectSql);
+    }
+
+    @Test
+    public void persistBatchWritesRowsAndSetsIds() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._batchSize = 2;
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1});
+        Mockito.when(pstmt.getGeneratedKeys()).thenReturn(resultSet);
+        Mockito.when(resultSet.next()).thenReturn(true, true, true, false);
+        Mockito.when(resultSet.getObject(1)).thenReturn(10L, 11L, 12L);
+
+        final List<BatchVO> entities = Arrays.asList(new BatchVO("a"), new BatchVO("b"), new BatchVO("c"));
+        Assert.assertEquals(Arrays.asList(10L, 11L, 12L), dao.persistBatch(entities));
+        Assert.assertEquals(11L, entities.get(1).id);
+
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(pstmt).setBytes(1, "c".getBytes());
+        Mockito.verify(conn).commit();
+        Assert.assertTrue(dao.invalidated.isEmpty());
+    }
+
+    @Test
+    public void updateBatchWritesChangedRowsAndInvalidatesThem() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._batchSize = 2;
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 0}, new int[] {1});
+
+        final Map<Long, BatchVO> entities = new LinkedHashMap<Long, BatchVO>();
+        for (long id = 1; id <= 4; id++) {
+            final BatchVO entity = dao.createForUpdate(id);
+            if (id != 3) {
+                entity.setName("name-" + id);
+            }
+            entities.put(id, entity);
+        }
+
+        Assert.assertEquals(2, dao.updateBatch(entities));
+        Mockito.verify(conn, Mockito.times(1)).prepareStatement(Mockito.anyString());
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(pstmt).setObject(2, 4L);
+        Mockito.verify(conn).commit();
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L), dao.invalidated);
+    }
+
+    @Test
+    public void expungeBatchRemovesRowsAndInvalidatesThem() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._batchSize = 2;
+        Mockito.when(pstmt.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {0});
+
+        Assert.assertEquals(2, dao.expungeBatch(Arrays.asList(1L, 2L, 3L)));
+        Mockito.verify(pstmt, Mockito.times(3)).addBatch();
+        Mockito.verify(pstmt, Mockito.times(2)).executeBatch();
+        Mockito.verify(pstmt).setObject(1, 3L);
+        Mockito.verify(conn).commit();
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L), dao.invalidated);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkUpdateInvalidatesMatchedIds() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._cache = Mockito.mock(EntityCache.class);
+        Mockito.when(pstmt.executeQuery()).thenReturn(resultSet);
+        Mockito.when(resultSet.next()).thenReturn(true, true, false);
+        Mockito.when(resultSet.getObject(1)).thenReturn(5L, 6L);
+        Mockito.when(resultSet.getLong(1)).thenReturn(5L, 6L);
+        Mockito.when(pstmt.executeUpdate()).thenReturn(2);
+
+        final BatchVO entity = dao.createForUpdate();
+        entity.setName("renamed");
+        final SearchCriteria<BatchVO> sc = dao.createSearchCriteria();
+        sc.addAnd("name", SearchCriteria.Op.EQ, "old");
+
+        Assert.assertEquals(2, dao.update(entity, sc));
+        Mockito.verify(conn).prepareStatement("SELECT DISTINCT batch.id FROM batch WHERE batch.name = ?  FOR UPDATE");
+        Assert.assertEquals(Arrays.asList(5L, 6L), dao.invalidated);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void boundedBulkUpdateDropsWholeCache() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._cache = Mockito.mock(EntityCache.class);
+        Mockito.when(pstmt.executeUpdate()).thenReturn(2);
+
+        final BatchVO entity = dao.createForUpdate();
+        entity.setName("renamed");
+        final SearchCriteria<BatchVO> sc = dao.createSearchCriteria();
+        sc.addAnd("name", SearchCriteria.Op.EQ, "old");
+
+        Assert.assertEquals(2, dao.update(entity, sc, 2));
+        Mockito.verify(conn, Mockito.times(1)).prepareStatement(Mockito.anyString());
+        Mockito.verify(pstmt, Mockito.never()).executeQuery();
+        Assert.assertEquals(Collections.singletonList((Long)null), dao.invalidated);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkExpungeWithoutRowsKeepsCache() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        dao._cache = Mockito.mock(EntityCache.class);
+        Mockito.when(pstmt.executeQuery()).thenReturn(resultSet);
+        Mockito.when(pstmt.executeUpdate()).thenReturn(0);
+
+        final SearchCriteria<BatchVO> sc = dao.createSearchCriteria();
+        sc.addAnd("name", SearchCriteria.Op.EQ, "none");
+
+        Assert.assertEquals(0, dao.expunge(sc));
+        Assert.assertTrue(dao.invalidated.isEmpty());
+    }
+
+    @Test
+    public void bulkUpdateWithoutCacheSkipsIdLookup() throws SQLException {
+        final BatchDao dao = new BatchDao();
+        Mockito.when(pstmt.executeUpdate()).thenReturn(3);
+
+        final BatchVO entity = dao.createForUpdate();
+        entity.setName("renamed");
+        final SearchCriteria<BatchVO> sc = dao.createSearchCriteria();
+        sc.addAnd("name", SearchCriteria.Op.EQ, "old");
+
+        Assert.assertEquals(3, dao.update(entity, sc));
+        Mockito.verify(conn, Mockito.times(1)).prepareStatement(Mockito.anyString());
+        Mockito.verify(pstmt, Mockito.never()).executeQuery();
+    }
+
+    public static class BatchDao extends GenericDaoBase<BatchVO, Long> {
+        final List<Long> invalidated = new ArrayList<Long>();
+
+        @Override
+        protected void invalidateCache(final Long id) {
+            invalidated.add(id);
+        }
+    }
+
+    @Entity
+    @Table(name = "batch")
+    public static class BatchVO {
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        @Column(name = "id")
+        long id;
+
+        @Column(name = "name")
+        String name;
+
+        public BatchVO() {
+        }
+
+        public BatchVO(final String name) {
+            this.name = name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+    }
+
+    @Entity
+    @Table(name = "tagged")
+    public static class TaggedVO {
+        @Id
+        @Column(name = "id")
+        long id;
+
+        @ElementCollection(targetClass = String.class, fetch = FetchType.EAGER)
+        @CollectionTable(name = "tagged_tags", joinColumns = @JoinColumn(name = "tagged_id"))
+        @Column(name = "tag")
+        List<String> tags;
+    }
 }
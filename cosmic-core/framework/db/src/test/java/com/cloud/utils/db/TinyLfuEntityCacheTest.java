@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TinyLfuEntityCacheTest {
+
+    @Test
+    public void sizeIsBounded() {
+        final TinyLfuEntityCache<Long, String> cache = new TinyLfuEntityCache<Long, String>("bounded", 100, -1, null);
+        for (long i = 0; i < 1000; i++) {
+            cache.put(i, "entity-" + i);
+        }
+        Assert.assertEquals(100, cache.getSize());
+        Assert.assertEquals(100, cache.getWeightedSize());
+        Assert.assertEquals(900, cache.getEvictionCount());
+    }
+
+    @Test
+    public void frequentlyUsedEntitiesSurviveScan() {
+        final TinyLfuEntityCache<Long, String> cache = new TinyLfuEntityCache<Long, String>("scan", 100, -1, null);
+        for (long i = 0; i < 50; i++) {
+            cache.put(i, "hot-" + i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (long i = 0; i < 50; i++) {
+                Assert.assertNotNull(cache.get(i));
+            }
+        }
+        // A scan of entities read only once must not push out the hot ones
+        for (long i = 1000; i < 11000; i++) {
+            cache.put(i, "cold-" + i);
+        }
+        int hits = 0;
+        for (long i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                hits++;
+            }
+        }
+        Assert.assertTrue("Only " + hits + " hot entities left", hits >= 45);
+    }
+
+    @Test
+    public void weigherLimitsTotalWeight() {
+        final TinyLfuEntityCache<Long, String> cache = new TinyLfuEntityCache<Long, String>("weighted", 100, -1, new EntityCache.Weigher<String>() {
+            @Override
+            public int weigh(final String value) {
+                return value.length();
+            }
+        });
+        for (long i = 0; i < 100; i++) {
+            cache.put(i, "0123456789");
+        }
+        Assert.assertEquals(10, cache.getSize());
+        Assert.assertTrue(cache.getWeightedSize() <= 100);
+
+        // Heavier than the whole cache, never cached
+        cache.put(1000L, new String(new char[101]));
+        Assert.assertNull(cache.get(1000L));
+    }
+
+    @Test
+    public void removeAndReplace() {
+        final TinyLfuEntityCache<Long, String> cache = new TinyLfuEntityCache<Long, String>("replace", 10, -1, null);
+        cache.put(1L, "old");
+        cache.put(1L, "new");
+        Assert.assertEquals("new", cache.get(1L));
+        Assert.assertEquals(1, cache.getWeightedSize());
+
+        cache.remove(1L);
+        Assert.assertNull(cache.get(1L));
+        Assert.assertEquals(0, cache.getWeightedSize());
+        Assert.assertEquals(1, cache.getInvalidationCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+}
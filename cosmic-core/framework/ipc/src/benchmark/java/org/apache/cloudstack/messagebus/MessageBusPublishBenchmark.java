@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cloudstack.messagebus;
+
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.utils.db.TransactionLegacy;
+
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Publish throughput of one message bus shared by several threads, with
+ * subscribers on the subject, on its parent and on the root as the job
+ * framework sets them up.  Compiled only with -Dbenchmarks; run the main method
+ * from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class MessageBusPublishBenchmark {
+    private MessageBusBase _messageBus;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        _messageBus = new MessageBusBase();
+        final MessageSubscriber subscriber = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                blackhole.consume(args);
+            }
+        };
+        _messageBus.subscribe("/", subscriber);
+        _messageBus.subscribe("job", subscriber);
+        for (int i = 0; i < 256; i++) {
+            _messageBus.subscribe("job." + i, subscriber);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PublisherState {
+        private TransactionLegacy _txn;
+        private int _next;
+
+        @Setup(Level.Trial)
+        public void open() {
+            _txn = TransactionLegacy.open("MessageBusPublishBenchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            _txn.close();
+        }
+
+        String nextSubject() {
+            return "job." + (_next++ & 255);
+        }
+    }
+
+    @Benchmark
+    public void publish(final PublisherState state) {
+        _messageBus.publish(null, state.nextSubject(), PublishScope.LOCAL, state);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageBusPublishBenchmark.class.getSimpleName()).build()).run();
+    }
+}
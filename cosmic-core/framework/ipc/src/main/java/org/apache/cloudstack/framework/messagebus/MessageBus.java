@@ -19,6 +19,8 @@
 
 package org.apache.cloudstack.framework.messagebus;
 
+import java.util.concurrent.Executor;
+
 import org.apache.cloudstack.framework.serializer.MessageSerializer;
 
 public interface MessageBus {
@@ -28,6 +30,13 @@ public interface MessageBus {
 
     void subscribe(String subject, MessageSubscriber subscriber);
 
+    /**
+     * Subscribes with messages handed to the executor instead of being handled
+     * on the publishing thread.  Use it for subscribers that may block, the
+     * executor decides about ordering and back pressure.
+     */
+    void subscribe(String subject, MessageSubscriber subscriber, Executor executor);
+
     void unsubscribe(String subject, MessageSubscriber subscriber);
 
     void clearAll();
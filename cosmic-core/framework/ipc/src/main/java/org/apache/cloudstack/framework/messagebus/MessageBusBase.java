@@ -19,35 +19,58 @@
 
 package org.apache.cloudstack.framework.messagebus;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.management.StandardMBean;
 
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 import org.apache.cloudstack.framework.serializer.MessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MessageBusBase implements MessageBus {
+/**
+ * Subscriptions are kept in an immutable tree of subject tokens.  Subscribe,
+ * unsubscribe, clearAll and prune copy the path they change and swap in the
+ * new root under a lock, publish only reads the current root and never
+ * blocks.  A publish that runs concurrently with a subscription change
+ * either sees the change or not, never half of it.
+ */
+public class MessageBusBase implements MessageBus, MessageBusStatsMBean {
 
-    private final Gate _gate;
-    private final List<ActionRecord> _pendingActions;
+    private static final Logger s_logger = LoggerFactory.getLogger(MessageBusBase.class);
 
-    private final SubscriptionNode _subscriberRoot;
+    private final Object _updateLock = new Object();
+    private volatile SubscriptionNode _subscriberRoot;
     private MessageSerializer _messageSerializer;
 
-    private static final Logger s_logger = LoggerFactory.getLogger(MessageBusBase.class);
+    private final AtomicLong _publishCount = new AtomicLong();
+    private final AtomicLong _publishTimeNanos = new AtomicLong();
+    private final AtomicLong _maxPublishTimeNanos = new AtomicLong();
+    private final AtomicLong _deliveryCount = new AtomicLong();
+    private final AtomicLong _maxFanOut = new AtomicLong();
+    private final AtomicLong _rejectedDeliveryCount = new AtomicLong();
 
     public MessageBusBase() {
-        _gate = new Gate();
-        _pendingActions = new ArrayList<ActionRecord>();
+        _subscriberRoot = SubscriptionNode.EMPTY;
+    }
 
-        _subscriberRoot = new SubscriptionNode(null, "/", null);
+    @PostConstruct
+    public void registerMBean() {
+        try {
+            JmxUtil.registerMBean("MessageBus", getClass().getSimpleName(), new StandardMBean(this, MessageBusStatsMBean.class));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the message bus MBean", e);
+        }
     }
 
     @Override
@@ -62,100 +85,42 @@ public class MessageBusBase implements MessageBus {
 
     @Override
     public void subscribe(String subject, MessageSubscriber subscriber) {
+        subscribe(subject, subscriber, null);
+    }
+
+    @Override
+    public void subscribe(String subject, MessageSubscriber subscriber, Executor executor) {
         assert (subject != null);
         assert (subscriber != null);
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus subscribe");
-            }
-            try {
-                SubscriptionNode current = locate(subject, null, true);
-                assert (current != null);
-                current.addSubscriber(subscriber);
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Subscribe, subject, subscriber));
-            }
+        final Subscription subscription = new Subscription(subscriber, executor);
+        synchronized (_updateLock) {
+            _subscriberRoot = addSubscription(_subscriberRoot, tokenize(subject), 0, subscription);
         }
     }
 
     @Override
     public void unsubscribe(String subject, MessageSubscriber subscriber) {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus unsubscribe");
-            }
-            try {
-                if (subject != null) {
-                    SubscriptionNode current = locate(subject, null, false);
-                    if (current != null)
-                        current.removeSubscriber(subscriber, false);
-                } else {
-                    _subscriberRoot.removeSubscriber(subscriber, true);
-                }
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Unsubscribe, subject, subscriber));
+        synchronized (_updateLock) {
+            if (subject != null) {
+                _subscriberRoot = removeSubscription(_subscriberRoot, tokenize(subject), 0, subscriber);
+            } else {
+                _subscriberRoot = _subscriberRoot.withoutSubscriber(subscriber, true);
             }
         }
     }
 
     @Override
     public void clearAll() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus clearAll");
-            }
-            try {
-                _subscriberRoot.clearAll();
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.ClearAll, null, null));
-            }
+        synchronized (_updateLock) {
+            _subscriberRoot = SubscriptionNode.EMPTY;
         }
     }
 
     @Override
     public void prune() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus prune");
-            }
-            try {
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Prune, null, null));
-            }
-        }
-    }
-
-    private void doPrune() {
-        List<SubscriptionNode> trimNodes = new ArrayList<SubscriptionNode>();
-        _subscriberRoot.prune(trimNodes);
-
-        while (trimNodes.size() > 0) {
-            SubscriptionNode node = trimNodes.remove(0);
-            SubscriptionNode parent = node.getParent();
-            if (parent != null) {
-                parent.removeChild(node.getNodeKey());
-                if (parent.isTrimmable()) {
-                    trimNodes.add(parent);
-                }
-            }
+        synchronized (_updateLock) {
+            final SubscriptionNode root = _subscriberRoot.pruned();
+            _subscriberRoot = root != null ? root : SubscriptionNode.EMPTY;
         }
     }
 
@@ -166,101 +131,97 @@ public class MessageBusBase implements MessageBus {
             String errMsg = "NO EVENT PUBLISH CAN BE WRAPPED WITHIN DB TRANSACTION!";
             s_logger.error(errMsg, new CloudRuntimeException(errMsg));
         }
-        if (_gate.enter(true)) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus publish");
-            }
-            try {
-                List<SubscriptionNode> chainFromTop = new ArrayList<SubscriptionNode>();
-                SubscriptionNode current = locate(subject, chainFromTop, false);
 
-                if (current != null)
-                    current.notifySubscribers(senderAddress, subject, args);
-
-                Collections.reverse(chainFromTop);
-                for (SubscriptionNode node : chainFromTop)
-                    node.notifySubscribers(senderAddress, subject, args);
-            } finally {
-                _gate.leave();
+        final long start = System.nanoTime();
+        int fanOut = 0;
+        try {
+            // The subscribers of the subject are notified first, then those of its parents up to the root
+            final String[] tokens = tokenize(subject);
+            final SubscriptionNode[] chain = new SubscriptionNode[tokens.length + 1];
+            SubscriptionNode current = _subscriberRoot;
+            int depth = 0;
+            while (current != null) {
+                chain[depth] = current;
+                current = depth < tokens.length ? current.getChild(tokens[depth]) : null;
+                depth++;
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                fanOut += chain[i].notifySubscribers(senderAddress, subject, args);
             }
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            _publishCount.incrementAndGet();
+            _publishTimeNanos.addAndGet(elapsed);
+            _deliveryCount.addAndGet(fanOut);
+            updateMax(_maxPublishTimeNanos, elapsed);
+            updateMax(_maxFanOut, fanOut);
         }
     }
 
-    private void onGateOpen() {
-        synchronized (_pendingActions) {
-            ActionRecord record = null;
-            while (_pendingActions.size() > 0) {
-                record = _pendingActions.remove(0);
-                switch (record.getType()) {
-                    case Subscribe: {
-                        SubscriptionNode current = locate(record.getSubject(), null, true);
-                        assert (current != null);
-                        current.addSubscriber(record.getSubscriber());
-                    }
-                        break;
-
-                    case Unsubscribe:
-                        if (record.getSubject() != null) {
-                            SubscriptionNode current = locate(record.getSubject(), null, false);
-                            if (current != null)
-                                current.removeSubscriber(record.getSubscriber(), false);
-                        } else {
-                            _subscriberRoot.removeSubscriber(record.getSubscriber(), true);
-                        }
-                        break;
+    @Override
+    public long getPublishCount() {
+        return _publishCount.get();
+    }
 
-                    case ClearAll:
-                        _subscriberRoot.clearAll();
-                        break;
+    @Override
+    public long getPublishTimeNanos() {
+        return _publishTimeNanos.get();
+    }
+
+    @Override
+    public long getMaxPublishTimeNanos() {
+        return _maxPublishTimeNanos.get();
+    }
 
-                    case Prune:
-                        doPrune();
-                        break;
+    @Override
+    public long getDeliveryCount() {
+        return _deliveryCount.get();
+    }
 
-                    default:
-                        assert (false);
-                        break;
+    @Override
+    public long getMaxFanOut() {
+        return _maxFanOut.get();
+    }
 
-                }
-            }
-        }
+    @Override
+    public long getRejectedDeliveryCount() {
+        return _rejectedDeliveryCount.get();
     }
 
-    private SubscriptionNode locate(String subject, List<SubscriptionNode> chainFromTop, boolean createPath) {
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
 
+    private static String[] tokenize(String subject) {
         assert (subject != null);
         // "/" is special name for root node
         if (subject.equals("/"))
-            return _subscriberRoot;
+            return new String[0];
 
-        String[] subjectPathTokens = subject.split("\\.");
-        return locate(subjectPathTokens, _subscriberRoot, chainFromTop, createPath);
+        return subject.split("\\.");
     }
 
-    private static SubscriptionNode locate(String[] subjectPathTokens, SubscriptionNode current, List<SubscriptionNode> chainFromTop, boolean createPath) {
+    private static SubscriptionNode addSubscription(SubscriptionNode node, String[] tokens, int index, Subscription subscription) {
+        if (index == tokens.length)
+            return node.withSubscription(subscription);
 
-        assert (current != null);
-        assert (subjectPathTokens != null);
-        assert (subjectPathTokens.length > 0);
+        SubscriptionNode child = node.getChild(tokens[index]);
+        if (child == null)
+            child = SubscriptionNode.EMPTY;
+        return node.withChild(tokens[index], addSubscription(child, tokens, index + 1, subscription));
+    }
 
-        if (chainFromTop != null)
-            chainFromTop.add(current);
+    private static SubscriptionNode removeSubscription(SubscriptionNode node, String[] tokens, int index, MessageSubscriber subscriber) {
+        if (index == tokens.length)
+            return node.withoutSubscriber(subscriber, false);
 
-        SubscriptionNode next = current.getChild(subjectPathTokens[0]);
-        if (next == null) {
-            if (createPath) {
-                next = new SubscriptionNode(current, subjectPathTokens[0], null);
-                current.addChild(subjectPathTokens[0], next);
-            } else {
-                return null;
-            }
-        }
-
-        if (subjectPathTokens.length > 1) {
-            return locate(Arrays.copyOfRange(subjectPathTokens, 1, subjectPathTokens.length), next, chainFromTop, createPath);
-        } else {
-            return next;
-        }
+        SubscriptionNode child = node.getChild(tokens[index]);
+        if (child == null)
+            return node;
+        return node.withChild(tokens[index], removeSubscription(child, tokens, index + 1, subscriber));
     }
 
     private boolean noDbTxn() {
@@ -271,179 +232,140 @@ public class MessageBusBase implements MessageBus {
     //
     // Support inner classes
     //
-    private static enum ActionType {
-        Subscribe, Unsubscribe, ClearAll, Prune
-    }
-
-    private static class ActionRecord {
-        private final ActionType _type;
-        private final String _subject;
+    private final class Subscription {
         private final MessageSubscriber _subscriber;
+        private final Executor _executor;
 
-        public ActionRecord(ActionType type, String subject, MessageSubscriber subscriber) {
-            _type = type;
-            _subject = subject;
+        public Subscription(MessageSubscriber subscriber, Executor executor) {
             _subscriber = subscriber;
-        }
-
-        public ActionType getType() {
-            return _type;
-        }
-
-        public String getSubject() {
-            return _subject;
+            _executor = executor;
         }
 
         public MessageSubscriber getSubscriber() {
             return _subscriber;
         }
-    }
-
-    private class Gate {
-        private int _reentranceCount;
-        private Thread _gateOwner;
-
-        public Gate() {
-            _reentranceCount = 0;
-            _gateOwner = null;
-        }
 
-        public boolean enter() {
-            return enter(false);
-        }
-
-        public boolean enter(boolean wait) {
-            while (true) {
-                synchronized (this) {
-                    if (_reentranceCount == 0) {
-                        assert (_gateOwner == null);
-
-                        _reentranceCount++;
-                        _gateOwner = Thread.currentThread();
-                        return true;
-                    } else {
-                        if (wait) {
-                            try {
-                                wait();
-                            } catch (InterruptedException e) {
-                                s_logger.debug("[ignored] interupted while guarding re-entrance on message bus.");
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                }
+        public void deliver(final String senderAddress, final String subject, final Object args) {
+            if (_executor == null) {
+                _subscriber.onPublishMessage(senderAddress, subject, args);
+                return;
             }
 
-            return false;
-        }
-
-        public void leave() {
-            synchronized (this) {
-                if (_reentranceCount > 0) {
-                    try {
-                        assert (_gateOwner == Thread.currentThread());
-
-                        onGateOpen();
-                    } finally {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Open gate of message bus");
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            _subscriber.onPublishMessage(senderAddress, subject, args);
+                        } catch (RuntimeException e) {
+                            s_logger.warn("Subscriber " + _subscriber + " failed to handle message " + subject, e);
                         }
-                        _reentranceCount--;
-                        assert (_reentranceCount == 0);
-                        _gateOwner = null;
-
-                        notifyAll();
                     }
-                }
+                });
+            } catch (RejectedExecutionException e) {
+                _rejectedDeliveryCount.incrementAndGet();
+                s_logger.warn("Dropped message " + subject + " for subscriber " + _subscriber + ", its executor rejected it");
             }
         }
     }
 
-    private static class SubscriptionNode {
-        private final String _nodeKey;
-        private final List<MessageSubscriber> _subscribers;
-        private final Map<String, SubscriptionNode> _children;
-        private final SubscriptionNode _parent;
-
-        public SubscriptionNode(SubscriptionNode parent, String nodeKey, MessageSubscriber subscriber) {
-            assert (nodeKey != null);
-            _parent = parent;
-            _nodeKey = nodeKey;
-            _subscribers = new ArrayList<MessageSubscriber>();
+    /**
+     * Immutable once constructed, every change returns a new node and leaves
+     * the unchanged children shared.
+     */
+    private static final class SubscriptionNode {
+        private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+        private static final SubscriptionNode EMPTY = new SubscriptionNode(NO_SUBSCRIPTIONS, Collections.<String, SubscriptionNode> emptyMap());
 
-            if (subscriber != null)
-                _subscribers.add(subscriber);
-
-            _children = new HashMap<String, SubscriptionNode>();
-        }
+        private final Subscription[] _subscriptions;
+        private final Map<String, SubscriptionNode> _children;
 
-        public SubscriptionNode getParent() {
-            return _parent;
+        private SubscriptionNode(Subscription[] subscriptions, Map<String, SubscriptionNode> children) {
+            _subscriptions = subscriptions;
+            _children = children;
         }
 
-        public String getNodeKey() {
-            return _nodeKey;
+        public SubscriptionNode getChild(String key) {
+            return _children.get(key);
         }
 
-        @SuppressWarnings("unused")
-        public List<MessageSubscriber> getSubscriber() {
-            return _subscribers;
-        }
+        public SubscriptionNode withSubscription(Subscription subscription) {
+            if (indexOf(subscription.getSubscriber()) >= 0)
+                return this;
 
-        public void addSubscriber(MessageSubscriber subscriber) {
-            if (!_subscribers.contains(subscriber))
-                _subscribers.add(subscriber);
+            Subscription[] subscriptions = Arrays.copyOf(_subscriptions, _subscriptions.length + 1);
+            subscriptions[_subscriptions.length] = subscription;
+            return new SubscriptionNode(subscriptions, _children);
         }
 
-        public void removeSubscriber(MessageSubscriber subscriber, boolean recursively) {
+        public SubscriptionNode withoutSubscriber(MessageSubscriber subscriber, boolean recursively) {
+            Map<String, SubscriptionNode> children = _children;
             if (recursively) {
                 for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                    entry.getValue().removeSubscriber(subscriber, true);
+                    SubscriptionNode child = entry.getValue().withoutSubscriber(subscriber, true);
+                    if (child != entry.getValue()) {
+                        if (children == _children)
+                            children = new HashMap<String, SubscriptionNode>(_children);
+                        children.put(entry.getKey(), child);
+                    }
                 }
             }
-            _subscribers.remove(subscriber);
-        }
 
-        public SubscriptionNode getChild(String key) {
-            return _children.get(key);
-        }
+            Subscription[] subscriptions = _subscriptions;
+            int index = indexOf(subscriber);
+            if (index >= 0) {
+                subscriptions = new Subscription[_subscriptions.length - 1];
+                System.arraycopy(_subscriptions, 0, subscriptions, 0, index);
+                System.arraycopy(_subscriptions, index + 1, subscriptions, index, subscriptions.length - index);
+            }
 
-        public void addChild(String key, SubscriptionNode childNode) {
-            _children.put(key, childNode);
+            if (children == _children && subscriptions == _subscriptions)
+                return this;
+            return new SubscriptionNode(subscriptions, children == _children ? children : Collections.unmodifiableMap(children));
         }
 
-        public void removeChild(String key) {
-            _children.remove(key);
-        }
+        public SubscriptionNode withChild(String key, SubscriptionNode child) {
+            if (_children.get(key) == child)
+                return this;
 
-        public void clearAll() {
-            // depth-first
-            for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                entry.getValue().clearAll();
-            }
-            _subscribers.clear();
+            Map<String, SubscriptionNode> children = new HashMap<String, SubscriptionNode>(_children);
+            children.put(key, child);
+            return new SubscriptionNode(_subscriptions, Collections.unmodifiableMap(children));
         }
 
-        public void prune(List<SubscriptionNode> trimNodes) {
-            assert (trimNodes != null);
-
+        /**
+         * @return this node without the branches that have no subscribers, null if nothing is left.
+         */
+        public SubscriptionNode pruned() {
+            Map<String, SubscriptionNode> children = new HashMap<String, SubscriptionNode>();
+            boolean changed = false;
             for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                entry.getValue().prune(trimNodes);
+                SubscriptionNode child = entry.getValue().pruned();
+                if (child != null)
+                    children.put(entry.getKey(), child);
+                changed |= child != entry.getValue();
             }
 
-            if (isTrimmable())
-                trimNodes.add(this);
+            if (children.isEmpty() && _subscriptions.length == 0)
+                return null;
+            if (!changed)
+                return this;
+            return new SubscriptionNode(_subscriptions, Collections.unmodifiableMap(children));
         }
 
-        public void notifySubscribers(String senderAddress, String subject, Object args) {
-            for (MessageSubscriber subscriber : _subscribers) {
-                subscriber.onPublishMessage(senderAddress, subject, args);
+        public int notifySubscribers(String senderAddress, String subject, Object args) {
+            for (Subscription subscription : _subscriptions) {
+                subscription.deliver(senderAddress, subject, args);
             }
+            return _subscriptions.length;
         }
 
-        public boolean isTrimmable() {
-            return _children.size() == 0 && _subscribers.size() == 0;
+        private int indexOf(MessageSubscriber subscriber) {
+            for (int i = 0; i < _subscriptions.length; i++) {
+                if (_subscriptions[i].getSubscriber().equals(subscriber))
+                    return i;
+            }
+            return -1;
         }
     }
 }
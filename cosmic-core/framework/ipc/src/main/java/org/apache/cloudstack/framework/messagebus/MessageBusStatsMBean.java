@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cloudstack.framework.messagebus;
+
+public interface MessageBusStatsMBean {
+    long getPublishCount();
+
+    /**
+     * @return time spent in publish, including synchronous subscribers, summed over all publishes.
+     */
+    long getPublishTimeNanos();
+
+    long getMaxPublishTimeNanos();
+
+    /**
+     * @return number of subscriber notifications, either run or handed to an executor.
+     */
+    long getDeliveryCount();
+
+    long getMaxFanOut();
+
+    /**
+     * @return number of notifications dropped because the executor of the subscriber rejected them.
+     */
+    long getRejectedDeliveryCount();
+}
@@ -115,8 +115,10 @@ public interface AsyncJobManager extends Manager {
      * This method will be deprecated after all code has been migrated to fully-asynchronous mode
      * that uses async-feature of joinJob/disjoinJob
      *
+     * The wait ends as soon as the job completes, wherever in the cluster it runs.
+     *
      * @param wakupTopicsOnMessageBus topic on message bus to wakeup the wait
-     * @param checkIntervalInMilliSeconds time to break out wait for checking predicate condition
+     * @param checkIntervalInMilliSeconds time to break out wait for checking job status and predicate condition
      * @param timeoutInMiliseconds time out to break out the whole wait process
      * @param predicate
      * @return true, predicate condition is satisfied
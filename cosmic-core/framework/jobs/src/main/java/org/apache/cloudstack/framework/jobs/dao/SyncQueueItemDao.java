@@ -28,6 +28,13 @@ public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
 
     public List<SyncQueueItemVO> getNextQueueItems(int maxItems);
 
+    /**
+     * Claims the oldest waiting item of up to maxItems queues that are below
+     * their concurrency limit, for the given management server.  Must be
+     * called within a transaction.
+     */
+    public List<SyncQueueItemVO> claimNextQueueItems(long msid, int maxItems);
+
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
@@ -17,13 +17,24 @@
 
 package org.apache.cloudstack.framework.jobs.dao;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.DB;
@@ -35,6 +46,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Func;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 import org.apache.cloudstack.framework.jobs.impl.SyncQueueItemVO;
 import org.slf4j.Logger;
@@ -46,6 +58,20 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
     final GenericSearchBuilder<SyncQueueItemVO, Long> queueIdSearch;
     final GenericSearchBuilder<SyncQueueItemVO, Integer> queueActiveItemSearch;
 
+    // The oldest waiting item of every queue that is below its concurrency limit
+    private static final String NEXT_QUEUE_ITEMS_SQL = "SELECT i.id, i.queue_id, i.content_type, i.content_id, i.created " +
+            " FROM sync_queue AS q JOIN sync_queue_item AS i ON q.id = i.queue_id " +
+            " WHERE i.queue_proc_number IS NULL " +
+            " AND i.id = (SELECT MIN(n.id) FROM sync_queue_item AS n WHERE n.queue_id = q.id AND n.queue_proc_number IS NULL) " +
+            " AND (SELECT COUNT(*) FROM sync_queue_item AS a WHERE a.queue_id = q.id AND a.queue_proc_number IS NOT NULL) < q.queue_size_limit " +
+            " ORDER BY i.id " +
+            " LIMIT 0, ?";
+    private static final Pattern MYSQL_VERSION = Pattern.compile("^(\\d+)\\.(\\d+)");
+    // MariaDB may report itself as "5.5.5-10.6.12-MariaDB" for the sake of old clients
+    private static final Pattern MARIADB_VERSION = Pattern.compile("(\\d+)\\.(\\d+)\\.\\d+-MariaDB");
+
+    private Boolean _skipLocked;
+
     public SyncQueueItemDaoImpl() {
         super();
         queueIdSearch = createSearchBuilder(Long.class);
@@ -123,6 +149,161 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
         return l;
     }
 
+    @Override
+    public List<SyncQueueItemVO> claimNextQueueItems(long msid, int maxItems) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        String sql = NEXT_QUEUE_ITEMS_SQL;
+        try {
+            Map<Long, SyncQueueItemVO> candidates = new LinkedHashMap<Long, SyncQueueItemVO>();
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt.setInt(1, maxItems);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                SyncQueueItemVO item = new SyncQueueItemVO();
+                item.setId(rs.getLong(1));
+                item.setQueueId(rs.getLong(2));
+                item.setContentType(rs.getString(3));
+                item.setContentId(rs.getLong(4));
+                item.setCreated(DateUtil.parseDateString(TimeZone.getTimeZone("GMT"), rs.getString(5)));
+                candidates.put(item.getQueueId(), item);
+            }
+            if (candidates.isEmpty()) {
+                return new ArrayList<SyncQueueItemVO>();
+            }
+
+            // Lock the queues, then check again that they have room and that the items are still waiting.  Other
+            // management servers claiming from the same queues either wait for this transaction or, where the
+            // database can skip locked rows, move on to other queues.
+            String lockMode = supportsSkipLocked(txn.getConnection()) ? " FOR UPDATE SKIP LOCKED" : " FOR UPDATE";
+            Map<Long, Long> processNumbers = new HashMap<Long, Long>();
+            sql = "SELECT q.id, q.queue_proc_number, q.queue_size_limit, " +
+                    " (SELECT COUNT(*) FROM sync_queue_item AS a WHERE a.queue_id = q.id AND a.queue_proc_number IS NOT NULL) " +
+                    " FROM sync_queue AS q WHERE q.id IN (" + placeholders(candidates.size()) + ") ORDER BY q.id" + lockMode;
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            setLongs(pstmt, candidates.keySet());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                if (rs.getLong(4) < rs.getLong(3)) {
+                    processNumbers.put(rs.getLong(1), rs.getLong(2) + 1);
+                }
+            }
+            candidates.keySet().retainAll(processNumbers.keySet());
+            if (candidates.isEmpty()) {
+                return new ArrayList<SyncQueueItemVO>();
+            }
+
+            List<Long> itemIds = new ArrayList<Long>();
+            for (SyncQueueItemVO item : candidates.values()) {
+                itemIds.add(item.getId());
+            }
+            Set<Long> claimableIds = new HashSet<Long>();
+            sql = "SELECT id FROM sync_queue_item WHERE id IN (" + placeholders(itemIds.size()) + ") AND queue_proc_number IS NULL" + lockMode;
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            setLongs(pstmt, itemIds);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                claimableIds.add(rs.getLong(1));
+            }
+
+            List<SyncQueueItemVO> claimed = new ArrayList<SyncQueueItemVO>();
+            for (Iterator<SyncQueueItemVO> it = candidates.values().iterator(); it.hasNext();) {
+                SyncQueueItemVO item = it.next();
+                if (claimableIds.contains(item.getId())) {
+                    claimed.add(item);
+                } else {
+                    it.remove();
+                }
+            }
+            if (claimed.isEmpty()) {
+                return claimed;
+            }
+
+            Date dt = DateUtil.currentGMTTime();
+            String now = DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), dt);
+            StringBuilder itemNumbers = new StringBuilder();
+            StringBuilder queueNumbers = new StringBuilder();
+            for (int i = 0; i < claimed.size(); i++) {
+                itemNumbers.append(" WHEN ? THEN ?");
+                queueNumbers.append(" WHEN ? THEN ?");
+            }
+
+            sql = "UPDATE sync_queue_item SET queue_proc_msid = ?, queue_proc_time = ?, queue_proc_number = CASE id" + itemNumbers + " END " +
+                    " WHERE id IN (" + placeholders(claimed.size()) + ")";
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            int index = 1;
+            pstmt.setLong(index++, msid);
+            pstmt.setString(index++, now);
+            for (SyncQueueItemVO item : claimed) {
+                pstmt.setLong(index++, item.getId());
+                pstmt.setLong(index++, processNumbers.get(item.getQueueId()));
+            }
+            for (SyncQueueItemVO item : claimed) {
+                pstmt.setLong(index++, item.getId());
+            }
+            pstmt.executeUpdate();
+
+            sql = "UPDATE sync_queue SET queue_size = queue_size + 1, last_updated = ?, queue_proc_number = CASE id" + queueNumbers + " END " +
+                    " WHERE id IN (" + placeholders(claimed.size()) + ")";
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            index = 1;
+            pstmt.setString(index++, now);
+            for (SyncQueueItemVO item : claimed) {
+                pstmt.setLong(index++, item.getQueueId());
+                pstmt.setLong(index++, processNumbers.get(item.getQueueId()));
+            }
+            for (SyncQueueItemVO item : claimed) {
+                pstmt.setLong(index++, item.getQueueId());
+            }
+            pstmt.executeUpdate();
+
+            for (SyncQueueItemVO item : claimed) {
+                item.setLastProcessMsid(msid);
+                item.setLastProcessNumber(processNumbers.get(item.getQueueId()));
+                item.setLastProcessTime(dt);
+            }
+            return claimed;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    private static void setLongs(PreparedStatement pstmt, Collection<Long> values) throws SQLException {
+        int index = 1;
+        for (Long value : values) {
+            pstmt.setLong(index++, value);
+        }
+    }
+
+    /**
+     * SKIP LOCKED came with MySQL 8.0 and MariaDB 10.6, older servers block on the locked rows instead.
+     */
+    private boolean supportsSkipLocked(Connection conn) throws SQLException {
+        if (_skipLocked == null) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String version = metaData.getDatabaseProductVersion();
+            boolean supported = false;
+            Matcher matcher = MARIADB_VERSION.matcher(version);
+            if (matcher.find()) {
+                int major = Integer.parseInt(matcher.group(1));
+                supported = major > 10 || (major == 10 && Integer.parseInt(matcher.group(2)) >= 6);
+            } else if (metaData.getDatabaseProductName().toLowerCase().contains("mysql")) {
+                matcher = MYSQL_VERSION.matcher(version);
+                supported = matcher.find() && Integer.parseInt(matcher.group(1)) >= 8;
+            }
+            s_logger.info("Database " + metaData.getDatabaseProductName() + " " + version + (supported ? " skips" : " waits for") + " locked sync queue rows");
+            _skipLocked = supported;
+        }
+        return _skipLocked;
+    }
+
     @Override
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive) {
         SearchBuilder<SyncQueueItemVO> sb = createSearchBuilder();
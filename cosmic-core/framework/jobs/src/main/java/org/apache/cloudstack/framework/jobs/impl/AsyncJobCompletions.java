@@ -0,0 +1,200 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.AsyncJobCompletionsMBean;
+
+/**
+ * Wakes up the threads waiting for a job as soon as the job completes,
+ * either on this management server or, through a cluster notification, on
+ * another one.  Waiters still poll the job table at their check interval,
+ * since notifications from peers are best effort.
+ */
+public class AsyncJobCompletions extends StandardMBean implements AsyncJobCompletionsMBean {
+    private final Map<Long, List<Waiter>> _waiters = new HashMap<Long, List<Waiter>>();
+
+    private final AtomicLong _eventWakeups = new AtomicLong();
+    private final AtomicLong _remoteCompletions = new AtomicLong();
+    private final AtomicLong _polledWakeups = new AtomicLong();
+    private final AtomicLong _wakeupLatencyNanos = new AtomicLong();
+    private final AtomicLong _maxWakeupLatencyNanos = new AtomicLong();
+
+    public AsyncJobCompletions() {
+        super(AsyncJobCompletionsMBean.class, false);
+    }
+
+    /**
+     * The caller must unregister the waiter when it stops waiting, and must
+     * check the job after registering, it may have completed just before.
+     */
+    public Waiter register(long jobId) {
+        Waiter waiter = new Waiter(jobId);
+        synchronized (_waiters) {
+            List<Waiter> waiters = _waiters.get(jobId);
+            if (waiters == null) {
+                waiters = new ArrayList<Waiter>(1);
+                _waiters.put(jobId, waiters);
+            }
+            waiters.add(waiter);
+        }
+        return waiter;
+    }
+
+    public void unregister(Waiter waiter) {
+        synchronized (_waiters) {
+            List<Waiter> waiters = _waiters.get(waiter.getJobId());
+            if (waiters != null) {
+                waiters.remove(waiter);
+                if (waiters.isEmpty()) {
+                    _waiters.remove(waiter.getJobId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of threads woken up.
+     */
+    public int complete(long jobId, boolean remote) {
+        if (remote) {
+            _remoteCompletions.incrementAndGet();
+        }
+
+        List<Waiter> waiters;
+        synchronized (_waiters) {
+            waiters = _waiters.remove(jobId);
+        }
+        if (waiters == null) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        for (Waiter waiter : waiters) {
+            waiter.complete(now);
+        }
+        return waiters.size();
+    }
+
+    public void recordPolledWakeup() {
+        _polledWakeups.incrementAndGet();
+    }
+
+    private void recordEventWakeup(long latencyNanos) {
+        _eventWakeups.incrementAndGet();
+        _wakeupLatencyNanos.addAndGet(latencyNanos);
+        long max = _maxWakeupLatencyNanos.get();
+        while (latencyNanos > max && !_maxWakeupLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = _maxWakeupLatencyNanos.get();
+        }
+    }
+
+    @Override
+    public int getWaiterCount() {
+        int count = 0;
+        synchronized (_waiters) {
+            for (List<Waiter> waiters : _waiters.values()) {
+                count += waiters.size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getEventWakeupCount() {
+        return _eventWakeups.get();
+    }
+
+    @Override
+    public long getRemoteCompletionCount() {
+        return _remoteCompletions.get();
+    }
+
+    @Override
+    public long getPolledWakeupCount() {
+        return _polledWakeups.get();
+    }
+
+    @Override
+    public double getAverageWakeupLatencyMillis() {
+        long wakeups = _eventWakeups.get();
+        return wakeups == 0 ? 0 : _wakeupLatencyNanos.get() / (wakeups * 1000000d);
+    }
+
+    @Override
+    public double getMaxWakeupLatencyMillis() {
+        return _maxWakeupLatencyNanos.get() / 1000000d;
+    }
+
+    public class Waiter {
+        private final long _jobId;
+        private boolean _completed;
+        private boolean _signalled;
+        private long _completedAt;
+
+        Waiter(long jobId) {
+            _jobId = jobId;
+        }
+
+        public long getJobId() {
+            return _jobId;
+        }
+
+        synchronized void complete(long now) {
+            if (!_completed) {
+                _completed = true;
+                _completedAt = now;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wakes the waiting thread up to check its condition again, without
+         * the job being completed.
+         */
+        public synchronized void signal() {
+            _signalled = true;
+            notifyAll();
+        }
+
+        /**
+         * @return true if the job completed, false if the timeout passed or the waiter got signalled first.
+         */
+        public synchronized boolean await(long timeoutInMilliSeconds) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilliSeconds);
+            long remaining = deadline - System.nanoTime();
+            while (!_completed && !_signalled && remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            _signalled = false;
+
+            if (_completed) {
+                recordEventWakeup(System.nanoTime() - _completedAt);
+            }
+            return _completed;
+        }
+    }
+}
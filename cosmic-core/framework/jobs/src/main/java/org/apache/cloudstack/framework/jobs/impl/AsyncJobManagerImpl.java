@@ -18,7 +18,7 @@
 package org.apache.cloudstack.framework.jobs.impl;
 
 import java.io.Serializable;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -33,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
@@ -73,7 +74,7 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
 import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
-import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -120,6 +121,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
+    @Inject
+    private ClusterManager _clusterMgr;
+
+    private final AsyncJobCompletions _completions = new AsyncJobCompletions();
 
     private volatile long _executionRunNumber = 1;
 
@@ -307,6 +312,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 }
         */
         _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, jobId);
+
+        // The job may be waited for on another management server, see waitAndCheck()
+        _completions.complete(jobId, false);
+        _clusterMgr.notifyPeers(AsyncJob.Topics.JOB_STATE, String.valueOf(jobId));
     }
 
     @Override
@@ -680,30 +689,64 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public boolean waitAndCheck(AsyncJob job, String[] wakeupTopicsOnMessageBus, long checkIntervalInMilliSeconds, long timeoutInMiliseconds, Predicate predicate) {
+        // Woken up by completeAsyncJob, here or on a peer, messages on the wakeup topics trigger a check of the predicate.
+        // Polling at the check interval is only the safety net for lost notifications.
+        final AsyncJobCompletions.Waiter waiter = _completions.register(job.getId());
+        MessageSubscriber subscriber = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                waiter.signal();
+            }
+        };
+        final List<String> topics = new ArrayList<String>();
+        for (String topic : wakeupTopicsOnMessageBus) {
+            // The waiter gets the completion of its own job directly, completions of other jobs are of no interest
+            if (!AsyncJob.Topics.JOB_STATE.equals(topic)) {
+                topics.add(topic);
+                _messageBus.subscribe(topic, subscriber);
+            }
+        }
 
-        MessageDetector msgDetector = new MessageDetector();
-        String[] topics = Arrays.copyOf(wakeupTopicsOnMessageBus, wakeupTopicsOnMessageBus.length + 1);
-        topics[topics.length - 1] = AsyncJob.Topics.JOB_STATE;
-
-        msgDetector.open(_messageBus, topics);
         try {
             long startTick = System.currentTimeMillis();
-            while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
-                job = _jobDao.findById(job.getId());
+            boolean polled = false;
+            while (true) {
+                job = _jobDao.findById(waiter.getJobId());
                 if (job != null && job.getStatus().done()) {
+                    if (polled) {
+                        _completions.recordPolledWakeup();
+                    }
                     return true;
                 }
 
                 if (predicate.checkCondition()) {
                     return true;
                 }
+
+                long waitTime = checkIntervalInMilliSeconds;
+                if (timeoutInMiliseconds >= 0) {
+                    waitTime = Math.min(waitTime, timeoutInMiliseconds - (System.currentTimeMillis() - startTick));
+                    if (waitTime <= 0) {
+                        return false;
+                    }
+                }
+
+                long waitStart = System.currentTimeMillis();
+                try {
+                    if (waiter.await(waitTime)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    s_logger.debug("[ignored] interrupted while waiting for job-" + waiter.getJobId());
+                }
+                polled = System.currentTimeMillis() - waitStart >= waitTime;
             }
         } finally {
-            msgDetector.close();
+            for (String topic : topics) {
+                _messageBus.unsubscribe(topic, subscriber);
+            }
+            _completions.unregister(waiter);
         }
-
-        return false;
     }
 
     @Override
@@ -1040,6 +1083,18 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     public boolean start() {
         cleanupLeftOverJobs(getMsid());
 
+        _clusterMgr.registerNotificationHandler(AsyncJob.Topics.JOB_STATE, new ClusterManager.NotificationHandler() {
+            @Override
+            public void onNotification(String sourcePeer, String message) {
+                _completions.complete(Long.parseLong(message), true);
+            }
+        });
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Job Completions", _completions);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register job completions mbean", e);
+        }
+
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
 
@@ -16,7 +16,6 @@
 // under the License.
 package org.apache.cloudstack.framework.jobs.impl;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -131,44 +130,13 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     @Override
     @DB
     public List<SyncQueueItemVO> dequeueFromAny(final Long msid, final int maxItems) {
-
-        final List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
-
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            return Transaction.execute(new TransactionCallback<List<SyncQueueItemVO>>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
-                    List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems);
-                    if(l != null && l.size() > 0) {
-                        for(SyncQueueItemVO item : l) {
-                            SyncQueueVO queueVO = _syncQueueDao.findById(item.getQueueId());
-                            SyncQueueItemVO itemVO = _syncQueueItemDao.findById(item.getId());
-                            if(queueReadyToProcess(queueVO) && itemVO != null && itemVO.getLastProcessNumber() == null) {
-                                Long processNumber = queueVO.getLastProcessNumber();
-                                if (processNumber == null)
-                                    processNumber = new Long(1);
-                                else
-                                    processNumber = processNumber + 1;
-
-                                Date dt = DateUtil.currentGMTTime();
-                                queueVO.setLastProcessNumber(processNumber);
-                                queueVO.setLastUpdated(dt);
-                                queueVO.setQueueSize(queueVO.getQueueSize() + 1);
-                                _syncQueueDao.update(queueVO.getId(), queueVO);
-
-                                itemVO.setLastProcessMsid(msid);
-                                itemVO.setLastProcessNumber(processNumber);
-                                itemVO.setLastProcessTime(dt);
-                                _syncQueueItemDao.update(item.getId(), itemVO);
-
-                                resultList.add(itemVO);
-                            }
-                        }
-                    }
+                public List<SyncQueueItemVO> doInTransaction(TransactionStatus status) {
+                    return _syncQueueItemDao.claimNextQueueItems(msid, maxItems);
                 }
             });
-
-            return resultList;
         } catch (Exception e) {
             s_logger.error("Unexpected exception: ", e);
         }
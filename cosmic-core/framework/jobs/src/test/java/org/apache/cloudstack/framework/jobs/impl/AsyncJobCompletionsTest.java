@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AsyncJobCompletionsTest {
+    private final AsyncJobCompletions _completions = new AsyncJobCompletions();
+
+    @Test
+    public void completionWakesAllWaitersOfTheJob() throws Exception {
+        final AsyncJobCompletions.Waiter first = _completions.register(1L);
+        final AsyncJobCompletions.Waiter second = _completions.register(1L);
+        final AsyncJobCompletions.Waiter other = _completions.register(2L);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final boolean[] completed = new boolean[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                try {
+                    completed[0] = first.await(TimeUnit.MINUTES.toMillis(1));
+                } catch (final InterruptedException e) {
+                    completed[0] = false;
+                }
+            }
+        });
+        thread.start();
+        assertTrue(waiting.await(10, TimeUnit.SECONDS));
+
+        assertEquals(2, _completions.complete(1L, true));
+        thread.join(10000);
+        assertTrue(completed[0]);
+        assertTrue(second.await(0));
+        assertFalse(other.await(10));
+
+        assertEquals(2, _completions.getEventWakeupCount());
+        assertEquals(1, _completions.getRemoteCompletionCount());
+        assertEquals(1, _completions.getWaiterCount());
+        _completions.unregister(other);
+        assertEquals(0, _completions.getWaiterCount());
+        assertEquals(0, _completions.complete(2L, false));
+    }
+
+    @Test
+    public void signalEndsTheWaitWithoutCompletion() throws Exception {
+        final AsyncJobCompletions.Waiter waiter = _completions.register(3L);
+        waiter.signal();
+        final long start = System.nanoTime();
+        assertFalse(waiter.await(TimeUnit.MINUTES.toMillis(1)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        // The signal is consumed by the wait
+        assertFalse(waiter.await(10));
+        _completions.unregister(waiter);
+    }
+}
@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cloud.utils.db.TransactionLegacy;
+
+import org.apache.cloudstack.framework.jobs.dao.SyncQueueDaoImpl;
+import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDaoImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Several simulated management servers dequeue from the same sync queues
+ * until all items are processed, and report the throughput.  Needs the cloud
+ * database configured in db.properties, so it is not run as part of the build.
+ */
+public class SyncQueueDequeueDbTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(SyncQueueDequeueDbTest.class);
+
+    private static final String SYNC_OBJ_TYPE = "SyncQueueDequeueDbTest";
+    private static final int QUEUES = 200;
+    private static final int ITEMS_PER_QUEUE = 5;
+    private static final int NODES = 4;
+    private static final int BATCH_SIZE = 50;
+
+    private SyncQueueManagerImpl _queueMgr;
+
+    @Before
+    public void setUp() {
+        _queueMgr = new SyncQueueManagerImpl();
+        ReflectionTestUtils.setField(_queueMgr, "_syncQueueDao", new SyncQueueDaoImpl());
+        ReflectionTestUtils.setField(_queueMgr, "_syncQueueItemDao", new SyncQueueItemDaoImpl());
+
+        cleanup();
+        TransactionLegacy txn = TransactionLegacy.open("SyncQueueDequeueDbTest");
+        try {
+            for (int i = 0; i < ITEMS_PER_QUEUE; i++) {
+                for (int queue = 0; queue < QUEUES; queue++) {
+                    _queueMgr.queue(SYNC_OBJ_TYPE, queue, SyncQueueItem.AsyncJobContentType, queue * ITEMS_PER_QUEUE + i, 1);
+                }
+            }
+        } finally {
+            txn.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cleanup();
+    }
+
+    private static void cleanup() {
+        try (Connection conn = TransactionLegacy.getStandaloneConnection();
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM sync_queue WHERE sync_objtype = ?")) {
+            pstmt.setString(1, SYNC_OBJ_TYPE);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to clean up the test queues", e);
+        }
+    }
+
+    @Test
+    public void nodesClaimEveryItemOnce() throws Exception {
+        final ConcurrentMap<Long, Long> owners = new ConcurrentHashMap<Long, Long>();
+        final ConcurrentMap<Long, Long> activeQueues = new ConcurrentHashMap<Long, Long>();
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger rounds = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(NODES);
+
+        long start = System.nanoTime();
+        for (int node = 1; node <= NODES; node++) {
+            final long msid = node;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TransactionLegacy txn = TransactionLegacy.open("SyncQueueDequeueDbTest-" + msid);
+                    try {
+                        while (processed.get() < QUEUES * ITEMS_PER_QUEUE && failure.get() == null) {
+                            rounds.incrementAndGet();
+                            List<SyncQueueItemVO> items = _queueMgr.dequeueFromAny(msid, BATCH_SIZE);
+                            if (items == null) {
+                                failure.set("dequeue failed on node " + msid);
+                                break;
+                            }
+                            List<SyncQueueItemVO> claimed = new ArrayList<SyncQueueItemVO>(items);
+                            for (SyncQueueItemVO item : claimed) {
+                                if (owners.putIfAbsent(item.getId(), msid) != null) {
+                                    failure.set("item " + item.getId() + " claimed twice");
+                                }
+                                // The queues have a concurrency limit of 1
+                                if (activeQueues.putIfAbsent(item.getQueueId(), item.getId()) != null) {
+                                    failure.set("queue " + item.getQueueId() + " has two items in process");
+                                }
+                            }
+                            for (SyncQueueItemVO item : claimed) {
+                                activeQueues.remove(item.getQueueId());
+                                _queueMgr.purgeItem(item.getId());
+                                processed.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        txn.close();
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        done.await(10, TimeUnit.MINUTES);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        s_logger.info(NODES + " nodes processed " + processed.get() + " items in " + rounds.get() + " dequeue rounds and " + elapsedMs + " ms, " +
+                (processed.get() * 1000L / Math.max(elapsedMs, 1)) + " items/s");
+
+        assertNull(failure.get());
+        assertEquals(QUEUES * ITEMS_PER_QUEUE, owners.size());
+    }
+}
@@ -0,0 +1,134 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.messagebus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cloud.utils.db.TransactionLegacy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Lives here rather than in framework/ipc, whose tests only run as integration tests.
+ */
+public class MessageBusBaseTest {
+    private MessageBusBase _messageBus;
+    private TransactionLegacy _txn;
+
+    @Before
+    public void setUp() {
+        _messageBus = new MessageBusBase();
+        // publish looks at the transaction of the thread
+        _txn = TransactionLegacy.open("MessageBusBaseTest");
+    }
+
+    @After
+    public void tearDown() {
+        _txn.close();
+    }
+
+    @Test
+    public void publishWhileSubscribing() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        _messageBus.subscribe("Job", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                received.incrementAndGet();
+            }
+        });
+
+        final int threads = 4;
+        final int messages = 2000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final TransactionLegacy txn = TransactionLegacy.open("MessageBusBaseTest");
+                    try {
+                        for (int j = 0; j < messages; j++) {
+                            _messageBus.publish(null, "Job." + j, PublishScope.LOCAL, null);
+                        }
+                    } catch (final Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        txn.close();
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        // Keep changing the tree underneath the publishers
+        final MessageSubscriber churn = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+            }
+        };
+        int round = 0;
+        while (done.getCount() > 0) {
+            _messageBus.subscribe("Job." + round % messages, churn);
+            _messageBus.unsubscribe("Job." + round % messages, churn);
+            round++;
+        }
+        _messageBus.prune();
+
+        assertNull(failure.get());
+        assertEquals(threads * messages, received.get());
+        assertEquals(threads * messages, _messageBus.getPublishCount());
+    }
+
+    @Test
+    public void executorSubscriber() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final AtomicReference<Thread> deliveryThread = new AtomicReference<Thread>();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            _messageBus.subscribe("VM", new MessageSubscriber() {
+                @Override
+                public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                    deliveryThread.set(Thread.currentThread());
+                    delivered.countDown();
+                }
+            }, executor);
+
+            _messageBus.publish(null, "VM.123", PublishScope.LOCAL, null);
+            assertTrue(delivered.await(10, TimeUnit.SECONDS));
+            assertNotSame(Thread.currentThread(), deliveryThread.get());
+            assertEquals(1, _messageBus.getDeliveryCount());
+
+            executor.shutdown();
+            _messageBus.publish(null, "VM.123", PublishScope.LOCAL, null);
+            assertEquals(1, _messageBus.getRejectedDeliveryCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
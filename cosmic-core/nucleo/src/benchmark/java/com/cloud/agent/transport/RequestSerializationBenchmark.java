@@ -0,0 +1,98 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares writing and reading a ping of a busy host with Gson and with the
+ * binary format.  Compiled only with -Dbenchmarks; run the main method from the
+ * test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestSerializationBenchmark {
+
+    @Param({"gson", "binary"})
+    public String format;
+
+    @Param({"10", "200"})
+    public int vms;
+
+    private Command[] _cmds;
+    private byte[] _bytes;
+
+    @Setup
+    public void setUp() {
+        final Map<String, HostVmStateReportEntry> states = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < vms; i++) {
+            states.put("i-2-" + i + "-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host-" + (i % 4)));
+        }
+        _cmds = new Command[] {new PingRoutingCommand(Host.Type.Routing, 42, states)};
+        _bytes = newRequest().getBytes();
+    }
+
+    private Request newRequest() {
+        final Request request = new Request(42, 1, _cmds, true, false);
+        request.setFormat(Request.Format.valueOf(format));
+        return request;
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return newRequest().getBytes();
+    }
+
+    @Benchmark
+    public Command[] deserialize() throws Exception {
+        return Request.parse(_bytes).getCommands();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RequestSerializationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
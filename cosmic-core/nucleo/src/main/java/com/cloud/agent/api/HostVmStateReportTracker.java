@@ -0,0 +1,103 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the VM state reports an agent sent, so its pings only carry
+ * the VMs whose state changed.  Every report gets the next generation number;
+ * a full report goes out every fullReportInterval pings and whenever the
+ * management server asks for one because it missed a generation.
+ */
+public class HostVmStateReportTracker {
+    /**
+     * Pings between full reports, about ten minutes with the default ping interval.
+     */
+    public static final int DEFAULT_FULL_REPORT_INTERVAL = 10;
+
+    private final int _fullReportInterval;
+    private Map<String, HostVmStateReportEntry> _lastReport = new HashMap<String, HostVmStateReportEntry>();
+    private long _generation;
+    private int _deltasSinceFullReport;
+    private boolean _fullReportRequested = true;
+
+    /**
+     * @param fullReportInterval number of pings between full reports.
+     */
+    public HostVmStateReportTracker(final int fullReportInterval) {
+        _fullReportInterval = fullReportInterval;
+    }
+
+    /**
+     * Sets the report of the ping to the current VM states, as a delta from the previous report if possible.
+     */
+    public synchronized void fill(final PingRoutingCommand ping, final Map<String, HostVmStateReportEntry> currentReport) {
+        _generation++;
+        ping.setReportGeneration(_generation);
+
+        if (_fullReportRequested || _deltasSinceFullReport >= _fullReportInterval) {
+            ping._hostVmStateReport = currentReport;
+            _fullReportRequested = false;
+            _deltasSinceFullReport = 0;
+        } else {
+            final Map<String, HostVmStateReportEntry> changed = new HashMap<String, HostVmStateReportEntry>();
+            for (final Map.Entry<String, HostVmStateReportEntry> entry : currentReport.entrySet()) {
+                final HostVmStateReportEntry last = _lastReport.get(entry.getKey());
+                if (last == null || last.getState() != entry.getValue().getState() || !equals(last.getHost(), entry.getValue().getHost())) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+            final List<String> removed = new ArrayList<String>();
+            for (final String vmName : _lastReport.keySet()) {
+                if (!currentReport.containsKey(vmName)) {
+                    removed.add(vmName);
+                }
+            }
+            ping._hostVmStateReport = changed;
+            ping.setDeltaReport(removed);
+            _deltasSinceFullReport++;
+        }
+        _lastReport = new HashMap<String, HostVmStateReportEntry>(currentReport);
+    }
+
+    /**
+     * Makes the next ping carry a full report if the management server asked for one.
+     */
+    public synchronized void processAnswer(final PingAnswer answer) {
+        if (answer.isSendFullReport()) {
+            _fullReportRequested = true;
+        }
+    }
+
+    /**
+     * Makes the next ping carry a full report, e.g. after reconnecting.
+     */
+    public synchronized void reset() {
+        _fullReportRequested = true;
+    }
+
+    private static boolean equals(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -22,6 +22,8 @@ package com.cloud.agent.api;
 public class PingAnswer extends Answer {
     private PingCommand _command = null;
 
+    private boolean _sendFullReport = false;
+
     protected PingAnswer() {
     }
 
@@ -30,7 +32,19 @@ public class PingAnswer extends Answer {
         _command = cmd;
     }
 
+    public PingAnswer(PingCommand cmd, boolean sendFullReport) {
+        this(cmd);
+        _sendFullReport = sendFullReport;
+    }
+
     public PingCommand getCommand() {
         return _command;
     }
+
+    /**
+     * @return true if the management server lost track of the agent's VM state reports and needs a full one with the next ping.
+     */
+    public boolean isSendFullReport() {
+        return _sendFullReport;
+    }
 }
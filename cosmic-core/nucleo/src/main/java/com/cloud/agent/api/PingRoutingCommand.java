@@ -19,6 +19,7 @@
 
 package com.cloud.agent.api;
 
+import java.util.List;
 import java.util.Map;
 
 import com.cloud.host.Host;
@@ -27,6 +28,12 @@ public class PingRoutingCommand extends PingCommand {
 
     Map<String, HostVmStateReportEntry> _hostVmStateReport;
 
+    // 0 if the agent does not number its reports, every report is then a full one
+    long _reportGeneration;
+    boolean _deltaReport;
+    // VMs that left the host since the previous report, only set in a delta report
+    List<String> _removedVms;
+
     boolean _gatewayAccessible = true;
     boolean _vnetAccessible = true;
 
@@ -42,6 +49,31 @@ public class PingRoutingCommand extends PingCommand {
         return this._hostVmStateReport;
     }
 
+    public long getReportGeneration() {
+        return _reportGeneration;
+    }
+
+    public void setReportGeneration(long reportGeneration) {
+        _reportGeneration = reportGeneration;
+    }
+
+    /**
+     * @return true if the VM state report only holds the VMs whose state changed since the report
+     * of the previous generation, see getRemovedVms().
+     */
+    public boolean isDeltaReport() {
+        return _deltaReport;
+    }
+
+    public List<String> getRemovedVms() {
+        return _removedVms;
+    }
+
+    public void setDeltaReport(List<String> removedVms) {
+        _deltaReport = true;
+        _removedVms = removedVms;
+    }
+
     public boolean isGatewayAccessible() {
         return _gatewayAccessible;
     }
@@ -0,0 +1,240 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * The fields the binary codec reads and writes for one class, computed once
+ * per class.  The selection follows what Gson does for the agent protocol:
+ * every non-static, non-transient, non-synthetic field of the class and its
+ * superclasses.  A field name shadowed by a subclass gets a "#n" suffix so
+ * both ends map it to the same field.
+ */
+class BinaryClassSchema {
+    private static final ConcurrentHashMap<Class<?>, BinaryClassSchema> s_schemas = new ConcurrentHashMap<Class<?>, BinaryClassSchema>();
+    private static final Object s_unsafe = loadUnsafe();
+    private static final Method s_allocateInstance = loadAllocateInstance();
+
+    private final Class<?> _clazz;
+    private final Constructor<?> _constructor;
+    private final FieldSchema[] _fields;
+    private final Map<String, FieldSchema> _fieldsByName;
+    private final Class<?>[] _referencedTypes;
+
+    private BinaryClassSchema(final Class<?> clazz) {
+        _clazz = clazz;
+
+        final List<FieldSchema> fields = new ArrayList<FieldSchema>();
+        final Map<String, FieldSchema> fieldsByName = new HashMap<String, FieldSchema>();
+        final Set<Class<?>> referencedTypes = new LinkedHashSet<Class<?>>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (final Field field : c.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                String name = field.getName();
+                for (int i = 1; fieldsByName.containsKey(name); i++) {
+                    name = field.getName() + "#" + i;
+                }
+                final FieldSchema schema = new FieldSchema(field, name);
+                fields.add(schema);
+                fieldsByName.put(name, schema);
+                addReferencedTypes(field.getGenericType(), referencedTypes);
+            }
+        }
+        _fields = fields.toArray(new FieldSchema[fields.size()]);
+        _fieldsByName = fieldsByName;
+        _referencedTypes = referencedTypes.toArray(new Class<?>[referencedTypes.size()]);
+
+        Constructor<?> constructor = null;
+        try {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (final NoSuchMethodException e) {
+            // Same as Gson, allocate without running a constructor
+        }
+        _constructor = constructor;
+    }
+
+    static BinaryClassSchema get(final Class<?> clazz) {
+        BinaryClassSchema schema = s_schemas.get(clazz);
+        if (schema == null) {
+            schema = new BinaryClassSchema(clazz);
+            final BinaryClassSchema existing = s_schemas.putIfAbsent(clazz, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Our own types referenced by the declaration of a field, including the
+     * element types of arrays and the type arguments of collections and maps.
+     */
+    private static void addReferencedTypes(final Type type, final Set<Class<?>> types) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>)type;
+            while (clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            if (isOwnType(clazz)) {
+                types.add(clazz);
+            }
+        } else if (type instanceof ParameterizedType) {
+            addReferencedTypes(((ParameterizedType)type).getRawType(), types);
+            for (final Type argument : ((ParameterizedType)type).getActualTypeArguments()) {
+                addReferencedTypes(argument, types);
+            }
+        } else if (type instanceof GenericArrayType) {
+            addReferencedTypes(((GenericArrayType)type).getGenericComponentType(), types);
+        } else if (type instanceof WildcardType) {
+            for (final Type bound : ((WildcardType)type).getUpperBounds()) {
+                addReferencedTypes(bound, types);
+            }
+        }
+    }
+
+    static boolean isOwnType(final Class<?> clazz) {
+        final String name = clazz.getName();
+        return name.startsWith("com.cloud.") || name.startsWith("org.apache.cloudstack.");
+    }
+
+    /**
+     * Only our own classes get (de)serialized field by field; anything else
+     * has to be a type the codec knows natively.
+     */
+    static boolean isReflectable(final Class<?> clazz) {
+        return isOwnType(clazz) && !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()) && !clazz.isAnonymousClass() && !clazz.isLocalClass();
+    }
+
+    Class<?> getType() {
+        return _clazz;
+    }
+
+    FieldSchema[] getFields() {
+        return _fields;
+    }
+
+    FieldSchema getField(final String name) {
+        return _fieldsByName.get(name);
+    }
+
+    Class<?>[] getReferencedTypes() {
+        return _referencedTypes;
+    }
+
+    Object newInstance() {
+        try {
+            if (_constructor != null) {
+                return _constructor.newInstance();
+            }
+            if (s_allocateInstance != null) {
+                return s_allocateInstance.invoke(s_unsafe, _clazz);
+            }
+        } catch (final Exception e) {
+            throw new CloudRuntimeException("Unable to create an instance of " + _clazz.getName(), e);
+        }
+        throw new CloudRuntimeException("Unable to create an instance of " + _clazz.getName() + " without a no-arg constructor");
+    }
+
+    private static Object loadUnsafe() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return field.get(null);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    private static Method loadAllocateInstance() {
+        try {
+            return s_unsafe == null ? null : s_unsafe.getClass().getMethod("allocateInstance", Class.class);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    static class FieldSchema {
+        static final int KIND_OBJECT = 0;
+        static final int KIND_BOOLEAN = 1;
+        static final int KIND_BYTE = 2;
+        static final int KIND_SHORT = 3;
+        static final int KIND_CHAR = 4;
+        static final int KIND_INT = 5;
+        static final int KIND_LONG = 6;
+        static final int KIND_FLOAT = 7;
+        static final int KIND_DOUBLE = 8;
+
+        final Field field;
+        final String name;
+        final Class<?> type;
+        final int kind;
+
+        FieldSchema(final Field field, final String name) {
+            this.field = field;
+            this.name = name;
+            type = field.getType();
+            kind = kindOf(type);
+        }
+
+        private static int kindOf(final Class<?> type) {
+            if (!type.isPrimitive()) {
+                return KIND_OBJECT;
+            } else if (type == boolean.class) {
+                return KIND_BOOLEAN;
+            } else if (type == byte.class) {
+                return KIND_BYTE;
+            } else if (type == short.class) {
+                return KIND_SHORT;
+            } else if (type == char.class) {
+                return KIND_CHAR;
+            } else if (type == int.class) {
+                return KIND_INT;
+            } else if (type == long.class) {
+                return KIND_LONG;
+            } else if (type == float.class) {
+                return KIND_FLOAT;
+            }
+            return KIND_DOUBLE;
+        }
+    }
+}
@@ -0,0 +1,873 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.agent.api.Command;
+import com.cloud.agent.transport.BinaryClassSchema.FieldSchema;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * BinaryCommandCodec is the compact alternative to Gson for the commands and
+ * answers carried in a Request.  The format is self describing so that agents
+ * and management servers of different versions can still talk to each other:
+ * a class is written with its name and field names the first time it appears
+ * in a message and by index afterwards, and the reader maps field names onto
+ * its own fields, skipping the ones it doesn't know.
+ *
+ * The payload is a format version byte and the number of commands, followed
+ * by one tagged value per command.  Numbers are zig-zag varints, strings are
+ * length prefixed UTF-8.
+ *
+ * Only our own classes are (de)serialized field by field.  Other types have
+ * to be one the codec knows: strings, boxed primitives, enums, dates, arrays
+ * and the java.util collections.  Encoding anything else throws an
+ * IllegalArgumentException, upon which Request falls back to Gson.
+ *
+ * The class names in a message come from the peer, so the reader only
+ * instantiates the Command or Answer asked for and the types declared by the
+ * fields of the classes read before it in the same message.  The writer
+ * applies the same rule, anything else goes through Gson.
+ */
+public final class BinaryCommandCodec {
+    static final byte FORMAT_VERSION = 1;
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_TRUE = 1;
+    static final byte TAG_FALSE = 2;
+    static final byte TAG_BYTE = 3;
+    static final byte TAG_SHORT = 4;
+    static final byte TAG_CHAR = 5;
+    static final byte TAG_INT = 6;
+    static final byte TAG_LONG = 7;
+    static final byte TAG_FLOAT = 8;
+    static final byte TAG_DOUBLE = 9;
+    static final byte TAG_STRING = 10;
+    static final byte TAG_ENUM = 11;
+    static final byte TAG_DATE = 12;
+    static final byte TAG_BYTES = 13;
+    static final byte TAG_ARRAY = 14;
+    static final byte TAG_COLLECTION = 15;
+    static final byte TAG_MAP = 16;
+    static final byte TAG_OBJECT = 17;
+
+    private static final ConcurrentHashMap<String, Class<?>> s_classes = new ConcurrentHashMap<String, Class<?>>();
+    private static final ConcurrentHashMap<Class<?>, Class<?>> s_containerClasses = new ConcurrentHashMap<Class<?>, Class<?>>();
+
+    static {
+        for (final Class<?> primitive : new Class<?>[] {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class}) {
+            s_classes.put(primitive.getName(), primitive);
+        }
+    }
+
+    private BinaryCommandCodec() {
+    }
+
+    /**
+     * @return the encoded commands, position 0 and limit at the end of the payload.
+     * @throws IllegalArgumentException if the commands hold a type the codec can't write.
+     */
+    public static ByteBuffer encode(final Command[] cmds) {
+        final Encoder encoder = new Encoder();
+        encoder.writeByte(FORMAT_VERSION);
+        encoder.writeVarInt(cmds.length);
+        for (final Command cmd : cmds) {
+            encoder.writeValue(cmd, Command.class);
+        }
+        return encoder.toByteBuffer();
+    }
+
+    /**
+     * Decodes the commands from the remaining bytes of the buffer.
+     *
+     * @param type component type of the returned array, Command or Answer.
+     */
+    public static Command[] decode(final ByteBuffer buffer, final Class<? extends Command> type) {
+        final Decoder decoder = new Decoder(buffer);
+        final byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new CloudRuntimeException("Unsupported binary format version: " + version);
+        }
+        final int count = decoder.readVarInt();
+        final Command[] cmds = (Command[])Array.newInstance(type, count);
+        for (int i = 0; i < count; i++) {
+            final Object cmd = decoder.readValue(type);
+            if (cmd != null && !type.isInstance(cmd)) {
+                throw new CloudRuntimeException("Expected " + type.getName() + " but got " + cmd.getClass().getName());
+            }
+            cmds[i] = (Command)cmd;
+        }
+        return cmds;
+    }
+
+    private static boolean isLoadable(final String name) {
+        return name.startsWith("java.") || name.startsWith("com.cloud.") || name.startsWith("org.apache.cloudstack.");
+    }
+
+    /**
+     * @return whether an object of clazz may be read where declared is expected: a
+     * subtype of one of our own declared types, or of a type referenced by the
+     * fields of the classes read so far.
+     */
+    private static boolean isAllowed(final Class<?> clazz, final Class<?> declared, final Set<Class<?>> referenced) {
+        if (declared != null && BinaryClassSchema.isOwnType(declared) && declared.isAssignableFrom(clazz)) {
+            return true;
+        }
+        for (final Class<?> type : referenced) {
+            if (type.isAssignableFrom(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as isAllowed for the component type of an array, java.lang and
+     * java.util components are fine as their elements are checked one by one.
+     */
+    private static boolean isAllowedComponent(Class<?> component, Class<?> declared, final Set<Class<?>> referenced) {
+        while (component.isArray()) {
+            component = component.getComponentType();
+        }
+        while (declared != null && declared.isArray()) {
+            declared = declared.getComponentType();
+        }
+        return component.isPrimitive() || !BinaryClassSchema.isOwnType(component) || isAllowed(component, declared, referenced);
+    }
+
+    private static boolean isJdkContainer(final Class<?> clazz) {
+        if (!clazz.getName().startsWith("java.util.") || !Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers())) {
+            return false;
+        }
+        try {
+            return Modifier.isPublic(clazz.getConstructor().getModifiers());
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a collection or map class to the class the reader instantiates:
+     * the class itself when it is a plain java.util container, otherwise
+     * the closest one of those, e.g. ArrayList for Arrays.asList().
+     */
+    private static Class<?> containerClass(final Class<?> clazz) {
+        Class<?> container = s_containerClasses.get(clazz);
+        if (container == null) {
+            if (isJdkContainer(clazz)) {
+                container = clazz;
+            } else if (SortedMap.class.isAssignableFrom(clazz)) {
+                container = TreeMap.class;
+            } else if (Map.class.isAssignableFrom(clazz)) {
+                container = LinkedHashMap.class;
+            } else if (SortedSet.class.isAssignableFrom(clazz)) {
+                container = TreeSet.class;
+            } else if (Set.class.isAssignableFrom(clazz)) {
+                container = LinkedHashSet.class;
+            } else if (Queue.class.isAssignableFrom(clazz)) {
+                container = LinkedList.class;
+            } else {
+                container = ArrayList.class;
+            }
+            s_containerClasses.put(clazz, container);
+        }
+        return container;
+    }
+
+    private static class Encoder {
+        private final IdentityHashMap<Class<?>, Integer> _classIds = new IdentityHashMap<Class<?>, Integer>();
+        private final Set<Class<?>> _referenced = new HashSet<Class<?>>();
+        private byte[] _buf = new byte[256];
+        private int _pos;
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(_buf, 0, _pos).slice();
+        }
+
+        private void ensure(final int bytes) {
+            if (_pos + bytes > _buf.length) {
+                final byte[] buf = new byte[Math.max(_buf.length << 1, _pos + bytes)];
+                System.arraycopy(_buf, 0, buf, 0, _pos);
+                _buf = buf;
+            }
+        }
+
+        void writeByte(final int b) {
+            ensure(1);
+            _buf[_pos++] = (byte)b;
+        }
+
+        void writeVarInt(final int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                _buf[_pos++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_pos++] = (byte)value;
+        }
+
+        void writeZigZag(final long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixed(long value, final int bytes) {
+            ensure(bytes);
+            for (int i = 0; i < bytes; i++) {
+                _buf[_pos++] = (byte)value;
+                value >>>= 8;
+            }
+        }
+
+        void writeString(final String value) {
+            final int length = value.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (isSurrogatePair(value, i)) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+
+            writeVarInt(utf8Length);
+            ensure(utf8Length);
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    _buf[_pos++] = (byte)c;
+                } else if (c < 0x800) {
+                    _buf[_pos++] = (byte)(0xC0 | (c >> 6));
+                    _buf[_pos++] = (byte)(0x80 | (c & 0x3F));
+                } else if (isSurrogatePair(value, i)) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    _buf[_pos++] = (byte)(0xF0 | (codePoint >> 18));
+                    _buf[_pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    _buf[_pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    _buf[_pos++] = (byte)(0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // Same replacement String.getBytes() uses for a lone surrogate
+                    _buf[_pos++] = (byte)'?';
+                } else {
+                    _buf[_pos++] = (byte)(0xE0 | (c >> 12));
+                    _buf[_pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                    _buf[_pos++] = (byte)(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static boolean isSurrogatePair(final String value, final int index) {
+            return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1));
+        }
+
+        void writeClass(final Class<?> clazz) {
+            final Integer id = _classIds.get(clazz);
+            if (id != null) {
+                writeVarInt(id + 1);
+                return;
+            }
+            _classIds.put(clazz, _classIds.size());
+            writeVarInt(0);
+            writeString(clazz.getName());
+            if (BinaryClassSchema.isReflectable(clazz)) {
+                final FieldSchema[] fields = BinaryClassSchema.get(clazz).getFields();
+                writeVarInt(fields.length);
+                for (final FieldSchema field : fields) {
+                    writeString(field.name);
+                }
+            } else {
+                writeVarInt(0);
+            }
+        }
+
+        void writeValue(final Object value, final Class<?> declared) {
+            if (value == null) {
+                writeByte(TAG_NULL);
+                return;
+            }
+
+            final Class<?> clazz = value.getClass();
+            if (clazz == String.class) {
+                writeByte(TAG_STRING);
+                writeString((String)value);
+            } else if (clazz == Long.class) {
+                writeByte(TAG_LONG);
+                writeZigZag((Long)value);
+            } else if (clazz == Integer.class) {
+                writeByte(TAG_INT);
+                writeZigZag((Integer)value);
+            } else if (clazz == Boolean.class) {
+                writeByte((Boolean)value ? TAG_TRUE : TAG_FALSE);
+            } else if (clazz == Double.class) {
+                writeByte(TAG_DOUBLE);
+                writeFixed(Double.doubleToRawLongBits((Double)value), 8);
+            } else if (clazz == Float.class) {
+                writeByte(TAG_FLOAT);
+                writeFixed(Float.floatToRawIntBits((Float)value), 4);
+            } else if (clazz == Short.class) {
+                writeByte(TAG_SHORT);
+                writeZigZag((Short)value);
+            } else if (clazz == Byte.class) {
+                writeByte(TAG_BYTE);
+                writeByte((Byte)value);
+            } else if (clazz == Character.class) {
+                writeByte(TAG_CHAR);
+                writeVarInt((Character)value);
+            } else if (value instanceof Enum) {
+                final Class<?> enumClass = ((Enum<?>)value).getDeclaringClass();
+                if (!isLoadable(enumClass.getName())) {
+                    throw new IllegalArgumentException("Unsupported enum " + enumClass.getName());
+                }
+                writeByte(TAG_ENUM);
+                writeClass(enumClass);
+                writeString(((Enum<?>)value).name());
+            } else if (clazz == Date.class) {
+                writeByte(TAG_DATE);
+                writeZigZag(((Date)value).getTime());
+            } else if (clazz == byte[].class) {
+                final byte[] bytes = (byte[])value;
+                writeByte(TAG_BYTES);
+                writeVarInt(bytes.length);
+                ensure(bytes.length);
+                System.arraycopy(bytes, 0, _buf, _pos, bytes.length);
+                _pos += bytes.length;
+            } else if (clazz.isArray()) {
+                if (!isAllowedComponent(clazz.getComponentType(), declared, _referenced)) {
+                    throw new IllegalArgumentException("Unsupported array of " + clazz.getComponentType().getName());
+                }
+                writeArray(value, clazz.getComponentType());
+            } else if (value instanceof Collection) {
+                final Collection<?> collection = (Collection<?>)value;
+                writeByte(TAG_COLLECTION);
+                writeContainerClass(clazz, declared);
+                writeVarInt(collection.size());
+                for (final Object element : collection) {
+                    writeValue(element, null);
+                }
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>)value;
+                writeByte(TAG_MAP);
+                writeContainerClass(clazz, declared);
+                writeVarInt(map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey(), null);
+                    writeValue(entry.getValue(), null);
+                }
+            } else if (BinaryClassSchema.isReflectable(clazz) && isAllowed(clazz, declared, _referenced)) {
+                writeObject(value, clazz);
+            } else {
+                throw new IllegalArgumentException("Unsupported type " + clazz.getName());
+            }
+        }
+
+        private void writeContainerClass(final Class<?> clazz, final Class<?> declared) {
+            final Class<?> container = containerClass(clazz);
+            if (declared != null && !declared.isAssignableFrom(container)) {
+                throw new IllegalArgumentException("Unsupported container " + clazz.getName() + " for " + declared.getName());
+            }
+            writeClass(container);
+        }
+
+        private void writeArray(final Object array, final Class<?> component) {
+            if (!component.isPrimitive() && !component.isArray() && !isLoadable(component.getName())) {
+                throw new IllegalArgumentException("Unsupported array of " + component.getName());
+            }
+            final int length = Array.getLength(array);
+            writeByte(TAG_ARRAY);
+            writeClass(component);
+            writeVarInt(length);
+            if (component == int.class) {
+                for (final int value : (int[])array) {
+                    writeZigZag(value);
+                }
+            } else if (component == long.class) {
+                for (final long value : (long[])array) {
+                    writeZigZag(value);
+                }
+            } else if (component == boolean.class) {
+                for (final boolean value : (boolean[])array) {
+                    writeByte(value ? 1 : 0);
+                }
+            } else if (component == short.class) {
+                for (final short value : (short[])array) {
+                    writeZigZag(value);
+                }
+            } else if (component == char.class) {
+                for (final char value : (char[])array) {
+                    writeVarInt(value);
+                }
+            } else if (component == float.class) {
+                for (final float value : (float[])array) {
+                    writeFixed(Float.floatToRawIntBits(value), 4);
+                }
+            } else if (component == double.class) {
+                for (final double value : (double[])array) {
+                    writeFixed(Double.doubleToRawLongBits(value), 8);
+                }
+            } else {
+                for (final Object element : (Object[])array) {
+                    writeValue(element, component);
+                }
+            }
+        }
+
+        private void writeObject(final Object value, final Class<?> clazz) {
+            writeByte(TAG_OBJECT);
+            writeClass(clazz);
+            final BinaryClassSchema schema = BinaryClassSchema.get(clazz);
+            Collections.addAll(_referenced, schema.getReferencedTypes());
+            try {
+                for (final FieldSchema field : schema.getFields()) {
+                    switch (field.kind) {
+                    case FieldSchema.KIND_BOOLEAN:
+                        writeByte(field.field.getBoolean(value) ? TAG_TRUE : TAG_FALSE);
+                        break;
+                    case FieldSchema.KIND_BYTE:
+                        writeByte(TAG_BYTE);
+                        writeByte(field.field.getByte(value));
+                        break;
+                    case FieldSchema.KIND_SHORT:
+                        writeByte(TAG_SHORT);
+                        writeZigZag(field.field.getShort(value));
+                        break;
+                    case FieldSchema.KIND_CHAR:
+                        writeByte(TAG_CHAR);
+                        writeVarInt(field.field.getChar(value));
+                        break;
+                    case FieldSchema.KIND_INT:
+                        writeByte(TAG_INT);
+                        writeZigZag(field.field.getInt(value));
+                        break;
+                    case FieldSchema.KIND_LONG:
+                        writeByte(TAG_LONG);
+                        writeZigZag(field.field.getLong(value));
+                        break;
+                    case FieldSchema.KIND_FLOAT:
+                        writeByte(TAG_FLOAT);
+                        writeFixed(Float.floatToRawIntBits(field.field.getFloat(value)), 4);
+                        break;
+                    case FieldSchema.KIND_DOUBLE:
+                        writeByte(TAG_DOUBLE);
+                        writeFixed(Double.doubleToRawLongBits(field.field.getDouble(value)), 8);
+                        break;
+                    default:
+                        writeValue(field.field.get(value), field.type);
+                    }
+                }
+            } catch (final IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to read the fields of " + clazz.getName(), e);
+            }
+        }
+    }
+
+    private static class ClassDef {
+        final String name;
+        final Class<?> clazz;
+        final String[] fieldNames;
+        private BinaryClassSchema _boundSchema;
+        private FieldSchema[] _boundFields;
+
+        ClassDef(final String name, final Class<?> clazz, final String[] fieldNames) {
+            this.name = name;
+            this.clazz = clazz;
+            this.fieldNames = fieldNames;
+        }
+
+        /**
+         * @return the local field for each field name written, null for the ones this class doesn't have.
+         */
+        FieldSchema[] bind(final BinaryClassSchema schema) {
+            if (_boundSchema != schema) {
+                _boundFields = new FieldSchema[fieldNames.length];
+                for (int i = 0; i < fieldNames.length; i++) {
+                    _boundFields[i] = schema.getField(fieldNames[i]);
+                }
+                _boundSchema = schema;
+            }
+            return _boundFields;
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer _buf;
+        private final List<ClassDef> _classes = new ArrayList<ClassDef>();
+        private final Set<Class<?>> _referenced = new HashSet<Class<?>>();
+
+        Decoder(final ByteBuffer buf) {
+            _buf = buf;
+        }
+
+        int readVarInt() {
+            return (int)readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = _buf.get();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CloudRuntimeException("Malformed varint");
+        }
+
+        long readZigZag() {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readFixed(final int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value |= (long)(_buf.get() & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+
+        String readString() {
+            final int length = readVarInt();
+            final String value;
+            if (_buf.hasArray()) {
+                value = new String(_buf.array(), _buf.arrayOffset() + _buf.position(), length, StandardCharsets.UTF_8);
+                _buf.position(_buf.position() + length);
+            } else {
+                final byte[] bytes = new byte[length];
+                _buf.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        ClassDef readClass() {
+            final int id = readVarInt();
+            if (id > 0) {
+                return _classes.get(id - 1);
+            }
+            final String name = readString();
+            final String[] fieldNames = new String[readVarInt()];
+            for (int i = 0; i < fieldNames.length; i++) {
+                fieldNames[i] = readString();
+            }
+            final ClassDef def = new ClassDef(name, loadClass(name), fieldNames);
+            _classes.add(def);
+            return def;
+        }
+
+        private static Class<?> loadClass(final String name) {
+            Class<?> clazz = s_classes.get(name);
+            if (clazz == null && isLoadable(name)) {
+                try {
+                    // Not initialized, the class is only used once it passed isAllowed or is an enum or container
+                    clazz = Class.forName(name, false, BinaryCommandCodec.class.getClassLoader());
+                } catch (final ClassNotFoundException e) {
+                    // The peer is another version, fall back to the declared type
+                    clazz = Void.class;
+                }
+                s_classes.put(name, clazz);
+            }
+            return clazz == Void.class ? null : clazz;
+        }
+
+        Object readValue(final Class<?> declared) {
+            return readValue(_buf.get(), declared);
+        }
+
+        Object readValue(final byte tag, final Class<?> declared) {
+            switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_BYTE:
+                return _buf.get();
+            case TAG_SHORT:
+                return (short)readZigZag();
+            case TAG_CHAR:
+                return (char)readVarInt();
+            case TAG_INT:
+                return (int)readZigZag();
+            case TAG_LONG:
+                return readZigZag();
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int)readFixed(4));
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(readFixed(8));
+            case TAG_STRING:
+                return readString();
+            case TAG_ENUM:
+                return readEnum(declared);
+            case TAG_DATE:
+                return new Date(readZigZag());
+            case TAG_BYTES:
+                final byte[] bytes = new byte[readVarInt()];
+                _buf.get(bytes);
+                return bytes;
+            case TAG_ARRAY:
+                return readArray(declared);
+            case TAG_COLLECTION:
+                return readCollection(declared);
+            case TAG_MAP:
+                return readMap(declared);
+            case TAG_OBJECT:
+                return readObject(declared);
+            default:
+                throw new CloudRuntimeException("Unknown tag " + tag + " at " + (_buf.position() - 1));
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readEnum(final Class<?> declared) {
+            final ClassDef def = readClass();
+            final String name = readString();
+            Class<?> clazz = def.clazz;
+            if (clazz == null || !clazz.isEnum()) {
+                clazz = declared != null && declared.isEnum() ? declared : null;
+            }
+            if (clazz == null) {
+                return null;
+            }
+            try {
+                return Enum.valueOf((Class<Enum>)clazz, name);
+            } catch (final IllegalArgumentException e) {
+                // Same as Gson, a constant we don't know becomes null
+                return null;
+            }
+        }
+
+        private Object readArray(final Class<?> declared) {
+            final ClassDef def = readClass();
+            Class<?> component = def.clazz;
+            if (component == null || !isAllowedComponent(component, declared, _referenced)) {
+                if (declared == null || !declared.isArray()) {
+                    throw new CloudRuntimeException("Unable to decode an array of " + def.name);
+                }
+                component = declared.getComponentType();
+            }
+            final int length = readVarInt();
+            final Object array = Array.newInstance(component, length);
+            if (component == int.class) {
+                final int[] values = (int[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = (int)readZigZag();
+                }
+            } else if (component == long.class) {
+                final long[] values = (long[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = readZigZag();
+                }
+            } else if (component == boolean.class) {
+                final boolean[] values = (boolean[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = _buf.get() != 0;
+                }
+            } else if (component == short.class) {
+                final short[] values = (short[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = (short)readZigZag();
+                }
+            } else if (component == char.class) {
+                final char[] values = (char[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = (char)readVarInt();
+                }
+            } else if (component == float.class) {
+                final float[] values = (float[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = Float.intBitsToFloat((int)readFixed(4));
+                }
+            } else if (component == double.class) {
+                final double[] values = (double[])array;
+                for (int i = 0; i < length; i++) {
+                    values[i] = Double.longBitsToDouble(readFixed(8));
+                }
+            } else {
+                final Object[] values = (Object[])array;
+                for (int i = 0; i < length; i++) {
+                    final Object value = readValue(component);
+                    if (value == null || component.isInstance(value)) {
+                        values[i] = value;
+                    }
+                }
+            }
+            return array;
+        }
+
+        private Object newContainer(final ClassDef def, final Class<?> declared, final Class<?> kind) {
+            Class<?> clazz = def.clazz;
+            if (clazz == null || !kind.isAssignableFrom(clazz) || !isJdkContainer(clazz) || declared != null && !declared.isAssignableFrom(clazz)) {
+                clazz = declared != null && kind.isAssignableFrom(declared) ? containerClass(declared) : null;
+                if (clazz == null || !declared.isAssignableFrom(clazz)) {
+                    throw new CloudRuntimeException("Unable to decode " + def.name + (declared != null ? " into " + declared.getName() : ""));
+                }
+            }
+            try {
+                final Constructor<?> constructor = clazz.getConstructor();
+                return constructor.newInstance();
+            } catch (final Exception e) {
+                throw new CloudRuntimeException("Unable to create an instance of " + clazz.getName(), e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object readCollection(final Class<?> declared) {
+            final ClassDef def = readClass();
+            final Collection<Object> collection = (Collection<Object>)newContainer(def, declared, Collection.class);
+            final int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue(null));
+            }
+            return collection;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object readMap(final Class<?> declared) {
+            final ClassDef def = readClass();
+            final Map<Object, Object> map = (Map<Object, Object>)newContainer(def, declared, Map.class);
+            final int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                final Object key = readValue(null);
+                map.put(key, readValue(null));
+            }
+            return map;
+        }
+
+        private Object readObject(final Class<?> declared) {
+            final ClassDef def = readClass();
+            Class<?> clazz = def.clazz;
+            if (clazz == null || !BinaryClassSchema.isReflectable(clazz) || !isAllowed(clazz, declared, _referenced)) {
+                if (declared == null || !BinaryClassSchema.isReflectable(declared)) {
+                    throw new CloudRuntimeException("Unable to decode " + def.name);
+                }
+                clazz = declared;
+            }
+
+            final BinaryClassSchema schema = BinaryClassSchema.get(clazz);
+            Collections.addAll(_referenced, schema.getReferencedTypes());
+            final FieldSchema[] fields = def.bind(schema);
+            final Object object = schema.newInstance();
+            try {
+                for (final FieldSchema field : fields) {
+                    final byte tag = _buf.get();
+                    if (field == null) {
+                        readValue(tag, null);
+                    } else {
+                        readField(object, field, tag);
+                    }
+                }
+            } catch (final IllegalAccessException e) {
+                throw new CloudRuntimeException("Unable to set the fields of " + clazz.getName(), e);
+            }
+            return object;
+        }
+
+        private void readField(final Object object, final FieldSchema field, final byte tag) throws IllegalAccessException {
+            // Fast paths for primitive fields that were written as the same primitive
+            if (field.kind == FieldSchema.KIND_INT && tag == TAG_INT) {
+                field.field.setInt(object, (int)readZigZag());
+                return;
+            } else if (field.kind == FieldSchema.KIND_LONG && tag == TAG_LONG) {
+                field.field.setLong(object, readZigZag());
+                return;
+            } else if (field.kind == FieldSchema.KIND_BOOLEAN && (tag == TAG_TRUE || tag == TAG_FALSE)) {
+                field.field.setBoolean(object, tag == TAG_TRUE);
+                return;
+            }
+
+            final Object value = readValue(tag, field.type);
+            if (value == null) {
+                // Same as Gson, keep whatever the constructor put there
+                return;
+            }
+            if (field.kind == FieldSchema.KIND_OBJECT) {
+                if (field.type.isInstance(value)) {
+                    field.field.set(object, value);
+                }
+                return;
+            }
+            if (value instanceof Number) {
+                final Number number = (Number)value;
+                switch (field.kind) {
+                case FieldSchema.KIND_BYTE:
+                    field.field.setByte(object, number.byteValue());
+                    break;
+                case FieldSchema.KIND_SHORT:
+                    field.field.setShort(object, number.shortValue());
+                    break;
+                case FieldSchema.KIND_INT:
+                    field.field.setInt(object, number.intValue());
+                    break;
+                case FieldSchema.KIND_LONG:
+                    field.field.setLong(object, number.longValue());
+                    break;
+                case FieldSchema.KIND_FLOAT:
+                    field.field.setFloat(object, number.floatValue());
+                    break;
+                case FieldSchema.KIND_DOUBLE:
+                    field.field.setDouble(object, number.doubleValue());
+                    break;
+                default:
+                    break;
+                }
+            } else if (value instanceof Boolean && field.kind == FieldSchema.KIND_BOOLEAN) {
+                field.field.setBoolean(object, (Boolean)value);
+            } else if (value instanceof Character && field.kind == FieldSchema.KIND_CHAR) {
+                field.field.setChar(object, (Character)value);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compression keeps the compressors available to the agent protocol and
+ * decides which one a message gets.  Every message announces the compressors
+ * its sender reads in the upper byte of the flags, one bit per compressor id
+ * above gzip, and the data package of a message is compressed with the
+ * preferred compressor when the peer announced it and with gzip otherwise.
+ */
+public final class Compression {
+    private static final Logger s_logger = Logger.getLogger(Compression.class);
+
+    public static final int MAX_ID = 8;
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    static final short ACCEPTS_MASK = (short)0xFF00;
+
+    private static final Compressor[] s_compressors = new Compressor[MAX_ID + 1];
+    private static final CompressionStatistics[] s_statistics = new CompressionStatistics[MAX_ID + 1];
+    private static volatile short s_acceptFlags;
+    private static volatile Compressor s_preferred;
+    private static volatile int s_threshold = DEFAULT_THRESHOLD;
+
+    static {
+        register(new GzipCompressor());
+        register(new Lz4Compressor());
+        s_preferred = get(Lz4Compressor.ID);
+    }
+
+    private Compression() {
+    }
+
+    /**
+     * Makes a compressor available; from then on every message announces that it is read.
+     */
+    public static synchronized void register(final Compressor compressor) {
+        final int id = compressor.getId();
+        if (id < 0 || id > MAX_ID) {
+            throw new CloudRuntimeException("Compressor id " + id + " of " + compressor.getName() + " is out of range");
+        }
+        if (s_compressors[id] != null && s_compressors[id] != compressor) {
+            throw new CloudRuntimeException("Compressor id " + id + " of " + compressor.getName() + " is already taken by " + s_compressors[id].getName());
+        }
+        s_statistics[id] = new CompressionStatistics(compressor);
+        s_compressors[id] = compressor;
+        s_acceptFlags |= getAcceptFlag(compressor);
+    }
+
+    public static Compressor get(final int id) {
+        return id >= 0 && id <= MAX_ID ? s_compressors[id] : null;
+    }
+
+    public static Compressor get(final String name) {
+        for (final Compressor compressor : s_compressors) {
+            if (compressor != null && compressor.getName().equalsIgnoreCase(name)) {
+                return compressor;
+            }
+        }
+        return null;
+    }
+
+    public static List<Compressor> getCompressors() {
+        final List<Compressor> compressors = new ArrayList<Compressor>();
+        for (final Compressor compressor : s_compressors) {
+            if (compressor != null) {
+                compressors.add(compressor);
+            }
+        }
+        return compressors;
+    }
+
+    public static Compressor getPreferred() {
+        return s_preferred;
+    }
+
+    /**
+     * Sets the compressor used for peers that read it; unknown names leave the preference as is.
+     */
+    public static void setPreferred(final String name) {
+        final Compressor compressor = get(name);
+        if (compressor == null) {
+            s_logger.warn("Unknown compressor " + name + ", keeping " + s_preferred.getName());
+            return;
+        }
+        s_preferred = compressor;
+    }
+
+    public static int getThreshold() {
+        return s_threshold;
+    }
+
+    /**
+     * Sets the size from which data packages get compressed.
+     */
+    public static void setThreshold(final int threshold) {
+        s_threshold = threshold;
+    }
+
+    public static CompressionStatistics getStatistics(final Compressor compressor) {
+        return s_statistics[compressor.getId()];
+    }
+
+    /**
+     * Registers the statistics of every compressor with JMX.
+     */
+    public static void registerMBeans() {
+        for (final Compressor compressor : getCompressors()) {
+            try {
+                JmxUtil.registerMBean("AgentCompression", compressor.getName(), getStatistics(compressor));
+            } catch (final Exception e) {
+                s_logger.warn("Unable to register the statistics of " + compressor.getName(), e);
+            }
+        }
+    }
+
+    static short getAcceptFlag(final Compressor compressor) {
+        return compressor.getId() == GzipCompressor.ID ? 0 : (short)(0x80 << compressor.getId());
+    }
+
+    /**
+     * @return the flags announcing every compressor this side reads.
+     */
+    static short getAcceptFlags() {
+        return s_acceptFlags;
+    }
+
+    /**
+     * @return the compressor to use for a peer that announced the given flags.
+     */
+    static Compressor select(final short peerFlags) {
+        final Compressor preferred = s_preferred;
+        if ((peerFlags & getAcceptFlag(preferred)) != 0) {
+            return preferred;
+        }
+        return s_compressors[GzipCompressor.ID];
+    }
+
+    static ByteBuffer compress(final Compressor compressor, final ByteBuffer buffer) {
+        final long start = System.nanoTime();
+        final int length = buffer.remaining();
+        final ByteBuffer compressed = compressor.compress(buffer);
+        getStatistics(compressor).compressed(length, compressed.remaining(), System.nanoTime() - start);
+        return compressed;
+    }
+
+    static ByteBuffer decompress(final Compressor compressor, final ByteBuffer buffer, final int length) {
+        final long start = System.nanoTime();
+        final int compressedLength = buffer.remaining();
+        final ByteBuffer decompressed = compressor.decompress(buffer, length);
+        getStatistics(compressor).decompressed(compressedLength, decompressed.remaining(), System.nanoTime() - start);
+        return decompressed;
+    }
+}
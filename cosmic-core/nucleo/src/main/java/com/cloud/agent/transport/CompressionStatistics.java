@@ -0,0 +1,133 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Time spent and bytes saved by one compressor.
+ */
+public class CompressionStatistics extends StandardMBean implements CompressionStatisticsMBean {
+    private final Compressor _compressor;
+
+    private final AtomicLong _compressions = new AtomicLong();
+    private final AtomicLong _compressedBytesIn = new AtomicLong();
+    private final AtomicLong _compressedBytesOut = new AtomicLong();
+    private final AtomicLong _compressionNanos = new AtomicLong();
+    private final AtomicLong _decompressions = new AtomicLong();
+    private final AtomicLong _decompressedBytesIn = new AtomicLong();
+    private final AtomicLong _decompressedBytesOut = new AtomicLong();
+    private final AtomicLong _decompressionNanos = new AtomicLong();
+
+    public CompressionStatistics(final Compressor compressor) {
+        super(CompressionStatisticsMBean.class, false);
+        _compressor = compressor;
+    }
+
+    void compressed(final int bytesIn, final int bytesOut, final long nanos) {
+        _compressions.incrementAndGet();
+        _compressedBytesIn.addAndGet(bytesIn);
+        _compressedBytesOut.addAndGet(bytesOut);
+        _compressionNanos.addAndGet(nanos);
+    }
+
+    void decompressed(final int bytesIn, final int bytesOut, final long nanos) {
+        _decompressions.incrementAndGet();
+        _decompressedBytesIn.addAndGet(bytesIn);
+        _decompressedBytesOut.addAndGet(bytesOut);
+        _decompressionNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public String getCompressor() {
+        return _compressor.getName();
+    }
+
+    @Override
+    public long getCompressions() {
+        return _compressions.get();
+    }
+
+    @Override
+    public long getCompressedBytesIn() {
+        return _compressedBytesIn.get();
+    }
+
+    @Override
+    public long getCompressedBytesOut() {
+        return _compressedBytesOut.get();
+    }
+
+    @Override
+    public long getCompressionTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(_compressionNanos.get());
+    }
+
+    @Override
+    public double getAverageCompressionTimeMicros() {
+        final long count = _compressions.get();
+        return count == 0 ? 0 : _compressionNanos.get() / 1000.0 / count;
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        final long bytesOut = _compressedBytesOut.get();
+        return bytesOut == 0 ? 0 : (double)_compressedBytesIn.get() / bytesOut;
+    }
+
+    @Override
+    public long getDecompressions() {
+        return _decompressions.get();
+    }
+
+    @Override
+    public long getDecompressedBytesIn() {
+        return _decompressedBytesIn.get();
+    }
+
+    @Override
+    public long getDecompressedBytesOut() {
+        return _decompressedBytesOut.get();
+    }
+
+    @Override
+    public long getDecompressionTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(_decompressionNanos.get());
+    }
+
+    @Override
+    public double getAverageDecompressionTimeMicros() {
+        final long count = _decompressions.get();
+        return count == 0 ? 0 : _decompressionNanos.get() / 1000.0 / count;
+    }
+
+    @Override
+    public int getThreshold() {
+        return Compression.getThreshold();
+    }
+
+    @Override
+    public boolean isPreferred() {
+        return Compression.getPreferred() == _compressor;
+    }
+}
@@ -0,0 +1,48 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses the data package of a Request.  Each compressor has its own id
+ * on the wire; a peer only gets data compressed with a compressor it
+ * announced, except for gzip which every version reads.
+ */
+public interface Compressor {
+    /**
+     * @return id of the compressor on the wire, from 0 to Compression.MAX_ID; 0 is taken by gzip.
+     */
+    int getId();
+
+    String getName();
+
+    /**
+     * Compresses the remaining bytes of the buffer, leaving its position untouched.
+     */
+    ByteBuffer compress(ByteBuffer buffer);
+
+    /**
+     * Decompresses the remaining bytes of the buffer.
+     *
+     * @param length size of the data before it was compressed.
+     */
+    ByteBuffer decompress(ByteBuffer buffer, int length);
+}
@@ -0,0 +1,91 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * The compression every version of the agent protocol reads.
+ */
+public class GzipCompressor implements Compressor {
+    public static final int ID = 0;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public ByteBuffer compress(final ByteBuffer buffer) {
+        final int length = buffer.remaining();
+        final ByteArrayOutputStream byteOut = new ByteArrayOutputStream(Math.max(length / 4, 64));
+        try (GZIPOutputStream out = new GZIPOutputStream(byteOut, BUFFER_SIZE)) {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            } else {
+                final byte[] array = new byte[length];
+                buffer.duplicate().get(array);
+                out.write(array);
+            }
+        } catch (final IOException e) {
+            throw new CloudRuntimeException("Unable to compress the request", e);
+        }
+        return ByteBuffer.wrap(byteOut.toByteArray());
+    }
+
+    @Override
+    public ByteBuffer decompress(final ByteBuffer buffer, final int length) {
+        final ByteArrayInputStream byteIn;
+        if (buffer.hasArray()) {
+            byteIn = new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            final byte[] array = new byte[buffer.remaining()];
+            buffer.duplicate().get(array);
+            byteIn = new ByteArrayInputStream(array);
+        }
+
+        // Inflate straight into the result instead of copying through a scratch buffer
+        final byte[] result = new byte[length];
+        int offset = 0;
+        try (GZIPInputStream in = new GZIPInputStream(byteIn, BUFFER_SIZE)) {
+            int len;
+            while (offset < length && (len = in.read(result, offset, length - offset)) > 0) {
+                offset += len;
+            }
+        } catch (final IOException e) {
+            throw new CloudRuntimeException("Unable to decompress the request", e);
+        }
+        return ByteBuffer.wrap(result, 0, offset);
+    }
+}
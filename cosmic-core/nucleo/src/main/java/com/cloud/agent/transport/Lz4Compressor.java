@@ -0,0 +1,73 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.nio.ByteBuffer;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * LZ4 block compression, several times faster than gzip at a somewhat lower
+ * ratio.  The size before compression is in the request header, so the block
+ * is written without a frame around it.  LZ4Factory picks the native library
+ * when available and otherwise a pure Java implementation.
+ */
+public class Lz4Compressor implements Compressor {
+    public static final int ID = 1;
+
+    private static final LZ4Compressor s_compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4SafeDecompressor s_decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public ByteBuffer compress(final ByteBuffer buffer) {
+        final int length = buffer.remaining();
+        final ByteBuffer result = ByteBuffer.allocate(s_compressor.maxCompressedLength(length));
+        final int compressed = s_compressor.compress(buffer, buffer.position(), length, result, 0, result.capacity());
+        result.limit(compressed);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer decompress(final ByteBuffer buffer, final int length) {
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        try {
+            final int decompressed = s_decompressor.decompress(buffer, buffer.position(), buffer.remaining(), result, 0, length);
+            result.limit(decompressed);
+        } catch (final LZ4Exception e) {
+            throw new CloudRuntimeException("Unable to decompress the request", e);
+        }
+        return result;
+    }
+}
@@ -19,9 +19,6 @@
 
 package com.cloud.agent.transport;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
@@ -29,8 +26,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
@@ -64,12 +59,19 @@ import org.apache.log4j.Logger;
  *
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
- * 3. Sequence - 8 bytes;
- * 4. Length - 4 bytes;
- * 5. ManagementServerId - 8 bytes;
- * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 2. Format of the data package (low nibble) and its compressor (high nibble) - 1 byte;
+ * 3. Flags - 2 bytes;
+ * 4. Sequence - 8 bytes;
+ * 5. Length - 4 bytes;
+ * 6. ManagementServerId - 8 bytes;
+ * 7. AgentId - 8 bytes;
+ * 8. Data Package.
+ *
+ * The data package is Gson unless the peer announced with FLAG_ACCEPTS_BINARY
+ * that it reads the BinaryCommandCodec format, and compressed with gzip
+ * unless the peer announced the preferred compressor (see Compression).
+ * Older versions don't look at the format byte and never set these flags, so
+ * they only ever get gzipped Gson.
  *
  */
 public class Request {
@@ -101,6 +103,23 @@ public class Request {
     protected static final short FLAG_FROM_SERVER = 0x20;
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
+    protected static final short FLAG_ACCEPTS_BINARY = 0x10;
+
+    public enum Format {
+        gson, // Gson through GsonHelper, understood by every version.
+        binary; // BinaryCommandCodec, only sent to peers setting FLAG_ACCEPTS_BINARY.
+
+        public static Format get(final byte format) throws UnsupportedVersionException {
+            for (final Format f : Format.values()) {
+                if (format == f.ordinal()) {
+                    return f;
+                }
+            }
+            throw new UnsupportedVersionException("Can't lookup format: " + format, UnsupportedVersionException.UnknownVersion);
+        }
+    }
+
+    private static volatile boolean s_acceptsBinary = true;
 
     protected Version _ver;
     protected long _session;
@@ -111,6 +130,10 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected ByteBuffer _binaryContent;
+    protected Format _format = Format.gson;
+    protected Compressor _compressor = Compression.get(GzipCompressor.ID);
+    protected short _peerCapabilities;
     protected String _agentName;
 
     protected Request() {
@@ -136,6 +159,12 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final ByteBuffer binaryContent) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _binaryContent = binaryContent;
+        _format = Format.binary;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -177,9 +206,64 @@ public class Request {
         _via = that._via;
         _agentId = that._agentId;
         _agentName = that._agentName;
+        _format = that._format;
+        _compressor = Compression.select(that._peerCapabilities);
         setFromServer(!that.isFromServer());
     }
 
+    /**
+     * Sets whether this side reads binary data packages, which is announced
+     * to the peer in every message sent.
+     */
+    public static void setAcceptsBinary(final boolean acceptsBinary) {
+        s_acceptsBinary = acceptsBinary;
+    }
+
+    public static boolean acceptsBinary() {
+        return s_acceptsBinary;
+    }
+
+    /**
+     * @return the FLAG_ACCEPTS_BINARY and compressor flags set by the peer that sent this request.
+     */
+    public short getPeerCapabilities() {
+        return _peerCapabilities;
+    }
+
+    /**
+     * @return true if the peer that sent this request reads binary data packages.
+     */
+    public boolean peerAcceptsBinary() {
+        return (_peerCapabilities & FLAG_ACCEPTS_BINARY) != 0;
+    }
+
+    /**
+     * Picks the format and compressor of the data package from what the peer
+     * announced it reads, as far as this side uses them.
+     */
+    public void negotiate(final short peerCapabilities) {
+        if ((peerCapabilities & FLAG_ACCEPTS_BINARY) != 0 && s_acceptsBinary) {
+            _format = Format.binary;
+        }
+        _compressor = Compression.select(peerCapabilities);
+    }
+
+    public Compressor getCompressor() {
+        return _compressor;
+    }
+
+    public Format getFormat() {
+        return _format;
+    }
+
+    /**
+     * Sets the format of the data package; binary falls back to Gson for
+     * commands the BinaryCommandCodec can't write.
+     */
+    public void setFormat(final Format format) {
+        _format = format;
+    }
+
     private final void setStopOnError(boolean stopOnError) {
         _flags |= (stopOnError ? FLAG_STOP_ON_ERROR : 0);
     }
@@ -242,7 +326,9 @@ public class Request {
     }
 
     public Command[] getCommands() {
-        if (_cmds == null) {
+        if (_cmds == null && _binaryContent != null) {
+            _cmds = BinaryCommandCodec.decode(_binaryContent.duplicate(), Command.class);
+        } else if (_cmds == null) {
             try {
                 StringReader reader = new StringReader(_content);
                 JsonReader jsonReader = new JsonReader(reader);
@@ -263,8 +349,8 @@ public class Request {
     protected ByteBuffer serializeHeader(final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte)0);
-        buffer.putShort(getFlags());
+        buffer.put((byte)(_format.ordinal() | _compressor.getId() << 4));
+        buffer.putShort((short)(getFlags() | (s_acceptsBinary ? FLAG_ACCEPTS_BINARY : 0) | Compression.getAcceptFlags()));
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
         buffer.putInt(contentSize);
@@ -277,63 +363,33 @@ public class Request {
     }
 
     public static ByteBuffer doDecompress(ByteBuffer buffer, int length) {
-        byte[] byteArrayIn = new byte[1024];
-        ByteArrayInputStream byteIn;
-        if (buffer.hasArray()) {
-            byteIn = new ByteArrayInputStream(buffer.array(), buffer.position() + buffer.arrayOffset(), buffer.remaining());
-        } else {
-            byte[] array = new byte[buffer.limit() - buffer.position()];
-            buffer.get(array);
-            byteIn = new ByteArrayInputStream(array);
-        }
-        ByteBuffer retBuff = ByteBuffer.allocate(length);
-        int len = 0;
-        try {
-            GZIPInputStream in = new GZIPInputStream(byteIn);
-            while ((len = in.read(byteArrayIn)) > 0) {
-                retBuff.put(byteArrayIn, 0, len);
-            }
-            in.close();
-        } catch (IOException e) {
-            s_logger.error("Fail to decompress the request!", e);
-        }
-        retBuff.flip();
-        return retBuff;
+        return Compression.decompress(Compression.get(GzipCompressor.ID), buffer, length);
     }
 
     public static ByteBuffer doCompress(ByteBuffer buffer, int length) {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(length);
-        byte[] array;
-        if (buffer.hasArray()) {
-            array = buffer.array();
-        } else {
-            array = new byte[buffer.capacity()];
-            buffer.get(array);
-        }
-        try {
-            GZIPOutputStream out = new GZIPOutputStream(byteOut, length);
-            out.write(array);
-            out.finish();
-            out.close();
-        } catch (IOException e) {
-            s_logger.error("Fail to compress the request!", e);
-        }
-        return ByteBuffer.wrap(byteOut.toByteArray());
+        return Compression.compress(Compression.get(GzipCompressor.ID), buffer);
     }
 
     public ByteBuffer[] toBytes() {
         final ByteBuffer[] buffers = new ByteBuffer[2];
-        ByteBuffer tmp;
+        ByteBuffer tmp = null;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_format == Format.binary) {
+            tmp = toBinary();
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
-        int capacity = tmp.capacity();
+        if (tmp == null) {
+            if (_content == null) {
+                _content = s_gson.toJson(getContentCommands(), _cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
+        }
+        int capacity = tmp.remaining();
         /* Check if we need to compress the data */
-        if (capacity >= 8192) {
-            tmp = doCompress(tmp, capacity);
+        if (capacity >= Compression.getThreshold()) {
+            tmp = Compression.compress(_compressor, tmp);
             _flags |= FLAG_COMPRESSED;
+        } else {
+            _flags &= ~FLAG_COMPRESSED;
         }
         buffers[1] = tmp;
         buffers[0] = serializeHeader(capacity);
@@ -341,6 +397,43 @@ public class Request {
         return buffers;
     }
 
+    /**
+     * @return the binary data package or null, after switching the format
+     * back to Gson, if the commands can't be written in binary.
+     */
+    private ByteBuffer toBinary() {
+        if (_binaryContent == null) {
+            try {
+                _binaryContent = BinaryCommandCodec.encode(getContentCommands());
+            } catch (final IllegalArgumentException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Falling back to gson for seq " + _agentId + "-" + _seq + ": " + e.getMessage());
+                }
+                _format = Format.gson;
+                return null;
+            }
+        }
+        return _binaryContent.duplicate();
+    }
+
+    /**
+     * @return the commands, decoded from the data package received if they
+     * are needed to write it in another format.
+     */
+    private Command[] getContentCommands() {
+        if (_cmds == null) {
+            _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
+        }
+        return _cmds;
+    }
+
+    protected Command[] decodeCommands(final Class<? extends Command[]> type) {
+        if (_binaryContent != null) {
+            return BinaryCommandCodec.decode(_binaryContent.duplicate(), type.getComponentType().asSubclass(Command.class));
+        }
+        return s_gson.fromJson(_content, type);
+    }
+
     public byte[] getBytes() {
         final ByteBuffer[] buffers = toBytes();
         final int len1 = buffers[0].remaining();
@@ -396,7 +489,7 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
                 } catch (RuntimeException e) {
                     s_logger.error("Unable to convert to json: " + _content);
                     throw e;
@@ -418,7 +511,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = decodeCommands(this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -488,8 +581,11 @@ public class Request {
         if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
-        final short flags = buff.getShort();
+        final byte formatAndCompressor = buff.get();
+        final Format format = Format.get((byte)(formatAndCompressor & 0x0F));
+        final short allFlags = buff.getShort();
+        final short flags = (short)(allFlags & ~(FLAG_ACCEPTS_BINARY | Compression.ACCEPTS_MASK));
+        final short peerCapabilities = (short)(allFlags & (FLAG_ACCEPTS_BINARY | Compression.ACCEPTS_MASK));
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
         final long seq = buff.getLong();
@@ -506,7 +602,23 @@ public class Request {
         }
 
         if ((flags & FLAG_COMPRESSED) != 0) {
-            buff = doDecompress(buff, size);
+            final Compressor compressor = Compression.get((formatAndCompressor >> 4) & 0x0F);
+            if (compressor == null) {
+                throw new UnsupportedVersionException("Can't lookup compressor: " + ((formatAndCompressor >> 4) & 0x0F), UnsupportedVersionException.UnknownVersion);
+            }
+            buff = Compression.decompress(compressor, buff, size);
+        }
+
+        final Request request;
+        if (format == Format.binary) {
+            final ByteBuffer content = buff.slice();
+            if (isRequest) {
+                request = new Request(version, seq, agentId, mgmtId, via, flags, content);
+            } else {
+                request = new Response(version, seq, agentId, mgmtId, via, flags, content);
+            }
+            request._peerCapabilities = peerCapabilities;
+            return request;
         }
 
         byte[] command = null;
@@ -523,10 +635,12 @@ public class Request {
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
-            return new Request(version, seq, agentId, mgmtId, via, flags, content);
+            request = new Request(version, seq, agentId, mgmtId, via, flags, content);
         } else {
-            return new Response(Version.get(ver), seq, agentId, mgmtId, via, flags, content);
+            request = new Response(Version.get(ver), seq, agentId, mgmtId, via, flags, content);
         }
+        request._peerCapabilities = peerCapabilities;
+        return request;
     }
 
     public long getAgentId() {
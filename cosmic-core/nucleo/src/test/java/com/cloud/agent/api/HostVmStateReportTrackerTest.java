@@ -0,0 +1,91 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+import org.junit.Test;
+
+public class HostVmStateReportTrackerTest {
+    private final HostVmStateReportTracker _tracker = new HostVmStateReportTracker(2);
+    private final Map<String, HostVmStateReportEntry> _states = new HashMap<String, HostVmStateReportEntry>();
+
+    private PingRoutingCommand ping() {
+        final PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 42, null);
+        _tracker.fill(ping, _states);
+        return ping;
+    }
+
+    @Test
+    public void onlyChangesAreSentBetweenFullReports() {
+        _states.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        _states.put("i-2-2-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+
+        PingRoutingCommand ping = ping();
+        assertEquals(1, ping.getReportGeneration());
+        assertFalse(ping.isDeltaReport());
+        assertEquals(2, ping.getHostVmStateReport().size());
+
+        _states.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host"));
+        _states.remove("i-2-2-VM");
+        ping = ping();
+        assertEquals(2, ping.getReportGeneration());
+        assertTrue(ping.isDeltaReport());
+        assertEquals(PowerState.PowerOff, ping.getHostVmStateReport().get("i-2-1-VM").getState());
+        assertEquals(1, ping.getHostVmStateReport().size());
+        assertEquals(Arrays.asList("i-2-2-VM"), ping.getRemovedVms());
+
+        ping = ping();
+        assertTrue(ping.isDeltaReport());
+        assertTrue(ping.getHostVmStateReport().isEmpty());
+        assertTrue(ping.getRemovedVms().isEmpty());
+
+        // Every third report is a full one
+        ping = ping();
+        assertEquals(4, ping.getReportGeneration());
+        assertFalse(ping.isDeltaReport());
+        assertEquals(1, ping.getHostVmStateReport().size());
+    }
+
+    @Test
+    public void fullReportIsSentWhenRequested() {
+        _states.put("i-2-1-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        PingRoutingCommand ping = ping();
+
+        _tracker.processAnswer(new PingAnswer(ping, false));
+        assertTrue(ping().isDeltaReport());
+
+        _tracker.processAnswer(new PingAnswer(ping, true));
+        ping = ping();
+        assertEquals(3, ping.getReportGeneration());
+        assertFalse(ping.isDeltaReport());
+        assertEquals(1, ping.getHostVmStateReport().size());
+    }
+}
@@ -0,0 +1,166 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.api.storage.ListTemplateCommand;
+import com.cloud.agent.api.to.NfsTO;
+import com.cloud.host.Host;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.storage.DataStoreRole;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+import org.junit.Test;
+
+public class BinaryCommandCodecTest {
+
+    private static String toJson(final Command[] cmds) {
+        return GsonHelper.getGson().toJson(cmds, cmds.getClass());
+    }
+
+    private static Command[] roundTrip(final Command[] cmds, final Class<? extends Command> type) {
+        final ByteBuffer encoded = BinaryCommandCodec.encode(cmds);
+        final Command[] decoded = BinaryCommandCodec.decode(encoded, type);
+        assertEquals(0, encoded.remaining());
+        assertEquals(toJson(cmds), toJson(decoded));
+        return decoded;
+    }
+
+    @Test
+    public void pingWithVmStates() {
+        final Map<String, HostVmStateReportEntry> states = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < 50; i++) {
+            states.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 2 == 0 ? PowerState.PowerOn : PowerState.PowerOff, "host-\u00e9\u4e2d\ud83d\ude00"));
+        }
+        final PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 42, states);
+        ping.setGatewayAccessible(false);
+
+        final PingRoutingCommand decoded = (PingRoutingCommand)roundTrip(new Command[] {ping}, Command.class)[0];
+        assertEquals(50, decoded.getHostVmStateReport().size());
+        assertEquals(PowerState.PowerOff, decoded.getHostVmStateReport().get("i-2-1-VM").getState());
+    }
+
+    @Test
+    public void statsAnswer() {
+        final GetVmStatsCommand cmd = new GetVmStatsCommand(Arrays.asList("i-2-3-VM", "i-2-4-VM"), "guid", "host");
+        final HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        stats.put("i-2-3-VM", new VmStatsEntry(12.5, 1024.25, -3, 4, "UserVm"));
+        stats.put("i-2-4-VM", new VmStatsEntry(-0.5, 0, Double.MAX_VALUE, 1.5, 0, Integer.MIN_VALUE, "UserVm"));
+
+        roundTrip(new Command[] {cmd}, Command.class);
+        final Answer[] answers = (Answer[])roundTrip(new Answer[] {new GetVmStatsAnswer(cmd, stats)}, Answer.class);
+        assertEquals(2, ((GetVmStatsAnswer)answers[0]).getVmStatsMap().size());
+    }
+
+    @Test
+    public void nestedArraysAndInterfaces() {
+        final IpPortAndProto[] ingress = new IpPortAndProto[] {new IpPortAndProto("tcp", 22, 22, new String[] {"0.0.0.0/0"}),
+                new IpPortAndProto("udp", 1000, 2000, new String[] {"10.0.0.0/8", "192.168.0.0/16"})};
+        final SecurityGroupRulesCmd rules = new SecurityGroupRulesCmd("10.1.1.2", "02:00:00:00:00:01", "i-2-3-VM", 3L, null, 7L, ingress, new IpPortAndProto[0],
+                Arrays.asList("10.1.1.3"));
+        final ListTemplateCommand list = new ListTemplateCommand(new NfsTO("nfs://192.168.56.10/opt/storage/secondary", DataStoreRole.Image));
+
+        final Command[] decoded = roundTrip(new Command[] {rules, list}, Command.class);
+        assertEquals(2, ((SecurityGroupRulesCmd)decoded[0]).getIngressRuleSet()[1].getAllowedCidrs().length);
+        assertTrue(((ListTemplateCommand)decoded[1]).getDataStore() instanceof NfsTO);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedTypeIsRejected() {
+        BinaryCommandCodec.encode(new Command[] {new UriCommand(URI.create("nfs://host/path"))});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void undeclaredObjectIsNotEncoded() {
+        BinaryCommandCodec.encode(new Command[] {new ValueCommand(new ValuePayload())});
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void undeclaredClassIsNotDecoded() {
+        final ByteBuffer encoded = BinaryCommandCodec.encode(new Command[] {new ValueCommand(null)});
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        // Same length, so only the class name on the wire changes
+        final byte[] from = "ValueCommand".getBytes(StandardCharsets.UTF_8);
+        final byte[] to = "ValuePayload".getBytes(StandardCharsets.UTF_8);
+        final String payload = new String(bytes, StandardCharsets.ISO_8859_1);
+        final int index = payload.indexOf(new String(from, StandardCharsets.ISO_8859_1));
+        assertTrue(index > 0);
+        System.arraycopy(to, 0, bytes, index, to.length);
+
+        BinaryCommandCodec.decode(ByteBuffer.wrap(bytes), Command.class);
+    }
+
+    protected static class ValueCommand extends Command {
+        Object value;
+
+        protected ValueCommand() {
+        }
+
+        public ValueCommand(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    protected static class ValuePayload {
+        String name = "payload";
+    }
+
+    protected static class UriCommand extends Command {
+        URI uri;
+
+        protected UriCommand() {
+        }
+
+        public UriCommand(final URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+}
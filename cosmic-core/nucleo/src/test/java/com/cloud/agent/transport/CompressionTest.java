@@ -0,0 +1,82 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CompressionTest {
+
+    private static byte[] sample() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("{\"i-2-").append(i).append("-VM\":{\"state\":\"PowerOn\",\"host\":\"host-").append(i % 7).append("\"}}");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void compressorsRoundTrip() {
+        final byte[] data = sample();
+        for (final Compressor compressor : Compression.getCompressors()) {
+            final ByteBuffer input = ByteBuffer.allocateDirect(data.length + 10);
+            input.position(10);
+            input.put(data);
+            input.position(10);
+
+            final ByteBuffer compressed = Compression.compress(compressor, input);
+            assertEquals(10, input.position());
+            assertTrue(compressor.getName(), compressed.remaining() < data.length / 4);
+
+            final ByteBuffer decompressed = Compression.decompress(compressor, compressed, data.length);
+            final byte[] result = new byte[decompressed.remaining()];
+            decompressed.get(result);
+            assertArrayEquals(compressor.getName(), data, result);
+
+            final CompressionStatistics statistics = Compression.getStatistics(compressor);
+            assertTrue(statistics.getCompressions() > 0);
+            assertTrue(statistics.getDecompressedBytesOut() >= data.length);
+        }
+    }
+
+    @Test
+    public void onlyAnnouncedCompressorIsSelected() {
+        final Compressor gzip = Compression.get(GzipCompressor.ID);
+        final Compressor lz4 = Compression.get("lz4");
+        assertSame(lz4, Compression.getPreferred());
+
+        assertSame(gzip, Compression.select((short)0));
+        assertSame(lz4, Compression.select(Compression.getAcceptFlags()));
+
+        Compression.setPreferred("gzip");
+        try {
+            assertSame(gzip, Compression.select(Compression.getAcceptFlags()));
+        } finally {
+            Compression.setPreferred("lz4");
+        }
+    }
+}
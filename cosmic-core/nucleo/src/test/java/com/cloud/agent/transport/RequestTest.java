@@ -164,6 +164,69 @@ public class RequestTest extends TestCase {
         assertEquals("nfs://192.168.56.10/opt/storage/secondary", ((NfsTO)((ListTemplateCommand)creq.getCommand()).getDataStore()).getUrl());
     }
 
+    public void testBinarySerDeser() throws Exception {
+        s_logger.info("Testing the binary format and its fallback to gson");
+
+        NfsTO nfs = new NfsTO("nfs://192.168.56.10/opt/storage/secondary", DataStoreRole.Image);
+        UpdateHostPasswordCommand cmd1 = new UpdateHostPasswordCommand("abc", "def");
+        Request sreq = new Request(2, 3, new Command[] {cmd1, new ListTemplateCommand(nfs)}, true, true);
+        sreq.setSequence(892403719);
+        sreq.setFormat(Request.Format.binary);
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(Request.Format.binary, creq.getFormat());
+        assertTrue(creq.peerAcceptsBinary());
+        compareRequest(creq, sreq);
+        assertEquals("nfs://192.168.56.10/opt/storage/secondary", ((NfsTO)((ListTemplateCommand)creq.getCommands()[1]).getDataStore()).getUrl());
+        assertTrue(creq.log("Debug", false, Level.DEBUG).contains(ListTemplateCommand.class.getSimpleName()));
+
+        Response cresp = new Response(creq, new Answer(cmd1, true, "No Problem"));
+        Response sresp = Response.parse(cresp.getBytes());
+        assertEquals(Request.Format.binary, sresp.getFormat());
+        assertEquals("No Problem", sresp.getAnswer().getDetails());
+
+        creq.setFormat(Request.Format.gson);
+        Request greq = Request.parse(creq.getBytes());
+        assertEquals(Request.Format.gson, greq.getFormat());
+        compareRequest(greq, sreq);
+
+        Request.setAcceptsBinary(false);
+        try {
+            assertFalse(Request.parse(sreq.getBytes()).peerAcceptsBinary());
+        } finally {
+            Request.setAcceptsBinary(true);
+        }
+
+        Request ureq = new Request(2, 3, new BinaryCommandCodecTest.UriCommand(java.net.URI.create("nfs://host/path")), true);
+        ureq.setFormat(Request.Format.binary);
+        Request freq = Request.parse(ureq.getBytes());
+        assertEquals(Request.Format.gson, freq.getFormat());
+        compareRequest(freq, ureq);
+    }
+
+    public void testNegotiatedCompression() throws Exception {
+        s_logger.info("Testing a large request compressed with the compressor the peer announced");
+
+        UpdateHostPasswordCommand cmd = new UpdateHostPasswordCommand("abc", repeat("0123456789", 2000));
+        Request sreq = new Request(2, 3, cmd, true);
+        sreq.setSequence(892403720);
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertSame(Compression.get(GzipCompressor.ID), creq.getCompressor());
+        assertEquals(Compression.getAcceptFlags(), (short)(creq.getPeerCapabilities() & Compression.getAcceptFlags()));
+
+        sreq.negotiate(creq.getPeerCapabilities());
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Lz4Compressor.ID, bytes[1] >> 4);
+        creq = Request.parse(bytes);
+        compareRequest(creq, sreq);
+        assertEquals(cmd.getNewPassword(), ((UpdateHostPasswordCommand)creq.getCommand()).getNewPassword());
+
+        Response cresp = new Response(creq, new Answer(cmd, true, repeat("details", 2000)));
+        assertSame(Compression.get(Lz4Compressor.ID), cresp.getCompressor());
+        assertEquals(2000 * "details".length(), Response.parse(cresp.getBytes()).getAnswer().getDetails().length());
+    }
+
     public void testDownload() {
         s_logger.info("Testing Download answer");
         VirtualMachineTemplate template = Mockito.mock(VirtualMachineTemplate.class);
@@ -232,6 +295,14 @@ public class RequestTest extends TestCase {
         logger.setLevel(level);
     }
 
+    private static String repeat(String value, int times) {
+        StringBuilder sb = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
     protected void compareRequest(Request req1, Request req2) {
         assert req1.getSequence() == req2.getSequence();
         assert req1.getAgentId() == req2.getAgentId();
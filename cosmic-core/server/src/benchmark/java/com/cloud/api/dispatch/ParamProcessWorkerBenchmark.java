@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.dao.EntityManager;
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.User;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.Identity;
+import org.apache.cloudstack.api.InternalIdentity;
+import org.apache.cloudstack.api.command.user.vm.ListVMsCmd;
+import org.apache.cloudstack.api.command.user.volume.ListVolumesCmd;
+import org.apache.cloudstack.context.CallContext;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time spent binding the request parameters of common list commands, with an in-memory
+ * entity manager so only the dispatch overhead is measured.  Compiled only with -Dbenchmarks;
+ * run the main method from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamProcessWorkerBenchmark {
+    private ParamProcessWorker _worker;
+    private Map<String, String> _listVmsParams;
+    private Map<String, String> _listVolumesParams;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _worker = new ParamProcessWorker();
+        _worker._accountMgr = Mockito.mock(AccountManager.class);
+        _worker._entityMgr = new InMemoryEntityManager();
+        CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
+
+        final StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) {
+                ids.append(',');
+            }
+            ids.append(UUID.randomUUID());
+        }
+        _listVmsParams = new HashMap<String, String>();
+        _listVmsParams.put(ApiConstants.IDS, ids.toString());
+        _listVmsParams.put(ApiConstants.ZONE_ID, UUID.randomUUID().toString());
+        _listVmsParams.put(ApiConstants.DETAILS, "nics,stats");
+        _listVmsParams.put(ApiConstants.LIST_ALL, "true");
+        _listVmsParams.put(ApiConstants.PAGE, "1");
+        _listVmsParams.put(ApiConstants.PAGE_SIZE, "500");
+
+        _listVolumesParams = new HashMap<String, String>();
+        _listVolumesParams.put(ApiConstants.VIRTUAL_MACHINE_ID, UUID.randomUUID().toString());
+        _listVolumesParams.put(ApiConstants.ZONE_ID, UUID.randomUUID().toString());
+        _listVolumesParams.put(ApiConstants.TYPE, "DATADISK");
+        _listVolumesParams.put(ApiConstants.LIST_ALL, "true");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    @Benchmark
+    public BaseCmd listVirtualMachines() {
+        final ListVMsCmd cmd = new ListVMsCmd();
+        _worker.processParameters(cmd, _listVmsParams);
+        return cmd;
+    }
+
+    @Benchmark
+    public BaseCmd listVolumes() {
+        final ListVolumesCmd cmd = new ListVolumesCmd();
+        _worker.processParameters(cmd, _listVolumesParams);
+        return cmd;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParamProcessWorkerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static class Entity implements Identity, InternalIdentity {
+        private final String _uuid;
+
+        Entity(final String uuid) {
+            _uuid = uuid;
+        }
+
+        @Override
+        public long getId() {
+            return _uuid.hashCode() & 0xffffL;
+        }
+
+        @Override
+        public String getUuid() {
+            return _uuid;
+        }
+    }
+
+    /**
+     * Knows every uuid and every id.
+     */
+    @SuppressWarnings("unchecked")
+    private static class InMemoryEntityManager implements EntityManager {
+        @Override
+        public <T, K extends Serializable> T findById(final Class<T> entityType, final K id) {
+            return (T)new Entity(id.toString());
+        }
+
+        @Override
+        public <T> T findByUuid(final Class<T> entityType, final String uuid) {
+            return (T)new Entity(uuid);
+        }
+
+        @Override
+        public <T> T findByUuidIncludingRemoved(final Class<T> entityType, final String uuid) {
+            return (T)new Entity(uuid);
+        }
+
+        @Override
+        public <T> List<? extends T> listByUuidsIncludingRemoved(final Class<T> entityType, final Collection<String> uuids) {
+            final List<T> entities = new ArrayList<T>(uuids.size());
+            for (final String uuid : uuids) {
+                entities.add((T)new Entity(uuid));
+            }
+            return entities;
+        }
+
+        @Override
+        public <T> List<? extends T> list(final Class<T> entityType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T, K extends Serializable> void remove(final Class<T> entityType, final K id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T, K extends Serializable> T findByIdIncludingRemoved(final Class<T> entityType, final K id) {
+            return (T)new Entity(id.toString());
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.cloud.api;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -28,6 +29,7 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import com.cloud.agent.api.VgpuTypesInfo;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.dao.AccountJoinDao;
 import com.cloud.api.query.dao.AffinityGroupJoinDao;
 import com.cloud.api.query.dao.AsyncJobJoinDao;
@@ -104,6 +106,7 @@ import com.cloud.domain.dao.DomainDao;
 import com.cloud.event.Event;
 import com.cloud.event.dao.EventJoinDao;
 import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.gpu.GPU;
 import com.cloud.gpu.HostGpuGroupsVO;
 import com.cloud.gpu.VGPUTypesVO;
 import com.cloud.gpu.dao.HostGpuGroupsDao;
@@ -258,6 +261,7 @@ import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VmDetailConstants;
 import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.ConsoleProxyDao;
 import com.cloud.vm.dao.DomainRouterDao;
@@ -905,6 +909,14 @@ public class ApiDBUtils {
         return s_statsCollector.getVmStats(hostId);
     }
 
+    public static HostStats getHostStatistics(long hostId, long windowMillis) {
+        return s_statsCollector.getHostStats(hostId, windowMillis);
+    }
+
+    public static VmStats getVmStatistics(long vmId, long windowMillis) {
+        return s_statsCollector.getVmStats(vmId, windowMillis);
+    }
+
     public static StorageStats getSecondaryStorageStatistics(long id) {
         return s_statsCollector.getStorageStats(id);
     }
@@ -1405,6 +1417,10 @@ public class ApiDBUtils {
         return s_userVmDetailsDao.findDetail(vmId, "SSH.PublicKey");
     }
 
+    public static UserVmDetailVO findUserVmDetail(long vmId, String name) {
+        return s_userVmDetailsDao.findDetail(vmId, name);
+    }
+
     public static void getAutoScaleVmGroupPolicies(long vmGroupId, List<AutoScalePolicy> scaleUpPolicies, List<AutoScalePolicy> scaleDownPolicies) {
         List<AutoScaleVmGroupPolicyMapVO> vos = s_asVmGroupPolicyMapDao.listByVmGroupId(vmGroupId);
         for (AutoScaleVmGroupPolicyMapVO vo : vos) {
@@ -1633,6 +1649,72 @@ public class ApiDBUtils {
         return s_userVmJoinDao.setUserVmResponse(view, vmData, vm);
     }
 
+    public static UserVmResponse newUserVmResponse(ResponseView view, String objectName, UserVmJoinVO userVm, EnumSet<VMDetails> details, Account caller,
+            ResponsePrefetch prefetch) {
+        return s_userVmJoinDao.newUserVmResponse(view, objectName, userVm, details, caller, prefetch);
+    }
+
+    public static UserVmResponse fillVmDetails(ResponseView view, UserVmResponse vmData, UserVmJoinVO vm, ResponsePrefetch prefetch) {
+        return s_userVmJoinDao.setUserVmResponse(view, vmData, vm, prefetch);
+    }
+
+    /**
+     * Loads the side table rows referenced by a page of vm view rows, one query per table.
+     */
+    public static ResponsePrefetch prefetchUserVmDetails(EnumSet<VMDetails> details, UserVmJoinVO... userVms) {
+        Set<Long> vmIds = new HashSet<Long>();
+        Set<Long> userIds = new HashSet<Long>();
+        Set<Long> serviceOfferingIds = new HashSet<Long>();
+        Set<Long> nicIds = new HashSet<Long>();
+        Set<Long> tagIds = new HashSet<Long>();
+        for (UserVmJoinVO userVm : userVms) {
+            vmIds.add(userVm.getId());
+            userIds.add(userVm.getUserId());
+            serviceOfferingIds.add(userVm.getServiceOfferingId());
+            if (userVm.getNicId() > 0) {
+                nicIds.add(userVm.getNicId());
+            }
+            if (userVm.getTagId() > 0) {
+                tagIds.add(userVm.getTagId());
+            }
+        }
+
+        ResponsePrefetch prefetch = new ResponsePrefetch();
+        prefetch.setTags(prefetchResourceTags(tagIds));
+
+        Map<Long, List<NicSecondaryIpVO>> secondaryIps = new HashMap<Long, List<NicSecondaryIpVO>>();
+        for (NicSecondaryIpVO ip : s_nicSecondaryIpDao.listByNicIds(nicIds)) {
+            List<NicSecondaryIpVO> ips = secondaryIps.get(ip.getNicId());
+            if (ips == null) {
+                ips = new ArrayList<NicSecondaryIpVO>();
+                secondaryIps.put(ip.getNicId(), ips);
+            }
+            ips.add(ip);
+        }
+        prefetch.setNicSecondaryIps(secondaryIps);
+
+        if (details.contains(VMDetails.all) || details.contains(VMDetails.servoff) || details.contains(VMDetails.stats)) {
+            Map<Long, ServiceOfferingDetailsVO> vgpuTypes = new HashMap<Long, ServiceOfferingDetailsVO>();
+            for (ServiceOfferingDetailsVO detail : s_serviceOfferingDetailsDao.findDetails(serviceOfferingIds, GPU.Keys.vgpuType.toString())) {
+                vgpuTypes.put(detail.getResourceId(), detail);
+            }
+            prefetch.setVgpuTypeDetails(vgpuTypes);
+        }
+
+        Map<Long, UserVmDetailVO> toolsVersions = new HashMap<Long, UserVmDetailVO>();
+        for (UserVmDetailVO detail : s_userVmDetailsDao.findDetails(vmIds, VmDetailConstants.HYPERVISOR_TOOLS_VERSION)) {
+            toolsVersions.put(detail.getResourceId(), detail);
+        }
+        prefetch.setHypervisorToolsVersions(toolsVersions);
+
+        Map<Long, User> users = new HashMap<Long, User>();
+        for (UserVO user : s_userDao.listByIds(userIds)) {
+            users.put(user.getId(), user);
+        }
+        prefetch.setUsers(users);
+        return prefetch;
+    }
+
     public static List<UserVmJoinVO> newUserVmView(UserVm... userVms) {
         return s_userVmJoinDao.newUserVmView(userVms);
     }
@@ -1665,6 +1747,16 @@ public class ApiDBUtils {
         return s_tagJoinDao.searchById(tagId);
     }
 
+    private static Map<Long, ResourceTagJoinVO> prefetchResourceTags(Set<Long> tagIds) {
+        Map<Long, ResourceTagJoinVO> tags = new HashMap<Long, ResourceTagJoinVO>();
+        if (!tagIds.isEmpty()) {
+            for (ResourceTagJoinVO tag : s_tagJoinDao.searchByIds(tagIds.toArray(new Long[tagIds.size()]))) {
+                tags.put(tag.getId(), tag);
+            }
+        }
+        return tags;
+    }
+
     public static EventResponse newEventResponse(EventJoinVO ve) {
         return s_eventJoinDao.newEventResponse(ve);
     }
@@ -1743,6 +1835,47 @@ public class ApiDBUtils {
         return s_hostJoinDao.setHostResponse(vrData, vr);
     }
 
+    public static HostResponse newHostResponse(HostJoinVO vr, EnumSet<HostDetails> details, ResponsePrefetch prefetch) {
+        return s_hostJoinDao.newHostResponse(vr, details, prefetch);
+    }
+
+    /**
+     * Loads the gpu groups and vgpu types of a page of host view rows, one query per table.
+     */
+    public static ResponsePrefetch prefetchHostDetails(HostJoinVO... hosts) {
+        Set<Long> hostIds = new HashSet<Long>();
+        for (HostJoinVO host : hosts) {
+            hostIds.add(host.getId());
+        }
+
+        Map<Long, List<HostGpuGroupsVO>> gpuGroups = new HashMap<Long, List<HostGpuGroupsVO>>();
+        Set<Long> groupIds = new HashSet<Long>();
+        for (HostGpuGroupsVO group : s_hostGpuGroupsDao.listByHostIds(hostIds)) {
+            List<HostGpuGroupsVO> groups = gpuGroups.get(group.getHostId());
+            if (groups == null) {
+                groups = new ArrayList<HostGpuGroupsVO>();
+                gpuGroups.put(group.getHostId(), groups);
+            }
+            groups.add(group);
+            groupIds.add(group.getId());
+        }
+
+        Map<Long, List<VGPUTypesVO>> vgpuTypes = new HashMap<Long, List<VGPUTypesVO>>();
+        for (VGPUTypesVO vgpuType : s_vgpuTypesDao.listByGroupIds(groupIds)) {
+            List<VGPUTypesVO> types = vgpuTypes.get(vgpuType.getGpuGroupId());
+            if (types == null) {
+                types = new ArrayList<VGPUTypesVO>();
+                vgpuTypes.put(vgpuType.getGpuGroupId(), types);
+            }
+            types.add(vgpuType);
+        }
+
+        ResponsePrefetch prefetch = new ResponsePrefetch();
+        prefetch.setGpuGroups(gpuGroups);
+        prefetch.setVgpuTypes(vgpuTypes);
+        return prefetch;
+    }
+
     public static HostForMigrationResponse newHostForMigrationResponse(HostJoinVO vr, EnumSet<HostDetails> details) {
         return s_hostJoinDao.newHostForMigrationResponse(vr, details);
     }
@@ -1763,6 +1896,42 @@ public class ApiDBUtils {
         return s_volJoinDao.setVolumeResponse(view, vrData, vr);
     }
 
+    public static VolumeResponse newVolumeResponse(ResponseView view, VolumeJoinVO vr, ResponsePrefetch prefetch) {
+        return s_volJoinDao.newVolumeResponse(view, vr, prefetch);
+    }
+
+    public static VolumeResponse fillVolumeDetails(ResponseView view, VolumeResponse vrData, VolumeJoinVO vr, ResponsePrefetch prefetch) {
+        return s_volJoinDao.setVolumeResponse(view, vrData, vr, prefetch);
+    }
+
+    /**
+     * Loads the tags and disk offerings referenced by a page of volume view rows, one query per table.
+     */
+    public static ResponsePrefetch prefetchVolumeDetails(VolumeJoinVO... volumes) {
+        Set<Long> offeringIds = new HashSet<Long>();
+        Set<Long> tagIds = new HashSet<Long>();
+        for (VolumeJoinVO volume : volumes) {
+            if (volume.getVolumeType() != Volume.Type.ROOT) {
+                offeringIds.add(volume.getDiskOfferingId());
+            }
+            if (volume.getTagId() > 0) {
+                tagIds.add(volume.getTagId());
+            }
+        }
+
+        Set<Long> diskOfferingIds = new HashSet<Long>();
+        for (DiskOfferingVO offering : s_diskOfferingDao.listByIdsIncludingRemoved(offeringIds)) {
+            if (offering.getType() == DiskOfferingVO.Type.Disk) {
+                diskOfferingIds.add(offering.getId());
+            }
+        }
+
+        ResponsePrefetch prefetch = new ResponsePrefetch();
+        prefetch.setTags(prefetchResourceTags(tagIds));
+        prefetch.setDiskOfferingIds(diskOfferingIds);
+        return prefetch;
+    }
+
     public static List<VolumeJoinVO> newVolumeView(Volume vr) {
         return s_volJoinDao.newVolumeView(vr);
     }
@@ -0,0 +1,86 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.mgmt.LatencyHistogram;
+
+/**
+ * Latency histograms of the API requests, one per command name.
+ */
+public class ApiRequestStats extends StandardMBean implements ApiRequestStatsMBean {
+    private final ConcurrentMap<String, LatencyHistogram> _latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong _rejected = new AtomicLong();
+
+    public ApiRequestStats() {
+        super(ApiRequestStatsMBean.class, false);
+    }
+
+    public void recordLatency(final String command, final long millis) {
+        LatencyHistogram histogram = _latencies.get(command);
+        if (histogram == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = _latencies.putIfAbsent(command, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(millis);
+    }
+
+    public void recordRejected() {
+        _rejected.incrementAndGet();
+    }
+
+    @Override
+    public long[] getLatencyBucketsMillis() {
+        return LatencyHistogram.getBucketsMillis();
+    }
+
+    @Override
+    public String[] getCommandNames() {
+        final String[] names = _latencies.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public long[] getLatencyHistogram(final String command) {
+        final LatencyHistogram latencies = _latencies.get(command);
+        return latencies != null ? latencies.getCounts() : new long[LatencyHistogram.getBucketsMillis().length];
+    }
+
+    @Override
+    public long getRequestCount(final String command) {
+        long count = 0;
+        for (final long bucket : getLatencyHistogram(command)) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    @Override
+    public long getRejectedRequestCount() {
+        return _rejected.get();
+    }
+}
@@ -0,0 +1,38 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+public interface ApiRequestStatsMBean {
+    /**
+     * @return upper bounds of the buckets of the latency histograms.
+     */
+    public long[] getLatencyBucketsMillis();
+
+    /**
+     * @return names of the commands that have been handled so far.
+     */
+    public String[] getCommandNames();
+
+    public long[] getLatencyHistogram(String command);
+
+    public long getRequestCount(String command);
+
+    /**
+     * @return number of requests answered with 503 because all workers were busy and the queue was full.
+     */
+    public long getRejectedRequestCount();
+}
@@ -16,10 +16,13 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+
 import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import org.apache.cloudstack.acl.RoleType;
@@ -32,6 +35,8 @@ import org.apache.cloudstack.context.CallContext;
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
     private static final GsonBuilder s_gLogBuilder;
+    // Gson is thread safe, and creating one for every response is expensive
+    private static final Gson s_gson;
 
     static {
         s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
@@ -45,6 +50,12 @@ public class ApiResponseGsonHelper {
         s_gLogBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
         s_gLogBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
         s_gLogBuilder.setExclusionStrategies(new LogExclusionStrategy());
+
+        s_gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").setVersion(1.3)
+                .registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter())
+                .registerTypeAdapter(String.class, new EncodedStringTypeAdapter())
+                .setExclusionStrategies(new ApiResponseExclusionStrategy())
+                .excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
     }
 
     public static GsonBuilder getBuilder() {
@@ -55,6 +66,13 @@ public class ApiResponseGsonHelper {
         return s_gLogBuilder;
     }
 
+    /**
+     * @return the Gson for API responses, which skips transient fields.
+     */
+    public static Gson getGson() {
+        return s_gson;
+    }
+
     private static class ApiResponseExclusionStrategy implements ExclusionStrategy {
         public boolean shouldSkipClass(Class<?> arg0) {
             return false;
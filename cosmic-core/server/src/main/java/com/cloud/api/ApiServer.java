@@ -18,6 +18,7 @@ package com.cloud.api;
 
 import com.cloud.api.dispatch.DispatchChainFactory;
 import com.cloud.api.dispatch.DispatchTask;
+import com.cloud.api.dispatch.ParamBindingPlan;
 import com.cloud.api.response.ApiResponseSerializer;
 import com.cloud.configuration.Config;
 import com.cloud.dao.EntityManager;
@@ -39,6 +40,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
+import com.cloud.utils.mgmt.JmxUtil;
 import org.apache.cloudstack.acl.APIChecker;
 import org.apache.cloudstack.api.*;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -104,6 +106,9 @@ import javax.servlet.http.HttpSession;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.*;
 import java.security.SecureRandom;
 import java.text.DateFormat;
@@ -167,6 +172,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Inject
     MessageBus _messageBus;
 
+    private final ApiRequestStats _requestStats = new ApiRequestStats();
+    private IntegrationApiHttpServer _integrationApiServer;
+
     public ApiServer() {
     }
 
@@ -301,6 +309,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
             apiCmdList.add(cmdClass);
 
+            // bind the parameters of the command class once, ahead of the first request
+            ParamBindingPlan.forClass(cmdClass);
         }
 
         setEncodeApiResponse(Boolean.valueOf(_configDao.getValue(Config.EncodeApiResponse.key())));
@@ -313,14 +323,39 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             s_enableSecureCookie = enableSecureSessionCookie;
         }
 
+        try {
+            JmxUtil.registerMBean("ApiServer", "Request Stats", _requestStats);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register API request stats MBean", e);
+        }
+
         if (apiPort != null) {
-            final ListenerThread listenerThread = new ListenerThread(this, apiPort);
-            listenerThread.start();
+            if (Boolean.parseBoolean(configs.get(Config.IntegrationAPINio.key()))) {
+                final int workers = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIWorkers.key()), 50);
+                final int queueSize = NumbersUtil.parseInt(configs.get(Config.IntegrationAPIQueueSize.key()), 500);
+                try {
+                    _integrationApiServer = new IntegrationApiHttpServer(this, _requestStats, apiPort, workers, queueSize);
+                    _integrationApiServer.start();
+                } catch (final IOException e) {
+                    s_logger.error("error initializing api server", e);
+                }
+            } else {
+                final ListenerThread listenerThread = new ListenerThread(this, apiPort);
+                listenerThread.start();
+            }
         }
 
         return true;
     }
 
+    @Override
+    public boolean stop() {
+        if (_integrationApiServer != null) {
+            _integrationApiServer.stop();
+        }
+        return true;
+    }
+
     // NOTE: handle() only handles over the wire (OTW) requests from integration.api.port 8096
     // If integration api port is not configured, actual OTW requests will be received by ApiServlet
     @Override
@@ -335,56 +370,79 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         }
         sb.append(StringUtils.cleanString(request.getRequestLine().toString()));
 
+        List<NameValuePair> paramList = null;
         try {
-            List<NameValuePair> paramList = null;
-            try {
-                paramList = URLEncodedUtils.parse(new URI(request.getRequestLine().getUri()), HttpUtils.UTF_8);
-            } catch (final URISyntaxException e) {
-                s_logger.error("Error parsing url request", e);
-            }
+            paramList = URLEncodedUtils.parse(new URI(request.getRequestLine().getUri()), HttpUtils.UTF_8);
+        } catch (final URISyntaxException e) {
+            s_logger.error("Error parsing url request", e);
+        }
 
-            // Use Multimap as the parameter map should be in the form (name=String, value=String[])
-            // So parameter values are stored in a list for the same name key
-            // APITODO: Use Guava's (import com.google.common.collect.Multimap;)
-            // (Immutable)Multimap<String, String> paramMultiMap = HashMultimap.create();
-            // Map<String, Collection<String>> parameterMap = paramMultiMap.asMap();
-            final Map parameterMap = new HashMap<>();
-            String responseType = HttpUtils.RESPONSE_TYPE_XML;
-            if (paramList != null) {
-                for (final NameValuePair param : paramList) {
-                    if (param.getName().equalsIgnoreCase("response")) {
-                        responseType = param.getValue();
-                        continue;
-                    }
-                    parameterMap.put(param.getName(), new String[]{param.getValue()});
+        final String responseType = getIntegrationResponseType(paramList);
+        final Map parameterMap = getIntegrationParameterMap(paramList, request.getRequestLine().getMethod());
+        final Ternary<Integer, String, String> result = handleIntegrationRequest(parameterMap, responseType, sb);
+        writeResponse(response, result.second(), result.first(), responseType, result.third());
+    }
+
+    static String getIntegrationResponseType(final List<NameValuePair> paramList) {
+        String responseType = HttpUtils.RESPONSE_TYPE_XML;
+        if (paramList != null) {
+            for (final NameValuePair param : paramList) {
+                if (param.getName().equalsIgnoreCase("response")) {
+                    responseType = param.getValue();
                 }
             }
+        }
 
-            // Get the type of http method being used.
-            parameterMap.put("httpmethod", new String[]{request.getRequestLine().getMethod()});
+        // Check responseType, if not among valid types, fallback to JSON
+        if (!(HttpUtils.RESPONSE_TYPE_JSON.equals(responseType) || HttpUtils.RESPONSE_TYPE_XML.equals(responseType))) {
+            responseType = HttpUtils.RESPONSE_TYPE_XML;
+        }
+        return responseType;
+    }
 
-            // Check responseType, if not among valid types, fallback to JSON
-            if (!(responseType.equals(HttpUtils.RESPONSE_TYPE_JSON) || responseType.equals(HttpUtils.RESPONSE_TYPE_XML))) {
-                responseType = HttpUtils.RESPONSE_TYPE_XML;
+    static Map getIntegrationParameterMap(final List<NameValuePair> paramList, final String httpMethod) {
+        // Use Multimap as the parameter map should be in the form (name=String, value=String[])
+        // So parameter values are stored in a list for the same name key
+        // APITODO: Use Guava's (import com.google.common.collect.Multimap;)
+        // (Immutable)Multimap<String, String> paramMultiMap = HashMultimap.create();
+        // Map<String, Collection<String>> parameterMap = paramMultiMap.asMap();
+        final Map parameterMap = new HashMap<>();
+        if (paramList != null) {
+            for (final NameValuePair param : paramList) {
+                if (param.getName().equalsIgnoreCase("response")) {
+                    continue;
+                }
+                parameterMap.put(param.getName(), new String[]{param.getValue()});
             }
+        }
 
-            try {
-                // always trust commands from API port, user context will always be UID_SYSTEM/ACCOUNT_ID_SYSTEM
-                CallContext.register(_accountMgr.getSystemUser(), _accountMgr.getSystemAccount());
-                sb.insert(0, "(userId=" + User.UID_SYSTEM + " accountId=" + Account.ACCOUNT_ID_SYSTEM + " sessionId=" + null + ") ");
-                final String responseText = handleRequest(parameterMap, responseType, sb);
-                sb.append(" 200 " + ((responseText == null) ? 0 : responseText.length()));
-
-                writeResponse(response, responseText, HttpStatus.SC_OK, responseType, null);
-            } catch (final ServerApiException se) {
-                final String responseText = getSerializedApiError(se, parameterMap, responseType);
-                writeResponse(response, responseText, se.getErrorCode().getHttpCode(), responseType, se.getDescription());
-                sb.append(" " + se.getErrorCode() + " " + se.getDescription());
-            } catch (final RuntimeException e) {
-                // log runtime exception like NullPointerException to help identify the source easier
-                s_logger.error("Unhandled exception, ", e);
-                throw e;
-            }
+        // Get the type of http method being used.
+        parameterMap.put("httpmethod", new String[]{httpMethod});
+        return parameterMap;
+    }
+
+    /**
+     * Handles a request received on the integration API port, whatever the HTTP server in front of it.
+     *
+     * @return the http status code, the response text and the reason phrase of the response
+     */
+    Ternary<Integer, String, String> handleIntegrationRequest(final Map parameterMap, final String responseType, final StringBuilder sb) {
+        try {
+            // always trust commands from API port, user context will always be UID_SYSTEM/ACCOUNT_ID_SYSTEM
+            CallContext.register(_accountMgr.getSystemUser(), _accountMgr.getSystemAccount());
+            sb.insert(0, "(userId=" + User.UID_SYSTEM + " accountId=" + Account.ACCOUNT_ID_SYSTEM + " sessionId=" + null + ") ");
+            final String responseText = handleRequest(parameterMap, responseType, sb);
+            sb.append(" 200 " + ((responseText == null) ? 0 : responseText.length()));
+
+            return new Ternary<Integer, String, String>(HttpStatus.SC_OK, responseText, null);
+        } catch (final ServerApiException se) {
+            final String responseText = getSerializedApiError(se, parameterMap, responseType);
+            sb.append(" " + se.getErrorCode() + " " + se.getDescription());
+            return new Ternary<Integer, String, String>(se.getErrorCode().getHttpCode(), responseText, se.getDescription());
+        } catch (final RuntimeException e) {
+            // log runtime exception like NullPointerException to help identify the source easier
+            s_logger.error("Unhandled exception, ", e);
+            throw e;
         } finally {
             s_accessLogger.info(sb.toString());
             CallContext.unregister();
@@ -413,10 +471,19 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
     @Override
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        final StringWriter out = new StringWriter();
+        handleRequest(params, responseType, auditTrailSb, out);
+        // Nothing is written for the login and logout APIs
+        return out.getBuffer().length() == 0 ? null : out.toString();
+    }
+
+    @Override
+    public void handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final Writer out) throws ServerApiException {
         checkCharacterInkParams(params);
 
-        String response = null;
+        final long startMillis = System.currentTimeMillis();
         String[] command = null;
+        String knownCommand = null;
 
         try {
             command = (String[]) params.get("command");
@@ -434,7 +501,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             } else {
                 // Don't allow Login/Logout APIs to go past this point
                 if (_authManager.getAPIAuthenticator(command[0]) != null) {
-                    return null;
+                    return;
                 }
                 final Map<String, String> paramMap = new HashMap<>();
                 final Set keys = params.keySet();
@@ -450,6 +517,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                 final Class<?> cmdClass = getCmdClass(command[0]);
                 if (cmdClass != null) {
+                    knownCommand = command[0];
                     final APICommand annotation = cmdClass.getAnnotation(APICommand.class);
                     if (annotation == null) {
                         s_logger.error("No APICommand annotation found for class " + cmdClass.getCanonicalName());
@@ -465,7 +533,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                     // This is where the command is either serialized, or directly dispatched
                     final StringBuilder log = new StringBuilder();
-                    response = queueCommand(cmdObj, paramMap, log);
+                    queueCommand(cmdObj, paramMap, log, out);
                     buildAuditTrail(auditTrailSb, command[0], log.toString());
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
@@ -528,9 +596,11 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 errorMsg = BaseCmd.USER_ERROR_MESSAGE;
             }
             throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, errorMsg, ex);
+        } finally {
+            if (knownCommand != null) {
+                _requestStats.recordLatency(knownCommand, System.currentTimeMillis() - startMillis);
+            }
         }
-
-        return response;
     }
 
     private String printCommand(final String[] command) {
@@ -555,7 +625,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, final StringBuilder log) throws Exception {
+    private void queueCommand(final BaseCmd cmdObj, final Map<String, String> params, final StringBuilder log, final Writer out) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -642,7 +712,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             // ApiResponseSerializer.toSerializedStringWithSecureLogs works. For now, this gets jobid's
             // in the api logs.
             log.append(response);
-            return response;
+            out.write(response);
 
         } else {
             _dispatcher.dispatch(cmdObj, params, false);
@@ -662,7 +732,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedStringWithSecureLogs((ResponseObject) cmdObj.getResponseObject(), cmdObj.getResponseType(), log);
+            final ResponseObject responseObject = (ResponseObject) cmdObj.getResponseObject();
+            if (responseObject != null) {
+                ApiResponseSerializer.serialize(responseObject, cmdObj.getResponseType(), out, log);
+            }
         }
     }
 
@@ -1082,28 +1155,28 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             resp.setReasonPhrase(reasonPhrase);
 
             final BasicHttpEntity body = new BasicHttpEntity();
-            if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-                // JSON response
-                body.setContentType(getJSONContentType());
-                if (responseText == null) {
-                    body.setContent(new ByteArrayInputStream("{ \"error\" : { \"description\" : \"Internal Server Error\" } }".getBytes(HttpUtils.UTF_8)));
-                }
-            } else {
-                body.setContentType("text/xml");
-                if (responseText == null) {
-                    body.setContent(new ByteArrayInputStream("<error>Internal Server Error</error>".getBytes(HttpUtils.UTF_8)));
-                }
-            }
-
-            if (responseText != null) {
-                body.setContent(new ByteArrayInputStream(responseText.getBytes(HttpUtils.UTF_8)));
-            }
+            body.setContentType(getIntegrationContentType(responseType));
+            body.setContent(new ByteArrayInputStream(getIntegrationResponseBody(responseText, responseType)));
             resp.setEntity(body);
         } catch (final Exception ex) {
             s_logger.error("error!", ex);
         }
     }
 
+    static String getIntegrationContentType(final String responseType) {
+        return HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType) ? getJSONContentType() : "text/xml";
+    }
+
+    static byte[] getIntegrationResponseBody(final String responseText, final String responseType) throws UnsupportedEncodingException {
+        if (responseText != null) {
+            return responseText.getBytes(HttpUtils.UTF_8);
+        }
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            return "{ \"error\" : { \"description\" : \"Internal Server Error\" } }".getBytes(HttpUtils.UTF_8);
+        }
+        return "<error>Internal Server Error</error>".getBytes(HttpUtils.UTF_8);
+    }
+
     // FIXME: the following two threads are copied from
     // http://svn.apache.org/repos/asf/httpcomponents/httpcore/trunk/httpcore/src/examples/org/apache/http/examples/ElementalHttpServer.java
     // we have to cite a license if we are using this code directly, so we need to add the appropriate citation or
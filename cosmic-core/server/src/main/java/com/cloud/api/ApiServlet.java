@@ -285,8 +285,9 @@ public class ApiServlet extends HttpServlet {
 
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[]{req.getMethod()});
-                final String response = _apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                // The response is streamed as it is serialized, without a content length it is sent chunked if large
+                HttpUtils.setHttpResponseHeaders(resp, HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                _apiServer.handleRequest(params, responseType, auditTrailSb, resp.getWriter());
             } else {
                 if (session != null) {
                     try {
@@ -303,9 +304,15 @@ public class ApiServlet extends HttpServlet {
 
             }
         } catch (final ServerApiException se) {
-            final String serializedResponseText = _apiServer.getSerializedApiError(se, params, responseType);
-            resp.setHeader("X-Description", se.getDescription());
-            HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.getJSONContentType());
+            if (resp.isCommitted()) {
+                // Part of the response went out already
+                s_logger.error("Unable to write api response", se);
+            } else {
+                resp.resetBuffer();
+                final String serializedResponseText = _apiServer.getSerializedApiError(se, params, responseType);
+                resp.setHeader("X-Description", se.getDescription());
+                HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.getJSONContentType());
+            }
             auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription());
         } catch (final Exception ex) {
             s_logger.error("unknown exception writing api response", ex);
@@ -0,0 +1,155 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.cloud.utils.HttpUtils;
+import com.cloud.utils.StringUtils;
+import com.cloud.utils.Ternary;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking front end of the integration API port. The connections are multiplexed on the
+ * selector of the JDK HTTP server, so idle keep-alive connections don't hold a thread, and the
+ * requests are handed to a bounded worker pool. Once the workers are busy and the queue is full
+ * new requests are answered with 503 Service Unavailable instead of piling up.
+ */
+public class IntegrationApiHttpServer implements HttpHandler {
+    private static final Logger s_logger = LoggerFactory.getLogger(IntegrationApiHttpServer.class);
+
+    // only parses the request line and queues the request, the API commands run on the workers
+    private static final int DISPATCHER_THREADS = 2;
+
+    private final ApiServer _apiServer;
+    private final ApiRequestStats _stats;
+    private final HttpServer _server;
+    private final ExecutorService _dispatcher;
+    private final ThreadPoolExecutor _workers;
+
+    public IntegrationApiHttpServer(final ApiServer apiServer, final ApiRequestStats stats, final int port, final int workers, final int queueSize) throws IOException {
+        _apiServer = apiServer;
+        _stats = stats;
+
+        _server = HttpServer.create(new InetSocketAddress(port), 0);
+        _server.createContext("/", this);
+        _dispatcher = Executors.newFixedThreadPool(DISPATCHER_THREADS, new NamedThreadFactory("ApiServer-Dispatcher"));
+        _server.setExecutor(_dispatcher);
+
+        _workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("ApiServer"));
+        _workers.allowCoreThreadTimeOut(true);
+    }
+
+    public void start() {
+        _server.start();
+        s_logger.info("ApiServer listening on port " + _server.getAddress().getPort() + " with " + _workers.getMaximumPoolSize() + " workers");
+    }
+
+    public void stop() {
+        _server.stop(0);
+        _workers.shutdownNow();
+        _dispatcher.shutdownNow();
+    }
+
+    int getQueuedCount() {
+        return _workers.getQueue().size();
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+        try {
+            _workers.execute(new RequestTask(exchange));
+        } catch (final RejectedExecutionException e) {
+            _stats.recordRejected();
+            s_logger.warn("ApiServer: rejecting request from " + exchange.getRemoteAddress() + ", all " + _workers.getMaximumPoolSize() + " workers are busy");
+
+            final List<NameValuePair> paramList = URLEncodedUtils.parse(exchange.getRequestURI(), HttpUtils.UTF_8);
+            final String responseType = ApiServer.getIntegrationResponseType(paramList);
+            final Map parameterMap = ApiServer.getIntegrationParameterMap(paramList, exchange.getRequestMethod());
+            final String responseText = _apiServer.getSerializedApiError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The API server is too busy, retry later",
+                    parameterMap, responseType);
+            sendResponse(exchange, HttpServletResponse.SC_SERVICE_UNAVAILABLE, responseText, responseType);
+        }
+    }
+
+    private static void sendResponse(final HttpExchange exchange, final int statusCode, final String responseText, final String responseType) throws IOException {
+        try {
+            final byte[] body = ApiServer.getIntegrationResponseBody(responseText, responseType);
+            exchange.getResponseHeaders().set("Content-Type", ApiServer.getIntegrationContentType(responseType));
+            exchange.sendResponseHeaders(statusCode, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.flush();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private class RequestTask extends ManagedContextRunnable {
+        private final HttpExchange _exchange;
+
+        RequestTask(final HttpExchange exchange) {
+            _exchange = exchange;
+        }
+
+        @Override
+        protected void runInContext() {
+            // Create StringBuffer to log information in access log
+            final StringBuilder sb = new StringBuilder();
+            sb.append(_exchange.getRemoteAddress().getAddress() + " -- ");
+            sb.append(StringUtils.cleanString(_exchange.getRequestMethod() + " " + _exchange.getRequestURI() + " " + _exchange.getProtocol()));
+
+            final List<NameValuePair> paramList = URLEncodedUtils.parse(_exchange.getRequestURI(), HttpUtils.UTF_8);
+            final String responseType = ApiServer.getIntegrationResponseType(paramList);
+            final Map parameterMap = ApiServer.getIntegrationParameterMap(paramList, _exchange.getRequestMethod());
+            try {
+                Ternary<Integer, String, String> result;
+                try {
+                    result = _apiServer.handleIntegrationRequest(parameterMap, responseType, sb);
+                } catch (final RuntimeException e) {
+                    result = new Ternary<Integer, String, String>(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, null, null);
+                }
+                sendResponse(_exchange, result.first(), result.second(), responseType);
+            } catch (final IOException e) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("ApiServer:  IOException - " + e);
+                }
+            }
+        }
+    }
+}
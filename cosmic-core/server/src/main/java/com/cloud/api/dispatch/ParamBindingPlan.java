@@ -0,0 +1,221 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.user.Account;
+import com.cloud.utils.ReflectUtil;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.acl.SecurityChecker.AccessType;
+import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseCmd.CommandType;
+import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
+import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
+import org.apache.cloudstack.api.command.admin.usage.GetUsageRecordsCmd;
+import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
+import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+
+/**
+ * Everything {@link ParamProcessWorker} needs to bind request parameters to a command class:
+ * the exposed @Parameter fields, already accessible, with their annotation values, the roles
+ * allowed to pass them, the entities they reference and the ACL to check on them.
+ *
+ * Plans are built once per command class, when ApiServer registers the commands, instead of
+ * walking the class hierarchy and reading annotations on every request.
+ */
+public class ParamBindingPlan {
+    private static final Map<Class<?>, ParamBindingPlan> s_plans = new ConcurrentHashMap<Class<?>, ParamBindingPlan>();
+
+    private static final Class<?>[] LEGACY_DATE_FORMAT_CMDS = {ListEventsCmd.class, DeleteEventsCmd.class, ArchiveEventsCmd.class, ArchiveAlertsCmd.class,
+            DeleteAlertsCmd.class, GetUsageRecordsCmd.class};
+
+    private final List<ParamBinding> _bindings;
+    private final boolean _legacyDateFormat;
+
+    private ParamBindingPlan(final Class<?> cmdClass) {
+        final List<ParamBinding> bindings = new ArrayList<ParamBinding>();
+        for (final Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+            if (parameterAnnotation != null && parameterAnnotation.expose()) {
+                bindings.add(new ParamBinding(field, parameterAnnotation));
+            }
+        }
+        _bindings = Collections.unmodifiableList(bindings);
+
+        boolean legacyDateFormat = false;
+        for (final Class<?> legacyCmd : LEGACY_DATE_FORMAT_CMDS) {
+            if (legacyCmd.isAssignableFrom(cmdClass)) {
+                legacyDateFormat = true;
+                break;
+            }
+        }
+        _legacyDateFormat = legacyDateFormat;
+    }
+
+    public static ParamBindingPlan forClass(final Class<?> cmdClass) {
+        ParamBindingPlan plan = s_plans.get(cmdClass);
+        if (plan == null) {
+            plan = new ParamBindingPlan(cmdClass);
+            final ParamBindingPlan existing = s_plans.putIfAbsent(cmdClass, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    public static ParamBindingPlan forCommand(final BaseCmd cmd) {
+        return forClass(cmd.getClass());
+    }
+
+    public List<ParamBinding> getBindings() {
+        return _bindings;
+    }
+
+    /**
+     * @return the bindings the caller is authorized to pass, see {@link BaseCmd#getParamFields()}
+     */
+    public List<ParamBinding> getBindings(final Account caller) {
+        List<ParamBinding> allowed = null;
+        for (int i = 0; i < _bindings.size(); i++) {
+            final ParamBinding binding = _bindings.get(i);
+            if (binding.isAllowedFor(caller)) {
+                if (allowed != null) {
+                    allowed.add(binding);
+                }
+            } else if (allowed == null) {
+                allowed = new ArrayList<ParamBinding>(_bindings.subList(0, i));
+            }
+        }
+        return allowed != null ? allowed : _bindings;
+    }
+
+    /**
+     * @return true if DATE parameters of this command also accept "yyyy-MM-dd HH:mm:ss" (Bug 9724)
+     */
+    public boolean isLegacyDateFormat() {
+        return _legacyDateFormat;
+    }
+
+    public static class ParamBinding {
+        private final Field _field;
+        private final Parameter _annotation;
+        private final String _name;
+        private final CommandType _type;
+        private final CommandType _collectionType;
+        private final int[] _allowedAccountTypes;
+        private final AccessType _accessType;
+        private final Class<?>[] _entities;
+        private final boolean _pre3x;
+
+        ParamBinding(final Field field, final Parameter annotation) {
+            field.setAccessible(true);
+            _field = field;
+            _annotation = annotation;
+            _name = annotation.name();
+            _type = annotation.type();
+            _collectionType = annotation.collectionType();
+
+            final RoleType[] allowedRoles = annotation.authorized();
+            _allowedAccountTypes = new int[allowedRoles.length];
+            for (int i = 0; i < allowedRoles.length; i++) {
+                _allowedAccountTypes[i] = allowedRoles[i].getValue();
+            }
+
+            final ACL acl = field.getAnnotation(ACL.class);
+            _accessType = acl != null ? acl.accessType() : null;
+
+            // There may be multiple entities defined on the @EntityReference of a Response.class,
+            // the parameter references the ones of its first entityType
+            final Class<?>[] entityTypes = annotation.entityType();
+            final EntityReference reference = entityTypes != null && entityTypes.length > 0 ? entityTypes[0].getAnnotation(EntityReference.class) : null;
+            _entities = reference != null ? reference.value() : null;
+
+            // If since is empty, the parameter existed before 3.x and may also be passed as internal id
+            _pre3x = annotation.since().isEmpty();
+        }
+
+        boolean isAllowedFor(final Account caller) {
+            if (_allowedAccountTypes.length == 0) {
+                return true;
+            }
+            for (final int accountType : _allowedAccountTypes) {
+                if (accountType == caller.getType()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Field getField() {
+            return _field;
+        }
+
+        public Parameter getAnnotation() {
+            return _annotation;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public boolean isRequired() {
+            return _annotation.required();
+        }
+
+        public CommandType getType() {
+            return _type;
+        }
+
+        public CommandType getCollectionType() {
+            return _collectionType;
+        }
+
+        public int getLength() {
+            return _annotation.length();
+        }
+
+        /**
+         * @return the access to check on the referenced entity, null if the field has no @ACL
+         */
+        public AccessType getAccessType() {
+            return _accessType;
+        }
+
+        /**
+         * @return the entity interfaces the parameter references, null if it references none
+         */
+        public Class<?>[] getEntities() {
+            return _entities;
+        }
+
+        public boolean isPre3x() {
+            return _pre3x;
+        }
+    }
+}
@@ -17,14 +17,15 @@
 
 package com.cloud.api.dispatch;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.cloud.api.dispatch.ParamBindingPlan.ParamBinding;
+
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.BaseCmd;
-import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
 /**
@@ -104,9 +105,8 @@ public class ParamGenericValidationWorker implements DispatchWorker {
     protected List<String> getParamNamesForCommand(final BaseCmd cmd) {
         final List<String> paramNames = new ArrayList<String>();
         // The expected param names are all the specific for the current command class ...
-        for (final Field field : cmd.getParamFields()) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            paramNames.add(parameterAnnotation.name());
+        for (final ParamBinding binding : ParamBindingPlan.forCommand(cmd).getBindings(CallContext.current().getCallingAccount())) {
+            paramNames.add(binding.getName());
         }
         // ... plus the default ones
         paramNames.addAll(defaultParamNames);
@@ -17,6 +17,7 @@
 
 package com.cloud.api.dispatch;
 
+import com.cloud.api.dispatch.ParamBindingPlan.ParamBinding;
 import com.cloud.dao.EntityManager;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.user.Account;
@@ -29,12 +30,6 @@ import org.apache.cloudstack.acl.SecurityChecker;
 import org.apache.cloudstack.acl.SecurityChecker.AccessType;
 import org.apache.cloudstack.api.*;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
-import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
-import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
-import org.apache.cloudstack.api.command.admin.usage.GetUsageRecordsCmd;
-import org.apache.cloudstack.api.command.user.event.ArchiveEventsCmd;
-import org.apache.cloudstack.api.command.user.event.DeleteEventsCmd;
-import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,31 +75,32 @@ public class ParamProcessWorker implements DispatchWorker {
     public void processParameters(final BaseCmd cmd, final Map params) {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<>();
 
-        final List<Field> cmdFields = cmd.getParamFields();
+        final ParamBindingPlan plan = ParamBindingPlan.forCommand(cmd);
+        final List<ParamBinding> bindings = plan.getBindings(CallContext.current().getCallingAccount());
+        final UuidResolver uuidResolver = new UuidResolver(_entityMgr);
 
-        for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            final Object paramObj = params.get(parameterAnnotation.name());
+        for (final ParamBinding binding : bindings) {
+            final Object paramObj = params.get(binding.getName());
             if (paramObj == null) {
-                if (parameterAnnotation.required()) {
+                if (binding.isRequired()) {
                     throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " +
                             cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) +
-                            " due to missing parameter " + parameterAnnotation.name());
+                            " due to missing parameter " + binding.getName());
                 }
                 continue;
             }
 
             // marshall the parameter into the correct type and set the field value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, plan, cmd, paramObj, uuidResolver);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
-                            parameterAnnotation.name());
+                            binding.getName());
                 }
                 throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " +
                         cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value " + paramObj + " for parameter " +
-                        parameterAnnotation.name());
+                        binding.getName());
             } catch (final ParseException parseEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Invalid date parameter " + paramObj + " passed to command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
@@ -125,11 +121,12 @@ public class ParamProcessWorker implements DispatchWorker {
             }
 
             //check access on the resource this field points to
+            final Field field = binding.getField();
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
-                final CommandType fieldType = parameterAnnotation.type();
+                final AccessType accessType = binding.getAccessType();
+                final CommandType fieldType = binding.getType();
 
-                if (checkAccess != null) {
+                if (accessType != null) {
                     // Verify that caller can perform actions in behalf of vm
                     // owner acumulate all Controlled Entities together.
                     // parse the array of resource types and in case of map
@@ -138,15 +135,14 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
+                    if (binding.getEntities() != null) {
+                        final Class<?>[] entityList = binding.getEntities();
 
                         // Check if the parameter type is a single
                         // Id or list of id's/name's
                         switch (fieldType) {
                             case LIST:
-                                final CommandType listType = parameterAnnotation.collectionType();
+                                final CommandType listType = binding.getCollectionType();
                                 switch (listType) {
                                     case LONG:
                                     case UUID:
@@ -155,7 +151,7 @@ public class ParamProcessWorker implements DispatchWorker {
                                             for (final Class entity : entityList) {
                                                 final Object entityObj = _entityMgr.findById(entity, entityId);
                                                 if (entityObj != null) {
-                                                    entitiesToAccess.put(entityObj, checkAccess.accessType());
+                                                    entitiesToAccess.put(entityObj, accessType);
                                                     break;
                                                 }
                                             }
@@ -178,7 +174,7 @@ public class ParamProcessWorker implements DispatchWorker {
                                 for (final Class entity : entityList) {
                                     final Object entityObj = _entityMgr.findById(entity, (Long) field.get(cmd));
                                     if (entityObj != null) {
-                                        entitiesToAccess.put(entityObj, checkAccess.accessType());
+                                        entitiesToAccess.put(entityObj, accessType);
                                         break;
                                     }
                                 }
@@ -230,10 +226,11 @@ public class ParamProcessWorker implements DispatchWorker {
         }
     }
 
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private void setFieldValue(final ParamBinding binding, final ParamBindingPlan plan, final BaseCmd cmdObj, final Object paramObj, final UuidResolver uuidResolver)
+            throws IllegalArgumentException, ParseException {
+        final Field field = binding.getField();
         try {
-            field.setAccessible(true);
-            final CommandType fieldType = annotation.type();
+            final CommandType fieldType = binding.getType();
             switch (fieldType) {
                 case BOOLEAN:
                     field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
@@ -241,8 +238,7 @@ public class ParamProcessWorker implements DispatchWorker {
                 case DATE:
                     // This piece of code is for maintaining backward compatibility
                     // and support both the date formats(Bug 9724)
-                    if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
-                            cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof GetUsageRecordsCmd) {
+                    if (plan.isLegacyDateFormat()) {
                         final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
                         if (isObjInNewDateFormat) {
                             final DateFormat newFormat = newInputFormat;
@@ -296,19 +292,21 @@ public class ParamProcessWorker implements DispatchWorker {
                 case LIST:
                     final List listParam = new ArrayList();
                     final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                    final CommandType listType = binding.getCollectionType();
+                    if (listType == CommandType.UUID) {
+                        // translate all the uuids of the list at once
+                        final List<String> uuids = new ArrayList<>();
+                        while (st.hasMoreTokens()) {
+                            uuids.add(st.nextToken());
+                        }
+                        listParam.addAll(uuidResolver.resolveAll(uuids, binding));
+                    }
                     while (st.hasMoreTokens()) {
                         final String token = st.nextToken();
-                        final CommandType listType = annotation.collectionType();
                         switch (listType) {
                             case INTEGER:
                                 listParam.add(Integer.valueOf(token));
                                 break;
-                            case UUID:
-                                if (token.isEmpty())
-                                    break;
-                                final Long internalId = translateUuidToInternalId(token, annotation);
-                                listParam.add(internalId);
-                                break;
                             case LONG: {
                                 listParam.add(Long.valueOf(token));
                             }
@@ -324,7 +322,7 @@ public class ParamProcessWorker implements DispatchWorker {
                     field.set(cmdObj, listParam);
                     break;
                 case UUID:
-                    final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
+                    final Long internalId = uuidResolver.resolve(paramObj.toString(), binding);
                     field.set(cmdObj, internalId);
                     break;
                 case LONG:
@@ -335,9 +333,9 @@ public class ParamProcessWorker implements DispatchWorker {
                     break;
                 case STRING:
                     if ((paramObj != null)) {
-                        if (paramObj.toString().length() > annotation.length()) {
-                            s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                            throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
+                        if (paramObj.toString().length() > binding.getLength()) {
+                            s_logger.error("Value greater than max allowed length " + binding.getLength() + " for param: " + field.getName());
+                            throw new InvalidParameterValueException("Value greater than max allowed length " + binding.getLength() + " for param: " + field.getName());
                         } else {
                             field.set(cmdObj, paramObj.toString());
                         }
@@ -371,70 +369,4 @@ public class ParamProcessWorker implements DispatchWorker {
         cal.set(Calendar.SECOND, second);
         return cal.getTime();
     }
-
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
-        if (uuid.equals("-1")) {
-            // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
-            // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
-            return -1L;
-        }
-        Long internalId = null;
-        // If annotation's empty, the cmd existed before 3.x try conversion to long
-        final boolean isPre3x = annotation.since().isEmpty();
-        // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
-        // Enforce that it's uuid for newly added apis from version 3.x
-        if (!isPre3x && !isUuid)
-            return null;
-
-        // There may be multiple entities defined on the @EntityReference of a Response.class
-        // UUID CommandType would expect only one entityType, so use the first entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
-
-        // Allow both uuid and internal id for pre3x apis
-        if (isPre3x && !isUuid) {
-            try {
-                internalId = Long.parseLong(uuid);
-            } catch (final NumberFormatException e) {
-                internalId = null;
-            }
-            if (internalId != null) {
-                // Populate CallContext for each of the entity.
-                for (final Class<?> entity : entities) {
-                    CallContext.current().putContextParameter(entity, internalId);
-                }
-                return internalId;
-            }
-        }
-
-        // Go through each entity which is an interface to a VO class and get a VO object
-        // Try to getId() for the object using reflection, break on first non-null value
-        for (final Class<?> entity : entities) {
-            // For backward compatibility, we search within removed entities and let service layer deal
-            // with removed ones, return empty response or error
-            final Object objVO = _entityMgr.findByUuidIncludingRemoved(entity, uuid);
-            if (objVO == null) {
-                continue;
-            }
-            // Invoke the getId method, get the internal long ID
-            // If that fails hide exceptions as the uuid may not exist                                         s
-            try {
-                internalId = ((InternalIdentity) objVO).getId();
-            } catch (final IllegalArgumentException e) {
-            } catch (final NullPointerException e) {
-            }
-            // Return on first non-null Id for the uuid entity
-            if (internalId != null) {
-                CallContext.current().putContextParameter(entity, uuid);
-                break;
-            }
-        }
-        if (internalId == null) {
-            if (s_logger.isDebugEnabled())
-                s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
-            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid +
-                    " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
-        }
-        return internalId;
-    }
 }
@@ -0,0 +1,207 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.dispatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.cloud.api.dispatch.ParamBindingPlan.ParamBinding;
+import com.cloud.dao.EntityManager;
+import com.cloud.exception.InvalidParameterValueException;
+
+import org.apache.cloudstack.api.Identity;
+import org.apache.cloudstack.api.InternalIdentity;
+import org.apache.cloudstack.context.CallContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Translates the uuids passed to one API request into internal ids.
+ *
+ * Lives for a single request: every uuid is looked up once per entity type, and the uuids of
+ * a list parameter are looked up together with one query per entity type instead of one query
+ * per uuid.
+ */
+public class UuidResolver {
+    private static final Logger s_logger = LoggerFactory.getLogger(UuidResolver.class);
+
+    private static final Pattern UUID_PATTERN = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
+    private final EntityManager _entityMgr;
+    private final Map<Class<?>, Map<String, Long>> _resolved = new HashMap<Class<?>, Map<String, Long>>();
+
+    public UuidResolver(final EntityManager entityMgr) {
+        _entityMgr = entityMgr;
+    }
+
+    public Long resolve(final String uuid, final ParamBinding binding) {
+        final List<String> uuids = new ArrayList<String>(1);
+        uuids.add(uuid);
+        return resolveAll(uuids, binding).get(0);
+    }
+
+    /**
+     * @return the internal ids in the order of the uuids; null for a value that is not a uuid
+     * when the parameter was added after 3.x
+     * @throws InvalidParameterValueException if a uuid matches none of the referenced entities
+     */
+    public List<Long> resolveAll(final List<String> uuids, final ParamBinding binding) {
+        final Class<?>[] entities = binding.getEntities();
+        final Long[] internalIds = new Long[uuids.size()];
+        final Set<String> pending = new LinkedHashSet<String>();
+
+        for (int i = 0; i < internalIds.length; i++) {
+            final String uuid = uuids.get(i);
+            final boolean isUuid = UUID_PATTERN.matcher(uuid).matches();
+            if (uuid.equals("-1")) {
+                // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
+                // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
+                internalIds[i] = -1L;
+            } else if (!isUuid && !binding.isPre3x()) {
+                // Enforce that it's uuid for newly added apis from version 3.x
+                internalIds[i] = null;
+            } else if (!isUuid && isLong(uuid)) {
+                // Allow both uuid and internal id for pre3x apis
+                internalIds[i] = translateInternalId(uuid, binding);
+            } else if (entities == null) {
+                throw invalidValue(uuid, binding);
+            } else {
+                pending.add(uuid);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            final Map<String, Long> ids = lookup(pending, entities);
+            for (int i = 0; i < internalIds.length; i++) {
+                final Long internalId = ids.get(uuids.get(i));
+                if (internalId != null) {
+                    internalIds[i] = internalId;
+                } else if (pending.contains(uuids.get(i))) {
+                    throw invalidValue(uuids.get(i), binding);
+                }
+            }
+        }
+
+        final List<Long> result = new ArrayList<Long>(internalIds.length);
+        for (final Long internalId : internalIds) {
+            result.add(internalId);
+        }
+        return result;
+    }
+
+    private static boolean isLong(final String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private Long translateInternalId(final String value, final ParamBinding binding) {
+        final Long internalId = Long.parseLong(value);
+        if (binding.getEntities() != null) {
+            // Populate CallContext for each of the entity.
+            for (final Class<?> entity : binding.getEntities()) {
+                CallContext.current().putContextParameter(entity, internalId);
+            }
+        }
+        return internalId;
+    }
+
+    /**
+     * Go through each entity, which is an interface to a VO class, and take the id of the first
+     * entity a uuid is found for. For backward compatibility we search within removed entities
+     * and let the service layer deal with removed ones.
+     */
+    private Map<String, Long> lookup(final Set<String> uuids, final Class<?>[] entities) {
+        final Map<String, Long> ids = new HashMap<String, Long>();
+        final Set<String> remaining = new LinkedHashSet<String>(uuids);
+
+        for (final Class<?> entity : entities) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            Map<String, Long> resolved = _resolved.get(entity);
+            if (resolved == null) {
+                resolved = new HashMap<String, Long>();
+                _resolved.put(entity, resolved);
+            }
+
+            final List<String> toFetch = new ArrayList<String>();
+            for (final String uuid : remaining) {
+                if (!resolved.containsKey(uuid)) {
+                    toFetch.add(uuid);
+                }
+            }
+            if (toFetch.size() == 1) {
+                resolved.put(toFetch.get(0), getId(_entityMgr.findByUuidIncludingRemoved(entity, toFetch.get(0))));
+            } else if (!toFetch.isEmpty()) {
+                fetchAll(entity, toFetch, resolved);
+            }
+
+            for (final String uuid : toFetch) {
+                if (!resolved.containsKey(uuid)) {
+                    resolved.put(uuid, null);
+                }
+            }
+
+            for (final String uuid : new ArrayList<String>(remaining)) {
+                final Long internalId = resolved.get(uuid);
+                if (internalId != null) {
+                    CallContext.current().putContextParameter(entity, uuid);
+                    ids.put(uuid, internalId);
+                    remaining.remove(uuid);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void fetchAll(final Class<?> entity, final List<String> uuids, final Map<String, Long> resolved) {
+        for (final Object objVO : _entityMgr.listByUuidsIncludingRemoved(entity, uuids)) {
+            if (!(objVO instanceof Identity)) {
+                // Can't tell which uuid the VO belongs to, look them up one by one
+                for (final String uuid : uuids) {
+                    resolved.put(uuid, getId(_entityMgr.findByUuidIncludingRemoved(entity, uuid)));
+                }
+                return;
+            }
+            resolved.put(((Identity)objVO).getUuid(), getId(objVO));
+        }
+    }
+
+    private static Long getId(final Object objVO) {
+        if (objVO instanceof InternalIdentity) {
+            return ((InternalIdentity)objVO).getId();
+        }
+        return null;
+    }
+
+    private static InvalidParameterValueException invalidValue(final String uuid, final ParamBinding binding) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
+        }
+        return new InvalidParameterValueException("Invalid parameter " + binding.getName() + " value=" + uuid +
+                " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
+    }
+}
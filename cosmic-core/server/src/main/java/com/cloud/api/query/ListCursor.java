@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * The startafter token of the list commands: the sort key of the last row of a
+ * page, which the next page seeks past instead of skipping an offset.
+ */
+public class ListCursor {
+    private static final String SEPARATOR = ":";
+
+    private ListCursor() {
+    }
+
+    public static String encode(final Object... key) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Object value : key) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            if (value instanceof Date) {
+                sb.append(((Date)value).getTime());
+            } else if (value instanceof Long) {
+                sb.append(value);
+            } else {
+                throw new IllegalArgumentException("Unsupported sort key value: " + value);
+            }
+        }
+        return Base64.encodeBase64URLSafeString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Object[] decode(final String token, final Class<?>... types) {
+        final String[] parts = new String(Base64.decodeBase64(token), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        if (parts.length != types.length) {
+            throw new InvalidParameterValueException("Invalid " + ApiConstants.START_AFTER + " value: " + token);
+        }
+
+        final Object[] key = new Object[types.length];
+        try {
+            for (int i = 0; i < types.length; i++) {
+                final long value = Long.parseLong(parts[i]);
+                if (types[i] == Date.class) {
+                    key[i] = new Date(value);
+                } else if (types[i] == Long.class) {
+                    key[i] = value;
+                } else {
+                    throw new IllegalArgumentException("Unsupported sort key type: " + types[i]);
+                }
+            }
+        } catch (final NumberFormatException e) {
+            throw new InvalidParameterValueException("Invalid " + ApiConstants.START_AFTER + " value: " + token);
+        }
+        return key;
+    }
+}
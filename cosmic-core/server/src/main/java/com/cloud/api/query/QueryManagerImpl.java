@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.api.query;
 
+import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.dao.*;
 import com.cloud.api.query.vo.*;
 import com.cloud.dc.DedicatedResourceVO;
@@ -29,6 +30,7 @@ import com.cloud.exception.CloudAuthenticationException;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.ha.HighAvailabilityManager;
+import com.cloud.host.HostStats;
 import com.cloud.hypervisor.Hypervisor;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.network.dao.NetworkDetailsDao;
@@ -45,6 +47,7 @@ import com.cloud.resource.ResourceManager;
 import com.cloud.server.ResourceMetaDataService;
 import com.cloud.server.ResourceTag;
 import com.cloud.server.ResourceTag.ResourceObjectType;
+import com.cloud.server.StatsTimeSeries;
 import com.cloud.server.TaggedResourceService;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
@@ -65,6 +68,7 @@ import com.cloud.utils.Pair;
 import com.cloud.utils.Ternary;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.JoinBuilder;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
@@ -74,6 +78,7 @@ import com.cloud.vm.DomainRouterVO;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.DomainRouterDao;
 import com.cloud.vm.dao.UserVmDao;
 import com.cloud.vm.dao.UserVmDetailsDao;
@@ -84,6 +89,9 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.ApiConstants.HostDetails;
+import org.apache.cloudstack.api.ApiConstants.VMDetails;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -678,13 +686,44 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         if (cmd instanceof ListVMsCmdByAdmin) {
             respView = ResponseView.Full;
         }
-        final List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(),
+        final EnumSet<VMDetails> details = cmd.getDetails();
+        final List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", details,
                 result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
+        if (cmd.getStatsWindow() != null && (details.contains(VMDetails.all) || details.contains(VMDetails.stats))) {
+            final long windowMillis = getStatsWindowMillis(cmd.getStatsWindow());
+            final Map<String, UserVmJoinVO> vmsByUuid = new HashMap<>();
+            for (final UserVmJoinVO vm : result.first()) {
+                vmsByUuid.put(vm.getUuid(), vm);
+            }
+            for (final UserVmResponse vmResponse : vmResponses) {
+                final UserVmJoinVO vm = vmsByUuid.get(vmResponse.getId());
+                final VmStats vmStats = ApiDBUtils.getVmStatistics(vm.getId(), windowMillis);
+                if (vmStats != null) {
+                    _userVmJoinDao.setVmStatsResponse(vmResponse, vm, vmStats);
+                }
+            }
+        }
+
         response.setResponses(vmResponses, result.second());
+        if (isFullPage(cmd, vmResponses.size())) {
+            long lastId = 0;
+            for (final UserVmJoinVO vm : result.first()) {
+                lastId = Math.max(lastId, vm.getId());
+            }
+            response.setNextStartAfter(ListCursor.encode(lastId));
+        }
         return response;
     }
 
+    private long getStatsWindowMillis(final int minutes) {
+        final long windowMillis = minutes * 60 * 1000L;
+        if (minutes <= 0 || windowMillis > StatsTimeSeries.getRetentionMillis()) {
+            throw new InvalidParameterValueException("The stats window must be between 1 and " + StatsTimeSeries.getRetentionMillis() / 60000 + " minutes");
+        }
+        return windowMillis;
+    }
+
     private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(final ListVMsCmd cmd) {
         final Account caller = CallContext.current().getCallingAccount();
         final List<Long> permittedAccounts = new ArrayList<>();
@@ -704,6 +743,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
 
         final Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(),
                 cmd.getPageSizeVal());
+        setStartAfter(searchFilter, cmd, Long.class);
 
         List<Long> ids = null;
         if (cmd.getId() != null) {
@@ -930,13 +970,13 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        final Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        final Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = searchAndCount(_userVmJoinDao, sc, searchFilter, cmd, true);
         final Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+        final List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
+        if (uniqueVms.isEmpty()) {
             // handle empty result cases
             return uniqueVmPair;
         }
-        final List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
         final Long[] vmIds = new Long[uniqueVms.size()];
         int i = 0;
         for (final UserVmJoinVO v : uniqueVms) {
@@ -1067,6 +1107,13 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
 
         final List<DomainRouterResponse> routerResponses = ViewResponseHelper.createDomainRouterResponse(result.first().toArray(new DomainRouterJoinVO[result.first().size()]));
         response.setResponses(routerResponses, result.second());
+        if (isFullPage(cmd, routerResponses.size())) {
+            long lastId = 0;
+            for (final DomainRouterJoinVO router : result.first()) {
+                lastId = Math.max(lastId, router.getId());
+            }
+            response.setNextStartAfter(ListCursor.encode(lastId));
+        }
         return response;
     }
 
@@ -1097,6 +1144,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         final ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
         final Filter searchFilter = new Filter(DomainRouterJoinVO.class, "id", true, cmd.getStartIndex(),
                 cmd.getPageSizeVal());
+        setStartAfter(searchFilter, cmd, Long.class);
 
         final SearchBuilder<DomainRouterJoinVO> sb = _routerJoinDao.createSearchBuilder();
         sb.select(null, Func.DISTINCT, sb.entity().getId()); // select distinct
@@ -1191,13 +1239,13 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         }
 
         // search VR details by ids
-        final Pair<List<DomainRouterJoinVO>, Integer> uniqueVrPair = _routerJoinDao.searchAndCount(sc, searchFilter);
+        final Pair<List<DomainRouterJoinVO>, Integer> uniqueVrPair = searchAndCount(_routerJoinDao, sc, searchFilter, cmd, false);
         final Integer count = uniqueVrPair.second();
-        if (count.intValue() == 0) {
+        final List<DomainRouterJoinVO> uniqueVrs = uniqueVrPair.first();
+        if (uniqueVrs.isEmpty()) {
             // empty result
             return uniqueVrPair;
         }
-        final List<DomainRouterJoinVO> uniqueVrs = uniqueVrPair.first();
         final Long[] vrIds = new Long[uniqueVrs.size()];
         int i = 0;
         for (final DomainRouterJoinVO v : uniqueVrs) {
@@ -1479,8 +1527,29 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         final Pair<List<HostJoinVO>, Integer> hosts = searchForServersInternal(cmd);
         final ListResponse<HostResponse> response = new ListResponse<>();
         s_logger.debug(">>>Generating Response>>>");
-        final List<HostResponse> hostResponses = ViewResponseHelper.createHostResponse(cmd.getDetails(), hosts.first().toArray(new HostJoinVO[hosts.first().size()]));
+        final EnumSet<HostDetails> details = cmd.getDetails();
+        final List<HostResponse> hostResponses = ViewResponseHelper.createHostResponse(details, hosts.first().toArray(new HostJoinVO[hosts.first().size()]));
+        if (cmd.getStatsWindow() != null && (details.contains(HostDetails.all) || details.contains(HostDetails.stats))) {
+            final long windowMillis = getStatsWindowMillis(cmd.getStatsWindow());
+            final Map<String, Long> hostIdsByUuid = new HashMap<>();
+            for (final HostJoinVO host : hosts.first()) {
+                hostIdsByUuid.put(host.getUuid(), host.getId());
+            }
+            for (final HostResponse hostResponse : hostResponses) {
+                final HostStats hostStats = ApiDBUtils.getHostStatistics(hostIdsByUuid.get(hostResponse.getId()), windowMillis);
+                if (hostStats != null) {
+                    _hostJoinDao.setHostStatsResponse(hostResponse, hostStats);
+                }
+            }
+        }
         response.setResponses(hostResponses, hosts.second());
+        if (isFullPage(cmd, hostResponses.size())) {
+            long lastId = 0;
+            for (final HostJoinVO host : hosts.first()) {
+                lastId = Math.max(lastId, host.getId());
+            }
+            response.setNextStartAfter(ListCursor.encode(lastId));
+        }
         return response;
     }
 
@@ -1501,6 +1570,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         final Hypervisor.HypervisorType hypervisorType = cmd.getHypervisor();
 
         final Filter searchFilter = new Filter(HostJoinVO.class, "id", Boolean.TRUE, startIndex, pageSize);
+        setStartAfter(searchFilter, cmd, Long.class);
 
         final SearchBuilder<HostJoinVO> sb = _hostJoinDao.createSearchBuilder();
         sb.select(null, Func.DISTINCT, sb.entity().getId()); // select distinct
@@ -1573,13 +1643,13 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
             sc.setParameters("hypervisor_type", hypervisorType);
         }
         // search host details by ids
-        final Pair<List<HostJoinVO>, Integer> uniqueHostPair = _hostJoinDao.searchAndCount(sc, searchFilter);
+        final Pair<List<HostJoinVO>, Integer> uniqueHostPair = searchAndCount(_hostJoinDao, sc, searchFilter, cmd, false);
         final Integer count = uniqueHostPair.second();
-        if (count.intValue() == 0) {
+        final List<HostJoinVO> uniqueHosts = uniqueHostPair.first();
+        if (uniqueHosts.isEmpty()) {
             // handle empty result cases
             return uniqueHostPair;
         }
-        final List<HostJoinVO> uniqueHosts = uniqueHostPair.first();
         final Long[] hostIds = new Long[uniqueHosts.size()];
         int i = 0;
         for (final HostJoinVO v : uniqueHosts) {
@@ -1626,9 +1696,39 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
             }
         }
         response.setResponses(volumeResponses, result.second());
+        if (isFullPage(cmd, volumeResponses.size())) {
+            VolumeJoinVO last = null;
+            for (final VolumeJoinVO volume : result.first()) {
+                if (last == null || volume.getCreated().before(last.getCreated())
+                        || (volume.getCreated().equals(last.getCreated()) && volume.getId() < last.getId())) {
+                    last = volume;
+                }
+            }
+            response.setNextStartAfter(ListCursor.encode(last.getCreated(), last.getId()));
+        }
         return response;
     }
 
+    private void setStartAfter(final Filter searchFilter, final BaseListCmd cmd, final Class<?>... keyTypes) {
+        if (cmd.getStartAfter() != null) {
+            searchFilter.setSeekAfter(ListCursor.decode(cmd.getStartAfter(), keyTypes));
+        }
+    }
+
+    private <T> Pair<List<T>, Integer> searchAndCount(final GenericDao<T, Long> dao, final SearchCriteria<T> sc, final Filter searchFilter, final BaseListCmd cmd,
+                                                      final boolean distinct) {
+        if (!cmd.isCountRequested()) {
+            // later pages leave the count to the size of the page
+            return new Pair<>(dao.search(sc, searchFilter), null);
+        }
+        return distinct ? dao.searchAndDistinctCount(sc, searchFilter) : dao.searchAndCount(sc, searchFilter);
+    }
+
+    private boolean isFullPage(final BaseListCmd cmd, final int size) {
+        final Long pageSize = cmd.getPageSizeVal();
+        return pageSize != null && size > 0 && size >= pageSize;
+    }
+
     private Pair<List<VolumeJoinVO>, Integer> searchForVolumesInternal(final ListVolumesCmd cmd) {
 
         final Account caller = CallContext.current().getCallingAccount();
@@ -1655,6 +1755,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         final Boolean isRecursive = domainIdRecursiveListProject.second();
         final ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
         final Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        // volumes created in the same second need a unique tie-breaker to page by seeking
+        searchFilter.addOrderBy(VolumeJoinVO.class, "id", false);
+        setStartAfter(searchFilter, cmd, Date.class, Long.class);
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -1749,13 +1852,13 @@ public class QueryManagerImpl extends ManagerBase implements QueryService, Confi
         sc.setParameters("state", Volume.State.Destroy);
 
         // search Volume details by ids
-        final Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        final Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = searchAndCount(_volumeJoinDao, sc, searchFilter, cmd, false);
         final Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
+        final List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
+        if (uniqueVols.isEmpty()) {
             // empty result
             return uniqueVolPair;
         }
-        final List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
         final Long[] vrIds = new Long[uniqueVols.size()];
         int i = 0;
         for (final VolumeJoinVO v : uniqueVols) {
@@ -0,0 +1,145 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.vo.ResourceTagJoinVO;
+import com.cloud.gpu.GPU;
+import com.cloud.gpu.HostGpuGroupsVO;
+import com.cloud.gpu.VGPUTypesVO;
+import com.cloud.service.ServiceOfferingDetailsVO;
+import com.cloud.user.User;
+import com.cloud.vm.UserVmDetailVO;
+import com.cloud.vm.VmDetailConstants;
+import com.cloud.vm.dao.NicSecondaryIpVO;
+
+/**
+ * Side table rows needed to assemble one page of list responses, loaded in bulk
+ * before the page is rendered so the join DAOs do not query per row.
+ *
+ * Every lookup falls back to the per-row ApiDBUtils query when its table was not
+ * prefetched, so an empty instance keeps the old behaviour for single responses.
+ */
+public class ResponsePrefetch {
+    private Map<Long, ResourceTagJoinVO> _tags;
+    private Map<Long, List<NicSecondaryIpVO>> _nicSecondaryIps;
+    private Map<Long, ServiceOfferingDetailsVO> _vgpuTypeDetails;
+    private Map<Long, UserVmDetailVO> _hypervisorToolsVersions;
+    private Set<Long> _diskOfferingIds;
+    private Map<Long, List<HostGpuGroupsVO>> _gpuGroups;
+    private Map<Long, List<VGPUTypesVO>> _vgpuTypes;
+    private Map<Long, User> _users;
+
+    public void setTags(Map<Long, ResourceTagJoinVO> tags) {
+        _tags = tags;
+    }
+
+    public void setNicSecondaryIps(Map<Long, List<NicSecondaryIpVO>> nicSecondaryIps) {
+        _nicSecondaryIps = nicSecondaryIps;
+    }
+
+    public void setVgpuTypeDetails(Map<Long, ServiceOfferingDetailsVO> vgpuTypeDetails) {
+        _vgpuTypeDetails = vgpuTypeDetails;
+    }
+
+    public void setHypervisorToolsVersions(Map<Long, UserVmDetailVO> hypervisorToolsVersions) {
+        _hypervisorToolsVersions = hypervisorToolsVersions;
+    }
+
+    public void setDiskOfferingIds(Set<Long> diskOfferingIds) {
+        _diskOfferingIds = diskOfferingIds;
+    }
+
+    public void setGpuGroups(Map<Long, List<HostGpuGroupsVO>> gpuGroups) {
+        _gpuGroups = gpuGroups;
+    }
+
+    public void setVgpuTypes(Map<Long, List<VGPUTypesVO>> vgpuTypes) {
+        _vgpuTypes = vgpuTypes;
+    }
+
+    public void setUsers(Map<Long, User> users) {
+        _users = users;
+    }
+
+    public ResourceTagJoinVO getResourceTag(long tagId) {
+        if (_tags == null) {
+            return ApiDBUtils.findResourceTagViewById(tagId);
+        }
+        return _tags.get(tagId);
+    }
+
+    public List<NicSecondaryIpVO> getNicSecondaryIps(long nicId) {
+        if (_nicSecondaryIps == null) {
+            return ApiDBUtils.findNicSecondaryIps(nicId);
+        }
+        List<NicSecondaryIpVO> ips = _nicSecondaryIps.get(nicId);
+        return ips != null ? ips : Collections.<NicSecondaryIpVO>emptyList();
+    }
+
+    public ServiceOfferingDetailsVO getVgpuTypeDetail(long serviceOfferingId) {
+        if (_vgpuTypeDetails == null) {
+            return ApiDBUtils.findServiceOfferingDetail(serviceOfferingId, GPU.Keys.vgpuType.toString());
+        }
+        return _vgpuTypeDetails.get(serviceOfferingId);
+    }
+
+    public UserVmDetailVO getHypervisorToolsVersion(long vmId) {
+        if (_hypervisorToolsVersions == null) {
+            return ApiDBUtils.findUserVmDetail(vmId, VmDetailConstants.HYPERVISOR_TOOLS_VERSION);
+        }
+        return _hypervisorToolsVersions.get(vmId);
+    }
+
+    /**
+     * @return true if the offering is a disk offering, false if it belongs to a service offering
+     */
+    public boolean isDiskOffering(long offeringId) {
+        if (_diskOfferingIds == null) {
+            return ApiDBUtils.findDiskOfferingById(offeringId) != null;
+        }
+        return _diskOfferingIds.contains(offeringId);
+    }
+
+    public List<HostGpuGroupsVO> getGpuGroups(long hostId) {
+        if (_gpuGroups == null) {
+            return ApiDBUtils.getGpuGroups(hostId);
+        }
+        List<HostGpuGroupsVO> groups = _gpuGroups.get(hostId);
+        return groups != null ? groups : Collections.<HostGpuGroupsVO>emptyList();
+    }
+
+    public List<VGPUTypesVO> getVgpus(long groupId) {
+        if (_vgpuTypes == null) {
+            return ApiDBUtils.getVgpus(groupId);
+        }
+        List<VGPUTypesVO> types = _vgpuTypes.get(groupId);
+        return types != null ? types : Collections.<VGPUTypesVO>emptyList();
+    }
+
+    public User getUser(long userId) {
+        if (_users == null) {
+            return ApiDBUtils.findUserById(userId);
+        }
+        return _users.get(userId);
+    }
+}
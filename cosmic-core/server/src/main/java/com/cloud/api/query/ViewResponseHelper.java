@@ -135,15 +135,16 @@ public class ViewResponseHelper {
 
         Hashtable<Long, UserVmResponse> vmDataList = new Hashtable<Long, UserVmResponse>();
         // Initialise the vmdatalist with the input data
+        ResponsePrefetch prefetch = ApiDBUtils.prefetchUserVmDetails(details, userVms);
 
         for (UserVmJoinVO userVm : userVms) {
             UserVmResponse userVmData = vmDataList.get(userVm.getId());
             if (userVmData == null) {
                 // first time encountering this vm
-                userVmData = ApiDBUtils.newUserVmResponse(view, objectName, userVm, details, caller);
+                userVmData = ApiDBUtils.newUserVmResponse(view, objectName, userVm, details, caller, prefetch);
             } else{
                 // update nics, securitygroups, tags, affinitygroups for 1 to many mapping fields
-                userVmData = ApiDBUtils.fillVmDetails(view, userVmData, userVm);
+                userVmData = ApiDBUtils.fillVmDetails(view, userVmData, userVm, prefetch);
             }
             vmDataList.put(userVm.getId(), userVmData);
         }
@@ -230,11 +231,12 @@ public class ViewResponseHelper {
     public static List<HostResponse> createHostResponse(EnumSet<HostDetails> details, HostJoinVO... hosts) {
         Hashtable<Long, HostResponse> vrDataList = new Hashtable<Long, HostResponse>();
         // Initialise the vrdatalist with the input data
+        ResponsePrefetch prefetch = ApiDBUtils.prefetchHostDetails(hosts);
         for (HostJoinVO vr : hosts) {
             HostResponse vrData = vrDataList.get(vr.getId());
             if (vrData == null) {
                 // first time encountering this vm
-                vrData = ApiDBUtils.newHostResponse(vr, details);
+                vrData = ApiDBUtils.newHostResponse(vr, details, prefetch);
             } else {
                 // update tags
                 vrData = ApiDBUtils.fillHostDetails(vrData, vr);
@@ -263,15 +265,16 @@ public class ViewResponseHelper {
 
     public static List<VolumeResponse> createVolumeResponse(ResponseView view, VolumeJoinVO... volumes) {
         Hashtable<Long, VolumeResponse> vrDataList = new Hashtable<Long, VolumeResponse>();
+        ResponsePrefetch prefetch = ApiDBUtils.prefetchVolumeDetails(volumes);
         for (VolumeJoinVO vr : volumes) {
             VolumeResponse vrData = vrDataList.get(vr.getId());
             if (vrData == null) {
                 // first time encountering this volume
-                vrData = ApiDBUtils.newVolumeResponse(view, vr);
+                vrData = ApiDBUtils.newVolumeResponse(view, vr, prefetch);
             }
             else{
                 // update tags
-                vrData = ApiDBUtils.fillVolumeDetails(view, vrData, vr);
+                vrData = ApiDBUtils.fillVolumeDetails(view, vrData, vr, prefetch);
             }
             vrDataList.put(vr.getId(), vrData);
         }
@@ -19,8 +19,10 @@ package com.cloud.api.query.dao;
 import java.util.EnumSet;
 import java.util.List;
 
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.HostJoinVO;
 import com.cloud.host.Host;
+import com.cloud.host.HostStats;
 import com.cloud.utils.db.GenericDao;
 
 import org.apache.cloudstack.api.ApiConstants.HostDetails;
@@ -31,8 +33,12 @@ public interface HostJoinDao extends GenericDao<HostJoinVO, Long> {
 
     HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details);
 
+    HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponsePrefetch prefetch);
+
     HostResponse setHostResponse(HostResponse response, HostJoinVO host);
 
+    void setHostStatsResponse(HostResponse hostResponse, HostStats hostStats);
+
     HostForMigrationResponse newHostForMigrationResponse(HostJoinVO host, EnumSet<HostDetails> details);
 
     HostForMigrationResponse setHostForMigrationResponse(HostForMigrationResponse response, HostJoinVO host);
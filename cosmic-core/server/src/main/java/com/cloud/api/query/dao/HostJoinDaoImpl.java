@@ -28,6 +28,7 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.HostJoinVO;
 import com.cloud.gpu.HostGpuGroupsVO;
 import com.cloud.gpu.VGPUTypesVO;
@@ -79,6 +80,11 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
     @Override
     public HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details) {
+        return newHostResponse(host, details, new ResponsePrefetch());
+    }
+
+    @Override
+    public HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponsePrefetch prefetch) {
         HostResponse hostResponse = new HostResponse();
         hostResponse.setId(host.getUuid());
         hostResponse.setCapabilities(host.getCapabilities());
@@ -100,13 +106,13 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
         hostResponse.setVersion(host.getVersion());
         hostResponse.setCreated(host.getCreated());
 
-        List<HostGpuGroupsVO> gpuGroups = ApiDBUtils.getGpuGroups(host.getId());
+        List<HostGpuGroupsVO> gpuGroups = prefetch.getGpuGroups(host.getId());
         if (gpuGroups != null && !gpuGroups.isEmpty()) {
             List<GpuResponse> gpus = new ArrayList<GpuResponse>();
             for (HostGpuGroupsVO entry : gpuGroups) {
                 GpuResponse gpuResponse = new GpuResponse();
                 gpuResponse.setGpuGroupName(entry.getGroupName());
-                List<VGPUTypesVO> vgpuTypes = ApiDBUtils.getVgpus(entry.getId());
+                List<VGPUTypesVO> vgpuTypes = prefetch.getVgpus(entry.getId());
                 if (vgpuTypes != null && !vgpuTypes.isEmpty()) {
                     List<VgpuResponse> vgpus = new ArrayList<VgpuResponse>();
                     for (VGPUTypesVO vgpuType : vgpuTypes) {
@@ -173,16 +179,9 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
             if (details.contains(HostDetails.all) || details.contains(HostDetails.stats)) {
                 // set CPU/RAM/Network stats
-                String cpuUsed = null;
                 HostStats hostStats = ApiDBUtils.getHostStatistics(host.getId());
                 if (hostStats != null) {
-                    float cpuUtil = (float)hostStats.getCpuUtilization();
-                    cpuUsed = decimalFormat.format(cpuUtil) + "%";
-                    hostResponse.setCpuUsed(cpuUsed);
-                    hostResponse.setMemoryUsed((new Double(hostStats.getUsedMemory())).longValue());
-                    hostResponse.setNetworkKbsRead((new Double(hostStats.getNetworkReadKBs())).longValue());
-                    hostResponse.setNetworkKbsWrite((new Double(hostStats.getNetworkWriteKBs())).longValue());
-
+                    setHostStatsResponse(hostResponse, hostStats);
                 }
             }
 
@@ -238,6 +237,15 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
         return hostResponse;
     }
 
+    @Override
+    public void setHostStatsResponse(HostResponse hostResponse, HostStats hostStats) {
+        float cpuUtil = (float)hostStats.getCpuUtilization();
+        hostResponse.setCpuUsed(new DecimalFormat("#.##").format(cpuUtil) + "%");
+        hostResponse.setMemoryUsed((new Double(hostStats.getUsedMemory())).longValue());
+        hostResponse.setNetworkKbsRead((new Double(hostStats.getNetworkReadKBs())).longValue());
+        hostResponse.setNetworkKbsWrite((new Double(hostStats.getNetworkWriteKBs())).longValue());
+    }
+
     @Override
     public HostResponse setHostResponse(HostResponse response, HostJoinVO host) {
         String tag = host.getTag();
@@ -19,10 +19,12 @@ package com.cloud.api.query.dao;
 import java.util.EnumSet;
 import java.util.List;
 
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.UserVmJoinVO;
 import com.cloud.user.Account;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.vm.VmStats;
 
 import org.apache.cloudstack.api.ApiConstants.VMDetails;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -32,8 +34,14 @@ public interface UserVmJoinDao extends GenericDao<UserVmJoinVO, Long> {
 
     UserVmResponse newUserVmResponse(ResponseView view, String objectName, UserVmJoinVO userVm, EnumSet<VMDetails> details, Account caller);
 
+    UserVmResponse newUserVmResponse(ResponseView view, String objectName, UserVmJoinVO userVm, EnumSet<VMDetails> details, Account caller, ResponsePrefetch prefetch);
+
     UserVmResponse setUserVmResponse(ResponseView view, UserVmResponse userVmData, UserVmJoinVO uvo);
 
+    UserVmResponse setUserVmResponse(ResponseView view, UserVmResponse userVmData, UserVmJoinVO uvo, ResponsePrefetch prefetch);
+
+    void setVmStatsResponse(UserVmResponse userVmResponse, UserVmJoinVO userVm, VmStats vmStats);
+
     List<UserVmJoinVO> newUserVmView(UserVm... userVms);
 
     List<UserVmJoinVO> searchByIds(Long... ids);
@@ -28,25 +28,22 @@ import java.util.Set;
 import javax.inject.Inject;
 
 import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.ResourceTagJoinVO;
 import com.cloud.api.query.vo.UserVmJoinVO;
-import com.cloud.gpu.GPU;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.service.ServiceOfferingDetailsVO;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
-import com.cloud.user.dao.UserDao;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.UserVmDetailVO;
 import com.cloud.vm.VirtualMachine.State;
-import com.cloud.vm.VmDetailConstants;
 import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.NicSecondaryIpVO;
-import com.cloud.vm.dao.UserVmDetailsDao;
 
 import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.api.ApiConstants.VMDetails;
@@ -68,10 +65,6 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
     private ConfigurationDao  _configDao;
     @Inject
     public AccountManager _accountMgr;
-    @Inject
-    private UserVmDetailsDao _userVmDetailsDao;
-    @Inject
-    private UserDao _userDao;
 
     private final SearchBuilder<UserVmJoinVO> VmDetailSearch;
     private final SearchBuilder<UserVmJoinVO> activeVmByIsoSearch;
@@ -102,6 +95,12 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
 
     @Override
     public UserVmResponse newUserVmResponse(ResponseView view, String objectName, UserVmJoinVO userVm, EnumSet<VMDetails> details, Account caller) {
+        return newUserVmResponse(view, objectName, userVm, details, caller, new ResponsePrefetch());
+    }
+
+    @Override
+    public UserVmResponse newUserVmResponse(ResponseView view, String objectName, UserVmJoinVO userVm, EnumSet<VMDetails> details, Account caller,
+            ResponsePrefetch prefetch) {
         UserVmResponse userVmResponse = new UserVmResponse();
 
         if (userVm.getHypervisorType() != null) {
@@ -123,7 +122,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
             userVmResponse.setAccountName(userVm.getAccountName());
         }
 
-        User user = _userDao.getUser(userVm.getUserId());
+        User user = prefetch.getUser(userVm.getUserId());
         if (user != null) {
             userVmResponse.setUserId(user.getUuid());
             userVmResponse.setUserName(user.getUsername());
@@ -173,7 +172,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
             userVmResponse.setCpuNumber(userVm.getCpu());
             userVmResponse.setCpuSpeed(userVm.getSpeed());
             userVmResponse.setMemory(userVm.getRamSize());
-            ServiceOfferingDetailsVO serviceOfferingDetail = ApiDBUtils.findServiceOfferingDetail(userVm.getServiceOfferingId(), GPU.Keys.vgpuType.toString());
+            ServiceOfferingDetailsVO serviceOfferingDetail = prefetch.getVgpuTypeDetail(userVm.getServiceOfferingId());
             if (serviceOfferingDetail != null) {
                 userVmResponse.setVgpu(serviceOfferingDetail.getValue());
             }
@@ -201,21 +200,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
             // stats calculation
             VmStats vmStats = ApiDBUtils.getVmStatistics(userVm.getId());
             if (vmStats != null) {
-                userVmResponse.setCpuUsed(new DecimalFormat("#.##").format(vmStats.getCPUUtilization()) + "%");
-
-                userVmResponse.setNetworkKbsRead((long)vmStats.getNetworkReadKBs());
-
-                userVmResponse.setNetworkKbsWrite((long)vmStats.getNetworkWriteKBs());
-
-                if ((userVm.getHypervisorType() != null) && (userVm.getHypervisorType().equals(HypervisorType.KVM) || userVm.getHypervisorType().equals(HypervisorType.XenServer))) { // support KVM and XenServer only util 2013.06.25
-                    userVmResponse.setDiskKbsRead((long)vmStats.getDiskReadKBs());
-
-                    userVmResponse.setDiskKbsWrite((long)vmStats.getDiskWriteKBs());
-
-                    userVmResponse.setDiskIORead((long)vmStats.getDiskReadIOs());
-
-                    userVmResponse.setDiskIOWrite((long)vmStats.getDiskWriteIOs());
-                }
+                setVmStatsResponse(userVmResponse, userVm, vmStats);
             }
         }
 
@@ -264,7 +249,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
                     nicResponse.setType(userVm.getGuestType().toString());
                 }
                 nicResponse.setIsDefault(userVm.isDefaultNic());
-                List<NicSecondaryIpVO> secondaryIps = ApiDBUtils.findNicSecondaryIps(userVm.getNicId());
+                List<NicSecondaryIpVO> secondaryIps = prefetch.getNicSecondaryIps(userVm.getNicId());
                 if (secondaryIps != null) {
                     List<NicSecondaryIpResponse> ipList = new ArrayList<NicSecondaryIpResponse>();
                     for (NicSecondaryIpVO ip : secondaryIps) {
@@ -283,7 +268,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
         // update tag information
         long tag_id = userVm.getTagId();
         if (tag_id > 0 && !userVmResponse.containTag(tag_id)) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = prefetch.getResourceTag(tag_id);
             if (vtag != null) {
                 userVmResponse.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -304,7 +289,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
 
         // set resource details map
         // only hypervisortoolsversion can be returned to the end user
-        UserVmDetailVO hypervisorToolsVersion = _userVmDetailsDao.findDetail(userVm.getId(), VmDetailConstants.HYPERVISOR_TOOLS_VERSION);
+        UserVmDetailVO hypervisorToolsVersion = prefetch.getHypervisorToolsVersion(userVm.getId());
         if (hypervisorToolsVersion != null) {
             Map<String, String> resourceDetails = new HashMap<String, String>();
             resourceDetails.put(hypervisorToolsVersion.getName(), hypervisorToolsVersion.getValue());
@@ -321,8 +306,32 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
         return userVmResponse;
     }
 
+    @Override
+    public void setVmStatsResponse(UserVmResponse userVmResponse, UserVmJoinVO userVm, VmStats vmStats) {
+        userVmResponse.setCpuUsed(new DecimalFormat("#.##").format(vmStats.getCPUUtilization()) + "%");
+
+        userVmResponse.setNetworkKbsRead((long)vmStats.getNetworkReadKBs());
+
+        userVmResponse.setNetworkKbsWrite((long)vmStats.getNetworkWriteKBs());
+
+        if ((userVm.getHypervisorType() != null) && (userVm.getHypervisorType().equals(HypervisorType.KVM) || userVm.getHypervisorType().equals(HypervisorType.XenServer))) { // support KVM and XenServer only util 2013.06.25
+            userVmResponse.setDiskKbsRead((long)vmStats.getDiskReadKBs());
+
+            userVmResponse.setDiskKbsWrite((long)vmStats.getDiskWriteKBs());
+
+            userVmResponse.setDiskIORead((long)vmStats.getDiskReadIOs());
+
+            userVmResponse.setDiskIOWrite((long)vmStats.getDiskWriteIOs());
+        }
+    }
+
     @Override
     public UserVmResponse setUserVmResponse(ResponseView view, UserVmResponse userVmData, UserVmJoinVO uvo) {
+        return setUserVmResponse(view, userVmData, uvo, new ResponsePrefetch());
+    }
+
+    @Override
+    public UserVmResponse setUserVmResponse(ResponseView view, UserVmResponse userVmData, UserVmJoinVO uvo, ResponsePrefetch prefetch) {
         Long securityGroupId = uvo.getSecurityGroupId();
         if (securityGroupId != null && securityGroupId.longValue() != 0) {
             SecurityGroupResponse resp = new SecurityGroupResponse();
@@ -365,7 +374,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
                 nicResponse.setType(uvo.getGuestType().toString());
             }
             nicResponse.setIsDefault(uvo.isDefaultNic());
-            List<NicSecondaryIpVO> secondaryIps = ApiDBUtils.findNicSecondaryIps(uvo.getNicId());
+            List<NicSecondaryIpVO> secondaryIps = prefetch.getNicSecondaryIps(uvo.getNicId());
             if (secondaryIps != null) {
                 List<NicSecondaryIpResponse> ipList = new ArrayList<NicSecondaryIpResponse>();
                 for (NicSecondaryIpVO ip : secondaryIps) {
@@ -383,7 +392,7 @@ public class UserVmJoinDaoImpl extends GenericDaoBase<UserVmJoinVO, Long> implem
 
         long tag_id = uvo.getTagId();
         if (tag_id > 0 && !userVmData.containTag(tag_id)) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = prefetch.getResourceTag(tag_id);
             if (vtag != null) {
                 userVmData.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -18,6 +18,7 @@ package com.cloud.api.query.dao;
 
 import java.util.List;
 
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.VolumeJoinVO;
 import com.cloud.storage.Volume;
 import com.cloud.utils.db.GenericDao;
@@ -29,8 +30,12 @@ public interface VolumeJoinDao extends GenericDao<VolumeJoinVO, Long> {
 
     VolumeResponse newVolumeResponse(ResponseView view, VolumeJoinVO vol);
 
+    VolumeResponse newVolumeResponse(ResponseView view, VolumeJoinVO vol, ResponsePrefetch prefetch);
+
     VolumeResponse setVolumeResponse(ResponseView view, VolumeResponse volData, VolumeJoinVO vol);
 
+    VolumeResponse setVolumeResponse(ResponseView view, VolumeResponse volData, VolumeJoinVO vol, ResponsePrefetch prefetch);
+
     List<VolumeJoinVO> newVolumeView(Volume vol);
 
     List<VolumeJoinVO> searchByIds(Long... ids);
@@ -23,6 +23,7 @@ import javax.inject.Inject;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseHelper;
+import com.cloud.api.query.ResponsePrefetch;
 import com.cloud.api.query.vo.ResourceTagJoinVO;
 import com.cloud.api.query.vo.VolumeJoinVO;
 import com.cloud.offering.ServiceOffering;
@@ -70,6 +71,11 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
 
     @Override
     public VolumeResponse newVolumeResponse(ResponseView view, VolumeJoinVO volume) {
+        return newVolumeResponse(view, volume, new ResponsePrefetch());
+    }
+
+    @Override
+    public VolumeResponse newVolumeResponse(ResponseView view, VolumeJoinVO volume, ResponsePrefetch prefetch) {
         VolumeResponse volResponse = new VolumeResponse();
         volResponse.setId(volume.getUuid());
 
@@ -159,7 +165,7 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
                 // can't rely on the fact that the volume is the datadisk as it might have been created as a root, and
                 // then detached later
                 long offeringId = volume.getDiskOfferingId();
-                if (ApiDBUtils.findDiskOfferingById(offeringId) == null) {
+                if (!prefetch.isDiskOffering(offeringId)) {
                     isServiceOffering = true;
                 }
             }
@@ -214,7 +220,7 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
         // update tag information
         long tag_id = volume.getTagId();
         if (tag_id > 0) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = prefetch.getResourceTag(tag_id);
             if (vtag != null) {
                 volResponse.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -244,9 +250,14 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
 
     @Override
     public VolumeResponse setVolumeResponse(ResponseView view, VolumeResponse volData, VolumeJoinVO vol) {
+        return setVolumeResponse(view, volData, vol, new ResponsePrefetch());
+    }
+
+    @Override
+    public VolumeResponse setVolumeResponse(ResponseView view, VolumeResponse volData, VolumeJoinVO vol, ResponsePrefetch prefetch) {
         long tag_id = vol.getTagId();
         if (tag_id > 0) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = prefetch.getResourceTag(tag_id);
             if (vtag != null) {
                 volData.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -16,13 +16,23 @@
 // under the License.
 package com.cloud.api.response;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,7 +46,10 @@ import com.cloud.utils.encoding.URLEncoder;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ApiConstants;
@@ -55,22 +68,43 @@ import org.slf4j.LoggerFactory;
 public class ApiResponseSerializer {
     private static final Logger s_logger = LoggerFactory.getLogger(ApiResponseSerializer.class.getName());
 
+    /**
+     * Number of characters of a response that end up in the secure log; the rest is dropped.
+     */
+    public static final int MAX_LOG_LENGTH = 64 * 1024;
+
     public static String toSerializedString(ResponseObject result, String responseType) {
-        s_logger.trace("===Serializing Response===");
-        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result, new StringBuilder());
-        } else {
-            return toXMLSerializedString(result, new StringBuilder());
-        }
+        return toSerializedStringWithSecureLogs(result, responseType, new StringBuilder());
     }
 
     public static String toSerializedStringWithSecureLogs(ResponseObject result, String responseType, StringBuilder log) {
+        if (result == null || log == null) {
+            return null;
+        }
+        final StringWriter out = new StringWriter();
+        try {
+            serialize(result, responseType, out, log);
+        } catch (final IOException e) {
+            throw new CloudRuntimeException("Unable to serialize response " + result.getResponseName(), e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serializes the response straight to out, e.g. the writer of the HTTP response, while the secure
+     * log, i.e. the response without sensitive fields, is derived in the same pass and truncated at
+     * MAX_LOG_LENGTH characters.  Elements of list responses are written out one at a time, so large
+     * lists never exist as a whole in memory.
+     */
+    public static void serialize(ResponseObject result, String responseType, Writer out, StringBuilder log) throws IOException {
         s_logger.trace("===Serializing Response===");
+        final LogWriter logWriter = new LogWriter(log, MAX_LOG_LENGTH);
         if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result, log);
+            toJSON(result, out, logWriter);
         } else {
-            return toXMLSerializedString(result, log);
+            toXML(result, out, logWriter);
         }
+        out.flush();
     }
 
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
@@ -85,126 +119,341 @@ public class ApiResponseSerializer {
     }
 
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
-        if (result != null && log != null) {
-            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-
-            StringBuilder sb = new StringBuilder();
-
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            log.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+        return toSerializedStringWithSecureLogs(result, HttpUtils.RESPONSE_TYPE_JSON, log);
+    }
+
+    private static void toJSON(ResponseObject result, Writer writer, LogWriter logWriter) throws IOException {
+        // Not HTML safe, the response used to be unescaped after serializing
+        final JsonWriter out = new JsonWriter(writer);
+        JsonWriter log = new JsonWriter(logWriter);
+        final Gson gson = ApiResponseGsonHelper.getGson();
+
+        out.beginObject().name(result.getResponseName());
+        log.beginObject().name(result.getResponseName());
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            out.beginObject();
+            log.beginObject();
+            if (nonZeroCount) {
+                out.name(ApiConstants.COUNT).value(count);
+                log.name(ApiConstants.COUNT).value(count);
+                String nextStartAfter = ((ListResponse)result).getNextStartAfter();
+                if (nextStartAfter != null) {
+                    out.name(ApiConstants.NEXT_START_AFTER).value(nextStartAfter);
+                    log.name(ApiConstants.NEXT_START_AFTER).value(nextStartAfter);
                 }
 
                 if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = responseBuilder.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-                    String logStr = logBuilder.toJson(responses.get(0));
-                    logStr = unescape(logStr);
-
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                        log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
-                    }
-
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = responseBuilder.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        logStr = logBuilder.toJson(responses.get(i));
-                        logStr = unescape(logStr);
-                        sb.append(",").append(jsonStr);
-                        log.append(",").append(logStr);
+                    out.name(responses.get(0).getObjectName()).beginArray();
+                    log.name(responses.get(0).getObjectName()).beginArray();
+                    for (ResponseObject response : responses) {
+                        if (log != null && logWriter.isTruncated()) {
+                            log = null;
+                        }
+                        writeJsonTree(gson.toJsonTree(response), out, log, getSensitiveFields(response.getClass()));
                     }
-                    sb.append("]}");
-                    log.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                        log.append("{");
+                    out.endArray();
+                    if (log != null) {
+                        log.endArray();
                     }
+                }
+            }
+            out.endObject();
+            if (log != null) {
+                log.endObject();
+            }
+        } else if (result instanceof SuccessResponse) {
+            out.beginObject().name("success").value(String.valueOf(((SuccessResponse)result).getSuccess())).endObject();
+            log.beginObject().name("success").value(String.valueOf(((SuccessResponse)result).getSuccess())).endObject();
+        } else if (result instanceof ExceptionResponse) {
+            writeJsonTree(gson.toJsonTree(result), out, log, null);
+        } else {
+            final boolean wrap = !(result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse);
+            if (wrap) {
+                out.beginObject().name(result.getObjectName());
+                log.beginObject().name(result.getObjectName());
+            }
+            writeJsonTree(gson.toJsonTree(result), out, log, getSensitiveFields(result.getClass()));
+            if (wrap) {
+                out.endObject();
+                log.endObject();
+            }
+        }
+        out.endObject();
+        if (log != null) {
+            log.endObject();
+        }
+        out.flush();
+        if (log != null) {
+            log.flush();
+        }
+    }
 
-                    sb.append("}");
-                    log.append("}");
+    /**
+     * Writes the element to out and, without the sensitive fields, to log if not null.
+     */
+    private static void writeJsonTree(JsonElement element, JsonWriter out, JsonWriter log, SensitiveFields sensitiveFields) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            out.nullValue();
+            if (log != null) {
+                log.nullValue();
+            }
+        } else if (element.isJsonPrimitive()) {
+            final JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isString()) {
+                out.value(primitive.getAsString());
+                if (log != null) {
+                    log.value(primitive.getAsString());
+                }
+            } else if (primitive.isBoolean()) {
+                out.value(primitive.getAsBoolean());
+                if (log != null) {
+                    log.value(primitive.getAsBoolean());
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
-                log.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
-            } else if (result instanceof ExceptionResponse) {
-                String jsonErrorText = responseBuilder.toJson(result);
-                jsonErrorText = unescape(jsonErrorText);
-                sb.append(jsonErrorText);
-                log.append(jsonErrorText);
             } else {
-                String jsonStr = responseBuilder.toJson(result);
-                if (jsonStr != null && !jsonStr.isEmpty()) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
-                } else {
-                    sb.append("{}");
+                out.value(primitive.getAsNumber());
+                if (log != null) {
+                    log.value(primitive.getAsNumber());
                 }
-                String logStr = logBuilder.toJson(result);
-                if (logStr != null && !logStr.isEmpty()) {
-                    logStr = unescape(logStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        log.append(logStr);
-                    } else {
-                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
+            }
+        } else if (element.isJsonArray()) {
+            out.beginArray();
+            if (log != null) {
+                log.beginArray();
+            }
+            for (JsonElement child : element.getAsJsonArray()) {
+                writeJsonTree(child, out, log, sensitiveFields);
+            }
+            out.endArray();
+            if (log != null) {
+                log.endArray();
+            }
+        } else {
+            out.beginObject();
+            if (log != null) {
+                log.beginObject();
+            }
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                out.name(entry.getKey());
+                if (log == null || sensitiveFields == null) {
+                    if (log != null) {
+                        log.name(entry.getKey());
                     }
+                    writeJsonTree(entry.getValue(), out, log, null);
+                } else if (sensitiveFields._names.contains(entry.getKey())) {
+                    writeJsonTree(entry.getValue(), out, null, null);
                 } else {
-                    log.append("{}");
+                    log.name(entry.getKey());
+                    writeJsonTree(entry.getValue(), out, log, sensitiveFields._nested.get(entry.getKey()));
                 }
             }
-            sb.append("}");
-            log.append("}");
-            return sb.toString();
+            out.endObject();
+            if (log != null) {
+                log.endObject();
+            }
         }
-        return null;
     }
 
-    private static String toXMLSerializedString(ResponseObject result, StringBuilder log) {
-        if (result != null && log != null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
-            log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+    /**
+     * Serialized names of the fields of a response class that are left out of the log, and of the fields
+     * holding other responses that have such fields themselves.
+     */
+    private static class SensitiveFields {
+        final Set<String> _names = new HashSet<String>();
+        final Map<String, SensitiveFields> _nested = new HashMap<String, SensitiveFields>();
+    }
 
-            if (result instanceof ListResponse) {
-                Integer count = ((ListResponse)result).getCount();
+    private static final SensitiveFields NO_SENSITIVE_FIELDS = new SensitiveFields();
+    private static final Map<Class<?>, SensitiveFields> s_sensitiveFields = new ConcurrentHashMap<Class<?>, SensitiveFields>();
+
+    /**
+     * @return the sensitive fields of the class, or null if none can be reached from it.
+     */
+    private static SensitiveFields getSensitiveFields(Class<?> clz) {
+        SensitiveFields fields = s_sensitiveFields.get(clz);
+        if (fields == null) {
+            final Map<Class<?>, SensitiveFields> found = new HashMap<Class<?>, SensitiveFields>();
+            findSensitiveFields(clz, found);
+            s_sensitiveFields.putAll(found);
+            fields = found.get(clz);
+        }
+        return fields == NO_SENSITIVE_FIELDS ? null : fields;
+    }
 
-                if (count != null && count != 0) {
-                    sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                    log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+    private static SensitiveFields findSensitiveFields(Class<?> clz, Map<Class<?>, SensitiveFields> found) {
+        SensitiveFields fields = s_sensitiveFields.get(clz);
+        if (fields == null) {
+            fields = found.get(clz);
+        }
+        if (fields != null) {
+            return fields;
+        }
+        fields = new SensitiveFields();
+        // Cyclic references are not followed
+        found.put(clz, NO_SENSITIVE_FIELDS);
+
+        for (Field field : getFlattenFields(clz)) {
+            if ((field.getModifiers() & (Modifier.TRANSIENT | Modifier.STATIC)) != 0) {
+                continue;
+            }
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            String name = serializedName != null ? serializedName.value() : field.getName();
+            Param param = field.getAnnotation(Param.class);
+            if (param != null && param.isSensitive()) {
+                fields._names.add(name);
+                continue;
+            }
+            Class<?> type = getResponseType(field);
+            if (type != null) {
+                SensitiveFields nested = findSensitiveFields(type, found);
+                if (nested != NO_SENSITIVE_FIELDS) {
+                    fields._nested.put(name, nested);
                 }
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                if ((responses != null) && !responses.isEmpty()) {
-                    for (ResponseObject obj : responses) {
-                        serializeResponseObjXML(sb, log, obj);
-                    }
+            }
+        }
+
+        if (fields._names.isEmpty() && fields._nested.isEmpty()) {
+            fields = NO_SENSITIVE_FIELDS;
+        }
+        found.put(clz, fields);
+        return fields;
+    }
+
+    /**
+     * @return the response class held by the field, itself or as element of a collection or array.
+     */
+    private static Class<?> getResponseType(Field field) {
+        Class<?> type = field.getType();
+        if (type.isArray()) {
+            type = type.getComponentType();
+        } else if (Collection.class.isAssignableFrom(type)) {
+            type = null;
+            Type genericType = field.getGenericType();
+            if (genericType instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType)genericType).getActualTypeArguments();
+                if (arguments.length == 1 && arguments[0] instanceof Class) {
+                    type = (Class<?>)arguments[0];
                 }
-            } else {
-                if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
-                    serializeResponseObjFieldsXML(sb, log, result);
-                } else {
-                    serializeResponseObjXML(sb, log, result);
+            }
+        }
+        // Fields declared as ResponseObject are serialized through ResponseObjectTypeAdapter, which does not filter them either
+        if (type != null && ResponseObject.class.isAssignableFrom(type) && type != ResponseObject.class) {
+            return type;
+        }
+        return null;
+    }
+
+    private static void toXML(ResponseObject result, Writer out, LogWriter log) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder logSb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+        logSb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        logSb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+
+        if (result instanceof ListResponse) {
+            Integer count = ((ListResponse)result).getCount();
+
+            if (count != null && count != 0) {
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                logSb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+            }
+            String nextStartAfter = ((ListResponse)result).getNextStartAfter();
+            if (nextStartAfter != null) {
+                sb.append("<").append(ApiConstants.NEXT_START_AFTER).append(">").append(nextStartAfter).append("</").append(ApiConstants.NEXT_START_AFTER).append(">");
+                logSb.append("<").append(ApiConstants.NEXT_START_AFTER).append(">").append(nextStartAfter).append("</").append(ApiConstants.NEXT_START_AFTER).append(">");
+            }
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            if ((responses != null) && !responses.isEmpty()) {
+                for (ResponseObject obj : responses) {
+                    serializeResponseObjXML(sb, logSb, obj);
+                    flush(sb, out, logSb, log);
                 }
             }
+        } else {
+            if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
+                serializeResponseObjFieldsXML(sb, logSb, result);
+            } else {
+                serializeResponseObjXML(sb, logSb, result);
+            }
+        }
+
+        sb.append("</").append(result.getResponseName()).append(">");
+        logSb.append("</").append(result.getResponseName()).append(">");
+        flush(sb, out, logSb, log);
+    }
 
-            sb.append("</").append(result.getResponseName()).append(">");
-            log.append("</").append(result.getResponseName()).append(">");
-            return sb.toString();
+    private static void flush(StringBuilder sb, Writer out, StringBuilder logSb, LogWriter log) throws IOException {
+        out.append(sb);
+        sb.setLength(0);
+        log.append(logSb);
+        logSb.setLength(0);
+    }
+
+    /**
+     * Appends to the log up to a maximum length, and marks the log as truncated beyond it.
+     */
+    private static class LogWriter extends Writer {
+        private final StringBuilder _log;
+        private int _remaining;
+        private boolean _truncated;
+
+        LogWriter(StringBuilder log, int maxLength) {
+            _log = log;
+            _remaining = maxLength;
+        }
+
+        boolean isTruncated() {
+            return _truncated;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (_truncated) {
+                return;
+            }
+            if (len > _remaining) {
+                _log.append(cbuf, off, _remaining).append("... (truncated)");
+                _remaining = 0;
+                _truncated = true;
+                return;
+            }
+            _log.append(cbuf, off, len);
+            _remaining -= len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            if (_truncated) {
+                return;
+            }
+            if (len > _remaining) {
+                _log.append(str, off, off + _remaining).append("... (truncated)");
+                _remaining = 0;
+                _truncated = true;
+                return;
+            }
+            _log.append(str, off, off + len);
+            _remaining -= len;
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            if (csq != null) {
+                write(csq.toString(), 0, csq.length());
+            }
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
         }
-        return null;
     }
 
     private static void serializeResponseObjXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
@@ -17,7 +17,9 @@
 package com.cloud.capacity;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -737,8 +739,10 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             }
 
             try {
-                _capacityDao.update(cpuCap.getId(), cpuCap);
-                _capacityDao.update(memCap.getId(), memCap);
+                Map<Long, CapacityVO> capacities = new LinkedHashMap<Long, CapacityVO>();
+                capacities.put(cpuCap.getId(), cpuCap);
+                capacities.put(memCap.getId(), memCap);
+                _capacityDao.updateBatch(capacities);
             } catch (Exception e) {
                 s_logger.error("Caught exception while updating cpu/memory capacity for the host " + host.getId(), e);
             }
@@ -750,19 +754,18 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
                 public void doInTransactionWithoutResult(TransactionStatus status) {
-                    CapacityVO capacity =
+                    CapacityVO memory =
                         new CapacityVO(host.getId(), host.getDataCenterId(), host.getPodId(), host.getClusterId(), usedMemoryFinal, host.getTotalMemory(),
                             Capacity.CAPACITY_TYPE_MEMORY);
-                    capacity.setReservedCapacity(reservedMemoryFinal);
-                    capacity.setCapacityState(capacityState);
-                    _capacityDao.persist(capacity);
+                    memory.setReservedCapacity(reservedMemoryFinal);
+                    memory.setCapacityState(capacityState);
 
-                    capacity =
+                    CapacityVO cpu =
                         new CapacityVO(host.getId(), host.getDataCenterId(), host.getPodId(), host.getClusterId(), usedCpuFinal, host.getCpus().longValue() *
                             host.getSpeed().longValue(), Capacity.CAPACITY_TYPE_CPU);
-                    capacity.setReservedCapacity(reservedCpuFinal);
-                    capacity.setCapacityState(capacityState);
-                    _capacityDao.persist(capacity);
+                    cpu.setReservedCapacity(reservedCpuFinal);
+                    cpu.setCapacityState(capacityState);
+                    _capacityDao.persistBatch(Arrays.asList(memory, cpu));
                 }
             });
 
@@ -581,6 +581,30 @@ public enum Config {
             null),
     HostRetry("Advanced", AgentManager.class, Integer.class, "host.retry", "2", "Number of times to retry hosts for creating a volume", null),
     IntegrationAPIPort("Advanced", ManagementServer.class, Integer.class, "integration.api.port", null, "Default API port", null),
+    IntegrationAPINio(
+            "Advanced",
+            ManagementServer.class,
+            Boolean.class,
+            "integration.api.nio",
+            "false",
+            "Serve the integration API port from a non-blocking HTTP server that hands requests to a bounded worker pool",
+            null),
+    IntegrationAPIWorkers(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.workers",
+            "50",
+            "Number of threads handling requests on the integration API port when integration.api.nio is true",
+            null),
+    IntegrationAPIQueueSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "integration.api.queue.size",
+            "500",
+            "Number of requests waiting for a worker on the integration API port before it answers 503 Service Unavailable",
+            null),
     InvestigateRetryInterval(
             "Advanced",
             HighAvailabilityManager.class,
@@ -863,6 +887,22 @@ public enum Config {
             "60000",
             "The interval (in milliseconds) when vm stats are retrieved from agents.",
             null),
+    StatsCollectorConcurrency(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.collector.concurrency",
+            "16",
+            "Maximum number of hosts the host and vm stats collectors retrieve stats from at the same time.",
+            null),
+    StatsCollectorHostTimeout(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.collector.host.timeout",
+            "30000",
+            "Time (in milliseconds) the host and vm stats collectors wait for a single host before skipping it.",
+            null),
     VmDiskStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.disk.stats.interval", "0", "Interval (in seconds) to report vm disk statistics.", null),
     VmTransitionWaitInterval(
             "Advanced",
@@ -1732,6 +1772,22 @@ public enum Config {
 
     // StatsCollector
     StatsOutPutGraphiteHost("Advanced", ManagementServer.class, String.class, "stats.output.uri", "", "URI to additionally send StatsCollector statistics to", null),
+    StatsOutputPrometheus(
+            "Advanced",
+            ManagementServer.class,
+            Boolean.class,
+            "stats.output.prometheus",
+            "false",
+            "Serve StatsCollector statistics in the Prometheus text format from the metrics servlet of the management server",
+            null),
+    StatsOutputPrometheusAllowedCidrs(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "stats.output.prometheus.allowed.cidrs",
+            "127.0.0.1/32",
+            "Comma separated list of IPv4 CIDRs of the clients allowed to read the Prometheus statistics from the metrics servlet",
+            null),
 
     SSVMPSK("Hidden", ManagementServer.class, String.class, "upload.post.secret.key", "", "PSK with SSVM", null);
 
@@ -0,0 +1,230 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+
+/**
+ * Hands the HA work items claimed by this management server to the HA workers.
+ * The items are ordered by how urgent their work type is, then by how far along
+ * their work is and finally by when they are due.  Scheduling new work signals
+ * the claimer instead of having every worker poll the work table.
+ *
+ * The claimer only takes as many items as there are workers waiting for one, so
+ * an item doesn't sit claimed in memory while its row may still be cancelled or
+ * changed in the database.
+ */
+public class HaWorkQueue extends StandardMBean implements HaWorkQueueMBean {
+    private final PriorityQueue<HaWorkVO> _queue = new PriorityQueue<HaWorkVO>(64, new WorkComparator());
+    private boolean _claimRequested;
+    private boolean _moreToClaim;
+    private boolean _stopped;
+    private int _idleWorkers;
+
+    private final AtomicLong _claimRequests = new AtomicLong();
+    private final AtomicLong _claimed = new AtomicLong();
+    private final AtomicLong _dispatched = new AtomicLong();
+    private final AtomicLong _firstActions = new AtomicLong();
+    private final AtomicLong _firstActionMillis = new AtomicLong();
+    private final AtomicLong _maxFirstActionMillis = new AtomicLong();
+
+    public HaWorkQueue() {
+        super(HaWorkQueueMBean.class, false);
+    }
+
+    public synchronized void requestClaim() {
+        _claimRequests.incrementAndGet();
+        _claimRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for someone to ask for a claim.
+     *
+     * @param timeoutMillis most time to wait; 0 or less to wait until asked.
+     * @return true if a claim was asked for, false on timeout or stop.
+     */
+    public synchronized boolean awaitClaimRequest(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!_claimRequested && !_stopped) {
+            if (timeoutMillis <= 0) {
+                wait();
+                continue;
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        final boolean requested = _claimRequested;
+        _claimRequested = false;
+        return requested && !_stopped;
+    }
+
+    /**
+     * @return how many items to claim: one for each waiting worker that no queued item is for yet.
+     */
+    public synchronized int getClaimableCount() {
+        return Math.max(_idleWorkers - _queue.size(), 0);
+    }
+
+    /**
+     * @param items work items just claimed.
+     * @param moreToClaim whether the claim was cut short and there may be more due work to claim,
+     * which is then claimed as soon as a worker waits with nothing queued.
+     */
+    public synchronized void addClaimed(final List<HaWorkVO> items, final boolean moreToClaim) {
+        _moreToClaim = moreToClaim;
+        if (items.isEmpty()) {
+            return;
+        }
+        _claimed.addAndGet(items.size());
+        _queue.addAll(items);
+        notifyAll();
+    }
+
+    /**
+     * @return the most urgent work item, or null if there was none within the timeout or the queue is stopped.
+     */
+    public synchronized HaWorkVO take(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        _idleWorkers++;
+        try {
+            if (_queue.isEmpty() && _moreToClaim) {
+                _moreToClaim = false;
+                _claimRequests.incrementAndGet();
+                _claimRequested = true;
+                notifyAll();
+            }
+            while (_queue.isEmpty() && !_stopped) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(remaining);
+            }
+        } finally {
+            _idleWorkers--;
+        }
+        if (_stopped) {
+            return null;
+        }
+
+        final HaWorkVO work = _queue.poll();
+        _dispatched.incrementAndGet();
+        if (work.getTimesTried() == 0 && work.getCreated() != null) {
+            recordFirstAction(System.currentTimeMillis() - work.getCreated().getTime());
+        }
+        return work;
+    }
+
+    public synchronized void stop() {
+        _stopped = true;
+        notifyAll();
+    }
+
+    private void recordFirstAction(final long millis) {
+        _firstActions.incrementAndGet();
+        _firstActionMillis.addAndGet(millis);
+        long max = _maxFirstActionMillis.get();
+        while (millis > max && !_maxFirstActionMillis.compareAndSet(max, millis)) {
+            max = _maxFirstActionMillis.get();
+        }
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        return _queue.size();
+    }
+
+    @Override
+    public synchronized int getIdleWorkerCount() {
+        return _idleWorkers;
+    }
+
+    @Override
+    public long getClaimRequestCount() {
+        return _claimRequests.get();
+    }
+
+    @Override
+    public long getClaimedCount() {
+        return _claimed.get();
+    }
+
+    @Override
+    public long getDispatchedCount() {
+        return _dispatched.get();
+    }
+
+    @Override
+    public double getAverageTimeToFirstActionMillis() {
+        final long count = _firstActions.get();
+        return count == 0 ? 0 : (double)_firstActionMillis.get() / count;
+    }
+
+    @Override
+    public long getMaxTimeToFirstActionMillis() {
+        return _maxFirstActionMillis.get();
+    }
+
+    protected static int rank(final WorkType type) {
+        switch (type) {
+        case HA:
+            return 0;
+        case ForceStop:
+            return 1;
+        case Stop:
+        case CheckStop:
+            return 2;
+        case Destroy:
+            return 3;
+        case Migration:
+            return 4;
+        }
+        return 5;
+    }
+
+    protected static class WorkComparator implements Comparator<HaWorkVO> {
+        @Override
+        public int compare(final HaWorkVO o1, final HaWorkVO o2) {
+            int result = Integer.compare(rank(o1.getWorkType()), rank(o2.getWorkType()));
+            if (result != 0) {
+                return result;
+            }
+            // Finish what has been started before starting anything new
+            result = Integer.compare(o2.getStep().ordinal(), o1.getStep().ordinal());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(o1.getTimeToTry(), o2.getTimeToTry());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    }
+}
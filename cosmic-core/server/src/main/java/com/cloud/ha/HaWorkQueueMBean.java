@@ -0,0 +1,42 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+public interface HaWorkQueueMBean {
+    /**
+     * @return number of work items claimed by this management server and waiting for a worker.
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return number of HA workers waiting for a work item.
+     */
+    public int getIdleWorkerCount();
+
+    public long getClaimRequestCount();
+
+    public long getClaimedCount();
+
+    public long getDispatchedCount();
+
+    /**
+     * @return average time from scheduling a work item to a worker first picking it up.
+     */
+    public double getAverageTimeToFirstActionMillis();
+
+    public long getMaxTimeToFirstActionMillis();
+}
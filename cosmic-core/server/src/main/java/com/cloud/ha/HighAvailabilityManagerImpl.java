@@ -17,6 +17,7 @@
 package com.cloud.ha;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -62,7 +63,9 @@ import com.cloud.user.AccountManager;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
@@ -80,8 +83,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * HighAvailabilityManagerImpl coordinates the HA process. VMs are registered with the HA Manager for HA. The request is stored
- * within a database backed work queue. HAManager has a number of workers that pick up these work items to perform HA on the
- * VMs.
+ * within a database backed work queue. Scheduling work wakes up a claimer that takes the due work items in batches and hands
+ * them, most urgent first, to a number of workers that perform HA on the VMs.
  *
  * The HA process goes as follows: 1. Check with the list of Investigators to determine that the VM is no longer running. If a
  * Investigator finds the VM is still alive, the HA process is stopped and the state of the VM reverts back to its previous
@@ -93,7 +96,7 @@ import org.slf4j.LoggerFactory;
  * the VM.
  *
  * @config {@table || Param Name | Description | Values | Default || || workers | number of worker threads to spin off to do the
- *         processing | int | 1 || || time.to.sleep | Time to sleep if no work items are found | seconds | 60 || || max.retries
+ *         processing | int | 1 || || max.retries
  *         | number of times to retry start | int | 5 || || time.between.failure | Time elapsed between failures before we
  *         consider it as another retry | seconds | 3600 || || time.between.cleanup | Time to wait before the cleanup thread
  *         runs | seconds | 86400 || || force.ha | Force HA to happen even if the VM says no | boolean | false || ||
@@ -104,8 +107,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
   protected static final Logger s_logger = LoggerFactory.getLogger(HighAvailabilityManagerImpl.class);
   WorkerThread[] _workers;
-  boolean _stopped;
-  long _timeToSleep;
+  ClaimThread _claimer;
+  final HaWorkQueue _workQueue = new HaWorkQueue();
+  volatile boolean _stopped;
   @Inject
   HighAvailabilityDao _haDao;
   @Inject
@@ -291,9 +295,13 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
   }
 
   protected void wakeupWorkers() {
-    for (final WorkerThread worker : _workers) {
-      worker.wakup();
-    }
+    // The claimer runs in its own transaction so it can only see the work once it is committed
+    TransactionLegacy.runAfterCurrentCommit(new Runnable() {
+      @Override
+      public void run() {
+        _workQueue.requestClaim();
+      }
+    });
   }
 
   @Override
@@ -802,6 +810,11 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
       work.setStep(Step.Done);
     }
     _haDao.update(work.getId(), work);
+
+    if (!Step.Done.equals(work.getStep())) {
+      // Released for a retry, let the claimer know when it is due
+      _workQueue.requestClaim();
+    }
   }
 
   @Override
@@ -817,13 +830,11 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     for (int i = 0; i < _workers.length; i++) {
       _workers[i] = new WorkerThread("HA-Worker-" + i);
     }
+    _claimer = new ClaimThread("HA-Claimer");
 
     value = params.get("force.ha");
     _forceHA = Boolean.parseBoolean(value);
 
-    value = params.get("time.to.sleep");
-    _timeToSleep = (long)NumbersUtil.parseInt(value, 60) * 1000;
-
     value = params.get("max.retries");
     _maxRetries = NumbersUtil.parseInt(value, 5);
 
@@ -868,6 +879,14 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     for (final WorkerThread thread : _workers) {
       thread.start();
     }
+    _claimer.start();
+    _workQueue.requestClaim();
+
+    try {
+      JmxUtil.registerMBean("HighAvailabilityManager", "Work Queue", _workQueue);
+    } catch (final Exception e) {
+      s_logger.warn("Unable to register HA work queue MBean", e);
+    }
 
     _executor.scheduleAtFixedRate(new CleanupTask(), _timeBetweenCleanups, _timeBetweenCleanups, TimeUnit.SECONDS);
 
@@ -878,7 +897,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
   public boolean stop() {
     _stopped = true;
 
-    wakeupWorkers();
+    _workQueue.stop();
 
     _executor.shutdown();
 
@@ -920,23 +939,16 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     private void runWithContext() {
       HaWorkVO work = null;
       try {
-        s_logger.trace("Checking the database for work");
-        work = _haDao.take(_serverId);
+        work = _workQueue.take(1, TimeUnit.MINUTES);
         if (work == null) {
-          try {
-            synchronized (this) {
-              wait(_timeToSleep);
-            }
-            return;
-          } catch (final InterruptedException e) {
-            s_logger.info("Interrupted");
-            return;
-          }
+          return;
         }
 
         NDC.push("work-" + work.getId());
         s_logger.info("Processing work " + work);
         processWork(work);
+      } catch (final InterruptedException e) {
+        s_logger.info("Interrupted");
       } catch (final Throwable th) {
         s_logger.error("Caught this throwable, ", th);
       } finally {
@@ -945,9 +957,65 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
       }
     }
+  }
+
+  /**
+   * Takes the due work items off the database in batches whenever work is scheduled, released or taken over
+   * from a management server that left, and sleeps until the next released item is due otherwise.
+   */
+  protected class ClaimThread extends Thread {
+    private long _nextClaimMillis;
+
+    public ClaimThread(String name) {
+      super(name);
+    }
+
+    @Override
+    public void run() {
+      s_logger.info("Starting to claim work");
+      while (!_stopped) {
+        try {
+          final long timeout = _nextClaimMillis == 0 ? 0 : Math.max(_nextClaimMillis - System.currentTimeMillis(), 1);
+          _workQueue.awaitClaimRequest(timeout);
+        } catch (final InterruptedException e) {
+          s_logger.info("Interrupted");
+        }
+        if (_stopped) {
+          break;
+        }
+        _managedContext.runWithContext(new Runnable() {
+          @Override
+          public void run() {
+            runWithContext();
+          }
+        });
+      }
+      s_logger.info("Time to go home!");
+    }
+
+    private void runWithContext() {
+      try {
+        // Only claim what the idle workers start on right away, anything claimed earlier could be cancelled meanwhile
+        final int batchSize = _workQueue.getClaimableCount();
+        if (batchSize == 0) {
+          // The next worker to be done asks for a claim
+          _workQueue.addClaimed(Collections.<HaWorkVO>emptyList(), true);
+          _nextClaimMillis = 0;
+          return;
+        }
+        s_logger.trace("Checking the database for work");
+        final List<HaWorkVO> claimed = _haDao.take(_serverId, batchSize);
+        _workQueue.addClaimed(claimed, claimed.size() == batchSize);
+        if (!claimed.isEmpty() && s_logger.isDebugEnabled()) {
+          s_logger.debug("Claimed " + claimed.size() + " HA work items");
+        }
 
-    public synchronized void wakup() {
-      notifyAll();
+        final Long nextTimeToTry = _haDao.findNextTimeToTry();
+        _nextClaimMillis = nextTimeToTry == null ? 0 : Math.max(nextTimeToTry << 10, System.currentTimeMillis() + 1000);
+      } catch (final Throwable th) {
+        s_logger.error("Unable to claim HA work", th);
+        _nextClaimMillis = System.currentTimeMillis() + 10000;
+      }
     }
   }
 
@@ -960,6 +1028,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     for (final ManagementServerHost node : nodeList) {
       _haDao.releaseWorkItems(node.getMsid());
     }
+    _workQueue.requestClaim();
   }
 
   @Override
@@ -25,12 +25,19 @@ import com.cloud.utils.db.GenericDao;
 public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
 
     /**
-     * Takes an available HA work item.
+     * Takes up to maxItems available HA work items in one transaction.
      *
-     * @param serverId server that is taking this.
-     * @return WorkVO if there's one to work on; null if none.
+     * @param serverId server that is taking them.
+     * @param maxItems most items to take.
+     * @return the items taken, oldest first; empty list if none.
      */
-    HaWorkVO take(long serverId);
+    List<HaWorkVO> take(long serverId, int maxItems);
+
+    /**
+     * @return the time to try, in the same unit as HaWorkVO.getTimeToTry(), of the earliest
+     * work item that nobody has taken; null if there is none.
+     */
+    Long findNextTimeToTry();
 
     /**
      * Finds all the work items related to this instance.
@@ -16,8 +16,11 @@
 // under the License.
 package com.cloud.ha.dao;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.cloud.ha.HaWorkVO;
 import com.cloud.ha.HighAvailabilityManager.Step;
@@ -39,6 +42,7 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
     private static final Logger s_logger = LoggerFactory.getLogger(HighAvailabilityDaoImpl.class);
 
     private final SearchBuilder<HaWorkVO> TBASearch;
+    private final SearchBuilder<HaWorkVO> UntakenSearch;
     private final SearchBuilder<HaWorkVO> PreviousInstanceSearch;
     private final SearchBuilder<HaWorkVO> UntakenMigrationSearch;
     private final SearchBuilder<HaWorkVO> CleanupSearch;
@@ -64,6 +68,12 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         TBASearch.and("step", TBASearch.entity().getStep(), Op.NIN);
         TBASearch.done();
 
+        UntakenSearch = createSearchBuilder();
+        UntakenSearch.and("server", UntakenSearch.entity().getServerId(), Op.NULL);
+        UntakenSearch.and("taken", UntakenSearch.entity().getDateTaken(), Op.NULL);
+        UntakenSearch.and("step", UntakenSearch.entity().getStep(), Op.NIN);
+        UntakenSearch.done();
+
         PreviousInstanceSearch = createSearchBuilder();
         PreviousInstanceSearch.and("instance", PreviousInstanceSearch.entity().getInstanceId(), Op.EQ);
         PreviousInstanceSearch.done();
@@ -145,37 +155,51 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
     }
 
     @Override
-    public HaWorkVO take(final long serverId) {
+    public List<HaWorkVO> take(final long serverId, final int maxItems) {
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
             final SearchCriteria<HaWorkVO> sc = TBASearch.create();
             sc.setParameters("time", System.currentTimeMillis() >> 10);
             sc.setParameters("step", Step.Done, Step.Cancelled);
 
-            final Filter filter = new Filter(HaWorkVO.class, null, true, 0l, 1l);
+            final Filter filter = new Filter(HaWorkVO.class, "timeToTry", true, 0l, (long)maxItems);
+            filter.addOrderBy(HaWorkVO.class, "id", true);
 
             txn.start();
             final List<HaWorkVO> vos = lockRows(sc, filter, true);
             if (vos.size() == 0) {
                 txn.commit();
-                return null;
+                return Collections.emptyList();
             }
 
-            final HaWorkVO work = vos.get(0);
-            work.setServerId(serverId);
-            work.setDateTaken(new Date());
-
-            update(work.getId(), work);
+            final Date taken = new Date();
+            final Map<Long, HaWorkVO> updates = new LinkedHashMap<Long, HaWorkVO>();
+            for (final HaWorkVO work : vos) {
+                work.setServerId(serverId);
+                work.setDateTaken(taken);
+                updates.put(work.getId(), work);
+            }
+            updateBatch(updates);
 
             txn.commit();
 
-            return work;
+            return vos;
 
         } catch (final Throwable e) {
             throw new CloudRuntimeException("Unable to execute take", e);
         }
     }
 
+    @Override
+    public Long findNextTimeToTry() {
+        final SearchCriteria<HaWorkVO> sc = UntakenSearch.create();
+        sc.setParameters("step", Step.Done, Step.Cancelled);
+
+        final Filter filter = new Filter(HaWorkVO.class, "timeToTry", true, 0l, 1l);
+        final List<HaWorkVO> vos = listBy(sc, filter);
+        return vos.isEmpty() ? null : vos.get(0).getTimeToTry();
+    }
+
     @Override
     public List<HaWorkVO> findPreviousHA(final long instanceId) {
         final SearchCriteria<HaWorkVO> sc = PreviousInstanceSearch.create();
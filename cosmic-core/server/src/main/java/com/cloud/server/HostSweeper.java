@@ -0,0 +1,252 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import com.cloud.host.Host;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.mgmt.LatencyHistogram;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a task against a list of hosts, at most a fixed number of hosts at a time,
+ * and gives up waiting on a host once its task has run for longer than the host timeout.
+ * The tasks are expected to publish their own results so they become visible as soon as
+ * each host answers.  A host is left out of a sweep for as long as its task from an
+ * earlier sweep is still running.
+ */
+public class HostSweeper extends StandardMBean implements HostSweeperMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(HostSweeper.class);
+
+    private final String _name;
+    private final int _concurrency;
+    private final long _hostTimeoutMillis;
+    private final ThreadPoolExecutor _executor;
+    private final Set<Long> _inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicLong _sweeps = new AtomicLong();
+    private volatile int _lastSweepHosts;
+    private volatile long _lastSweepMillis;
+    private final AtomicLong _maxSweepMillis = new AtomicLong();
+    private final AtomicLong _skipped = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+    private final LatencyHistogram _latencies = new LatencyHistogram();
+
+    public interface HostTask<H extends Host> {
+        /**
+         * @return true if the host answered and its results have been published.
+         */
+        boolean collect(H host) throws Exception;
+    }
+
+    public HostSweeper(final String name, final int concurrency, final long hostTimeoutMillis) {
+        super(HostSweeperMBean.class, false);
+        _name = name;
+        _concurrency = Math.max(concurrency, 1);
+        _hostTimeoutMillis = hostTimeoutMillis;
+        _executor = new ThreadPoolExecutor(_concurrency, _concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task against all the hosts and waits for them to answer or time out.
+     *
+     * @return ids of the hosts whose task succeeded.
+     */
+    public <H extends Host> Set<Long> sweep(final List<H> hosts, final HostTask<H> task) {
+        final long start = System.currentTimeMillis();
+        final Set<Long> collected = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final List<HostCall<H>> calls = new ArrayList<HostCall<H>>(hosts.size());
+        for (final H host : hosts) {
+            if (!_inFlight.add(host.getId())) {
+                s_logger.debug(_name + " skips host " + host.getId() + " as it has not answered the previous sweep yet");
+                _skipped.incrementAndGet();
+                continue;
+            }
+            final HostCall<H> call = new HostCall<H>(host, task, collected);
+            try {
+                call._future = _executor.submit(call);
+                calls.add(call);
+            } catch (final RejectedExecutionException e) {
+                _inFlight.remove(host.getId());
+                _skipped.incrementAndGet();
+            }
+        }
+
+        for (final HostCall<H> call : calls) {
+            call.await();
+        }
+
+        final long millis = System.currentTimeMillis() - start;
+        _sweeps.incrementAndGet();
+        _lastSweepHosts = hosts.size();
+        _lastSweepMillis = millis;
+        long max = _maxSweepMillis.get();
+        while (millis > max && !_maxSweepMillis.compareAndSet(max, millis)) {
+            max = _maxSweepMillis.get();
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(_name + " swept " + collected.size() + " of " + hosts.size() + " hosts in " + millis + " ms");
+        }
+        return collected;
+    }
+
+    public void shutdown() {
+        _executor.shutdownNow();
+    }
+
+    @Override
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    @Override
+    public long getHostTimeoutMillis() {
+        return _hostTimeoutMillis;
+    }
+
+    @Override
+    public long getSweepCount() {
+        return _sweeps.get();
+    }
+
+    @Override
+    public int getLastSweepHostCount() {
+        return _lastSweepHosts;
+    }
+
+    @Override
+    public long getLastSweepDurationMillis() {
+        return _lastSweepMillis;
+    }
+
+    @Override
+    public long getMaxSweepDurationMillis() {
+        return _maxSweepMillis.get();
+    }
+
+    @Override
+    public long getSkippedHostCount() {
+        return _skipped.get();
+    }
+
+    @Override
+    public long getTimedOutHostCount() {
+        return _timedOut.get();
+    }
+
+    @Override
+    public long getFailedHostCount() {
+        return _failed.get();
+    }
+
+    @Override
+    public long[] getLatencyBucketsMillis() {
+        return LatencyHistogram.getBucketsMillis();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        return _latencies.getCounts();
+    }
+
+    private class HostCall<H extends Host> implements Runnable {
+        final H _host;
+        final HostTask<H> _task;
+        final Set<Long> _collected;
+        volatile long _startMillis;
+        Future<?> _future;
+
+        HostCall(final H host, final HostTask<H> task, final Set<Long> collected) {
+            _host = host;
+            _task = task;
+            _collected = collected;
+        }
+
+        @Override
+        public void run() {
+            _startMillis = System.currentTimeMillis();
+            try {
+                new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        try {
+                            if (_task.collect(_host)) {
+                                _collected.add(_host.getId());
+                            } else {
+                                _failed.incrementAndGet();
+                            }
+                        } catch (final Exception e) {
+                            s_logger.debug(_name + " failed on host " + _host.getId() + ": " + e.getMessage());
+                            _failed.incrementAndGet();
+                        }
+                    }
+                }.run();
+            } finally {
+                _latencies.record(System.currentTimeMillis() - _startMillis);
+                _inFlight.remove(_host.getId());
+            }
+        }
+
+        void await() {
+            while (true) {
+                final long started = _startMillis;
+                // Hosts still waiting for a thread do not use up their timeout
+                final long waitMillis = started == 0 ? 100 : started + _hostTimeoutMillis - System.currentTimeMillis();
+                if (waitMillis <= 0 && !_future.isDone()) {
+                    s_logger.warn(_name + " timed out waiting " + _hostTimeoutMillis + " ms for host " + _host.getId());
+                    _timedOut.incrementAndGet();
+                    _future.cancel(true);
+                    return;
+                }
+                try {
+                    _future.get(Math.max(waitMillis, 1), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (final TimeoutException e) {
+                    continue;
+                } catch (final ExecutionException e) {
+                    return;
+                } catch (final CancellationException e) {
+                    return;
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+public interface HostSweeperMBean {
+    public int getConcurrency();
+
+    public long getHostTimeoutMillis();
+
+    public long getSweepCount();
+
+    public int getLastSweepHostCount();
+
+    public long getLastSweepDurationMillis();
+
+    public long getMaxSweepDurationMillis();
+
+    /**
+     * @return number of hosts left out of a sweep because the previous sweep of the host had not finished yet.
+     */
+    public long getSkippedHostCount();
+
+    public long getTimedOutHostCount();
+
+    public long getFailedHostCount();
+
+    /**
+     * @return upper bounds of the buckets of the per host latency histogram.
+     */
+    public long[] getLatencyBucketsMillis();
+
+    public long[] getLatencyHistogram();
+}
@@ -49,7 +49,9 @@ import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.*;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.MacAddress;
+import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.*;
 import com.cloud.vm.dao.UserVmDao;
 import com.cloud.vm.dao.VMInstanceDao;
@@ -63,13 +65,17 @@ import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 import org.apache.cloudstack.utils.graphite.GraphiteClient;
-import org.apache.cloudstack.utils.graphite.GraphiteException;
+import org.apache.cloudstack.utils.graphite.GraphiteMetrics;
+import org.apache.cloudstack.utils.graphite.GraphiteReporter;
+import org.apache.cloudstack.utils.prometheus.PrometheusTextWriter;
 import org.apache.cloudstack.utils.usage.UsageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
@@ -102,7 +108,48 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     private static StatsCollector s_instance = null;
 
+    // Batches of VM stats, one per host, waiting to be sent to Graphite
+    private static final int GRAPHITE_QUEUE_CAPACITY = 1024;
+    // VM stats sweeps to keep the metric names of a VM that is no longer reported
+    private static final int VM_METRIC_NAMES_RETAINED_SWEEPS = 10;
+
+    // Metrics kept in the time series of hosts and VMs
+    private static final int HOST_CPU = 0;
+    private static final int HOST_TOTAL_MEMORY = 1;
+    private static final int HOST_FREE_MEMORY = 2;
+    private static final int HOST_NETWORK_READ = 3;
+    private static final int HOST_NETWORK_WRITE = 4;
+    private static final int HOST_METRICS = 5;
+    private static final int VM_CPU = 0;
+    private static final int VM_NUM_CPUS = 1;
+    private static final int VM_NETWORK_READ = 2;
+    private static final int VM_NETWORK_WRITE = 3;
+    private static final int VM_DISK_READ = 4;
+    private static final int VM_DISK_WRITE = 5;
+    private static final int VM_DISK_READ_IOS = 6;
+    private static final int VM_DISK_WRITE_IOS = 7;
+    private static final int VM_METRICS = 8;
+
+    // Name, type and help of the metric families, in the order writePrometheusMetrics() collects their values
+    private static final String[][] PROMETHEUS_HOST_FAMILIES = {
+            {"cloudstack_host_cpu_utilization", "gauge", "CPU utilization of the host in percent."},
+            {"cloudstack_host_memory_total_kbs", "gauge", "Total memory of the host in KB."},
+            {"cloudstack_host_memory_free_kbs", "gauge", "Free memory of the host in KB."},
+            {"cloudstack_host_network_read_kbs", "gauge", "KB received by the host in the last collection interval."},
+            {"cloudstack_host_network_write_kbs", "gauge", "KB sent by the host in the last collection interval."}};
+    private static final String[][] PROMETHEUS_VM_FAMILIES = {
+            {"cloudstack_vm_cpu_num", "gauge", "Number of vCPUs of the VM."},
+            {"cloudstack_vm_cpu_utilization", "gauge", "CPU utilization of the VM in percent."},
+            {"cloudstack_vm_network_read_kbs_total", "counter", "KB received by the VM since the management server started."},
+            {"cloudstack_vm_network_write_kbs_total", "counter", "KB sent by the VM since the management server started."},
+            {"cloudstack_vm_disk_read_kbs_total", "counter", "KB read by the VM since the management server started."},
+            {"cloudstack_vm_disk_write_kbs_total", "counter", "KB written by the VM since the management server started."},
+            {"cloudstack_vm_disk_read_iops_total", "counter", "Read operations of the VM since the management server started."},
+            {"cloudstack_vm_disk_write_iops_total", "counter", "Write operations of the VM since the management server started."}};
+
     private ScheduledExecutorService _executor = null;
+    private HostSweeper _hostStatsSweeper;
+    private HostSweeper _vmStatsSweeper;
     @Inject
     private AgentManager _agentMgr;
     @Inject
@@ -158,8 +205,12 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     @Inject
     private HostGpuGroupsDao _hostGpuGroupsDao;
 
-    private ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, VmStats> _VmStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> _hostUuids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, VmMetricNames> _vmMetricNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, StatsTimeSeries> _hostSeries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, StatsTimeSeries> _vmSeries = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, VolumeStats> _volumeStats = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<>();
@@ -178,6 +229,9 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     int externalStatsPort = -1;
     boolean externalStatsEnabled = false;
     ExternalStatsProtocol externalStatsType = ExternalStatsProtocol.NONE;
+    private GraphiteReporter _graphiteReporter;
+    private boolean _prometheusEnabled = false;
+    private List<String> _prometheusAllowedCidrs = Collections.emptyList();
 
     private ScheduledExecutorService _diskStatsUpdateExecutor;
     private int _usageAggregationRange = 1440;
@@ -207,6 +261,26 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return true;
     }
 
+    @Override
+    public boolean stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        if (_diskStatsUpdateExecutor != null) {
+            _diskStatsUpdateExecutor.shutdownNow();
+        }
+        if (_hostStatsSweeper != null) {
+            _hostStatsSweeper.shutdown();
+        }
+        if (_vmStatsSweeper != null) {
+            _vmStatsSweeper.shutdown();
+        }
+        if (_graphiteReporter != null) {
+            _graphiteReporter.stop();
+        }
+        return true;
+    }
+
     private void init(final Map<String, String> configs) {
         _executor = Executors.newScheduledThreadPool(4, new NamedThreadFactory("StatsCollector"));
 
@@ -217,6 +291,17 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), 60000L);
         vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
 
+        final int concurrency = NumbersUtil.parseInt(configs.get("stats.collector.concurrency"), 16);
+        final long hostTimeout = NumbersUtil.parseLong(configs.get("stats.collector.host.timeout"), 30000L);
+        _hostStatsSweeper = new HostSweeper("HostStatsCollector", concurrency, hostTimeout);
+        _vmStatsSweeper = new HostSweeper("VmStatsCollector", concurrency, hostTimeout);
+        try {
+            JmxUtil.registerMBean("StatsCollector", "Host Stats", _hostStatsSweeper);
+            JmxUtil.registerMBean("StatsCollector", "VM Stats", _vmStatsSweeper);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register stats collector MBeans", e);
+        }
+
         /* URI to send statistics to. Currently only Graphite is supported */
         final String externalStatsUri = configs.get("stats.output.uri");
         if (externalStatsUri != null && !externalStatsUri.equals("")) {
@@ -245,6 +330,33 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
             } catch (final URISyntaxException e) {
                 s_logger.debug("Failed to parse external statistics URI: " + e.getMessage());
             }
+
+            if (externalStatsEnabled && externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+                if (externalStatsPort == -1) {
+                    externalStatsPort = 2003;
+                }
+                _graphiteReporter = new GraphiteReporter(new GraphiteClient(externalStatsHost, externalStatsPort), GRAPHITE_QUEUE_CAPACITY);
+                try {
+                    JmxUtil.registerMBean("StatsCollector", "Graphite", _graphiteReporter);
+                } catch (final Exception e) {
+                    s_logger.warn("Unable to register Graphite reporter MBean", e);
+                }
+            }
+        }
+        _prometheusEnabled = Boolean.parseBoolean(configs.get("stats.output.prometheus"));
+        if (_prometheusEnabled) {
+            final List<String> allowedCidrs = new ArrayList<>();
+            final String allowedCidrsConfig = configs.get("stats.output.prometheus.allowed.cidrs");
+            if (allowedCidrsConfig != null) {
+                for (final String cidr : allowedCidrsConfig.split(",")) {
+                    if (NetUtils.isValidCIDR(cidr.trim())) {
+                        allowedCidrs.add(cidr.trim());
+                    } else if (!cidr.trim().isEmpty()) {
+                        s_logger.warn("Ignoring invalid CIDR " + cidr + " in stats.output.prometheus.allowed.cidrs");
+                    }
+                }
+            }
+            _prometheusAllowedCidrs = allowedCidrs;
         }
 
         if (hostStatsInterval > 0) {
@@ -331,17 +443,25 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.ExternalFirewall.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.ExternalLoadBalancer.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.L2Networking.toString());
-                final ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<>();
                 final List<HostVO> hosts = _hostDao.search(sc, null);
-                for (final HostVO host : hosts) {
-                    final HostStatsEntry stats = (HostStatsEntry) _resourceMgr.getHostStatistics(host.getId());
-                    if (stats != null) {
-                        hostStats.put(host.getId(), stats);
-                    } else {
-                        s_logger.warn("Received invalid host stats for host: " + host.getId());
+                final Set<Long> collected = _hostStatsSweeper.sweep(hosts, new HostSweeper.HostTask<HostVO>() {
+                    @Override
+                    public boolean collect(final HostVO host) {
+                        final HostStatsEntry stats = (HostStatsEntry) _resourceMgr.getHostStatistics(host.getId());
+                        if (stats == null) {
+                            s_logger.warn("Received invalid host stats for host: " + host.getId());
+                            return false;
+                        }
+                        _hostStats.put(host.getId(), stats);
+                        _hostUuids.put(host.getId(), host.getUuid());
+                        getTimeSeries(_hostSeries, host.getId(), HOST_METRICS).add(System.currentTimeMillis(), stats.getCpuUtilization(), stats.getTotalMemoryKBs(),
+                                stats.getFreeMemoryKBs(), stats.getNetworkReadKBs(), stats.getNetworkWriteKBs());
+                        return true;
                     }
-                }
-                _hostStats = hostStats;
+                });
+                _hostStats.keySet().retainAll(collected);
+                _hostUuids.keySet().retainAll(collected);
+                removeExpiredTimeSeries(_hostSeries);
                 // Get a subset of hosts with GPU support from the list of "hosts"
                 List<HostVO> gpuEnabledHosts = new ArrayList<>();
                 if (hostIds != null) {
@@ -384,99 +504,193 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.SecondaryStorageVM.toString());
                 final List<HostVO> hosts = _hostDao.search(sc, null);
 
-                /* HashMap for metrics to be send to Graphite */
-                final HashMap metrics = new HashMap<>();
+                _vmStatsSweeper.sweep(hosts, new HostSweeper.HostTask<HostVO>() {
+                    @Override
+                    public boolean collect(final HostVO host) {
+                        return collectVmStats(host);
+                    }
+                });
+                removeExpiredTimeSeries(_vmSeries);
+                removeUnreportedVmMetricNames();
 
-                for (final HostVO host : hosts) {
-                    final List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    final List<Long> vmIds = new ArrayList<>();
+            } catch (final Throwable t) {
+                s_logger.error("Error trying to retrieve VM stats", t);
+            }
+        }
+    }
 
-                    for (final UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
-                    }
+    private boolean collectVmStats(final HostVO host) {
+        final List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+        final List<Long> vmIds = new ArrayList<>();
+        final Map<Long, String> vmUuids = new HashMap<>();
 
-                    try {
-                        final HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+        for (final UserVmVO vm : vms) {
+            vmIds.add(vm.getId());
+            vmUuids.put(vm.getId(), vm.getUuid());
+        }
 
-                        if (vmStatsById != null) {
-                            VmStatsEntry statsInMemory = null;
+        final HashMap<Long, VmStatsEntry> vmStatsById;
+        try {
+            vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+        } catch (final Exception e) {
+            s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
+            return false;
+        }
+        if (vmStatsById == null) {
+            return false;
+        }
 
-                            final Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (final Long vmId : vmIdSet) {
-                                final VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsInMemory = (VmStatsEntry) _VmStats.get(vmId);
-
-                                if (statsInMemory == null) {
-                                    //no stats exist for this vm, directly persist
-                                    _VmStats.put(vmId, statsForCurrentIteration);
-                                } else {
-                                    //update each field
-                                    statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
-                                    statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
-                                    statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
-                                    statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
-                                    statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
-                                    statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
-                                    statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
-                                    statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
-
-                                    _VmStats.put(vmId, statsInMemory);
-                                }
+        final GraphiteMetrics metrics = _graphiteReporter != null ? new GraphiteMetrics(System.currentTimeMillis() / 1000, vmStatsById.size() * 8) : null;
+
+        VmStatsEntry statsInMemory = null;
+
+        final Set<Long> vmIdSet = vmStatsById.keySet();
+        for (final Long vmId : vmIdSet) {
+            final VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
+            statsInMemory = (VmStatsEntry) _VmStats.get(vmId);
+
+            if (statsInMemory == null) {
+                //no stats exist for this vm, directly persist
+                _VmStats.put(vmId, statsForCurrentIteration);
+            } else {
+                //update each field
+                statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
+                statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
+                statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
+                statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
+                statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
+                statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
+                statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
+                statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
+
+                _VmStats.put(vmId, statsInMemory);
+            }
 
-                                /**
-                                 * Add statistics to HashMap only when they should be send to a external stats collector
-                                 * Performance wise it seems best to only append to the HashMap when needed
-                                 */
-                                if (externalStatsEnabled) {
-                                    final VMInstanceVO vmVO = _vmInstance.findById(vmId);
-                                    final String vmName = vmVO.getUuid();
-
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.num", statsForCurrentIteration.getNumCPUs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.utilization", statsForCurrentIteration.getCPUUtilization());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.read_kbs", statsForCurrentIteration.getNetworkReadKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.write_kbs", statsForCurrentIteration.getNetworkWriteKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_kbs", statsForCurrentIteration.getDiskWriteKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_kbs", statsForCurrentIteration.getDiskReadKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_iops", statsForCurrentIteration.getDiskWriteIOs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_iops", statsForCurrentIteration.getDiskReadIOs());
-                                }
+            getTimeSeries(_vmSeries, vmId, VM_METRICS).add(System.currentTimeMillis(), statsForCurrentIteration.getCPUUtilization(),
+                    statsForCurrentIteration.getNumCPUs(), statsForCurrentIteration.getNetworkReadKBs(), statsForCurrentIteration.getNetworkWriteKBs(),
+                    statsForCurrentIteration.getDiskReadKBs(), statsForCurrentIteration.getDiskWriteKBs(), statsForCurrentIteration.getDiskReadIOs(),
+                    statsForCurrentIteration.getDiskWriteIOs());
+
+            final VmMetricNames names = getVmMetricNames(vmId, vmUuids.get(vmId));
+
+            /**
+             * Add statistics to the batch only when they should be send to a external stats collector
+             */
+            if (metrics != null) {
+                final String prefix = names._graphitePrefix;
+                metrics.add(prefix, "cpu.num", statsForCurrentIteration.getNumCPUs());
+                metrics.add(prefix, "cpu.utilization", statsForCurrentIteration.getCPUUtilization());
+                metrics.add(prefix, "network.read_kbs", statsForCurrentIteration.getNetworkReadKBs());
+                metrics.add(prefix, "network.write_kbs", statsForCurrentIteration.getNetworkWriteKBs());
+                metrics.add(prefix, "disk.write_kbs", statsForCurrentIteration.getDiskWriteKBs());
+                metrics.add(prefix, "disk.read_kbs", statsForCurrentIteration.getDiskReadKBs());
+                metrics.add(prefix, "disk.write_iops", statsForCurrentIteration.getDiskWriteIOs());
+                metrics.add(prefix, "disk.read_iops", statsForCurrentIteration.getDiskReadIOs());
+            }
 
-                            }
+        }
 
-                            /**
-                             * Send the metrics to a external stats collector
-                             * We send it on a per-host basis to prevent that we flood the host
-                             * Currently only Graphite is supported
-                             */
-                            if (!metrics.isEmpty()) {
-                                if (externalStatsType != null && externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+        /**
+         * Hand the metrics to the external stats collector, which sends them from its own thread
+         * Currently only Graphite is supported
+         */
+        if (metrics != null && !metrics.isEmpty()) {
+            if (!_graphiteReporter.report(metrics)) {
+                s_logger.debug("Dropped VmStats of host " + host.getId() + ", Graphite host " + externalStatsHost + ":" + externalStatsPort + " is not keeping up");
+            }
+        }
+        return true;
+    }
 
-                                    if (externalStatsPort == -1) {
-                                        externalStatsPort = 2003;
-                                    }
+    /**
+     * Keys of a VM's metrics are built once, the VM's uuid does not change.
+     */
+    private VmMetricNames getVmMetricNames(final long vmId, final String uuid) {
+        VmMetricNames names = _vmMetricNames.get(vmId);
+        if (names == null || !names._uuid.equals(uuid)) {
+            names = new VmMetricNames(uuid, externalStatsPrefix + "cloudstack.stats.instances." + uuid + ".");
+            _vmMetricNames.put(vmId, names);
+        }
+        names._lastSweep = _vmStatsSweeper.getSweepCount();
+        return names;
+    }
 
-                                    s_logger.debug("Sending VmStats of host " + host.getId() + " to Graphite host " + externalStatsHost + ":" + externalStatsPort);
+    /**
+     * Drops the metric names of VMs that have not been reported for VM_METRIC_NAMES_RETAINED_SWEEPS sweeps.
+     */
+    private void removeUnreportedVmMetricNames() {
+        final long expired = _vmStatsSweeper.getSweepCount() - VM_METRIC_NAMES_RETAINED_SWEEPS;
+        final Iterator<VmMetricNames> it = _vmMetricNames.values().iterator();
+        while (it.hasNext()) {
+            if (it.next()._lastSweep < expired) {
+                it.remove();
+            }
+        }
+    }
 
-                                    try {
-                                        final GraphiteClient g = new GraphiteClient(externalStatsHost, externalStatsPort);
-                                        g.sendMetrics(metrics);
-                                    } catch (final GraphiteException e) {
-                                        s_logger.debug("Failed sending VmStats to Graphite host " + externalStatsHost + ":" + externalStatsPort + ": " + e.getMessage());
-                                    }
+    private static class VmMetricNames {
+        final String _uuid;
+        final String _graphitePrefix;
+        volatile long _lastSweep;
 
-                                    metrics.clear();
-                                }
-                            }
-                        }
+        VmMetricNames(final String uuid, final String graphitePrefix) {
+            _uuid = uuid;
+            _graphitePrefix = graphitePrefix;
+        }
+    }
 
-                    } catch (final Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
-                    }
-                }
+    public boolean isPrometheusEnabled() {
+        return _prometheusEnabled;
+    }
 
-            } catch (final Throwable t) {
-                s_logger.error("Error trying to retrieve VM stats", t);
+    /**
+     * @return true if the client at the address may read the Prometheus statistics, see stats.output.prometheus.allowed.cidrs.
+     */
+    public boolean isPrometheusClientAllowed(final String address) {
+        for (final String cidr : _prometheusAllowedCidrs) {
+            if (NetUtils.isIpWithtInCidrRange(address, cidr)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the latest host and VM stats in the Prometheus text exposition format.
+     */
+    public void writePrometheusMetrics(final Writer out) throws IOException {
+        final Map<String, double[]> hosts = new HashMap<>();
+        for (final Map.Entry<Long, HostStats> entry : _hostStats.entrySet()) {
+            final String uuid = _hostUuids.get(entry.getKey());
+            final HostStats stats = entry.getValue();
+            if (uuid != null) {
+                hosts.put(uuid, new double[] {stats.getCpuUtilization(), stats.getTotalMemoryKBs(), stats.getFreeMemoryKBs(), stats.getNetworkReadKBs(),
+                        stats.getNetworkWriteKBs()});
+            }
+        }
+
+        final Map<String, double[]> vms = new HashMap<>();
+        for (final Map.Entry<Long, VmStats> entry : _VmStats.entrySet()) {
+            final VmMetricNames names = _vmMetricNames.get(entry.getKey());
+            final VmStatsEntry stats = (VmStatsEntry) entry.getValue();
+            if (names != null) {
+                vms.put(names._uuid, new double[] {stats.getNumCPUs(), stats.getCPUUtilization(), stats.getNetworkReadKBs(), stats.getNetworkWriteKBs(),
+                        stats.getDiskReadKBs(), stats.getDiskWriteKBs(), stats.getDiskReadIOs(), stats.getDiskWriteIOs()});
+            }
+        }
+
+        final PrometheusTextWriter writer = new PrometheusTextWriter(out);
+        writePrometheusFamilies(writer, PROMETHEUS_HOST_FAMILIES, "host", hosts);
+        writePrometheusFamilies(writer, PROMETHEUS_VM_FAMILIES, "vm", vms);
+        writer.flush();
+    }
+
+    private static void writePrometheusFamilies(final PrometheusTextWriter writer, final String[][] families, final String label, final Map<String, double[]> samples)
+            throws IOException {
+        for (int i = 0; i < families.length; i++) {
+            writer.family(families[i][0], families[i][2], families[i][1]);
+            for (final Map.Entry<String, double[]> sample : samples.entrySet()) {
+                writer.sample(families[i][0], label, sample.getKey(), sample.getValue()[i]);
             }
         }
     }
@@ -485,6 +699,53 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return _VmStats.get(id);
     }
 
+    /**
+     * @return the stats of the VM over the last windowMillis: CPU utilization and number of CPUs are averaged,
+     * network and disk traffic are totalled.  Null if no stats were collected in the window.
+     */
+    public VmStats getVmStats(final long id, final long windowMillis) {
+        final StatsTimeSeries series = _vmSeries.get(id);
+        if (series == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final double cpu = series.average(VM_CPU, windowMillis, now);
+        if (Double.isNaN(cpu)) {
+            return null;
+        }
+        final VmStatsEntry stats = new VmStatsEntry(cpu, series.sum(VM_NETWORK_READ, windowMillis, now), series.sum(VM_NETWORK_WRITE, windowMillis, now),
+                series.sum(VM_DISK_READ, windowMillis, now), series.sum(VM_DISK_WRITE, windowMillis, now), (int)Math.round(series.average(VM_NUM_CPUS, windowMillis, now)),
+                "UserVm");
+        stats.setDiskReadIOs(series.sum(VM_DISK_READ_IOS, windowMillis, now));
+        stats.setDiskWriteIOs(series.sum(VM_DISK_WRITE_IOS, windowMillis, now));
+        return stats;
+    }
+
+    private static StatsTimeSeries getTimeSeries(final ConcurrentHashMap<Long, StatsTimeSeries> seriesById, final long id, final int metrics) {
+        StatsTimeSeries series = seriesById.get(id);
+        if (series == null) {
+            final StatsTimeSeries newSeries = new StatsTimeSeries(metrics);
+            series = seriesById.putIfAbsent(id, newSeries);
+            if (series == null) {
+                series = newSeries;
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Drops the history of hosts and VMs that have not been seen for longer than the retention.
+     */
+    private static void removeExpiredTimeSeries(final ConcurrentHashMap<Long, StatsTimeSeries> seriesById) {
+        final long expired = System.currentTimeMillis() - StatsTimeSeries.getRetentionMillis();
+        final Iterator<StatsTimeSeries> it = seriesById.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getLastSampleMillis() < expired) {
+                it.remove();
+            }
+        }
+    }
+
     class VmDiskStatsUpdaterTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -505,6 +766,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             public void doInTransactionWithoutResult(final TransactionStatus status) {
                                 //get all stats with delta > 0
                                 final List<VmDiskStatisticsVO> updatedVmNetStats = _vmDiskStatsDao.listUpdatedStats();
+                                final Map<Long, VmDiskStatisticsVO> stats = new LinkedHashMap<>();
                                 for (final VmDiskStatisticsVO stat : updatedVmNetStats) {
                                     if (_dailyOrHourly) {
                                         //update agg bytes
@@ -512,9 +774,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
                                         stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
                                         stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
+                                        stats.put(stat.getId(), stat);
                                     }
                                 }
+                                _vmDiskStatsDao.updateBatch(stats);
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
                         });
@@ -561,6 +824,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             if (vmDiskStatsById == null)
                                 continue;
 
+                            final Map<Long, VmDiskStatisticsVO> updatedStats = new LinkedHashMap<>();
                             final Set<Long> vmIdSet = vmDiskStatsById.keySet();
                             for (final Long vmId : vmIdSet) {
                                 final List<VmDiskStatsEntry> vmDiskStats = vmDiskStatsById.get(vmId);
@@ -645,9 +909,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
                                     }
 
-                                    _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+                                    updatedStats.put(vmDiskStat_lock.getId(), vmDiskStat_lock);
                                 }
                             }
+                            _vmDiskStatsDao.updateBatch(updatedStats);
                         }
                     }
                 });
@@ -777,12 +1042,14 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         final List<Pair<String, Integer>> lstPair = getPairofCounternameAndDuration(asGroup.getId());
                         int total_counter = 0;
                         final String[] lstCounter = new String[lstPair.size()];
+                        final int[] lstDuration = new int[lstPair.size()];
                         for (int i = 0; i < lstPair.size(); i++) {
                             final Pair<String, Integer> pair = lstPair.get(i);
                             final String strCounterNames = pair.first();
                             final Integer duration = pair.second();
 
                             lstCounter[i] = strCounterNames.split(",")[0];
+                            lstDuration[i] = duration;
                             total_counter++;
                             params.put("duration" + String.valueOf(total_counter), duration.toString());
                             params.put("counter" + String.valueOf(total_counter), lstCounter[i]);
@@ -790,6 +1057,13 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         }
                         params.put("total_counter", String.valueOf(total_counter));
 
+                        final HashMap<Long, Double> collectedCounter = getCountersFromTimeSeries(lstCounter, lstDuration, asGroupVmVOs);
+                        if (collectedCounter != null) {
+                            s_logger.debug("[AutoScale] Using collected VM stats of the last " + Arrays.toString(lstDuration) + " seconds for group " + asGroup.getId());
+                            doAutoscaleAction(collectedCounter, asGroup.getId(), currentVM, params);
+                            continue;
+                        }
+
                         final PerformanceMonitorCommand perfMon = new PerformanceMonitorCommand(params, 20);
 
                         try {
@@ -842,15 +1116,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                                         }
                                     }
 
-                                    final String scaleAction = getAutoscaleAction(avgCounter, asGroup.getId(), currentVM, params);
-                                    if (scaleAction != null) {
-                                        s_logger.debug("[AutoScale] Doing scale action: " + scaleAction + " for group " + asGroup.getId());
-                                        if (scaleAction.equals("scaleup")) {
-                                            _asManager.doScaleUp(asGroup.getId(), 1);
-                                        } else {
-                                            _asManager.doScaleDown(asGroup.getId());
-                                        }
-                                    }
+                                    doAutoscaleAction(avgCounter, asGroup.getId(), currentVM, params);
                                 }
                             }
 
@@ -867,6 +1133,49 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
         }
 
+        private void doAutoscaleAction(final HashMap<Long, Double> avgCounter, final long groupId, final long currentVM, final Map<String, String> params) {
+            final String scaleAction = getAutoscaleAction(avgCounter, groupId, currentVM, params);
+            if (scaleAction != null) {
+                s_logger.debug("[AutoScale] Doing scale action: " + scaleAction + " for group " + groupId);
+                if (scaleAction.equals("scaleup")) {
+                    _asManager.doScaleUp(groupId, 1);
+                } else {
+                    _asManager.doScaleDown(groupId);
+                }
+            }
+        }
+
+        /**
+         * Sums the CPU utilization of the group's VMs over each counter's duration from the collected VM stats,
+         * as a fraction like the condition thresholds.
+         *
+         * @return the sums by counter number, or null if a counter is not cpu or a VM has no stats going back far enough.
+         */
+        private HashMap<Long, Double> getCountersFromTimeSeries(final String[] lstCounter, final int[] lstDuration, final List<AutoScaleVmGroupVmMapVO> asGroupVmVOs) {
+            final long now = System.currentTimeMillis();
+            final HashMap<Long, Double> sumCounter = new HashMap<>();
+            for (int i = 0; i < lstCounter.length; i++) {
+                if (!Counter.Source.cpu.toString().equals(lstCounter[i])) {
+                    return null;
+                }
+                final long window = lstDuration[i] * 1000L;
+                double sum = 0;
+                for (final AutoScaleVmGroupVmMapVO asGroupVm : asGroupVmVOs) {
+                    final StatsTimeSeries series = _vmSeries.get(asGroupVm.getInstanceId());
+                    if (series == null || !series.covers(window, now)) {
+                        return null;
+                    }
+                    final double cpu = series.average(VM_CPU, window, now);
+                    if (Double.isNaN(cpu)) {
+                        return null;
+                    }
+                    sum += cpu / 100;
+                }
+                sumCounter.put((long)(i + 1), sum);
+            }
+            return sumCounter;
+        }
+
         private boolean is_native(final long groupId) {
             final List<AutoScaleVmGroupPolicyMapVO> vos = _asGroupPolicyDao.listByVmGroupId(groupId);
             for (final AutoScaleVmGroupPolicyMapVO vo : vos) {
@@ -1019,6 +1328,23 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return _hostStats.get(hostId);
     }
 
+    /**
+     * @return the stats of the host averaged over the last windowMillis, null if no stats were collected in the window.
+     */
+    public HostStats getHostStats(final long hostId, final long windowMillis) {
+        final StatsTimeSeries series = _hostSeries.get(hostId);
+        if (series == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final double cpu = series.average(HOST_CPU, windowMillis, now);
+        if (Double.isNaN(cpu)) {
+            return null;
+        }
+        return new HostStatsEntry(hostId, cpu, series.average(HOST_NETWORK_READ, windowMillis, now), series.average(HOST_NETWORK_WRITE, windowMillis, now), "host",
+                series.average(HOST_TOTAL_MEMORY, windowMillis, now), series.average(HOST_FREE_MEMORY, windowMillis, now), 0, 0);
+    }
+
     public StorageStats getStoragePoolStats(final long id) {
         return _storagePoolStats.get(id);
     }
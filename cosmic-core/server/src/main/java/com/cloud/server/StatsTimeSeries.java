@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size history of the stats of one host or VM, kept in primitive arrays.
+ * Samples are aggregated into buckets of two tiers: one minute buckets for the
+ * last hour and fifteen minute buckets for the last day.  A bucket holds the
+ * sum and the number of the samples that fell into it, so a query over a
+ * window returns either the average or the total of the samples in it.
+ *
+ * A window is rounded up to whole buckets of the finest tier that covers it.
+ */
+public class StatsTimeSeries {
+    static final long[] TIER_STEPS = {60 * 1000L, 15 * 60 * 1000L};
+    static final int[] TIER_SLOTS = {60, 96};
+
+    private final int _metrics;
+    private final Tier[] _tiers;
+    private long _firstSample = -1;
+    private long _lastSample = -1;
+
+    public StatsTimeSeries(final int metrics) {
+        _metrics = metrics;
+        _tiers = new Tier[TIER_STEPS.length];
+        for (int i = 0; i < _tiers.length; i++) {
+            _tiers[i] = new Tier(TIER_STEPS[i], TIER_SLOTS[i]);
+        }
+    }
+
+    /**
+     * @param values one value per metric.
+     */
+    public synchronized void add(final long timeMillis, final double... values) {
+        if (values.length != _metrics) {
+            throw new IllegalArgumentException("Expected " + _metrics + " values, got " + values.length);
+        }
+        for (final Tier tier : _tiers) {
+            tier.add(timeMillis, values);
+        }
+        if (_firstSample < 0 || timeMillis < _firstSample) {
+            _firstSample = timeMillis;
+        }
+        _lastSample = Math.max(_lastSample, timeMillis);
+    }
+
+    /**
+     * @return average of the metric over the window ending now, NaN if there are no samples in it.
+     */
+    public synchronized double average(final int metric, final long windowMillis, final long nowMillis) {
+        final double[] sumAndCount = aggregate(metric, windowMillis, nowMillis);
+        return sumAndCount[1] == 0 ? Double.NaN : sumAndCount[0] / sumAndCount[1];
+    }
+
+    /**
+     * @return total of the metric over the window ending now, NaN if there are no samples in it.
+     */
+    public synchronized double sum(final int metric, final long windowMillis, final long nowMillis) {
+        final double[] sumAndCount = aggregate(metric, windowMillis, nowMillis);
+        return sumAndCount[1] == 0 ? Double.NaN : sumAndCount[0];
+    }
+
+    /**
+     * @return true if the history goes back to the start of the window and the window fits in the retention.
+     */
+    public synchronized boolean covers(final long windowMillis, final long nowMillis) {
+        return _firstSample >= 0 && _firstSample <= nowMillis - windowMillis && windowMillis <= getRetentionMillis();
+    }
+
+    public synchronized long getLastSampleMillis() {
+        return _lastSample;
+    }
+
+    public static long getRetentionMillis() {
+        return TIER_STEPS[TIER_STEPS.length - 1] * TIER_SLOTS[TIER_SLOTS.length - 1];
+    }
+
+    private double[] aggregate(final int metric, final long windowMillis, final long nowMillis) {
+        Tier tier = _tiers[_tiers.length - 1];
+        for (final Tier candidate : _tiers) {
+            if (candidate._step * candidate._epochs.length >= windowMillis) {
+                tier = candidate;
+                break;
+            }
+        }
+        return tier.aggregate(metric, windowMillis, nowMillis);
+    }
+
+    private final class Tier {
+        final long _step;
+        final long[] _epochs;
+        final int[] _counts;
+        final float[] _sums;
+
+        Tier(final long step, final int slots) {
+            _step = step;
+            _epochs = new long[slots];
+            Arrays.fill(_epochs, -1);
+            _counts = new int[slots];
+            _sums = new float[slots * _metrics];
+        }
+
+        void add(final long timeMillis, final double[] values) {
+            final long epoch = timeMillis / _step;
+            final int slot = (int)(epoch % _epochs.length);
+            if (_epochs[slot] != epoch) {
+                if (_epochs[slot] > epoch) {
+                    // Older than the retention of this tier
+                    return;
+                }
+                _epochs[slot] = epoch;
+                _counts[slot] = 0;
+                Arrays.fill(_sums, slot * _metrics, (slot + 1) * _metrics, 0f);
+            }
+            _counts[slot]++;
+            for (int i = 0; i < _metrics; i++) {
+                _sums[slot * _metrics + i] += (float)values[i];
+            }
+        }
+
+        double[] aggregate(final int metric, final long windowMillis, final long nowMillis) {
+            final long last = nowMillis / _step;
+            final long first = last - Math.min((windowMillis + _step - 1) / _step, _epochs.length) + 1;
+            double sum = 0;
+            long count = 0;
+            for (int slot = 0; slot < _epochs.length; slot++) {
+                if (_epochs[slot] >= first && _epochs[slot] <= last) {
+                    sum += _sums[slot * _metrics + metric];
+                    count += _counts[slot];
+                }
+            }
+            return new double[] {sum, count};
+        }
+    }
+}
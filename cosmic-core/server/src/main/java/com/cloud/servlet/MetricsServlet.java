@@ -0,0 +1,60 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.servlet;
+
+import com.cloud.server.StatsCollector;
+import org.apache.cloudstack.utils.prometheus.PrometheusTextWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Prometheus scrape target : /metrics
+ * Serves the host and VM stats of the StatsCollector when stats.output.prometheus is enabled,
+ * to the clients within stats.output.prometheus.allowed.cidrs only.
+ */
+@Component("metricsServlet")
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 4730281940551386279L;
+    public static final Logger s_logger = LoggerFactory.getLogger(MetricsServlet.class.getName());
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final StatsCollector statsCollector = StatsCollector.getInstance();
+        if (statsCollector == null || !statsCollector.isPrometheusEnabled()) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!statsCollector.isPrometheusClientAllowed(req.getRemoteAddr())) {
+            s_logger.debug("Refused metrics to " + req.getRemoteAddr() + ", it is not in stats.output.prometheus.allowed.cidrs");
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        resp.setContentType(PrometheusTextWriter.CONTENT_TYPE);
+        try {
+            statsCollector.writePrometheusMetrics(resp.getWriter());
+        } catch (final IOException e) {
+            s_logger.debug("Failed to write metrics to " + req.getRemoteAddr() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.cloud.api.query.ResponsePrefetch;
+import com.cloud.api.query.vo.VolumeJoinVO;
+import com.cloud.storage.DiskOfferingVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.dao.DiskOfferingDao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApiDBUtilsTest {
+
+    @Mock
+    DiskOfferingDao diskOfferingDao;
+
+    DiskOfferingDao origDiskOfferingDao;
+
+    @Before
+    public void injectMocks() {
+        origDiskOfferingDao = ApiDBUtils.s_diskOfferingDao;
+        ApiDBUtils.s_diskOfferingDao = diskOfferingDao;
+    }
+
+    @After
+    public void restoreDaos() {
+        ApiDBUtils.s_diskOfferingDao = origDiskOfferingDao;
+    }
+
+    private static VolumeJoinVO dataDisk(long offeringId) {
+        VolumeJoinVO volume = Mockito.mock(VolumeJoinVO.class);
+        Mockito.when(volume.getVolumeType()).thenReturn(Volume.Type.DATADISK);
+        Mockito.when(volume.getDiskOfferingId()).thenReturn(offeringId);
+        return volume;
+    }
+
+    private static DiskOfferingVO offering(long id, DiskOfferingVO.Type type) {
+        DiskOfferingVO offering = Mockito.mock(DiskOfferingVO.class);
+        Mockito.when(offering.getId()).thenReturn(id);
+        Mockito.when(offering.getType()).thenReturn(type);
+        return offering;
+    }
+
+    @Test
+    public void prefetchVolumeDetailsSkipsServiceOfferings() {
+        // A detached root volume still points at the service offering it was created with
+        List<DiskOfferingVO> offerings = Arrays.asList(offering(5L, DiskOfferingVO.Type.Disk), offering(6L, DiskOfferingVO.Type.Service));
+        Mockito.when(diskOfferingDao.listByIdsIncludingRemoved(Mockito.anyCollectionOf(Long.class))).thenReturn(offerings);
+
+        ResponsePrefetch prefetch = ApiDBUtils.prefetchVolumeDetails(dataDisk(5L), dataDisk(6L));
+
+        Assert.assertTrue(prefetch.isDiskOffering(5L));
+        Assert.assertFalse(prefetch.isDiskOffering(6L));
+        Mockito.verify(diskOfferingDao, Mockito.never()).findByIdIncludingRemoved(Mockito.anyLong());
+    }
+}
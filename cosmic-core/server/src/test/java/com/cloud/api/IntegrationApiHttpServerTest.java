@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.utils.HttpUtils;
+import com.cloud.utils.Ternary;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IntegrationApiHttpServerTest {
+
+    @Mock
+    ApiServer apiServer;
+
+    IntegrationApiHttpServer server;
+    int port;
+
+    private void startServer(final int workers, final int queueSize) throws IOException {
+        final ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress("127.0.0.1", 0));
+        port = socket.getLocalPort();
+        socket.close();
+
+        server = new IntegrationApiHttpServer(apiServer, new ApiRequestStats(), port, workers, queueSize);
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private HttpURLConnection get(final String query) throws IOException {
+        return (HttpURLConnection)new URL("http://127.0.0.1:" + port + "/client/api?" + query).openConnection();
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString(HttpUtils.UTF_8);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void requestIsHandedToTheApiServer() throws IOException {
+        Mockito.when(apiServer.handleIntegrationRequest(Matchers.anyMap(), Matchers.eq(HttpUtils.RESPONSE_TYPE_JSON), Matchers.any(StringBuilder.class)))
+                .thenReturn(new Ternary<Integer, String, String>(200, "{\"listzonesresponse\":{}}", null));
+        startServer(2, 2);
+
+        for (int i = 0; i < 2; i++) {
+            final HttpURLConnection conn = get("command=listZones&response=json");
+            Assert.assertEquals(200, conn.getResponseCode());
+            Assert.assertTrue(conn.getContentType().startsWith("application/json"));
+            Assert.assertEquals("{\"listzonesresponse\":{}}", read(conn.getInputStream()));
+        }
+
+        Mockito.verify(apiServer, Mockito.times(2)).handleIntegrationRequest(Matchers.argThat(new BaseMatcher<Map>() {
+            @Override
+            public boolean matches(final Object item) {
+                final Map params = (Map)item;
+                return "listZones".equals(((String[])params.get("command"))[0]) && "GET".equals(((String[])params.get("httpmethod"))[0]) && !params.containsKey("response");
+            }
+
+            @Override
+            public void describeTo(final Description description) {
+                description.appendText("listZones parameters");
+            }
+        }), Matchers.eq(HttpUtils.RESPONSE_TYPE_JSON), Matchers.any(StringBuilder.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void overloadIsAnsweredWithServiceUnavailable() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(apiServer.handleIntegrationRequest(Matchers.anyMap(), Matchers.anyString(), Matchers.any(StringBuilder.class)))
+                .thenAnswer(new Answer<Ternary<Integer, String, String>>() {
+                    @Override
+                    public Ternary<Integer, String, String> answer(final InvocationOnMock invocation) throws Throwable {
+                        started.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                        return new Ternary<Integer, String, String>(200, "<ok/>", null);
+                    }
+                });
+        Mockito.when(apiServer.getSerializedApiError(Matchers.eq(503), Matchers.anyString(), Matchers.anyMap(), Matchers.anyString())).thenReturn("<busy/>");
+        startServer(1, 1);
+
+        final HttpURLConnection running = get("command=listZones");
+        final Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    running.getResponseCode();
+                } catch (final IOException e) {
+                    Assert.fail(e.getMessage());
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final HttpURLConnection queued = get("command=listZones");
+        queued.connect();
+        final Thread second = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queued.getResponseCode();
+                } catch (final IOException e) {
+                    Assert.fail(e.getMessage());
+                }
+            }
+        };
+        second.start();
+        for (int i = 0; i < 100 && server.getQueuedCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, server.getQueuedCount());
+
+        // the worker is busy and the queue holds one request, the next one bounces
+        final HttpURLConnection rejected = get("command=listZones");
+        Assert.assertEquals(503, rejected.getResponseCode());
+        Assert.assertEquals("<busy/>", read(rejected.getErrorStream()));
+
+        release.countDown();
+        first.join(10000);
+        second.join(10000);
+        Assert.assertEquals(200, running.getResponseCode());
+        Assert.assertEquals(200, queued.getResponseCode());
+    }
+
+    @Test
+    public void latencyIsRecordedPerCommand() {
+        final ApiRequestStats stats = new ApiRequestStats();
+        stats.recordLatency("listZones", 5);
+        stats.recordLatency("listZones", 70);
+        stats.recordLatency("deployVirtualMachine", 60000);
+
+        Assert.assertArrayEquals(new String[] {"deployVirtualMachine", "listZones"}, stats.getCommandNames());
+        Assert.assertArrayEquals(new long[] {1, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0}, stats.getLatencyHistogram("listZones"));
+        Assert.assertEquals(1, stats.getLatencyHistogram("deployVirtualMachine")[stats.getLatencyBucketsMillis().length - 1]);
+        Assert.assertEquals(2, stats.getRequestCount("listZones"));
+        Assert.assertEquals(0, stats.getRequestCount("listHosts"));
+    }
+}
@@ -18,8 +18,12 @@
  */
 package com.cloud.api.dispatch;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
+import com.cloud.dao.EntityManager;
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.exception.InsufficientCapacityException;
 import com.cloud.exception.NetworkRuleConflictException;
@@ -28,16 +32,22 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.VirtualMachine;
 
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.UserVmResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -48,6 +58,9 @@ public class ParamProcessWorkerTest {
     @Mock
     protected AccountManager accountManager;
 
+    @Mock
+    protected EntityManager entityManager;
+
     protected ParamProcessWorker paramProcessWorker;
 
     public static class TestCmd extends BaseCmd {
@@ -64,6 +77,12 @@ public class ParamProcessWorkerTest {
         @Parameter(name = "doubleparam1", type = CommandType.DOUBLE)
         double doubleparam1;
 
+        @Parameter(name = "vmid", type = CommandType.UUID, entityType = UserVmResponse.class, since = "4.4")
+        Long vmId;
+
+        @Parameter(name = "vmids", type = CommandType.LIST, collectionType = CommandType.UUID, entityType = UserVmResponse.class, since = "4.4")
+        List<Long> vmIds;
+
         @Override
         public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException,
             ResourceAllocationException, NetworkRuleConflictException {
@@ -72,7 +91,7 @@ public class ParamProcessWorkerTest {
 
         @Override
         public String getCommandName() {
-            return "test";
+            return "testresponse";
         }
 
         @Override
@@ -87,6 +106,7 @@ public class ParamProcessWorkerTest {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -108,4 +128,73 @@ public class ParamProcessWorkerTest {
         Assert.assertTrue(Double.compare(cmd.doubleparam1, 11.89) == 0);
     }
 
+    private static UserVmVO vm(final long id, final String uuid) {
+        final UserVmVO vm = Mockito.mock(UserVmVO.class);
+        Mockito.when(vm.getId()).thenReturn(id);
+        Mockito.when(vm.getUuid()).thenReturn(uuid);
+        return vm;
+    }
+
+    @Test
+    public void processUuidParameter() {
+        final String uuid = "463e022a-249d-4212-bdf4-726bc9047aa7";
+        final UserVmVO vm = vm(12L, uuid);
+        Mockito.when(entityManager.findByUuidIncludingRemoved(VirtualMachine.class, uuid)).thenReturn(vm);
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmid", uuid);
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+        Assert.assertEquals(Long.valueOf(12L), cmd.vmId);
+    }
+
+    @Test
+    public void processUuidListParameterInOneLookup() {
+        final String uuid1 = "463e022a-249d-4212-bdf4-726bc9047aa7";
+        final String uuid2 = "d8714c5f-766f-4b14-bdf4-17571042b9c5";
+        final UserVmVO vm1 = vm(1L, uuid1);
+        final UserVmVO vm2 = vm(2L, uuid2);
+        Mockito.doReturn(Arrays.asList(vm2, vm1)).when(entityManager).listByUuidsIncludingRemoved(Matchers.eq(VirtualMachine.class), Matchers.anyCollectionOf(String.class));
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmids", uuid1 + "," + uuid2 + "," + uuid1);
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(Arrays.asList(1L, 2L, 1L), cmd.vmIds);
+        Mockito.verify(entityManager, Mockito.times(1)).listByUuidsIncludingRemoved(Matchers.eq(VirtualMachine.class), Matchers.<Collection<String>>any());
+        Mockito.verify(entityManager, Mockito.never()).findByUuidIncludingRemoved(Matchers.eq(VirtualMachine.class), Matchers.anyString());
+    }
+
+    @Test
+    public void processUuidListParameterWithUnknownUuid() {
+        final String uuid1 = "463e022a-249d-4212-bdf4-726bc9047aa7";
+        final String uuid2 = "d8714c5f-766f-4b14-bdf4-17571042b9c5";
+        final UserVmVO vm1 = vm(1L, uuid1);
+        Mockito.doReturn(Arrays.asList(vm1)).when(entityManager).listByUuidsIncludingRemoved(Matchers.eq(VirtualMachine.class), Matchers.anyCollectionOf(String.class));
+
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("vmids", uuid1 + "," + uuid2);
+        try {
+            paramProcessWorker.processParameters(new TestCmd(), params);
+            Assert.fail("an unknown uuid should be rejected");
+        } catch (final ServerApiException e) {
+            Assert.assertEquals(ApiErrorCode.PARAM_ERROR, e.getErrorCode());
+            Assert.assertTrue(e.getDescription().contains(uuid2));
+        }
+    }
+
+    @Test
+    public void parameterNotAuthorizedForCallerIsIgnored() {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("adminparam", "foo");
+        final TestAdminCmd cmd = new TestAdminCmd();
+        paramProcessWorker.processParameters(cmd, params);
+        Assert.assertNull(cmd.adminparam);
+    }
+
+    public static class TestAdminCmd extends TestCmd {
+        @Parameter(name = "adminparam", authorized = {RoleType.Admin})
+        String adminparam;
+    }
 }
@@ -0,0 +1,55 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+import org.junit.Test;
+
+public class ListCursorTest {
+
+    @Test
+    public void roundTrip() {
+        final Date created = new Date(1475000000000L);
+        final String token = ListCursor.encode(created, 42L);
+
+        assertArrayEquals(new Object[] {created, 42L}, ListCursor.decode(token, Date.class, Long.class));
+    }
+
+    @Test
+    public void tokenIsUrlSafe() {
+        final String token = ListCursor.encode(Long.MAX_VALUE);
+
+        assertArrayEquals(new Object[] {Long.MAX_VALUE}, ListCursor.decode(token, Long.class));
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void wrongKeyLength() {
+        ListCursor.decode(ListCursor.encode(42L), Date.class, Long.class);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void garbage() {
+        ListCursor.decode("not a token", Long.class);
+    }
+}
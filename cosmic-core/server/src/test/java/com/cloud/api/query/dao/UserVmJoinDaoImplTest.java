@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query.dao;
+
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.api.query.ResponsePrefetch;
+import com.cloud.api.query.vo.ResourceTagJoinVO;
+import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.gpu.GPU;
+import com.cloud.service.ServiceOfferingDetailsVO;
+import com.cloud.user.Account;
+import com.cloud.user.User;
+import com.cloud.vm.UserVmDetailVO;
+import com.cloud.vm.VmDetailConstants;
+import com.cloud.vm.dao.NicSecondaryIpVO;
+
+import org.apache.cloudstack.api.ApiConstants.VMDetails;
+import org.apache.cloudstack.api.ResponseObject.ResponseView;
+import org.apache.cloudstack.api.response.NicResponse;
+import org.apache.cloudstack.api.response.NicSecondaryIpResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import junit.framework.TestCase;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UserVmJoinDaoImplTest extends TestCase {
+
+    @InjectMocks
+    private UserVmJoinDaoImpl _userVmJoinDaoImpl;
+
+    @Mock
+    private Account caller;
+    @Mock
+    private UserVmJoinVO userVm;
+    @Mock
+    private User user;
+
+    private ResponsePrefetch prefetch;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+
+        when(userVm.getId()).thenReturn(1L);
+        when(userVm.getUserId()).thenReturn(2L);
+        when(userVm.getServiceOfferingId()).thenReturn(3L);
+        when(userVm.getNicId()).thenReturn(4L);
+        when(user.getUsername()).thenReturn("admin");
+
+        // Everything the responses need comes from the prefetch; a per-row lookup would hit the
+        // uninitialised ApiDBUtils daos and fail the test.
+        Map<Long, User> users = new HashMap<Long, User>();
+        users.put(2L, user);
+        Map<Long, ServiceOfferingDetailsVO> vgpuTypes = new HashMap<Long, ServiceOfferingDetailsVO>();
+        vgpuTypes.put(3L, new ServiceOfferingDetailsVO(3L, GPU.Keys.vgpuType.toString(), "GRID K120Q", true));
+        Map<Long, UserVmDetailVO> toolsVersions = new HashMap<Long, UserVmDetailVO>();
+        toolsVersions.put(1L, new UserVmDetailVO(1L, VmDetailConstants.HYPERVISOR_TOOLS_VERSION, "xenserver61", true));
+        Map<Long, List<NicSecondaryIpVO>> secondaryIps = new HashMap<Long, List<NicSecondaryIpVO>>();
+        secondaryIps.put(4L, Arrays.asList(new NicSecondaryIpVO(4L, "10.1.1.10", 1L, 5L, 6L, 7L)));
+
+        prefetch = new ResponsePrefetch();
+        prefetch.setUsers(users);
+        prefetch.setVgpuTypeDetails(vgpuTypes);
+        prefetch.setHypervisorToolsVersions(toolsVersions);
+        prefetch.setNicSecondaryIps(secondaryIps);
+        prefetch.setTags(Collections.<Long, ResourceTagJoinVO>emptyMap());
+    }
+
+    @Test
+    public void newUserVmResponseUsesPrefetchedRows() throws Exception {
+        UserVmResponse response = _userVmJoinDaoImpl.newUserVmResponse(ResponseView.Full, "virtualmachine", userVm,
+                EnumSet.of(VMDetails.servoff, VMDetails.nics), caller, prefetch);
+
+        assertEquals("admin", response.getUserName());
+        assertEquals("GRID K120Q", response.getVgpu());
+        assertEquals("xenserver61", getField(response, "details", Map.class).get(VmDetailConstants.HYPERVISOR_TOOLS_VERSION));
+        assertEquals(1, response.getNics().size());
+        NicResponse nic = response.getNics().iterator().next();
+        List<?> ips = getField(nic, "secondaryIps", List.class);
+        assertEquals(1, ips.size());
+        assertEquals("10.1.1.10", ((NicSecondaryIpResponse)ips.get(0)).getIpAddr());
+    }
+
+    @Test
+    public void setUserVmResponseWithoutPrefetchedSecondaryIps() throws Exception {
+        when(userVm.getNicId()).thenReturn(8L);
+
+        UserVmResponse response = _userVmJoinDaoImpl.setUserVmResponse(ResponseView.Full, new UserVmResponse(), userVm, prefetch);
+
+        assertEquals(1, response.getNics().size());
+        NicResponse nic = response.getNics().iterator().next();
+        assertTrue(getField(nic, "secondaryIps", List.class).isEmpty());
+    }
+
+    private static <T> T getField(Object object, String name, Class<T> type) throws NoSuchFieldException, IllegalAccessException {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return type.cast(field.get(object));
+    }
+}
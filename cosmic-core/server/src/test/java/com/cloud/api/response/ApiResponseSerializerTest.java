@@ -0,0 +1,121 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cloud.utils.HttpUtils;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.apache.cloudstack.api.response.AccountResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.junit.Test;
+
+public class ApiResponseSerializerTest {
+
+    private static UserResponse user(final String name) {
+        final UserResponse user = new UserResponse();
+        user.setObjectName("user");
+        user.setUsername(name);
+        user.setApiKey("api-" + name);
+        user.setSecretKey("secret-" + name);
+        return user;
+    }
+
+    @Test
+    public void sensitiveFieldsAreOnlyLeftOutOfTheLog() {
+        final ListResponse<UserResponse> users = new ListResponse<UserResponse>();
+        users.setResponseName("listusersresponse");
+        users.setResponses(Arrays.asList(user("admin"), user("<b>&")), 2);
+
+        final StringBuilder log = new StringBuilder();
+        final String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(users, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        assertEquals("{\"listusersresponse\":{\"count\":2,\"user\":[{\"username\":\"admin\",\"apikey\":\"api-admin\",\"secretkey\":\"secret-admin\",\"iscallerchilddomain\":false},"
+                + "{\"username\":\"<b>&\",\"apikey\":\"api-<b>&\",\"secretkey\":\"secret-<b>&\",\"iscallerchilddomain\":false}]}}", json);
+        assertEquals("{\"listusersresponse\":{\"count\":2,\"user\":[{\"username\":\"admin\",\"iscallerchilddomain\":false},"
+                + "{\"username\":\"<b>&\",\"iscallerchilddomain\":false}]}}", log.toString());
+    }
+
+    @Test
+    public void nestedSensitiveFieldsAreLeftOutOfTheLog() {
+        final AccountResponse account = new AccountResponse();
+        account.setObjectName("account");
+        account.setResponseName("createaccountresponse");
+        account.setName("acme");
+        account.setUsers(Arrays.asList(user("admin")));
+
+        final StringBuilder log = new StringBuilder();
+        final String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(account, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        assertTrue(json.contains("\"secretkey\":\"secret-admin\""));
+        assertFalse(log.toString().contains("secret"));
+        assertTrue(log.toString().contains("\"user\":[{\"username\":\"admin\",\"iscallerchilddomain\":false}]"));
+    }
+
+    @Test
+    public void emptyAndSuccessResponses() {
+        final ListResponse<UserResponse> users = new ListResponse<UserResponse>();
+        users.setResponseName("listusersresponse");
+        users.setResponses(new ArrayList<UserResponse>(), 0);
+        assertEquals("{\"listusersresponse\":{}}", ApiResponseSerializer.toSerializedString(users, HttpUtils.RESPONSE_TYPE_JSON));
+
+        final SuccessResponse success = new SuccessResponse("deleteuserresponse");
+        assertEquals("{\"deleteuserresponse\":{\"success\":\"true\"}}", ApiResponseSerializer.toSerializedString(success, HttpUtils.RESPONSE_TYPE_JSON));
+    }
+
+    @Test
+    public void listJsonCarriesNextStartAfter() {
+        final ListResponse<UserResponse> users = new ListResponse<UserResponse>();
+        users.setResponseName("listusersresponse");
+        users.setResponses(Arrays.asList(user("admin")), null);
+        users.setNextStartAfter("NDI");
+
+        final String json = ApiResponseSerializer.toSerializedString(users, HttpUtils.RESPONSE_TYPE_JSON);
+
+        assertEquals("{\"listusersresponse\":{\"count\":1,\"nextstartafter\":\"NDI\",\"user\":[{\"username\":\"admin\",\"apikey\":\"api-admin\",\"secretkey\":\"secret-admin\","
+                + "\"iscallerchilddomain\":false}]}}", json);
+    }
+
+    @Test
+    public void logOfLargeListIsTruncated() {
+        final List<UserResponse> list = new ArrayList<UserResponse>();
+        for (int i = 0; i < 5000; i++) {
+            list.add(user("user" + i));
+        }
+        final ListResponse<UserResponse> users = new ListResponse<UserResponse>();
+        users.setResponseName("listusersresponse");
+        users.setResponses(list, list.size());
+
+        final StringBuilder log = new StringBuilder();
+        final String json = ApiResponseSerializer.toSerializedStringWithSecureLogs(users, HttpUtils.RESPONSE_TYPE_JSON, log);
+
+        final JsonObject parsed = new JsonParser().parse(json).getAsJsonObject().getAsJsonObject("listusersresponse");
+        assertEquals(5000, parsed.getAsJsonArray("user").size());
+        assertTrue(log.length() <= ApiResponseSerializer.MAX_LOG_LENGTH + 20);
+        assertTrue(log.toString().endsWith("... (truncated)"));
+    }
+}
@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.ha.HighAvailabilityManager.Step;
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+import com.cloud.vm.VirtualMachine;
+
+import org.junit.Test;
+
+public class HaWorkQueueTest {
+    private final HaWorkQueue _queue = new HaWorkQueue();
+
+    private static HaWorkVO work(final WorkType type, final Step step, final long timeToTry) {
+        final HaWorkVO work = new HaWorkVO(1l, VirtualMachine.Type.User, type, step, 1l, VirtualMachine.State.Running, 1, 0l);
+        work.setTimeToTry(timeToTry);
+        return work;
+    }
+
+    @Test
+    public void mostUrgentWorkFirst() throws Exception {
+        final HaWorkVO migration = work(WorkType.Migration, Step.Scheduled, 1);
+        final HaWorkVO stop = work(WorkType.Stop, Step.Scheduled, 1);
+        final HaWorkVO lateRestart = work(WorkType.HA, Step.Scheduled, 2);
+        final HaWorkVO restart = work(WorkType.HA, Step.Scheduled, 1);
+        final HaWorkVO investigating = work(WorkType.HA, Step.Investigating, 3);
+        _queue.addClaimed(Arrays.asList(migration, stop, lateRestart, restart, investigating), false);
+
+        assertEquals(5, _queue.getQueueDepth());
+        assertSame(investigating, _queue.take(0, TimeUnit.MILLISECONDS));
+        assertSame(restart, _queue.take(0, TimeUnit.MILLISECONDS));
+        assertSame(lateRestart, _queue.take(0, TimeUnit.MILLISECONDS));
+        assertSame(stop, _queue.take(0, TimeUnit.MILLISECONDS));
+        assertSame(migration, _queue.take(0, TimeUnit.MILLISECONDS));
+        assertNull(_queue.take(10, TimeUnit.MILLISECONDS));
+        assertEquals(5, _queue.getDispatchedCount());
+    }
+
+    @Test
+    public void idleWorkerAsksForMoreAfterAShortClaim() throws Exception {
+        _queue.addClaimed(Arrays.asList(work(WorkType.HA, Step.Scheduled, 1), work(WorkType.HA, Step.Scheduled, 2)), true);
+
+        _queue.take(0, TimeUnit.MILLISECONDS);
+        _queue.take(0, TimeUnit.MILLISECONDS);
+        assertFalse(_queue.awaitClaimRequest(10));
+        assertNull(_queue.take(10, TimeUnit.MILLISECONDS));
+        assertTrue(_queue.awaitClaimRequest(10));
+
+        _queue.addClaimed(Collections.<HaWorkVO>emptyList(), false);
+        assertNull(_queue.take(10, TimeUnit.MILLISECONDS));
+        assertFalse(_queue.awaitClaimRequest(10));
+    }
+
+    @Test
+    public void claimOnlyForWaitingWorkers() throws Exception {
+        assertEquals(0, _queue.getClaimableCount());
+
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    _queue.take(1, TimeUnit.MINUTES);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        };
+        worker.start();
+        while (_queue.getIdleWorkerCount() == 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, _queue.getClaimableCount());
+
+        _queue.addClaimed(Arrays.asList(work(WorkType.HA, Step.Scheduled, 1)), true);
+        worker.join(10000);
+        assertFalse(worker.isAlive());
+        assertEquals(0, _queue.getClaimableCount());
+    }
+
+    @Test
+    public void stopReleasesWaitingWorkers() throws Exception {
+        final Thread stopper = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                _queue.stop();
+            }
+        };
+        stopper.start();
+
+        assertNull(_queue.take(1, TimeUnit.MINUTES));
+        assertFalse(_queue.awaitClaimRequest(0));
+        stopper.join();
+    }
+}
@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloud.host.Host;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class HostSweeperTest {
+    private final HostSweeper _sweeper = new HostSweeper("TestSweeper", 2, 200);
+
+    @After
+    public void tearDown() {
+        _sweeper.shutdown();
+    }
+
+    private static List<Host> hosts(final int count) {
+        final List<Host> hosts = new ArrayList<Host>();
+        for (long id = 1; id <= count; id++) {
+            final Host host = Mockito.mock(Host.class);
+            Mockito.when(host.getId()).thenReturn(id);
+            hosts.add(host);
+        }
+        return hosts;
+    }
+
+    @Test
+    public void concurrencyIsBounded() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Set<Long> collected = _sweeper.sweep(hosts(10), new HostSweeper.HostTask<Host>() {
+            @Override
+            public boolean collect(final Host host) throws Exception {
+                final int now = running.incrementAndGet();
+                if (now > maxRunning.get()) {
+                    maxRunning.set(now);
+                }
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return host.getId() != 3;
+            }
+        });
+
+        assertEquals(9, collected.size());
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(1, _sweeper.getFailedHostCount());
+        assertEquals(10, _sweeper.getLastSweepHostCount());
+        long latencies = 0;
+        for (final long count : _sweeper.getLatencyHistogram()) {
+            latencies += count;
+        }
+        assertEquals(10, latencies);
+    }
+
+    @Test
+    public void slowHostIsSkippedUntilItAnswers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final HostSweeper.HostTask<Host> task = new HostSweeper.HostTask<Host>() {
+            @Override
+            public boolean collect(final Host host) throws Exception {
+                if (host.getId() == 1) {
+                    // Ignores interrupts like an agent that does not answer
+                    boolean released = false;
+                    while (!released) {
+                        try {
+                            released = release.await(1, TimeUnit.SECONDS);
+                        } catch (final InterruptedException e) {
+                            continue;
+                        }
+                    }
+                }
+                return true;
+            }
+        };
+        final List<Host> hosts = hosts(3);
+
+        final long start = System.currentTimeMillis();
+        assertEquals(2, _sweeper.sweep(hosts, task).size());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, _sweeper.getTimedOutHostCount());
+
+        assertEquals(2, _sweeper.sweep(hosts, task).size());
+        assertEquals(1, _sweeper.getSkippedHostCount());
+
+        release.countDown();
+        Thread.sleep(500);
+        assertEquals(3, _sweeper.sweep(hosts, task).size());
+    }
+}
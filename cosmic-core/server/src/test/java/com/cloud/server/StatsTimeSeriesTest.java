@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StatsTimeSeriesTest {
+    private static final long MINUTE = 60 * 1000L;
+    // Aligned to the coarsest tier
+    private static final long START = 15 * MINUTE * 1000000L;
+
+    @Test
+    public void windowedAverageAndSum() {
+        final StatsTimeSeries series = new StatsTimeSeries(2);
+        for (int i = 0; i < 30; i++) {
+            series.add(START + i * MINUTE, i, 10);
+        }
+        final long now = START + 29 * MINUTE;
+
+        // Last 10 minutes: samples 20 to 29
+        assertEquals(24.5, series.average(0, 10 * MINUTE, now), 0.001);
+        assertEquals(100, series.sum(1, 10 * MINUTE, now), 0.001);
+        assertEquals(14.5, series.average(0, 60 * MINUTE, now), 0.001);
+        assertTrue(Double.isNaN(series.average(0, 10 * MINUTE, now + 120 * MINUTE)));
+
+        assertTrue(series.covers(29 * MINUTE, now));
+        assertFalse(series.covers(30 * MINUTE, now));
+        assertFalse(series.covers(StatsTimeSeries.getRetentionMillis() + MINUTE, now + StatsTimeSeries.getRetentionMillis() + MINUTE));
+    }
+
+    @Test
+    public void olderSamplesAreDownsampled() {
+        final StatsTimeSeries series = new StatsTimeSeries(1);
+        for (int i = 0; i < 180; i++) {
+            series.add(START + i * MINUTE, i < 90 ? 10 : 20);
+        }
+        final long now = START + 179 * MINUTE;
+
+        // The minute tier only goes back an hour, the last three hours come from the fifteen minute tier
+        assertEquals(20, series.average(0, 60 * MINUTE, now), 0.001);
+        assertEquals(15, series.average(0, 180 * MINUTE, now), 0.001);
+        assertEquals(180 * 15, series.sum(0, 180 * MINUTE, now), 0.001);
+    }
+
+    @Test
+    public void bucketsAreReused() {
+        final StatsTimeSeries series = new StatsTimeSeries(1);
+        series.add(START, 100);
+        series.add(START + StatsTimeSeries.getRetentionMillis(), 1);
+        final long now = START + StatsTimeSeries.getRetentionMillis();
+
+        assertEquals(1, series.sum(0, StatsTimeSeries.getRetentionMillis(), now), 0.001);
+        // Late samples that would overwrite newer buckets are dropped
+        series.add(START, 100);
+        assertEquals(1, series.sum(0, StatsTimeSeries.getRetentionMillis(), now), 0.001);
+    }
+}
@@ -0,0 +1,64 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.cloud.server.StatsCollector;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+
+public class MetricsServletTest {
+
+    HttpServletRequest request;
+    HttpServletResponse response;
+
+    @Before
+    public void setup() throws IOException {
+        final StatsCollector statsCollector = new StatsCollector();
+        Whitebox.setInternalState(statsCollector, "_prometheusEnabled", true);
+        Whitebox.setInternalState(statsCollector, "_prometheusAllowedCidrs", Arrays.asList("10.1.0.0/16"));
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    }
+
+    @Test
+    public void servesAllowedClient() throws IOException {
+        Mockito.when(request.getRemoteAddr()).thenReturn("10.1.2.3");
+        new MetricsServlet().doGet(request, response);
+        Mockito.verify(response, Mockito.never()).sendError(Mockito.anyInt());
+        Mockito.verify(response).getWriter();
+    }
+
+    @Test
+    public void refusesOtherClients() throws IOException {
+        Mockito.when(request.getRemoteAddr()).thenReturn("192.168.1.1");
+        new MetricsServlet().doGet(request, response);
+        Mockito.verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        Mockito.verify(response, Mockito.never()).getWriter();
+    }
+}
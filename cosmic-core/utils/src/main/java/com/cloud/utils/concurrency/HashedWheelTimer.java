@@ -0,0 +1,328 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HashedWheelTimer is meant for large numbers of timeouts that are usually
+ * cancelled before they fire, such as the timeouts of outstanding agent
+ * requests.  Scheduling and cancelling are O(1); a single worker thread
+ * advances the wheel every tick and hands expired tasks to the executor.
+ * Timeouts fire with a precision of one tick, never early.
+ */
+public class HashedWheelTimer {
+    private static final Logger s_logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long _tickNanos;
+    private final Bucket[] _wheel;
+    private final int _mask;
+    private final Executor _executor;
+    private final Thread _worker;
+    private final long _startTime;
+    private volatile boolean _stopped;
+
+    private final Queue<WheelTimeout> _added = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final Queue<WheelTimeout> _cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+
+    private final AtomicLong _scheduled = new AtomicLong();
+    private final AtomicLong _expired = new AtomicLong();
+    private final AtomicLong _cancelledCount = new AtomicLong();
+    private final AtomicLong _pending = new AtomicLong();
+
+    /**
+     * Creates a timer that runs expired tasks on its own worker thread.
+     * Tasks must then be short and must not block.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+        this(name, tickDuration, unit, ticksPerWheel, null);
+    }
+
+    /**
+     * @param name name of the worker thread.
+     * @param tickDuration duration of one tick, the precision of the timer.
+     * @param ticksPerWheel number of buckets; rounded up to a power of two.
+     * @param executor runs the expired tasks; null to run them on the worker thread.
+     */
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel, final Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+        }
+        _tickNanos = unit.toNanos(tickDuration);
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        _wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            _wheel[i] = new Bucket();
+        }
+        _mask = size - 1;
+        _executor = executor;
+
+        _startTime = System.nanoTime();
+        _worker = new Thread(new Worker(), name);
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    /**
+     * Runs the task once after the delay, unless the returned timeout is
+     * cancelled first.
+     */
+    public Timeout newTimeout(final Runnable task, final long delay, final TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (_stopped) {
+            throw new IllegalStateException("Timer " + _worker.getName() + " has been stopped");
+        }
+        final long deadline = System.nanoTime() - _startTime + Math.max(unit.toNanos(delay), 0);
+        final WheelTimeout timeout = new WheelTimeout(task, deadline);
+        _scheduled.incrementAndGet();
+        _pending.incrementAndGet();
+        _added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the worker.  Timeouts that have not expired yet never will.
+     */
+    public void stop() {
+        _stopped = true;
+        _worker.interrupt();
+    }
+
+    public long getScheduledCount() {
+        return _scheduled.get();
+    }
+
+    /**
+     * @return number of timeouts that fired.
+     */
+    public long getExpiredCount() {
+        return _expired.get();
+    }
+
+    /**
+     * @return number of timeouts cancelled before they fired, i.e. whatever they guarded completed in time.
+     */
+    public long getCancelledCount() {
+        return _cancelledCount.get();
+    }
+
+    public long getPendingCount() {
+        return _pending.get();
+    }
+
+    public interface Timeout {
+        /**
+         * @return true if this call prevented the task from running.
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    private final class Worker implements Runnable {
+        private long _tick;
+
+        @Override
+        public void run() {
+            while (!_stopped) {
+                final long deadline = waitForNextTick();
+                if (deadline < 0) {
+                    continue;
+                }
+                removeCancelled();
+                transferAdded();
+                _wheel[(int)(_tick & _mask)].expire();
+                _tick++;
+            }
+        }
+
+        private long waitForNextTick() {
+            final long deadline = _tickNanos * (_tick + 1);
+            while (true) {
+                final long sleepNanos = deadline - (System.nanoTime() - _startTime);
+                if (sleepNanos <= 0) {
+                    return deadline;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (final InterruptedException e) {
+                    if (_stopped) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void transferAdded() {
+            WheelTimeout timeout;
+            while ((timeout = _added.poll()) != null) {
+                if (timeout._state.get() == WheelTimeout.ST_CANCELLED) {
+                    continue;
+                }
+                final long ticks = Math.max(timeout._deadline / _tickNanos, _tick);
+                timeout._remainingRounds = (ticks - _tick) / _wheel.length;
+                _wheel[(int)(ticks & _mask)].add(timeout);
+            }
+        }
+
+        private void removeCancelled() {
+            WheelTimeout timeout;
+            while ((timeout = _cancelled.poll()) != null) {
+                if (timeout._bucket != null) {
+                    timeout._bucket.remove(timeout);
+                }
+            }
+        }
+    }
+
+    private final class WheelTimeout implements Timeout {
+        static final int ST_INIT = 0;
+        static final int ST_CANCELLED = 1;
+        static final int ST_EXPIRED = 2;
+
+        final Runnable _task;
+        final long _deadline;
+        final AtomicInteger _state = new AtomicInteger(ST_INIT);
+
+        // Only touched by the worker thread
+        long _remainingRounds;
+        Bucket _bucket;
+        WheelTimeout _prev;
+        WheelTimeout _next;
+
+        WheelTimeout(final Runnable task, final long deadline) {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!_state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            _cancelledCount.incrementAndGet();
+            _pending.decrementAndGet();
+            _cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _state.get() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return _state.get() == ST_EXPIRED;
+        }
+
+        void expire() {
+            if (!_state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            _expired.incrementAndGet();
+            _pending.decrementAndGet();
+            try {
+                if (_executor != null) {
+                    _executor.execute(_task);
+                } else {
+                    _task.run();
+                }
+            } catch (final Throwable th) {
+                s_logger.warn("Timeout task " + _task + " failed", th);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed to one slot; only the worker
+     * thread touches it.
+     */
+    private static final class Bucket {
+        private WheelTimeout _head;
+        private WheelTimeout _tail;
+
+        void add(final WheelTimeout timeout) {
+            timeout._bucket = this;
+            if (_head == null) {
+                _head = _tail = timeout;
+            } else {
+                _tail._next = timeout;
+                timeout._prev = _tail;
+                _tail = timeout;
+            }
+        }
+
+        void expire() {
+            WheelTimeout timeout = _head;
+            while (timeout != null) {
+                final WheelTimeout next = timeout._next;
+                if (timeout._remainingRounds <= 0) {
+                    // The deadline falls within this tick, see transferAdded()
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout._remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(final WheelTimeout timeout) {
+            if (timeout._bucket != this) {
+                return;
+            }
+            if (timeout._prev != null) {
+                timeout._prev._next = timeout._next;
+            } else {
+                _head = timeout._next;
+            }
+            if (timeout._next != null) {
+                timeout._next._prev = timeout._prev;
+            } else {
+                _tail = timeout._prev;
+            }
+            timeout._prev = null;
+            timeout._next = null;
+            timeout._bucket = null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.utils.mgmt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number of calls per latency bucket, for the MBeans that report latencies.
+ * They all use the same buckets so their histograms can be compared.
+ */
+public class LatencyHistogram {
+    private static final long[] BUCKETS_MILLIS = {10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE};
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS_MILLIS.length);
+
+    /**
+     * @return the upper bound of each bucket, inclusive.
+     */
+    public static long[] getBucketsMillis() {
+        return BUCKETS_MILLIS.clone();
+    }
+
+    public void record(final long millis) {
+        int bucket = 0;
+        while (millis > BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        _counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return the number of calls in each bucket.
+     */
+    public long[] getCounts() {
+        final long[] counts = new long[_counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = _counts.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,179 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool keeps released ByteBuffers around, bucketed by exact capacity,
+ * so the NIO transport can reuse them instead of allocating a new buffer for
+ * every packet.  Buffers larger than the maximum pooled capacity are handed
+ * out but never retained.
+ */
+public class BufferPool {
+    private final boolean _direct;
+    private final int _maxPooledCapacity;
+    private final long _maxRetainedBytesPerCapacity;
+
+    private final ConcurrentHashMap<Integer, Bucket> _buckets = new ConcurrentHashMap<Integer, Bucket>();
+
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _allocatedBytes = new AtomicLong();
+    private final AtomicLong _poolHits = new AtomicLong();
+    private final AtomicLong _releases = new AtomicLong();
+    private final AtomicLong _discards = new AtomicLong();
+
+    /**
+     * @param direct allocate direct buffers instead of heap buffers.
+     * @param maxPooledCapacity buffers with a larger capacity are not retained on release.
+     * @param maxRetainedBytesPerCapacity upper bound of the bytes kept idle for one capacity.
+     */
+    public BufferPool(final boolean direct, final int maxPooledCapacity, final long maxRetainedBytesPerCapacity) {
+        _direct = direct;
+        _maxPooledCapacity = maxPooledCapacity;
+        _maxRetainedBytesPerCapacity = maxRetainedBytesPerCapacity;
+    }
+
+    /**
+     * Returns a cleared buffer with exactly the capacity requested.
+     */
+    public ByteBuffer acquire(final int capacity) {
+        final Bucket bucket = _buckets.get(capacity);
+        if (bucket != null) {
+            final ByteBuffer buffer = bucket.poll();
+            if (buffer != null) {
+                _poolHits.incrementAndGet();
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        _allocations.incrementAndGet();
+        _allocatedBytes.addAndGet(capacity);
+        return _direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Hands a buffer back to the pool.  The caller must not touch the buffer afterwards.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        final int capacity = buffer.capacity();
+        if (buffer.isDirect() != _direct || capacity > _maxPooledCapacity) {
+            _discards.incrementAndGet();
+            return;
+        }
+
+        Bucket bucket = _buckets.get(capacity);
+        if (bucket == null) {
+            final Bucket newBucket = new Bucket(Math.max(1, (int)(_maxRetainedBytesPerCapacity / capacity)));
+            bucket = _buckets.putIfAbsent(capacity, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+
+        if (bucket.offer(buffer)) {
+            _releases.incrementAndGet();
+        } else {
+            _discards.incrementAndGet();
+        }
+    }
+
+    public boolean isDirect() {
+        return _direct;
+    }
+
+    /**
+     * @return number of buffers that had to be allocated because none was pooled.
+     */
+    public long getAllocations() {
+        return _allocations.get();
+    }
+
+    public long getAllocatedBytes() {
+        return _allocatedBytes.get();
+    }
+
+    /**
+     * @return number of acquires served from the pool.
+     */
+    public long getPoolHits() {
+        return _poolHits.get();
+    }
+
+    public long getReleases() {
+        return _releases.get();
+    }
+
+    /**
+     * @return number of released buffers dropped because the pool was full or they were too large.
+     */
+    public long getDiscards() {
+        return _discards.get();
+    }
+
+    public int getIdleBuffers() {
+        int count = 0;
+        for (final Bucket bucket : _buckets.values()) {
+            count += bucket.size();
+        }
+        return count;
+    }
+
+    private static class Bucket {
+        private final Queue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger _size = new AtomicInteger();
+        private final int _maxSize;
+
+        Bucket(final int maxSize) {
+            _maxSize = maxSize;
+        }
+
+        ByteBuffer poll() {
+            final ByteBuffer buffer = _buffers.poll();
+            if (buffer != null) {
+                _size.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        boolean offer(final ByteBuffer buffer) {
+            if (_size.incrementAndGet() > _maxSize) {
+                _size.decrementAndGet();
+                return false;
+            }
+            _buffers.offer(buffer);
+            return true;
+        }
+
+        int size() {
+            return _size.get();
+        }
+    }
+}
@@ -62,6 +62,9 @@ public class Link {
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
+    private ByteBuffer _packetBuffer;
+    private final ByteBuffer _headerBuffer;
+    private final ByteBuffer[] _gatherBuffers;
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
@@ -69,15 +72,25 @@ public class Link {
     private SSLEngine _sslEngine;
     public static final String keystoreFile = "/cloudmanagementserver.keystore";
 
+    /* Direct buffers for the encrypted packets going through the socket */
+    private static final BufferPool s_packetBufferPool = new BufferPool(true, 64 * 1024, 16 * 1024 * 1024);
+    /* Heap buffers for the decrypted messages, which end up in a byte[] anyway */
+    private static final BufferPool s_plaintextBufferPool = new BufferPool(false, 4 * 1024 * 1024, 16 * 1024 * 1024);
+    private static final int MIN_PLAINTEXT_CAPACITY = 4096;
+
+    /* Marks the end of the write queue when the link has to be closed after sending */
+    private static final ByteBuffer[] CLOSE_MARKER = new ByteBuffer[0];
+
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
         _readHeader = true;
         _gotFollowingPacket = false;
+        _headerBuffer = ByteBuffer.allocateDirect(4);
+        _gatherBuffers = new ByteBuffer[2];
     }
 
     public Link(Link link) {
@@ -145,16 +158,14 @@ public class Link {
     }
      */
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
-        SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+    private static long doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, ByteBuffer pkgBuf, ByteBuffer headBuf, ByteBuffer[] gather)
+            throws IOException {
         SSLEngineResult engResult;
-
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
+        long written = 0;
 
         int totalLen = 0;
         for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
+            totalLen += buffer.remaining();
         }
 
         int processedLen = 0;
@@ -167,14 +178,9 @@ public class Link {
                 throw new IOException("SSL: SSLEngine return bad result! " + engResult);
             }
 
-            processedLen = 0;
-            for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
-            }
+            processedLen += engResult.bytesConsumed();
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
+            int header = pkgBuf.position();
             pkgBuf.flip();
             if (processedLen < totalLen) {
                 header = header | HEADER_FLAG_FOLLOWING;
@@ -182,21 +188,17 @@ public class Link {
             headBuf.putInt(header);
             headBuf.flip();
 
-            while (headRemaining > 0) {
+            // Header and packet go out in a single gathering write
+            gather[0] = headBuf;
+            gather[1] = pkgBuf;
+            while (headBuf.hasRemaining() || pkgBuf.hasRemaining()) {
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                    s_logger.trace("Writing " + (headBuf.remaining() + pkgBuf.remaining()) + " bytes");
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
-                }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+                written += ch.write(gather);
             }
         }
+        return written;
     }
 
     /**
@@ -210,23 +212,49 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized (ch) {
-            doWrite(ch, buffers, sslEngine);
+            ByteBuffer pkgBuf = s_packetBufferPool.acquire(getPacketBufferCapacity(sslEngine));
+            ByteBuffer headBuf = s_packetBufferPool.acquire(4);
+            try {
+                doWrite(ch, buffers, sslEngine, pkgBuf, headBuf, new ByteBuffer[2]);
+            } finally {
+                s_packetBufferPool.release(pkgBuf);
+                s_packetBufferPool.release(headBuf);
+            }
         }
     }
 
+    private static int getPacketBufferCapacity(SSLEngine sslEngine) {
+        return sslEngine.getSession().getPacketBufferSize() + 40;
+    }
+
+    public static BufferPool getPacketBufferPool() {
+        return s_packetBufferPool;
+    }
+
+    public static BufferPool getPlaintextBufferPool() {
+        return s_plaintextBufferPool;
+    }
+
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int MAX_SIZE_PER_PACKET = 18000;
     protected static final int HEADER_FLAG_FOLLOWING = 0x10000;
 
     public byte[] read(SocketChannel ch) throws IOException {
+        if (_readBuffer == null) {
+            _readBuffer = s_packetBufferPool.acquire(MAX_SIZE_PER_PACKET);
+            _readBuffer.limit(4);
+        }
+
         if (_readHeader) {   // Start of a packet
             if (_readBuffer.position() == 0) {
                 _readBuffer.limit(4);
             }
 
-            if (ch.read(_readBuffer) == -1) {
+            int count = ch.read(_readBuffer);
+            if (count == -1) {
                 throw new IOException("Connection closed with -1 on reading size.");
             }
+            _connection.bytesRead(count);
 
             if (_readBuffer.hasRemaining()) {
                 s_logger.trace("Need to read the rest of the packet length");
@@ -244,7 +272,8 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                s_plaintextBufferPool.release(_plaintextBuffer);
+                _plaintextBuffer = s_plaintextBufferPool.acquire(Math.max(MIN_PLAINTEXT_CAPACITY, getApplicationBufferCapacity()));
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -255,19 +284,14 @@ public class Link {
 
             _readBuffer.clear();
             _readHeader = false;
-
-            if (_readBuffer.capacity() < readSize) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
-                }
-                _readBuffer = ByteBuffer.allocate(readSize);
-            }
             _readBuffer.limit(readSize);
         }
 
-        if (ch.read(_readBuffer) == -1) {
+        int count = ch.read(_readBuffer);
+        if (count == -1) {
             throw new IOException("Connection closed with -1 on read.");
         }
+        _connection.bytesRead(count);
 
         if (_readBuffer.hasRemaining()) {   // We're not done yet.
             if (s_logger.isTraceEnabled()) {
@@ -278,16 +302,14 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
-        SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+            // Unwrap straight into the plaintext buffer, making room for a full SSL record first
+            ensurePlaintextCapacity(getApplicationBufferCapacity());
+            engResult = _sslEngine.unwrap(_readBuffer, _plaintextBuffer);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
                 throw new IOException("SSL: SSLEngine return bad result! " + engResult);
@@ -296,27 +318,22 @@ public class Link {
                 throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
             }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
             if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                s_logger.trace("Done with packet: " + engResult.bytesProduced());
             }
         }
 
         _readBuffer.clear();
+        _readBuffer.limit(4);
         _readHeader = true;
 
         if (!_gotFollowingPacket) {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            s_plaintextBufferPool.release(_plaintextBuffer);
+            _plaintextBuffer = null;
+            _connection.messageRead();
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -326,6 +343,23 @@ public class Link {
         }
     }
 
+    private int getApplicationBufferCapacity() {
+        return _sslEngine.getSession().getApplicationBufferSize() + 40;
+    }
+
+    private void ensurePlaintextCapacity(int required) {
+        if (_plaintextBuffer.remaining() >= required) {
+            return;
+        }
+        // Grow in powers of two so the grown buffers fall into a few reusable pool buckets
+        int capacity = Integer.highestOneBit(_plaintextBuffer.position() + required - 1) << 1;
+        ByteBuffer newBuffer = s_plaintextBufferPool.acquire(capacity);
+        _plaintextBuffer.flip();
+        newBuffer.put(_plaintextBuffer);
+        s_plaintextBufferPool.release(_plaintextBuffer);
+        _plaintextBuffer = newBuffer;
+    }
+
     public void send(byte[] data) throws ClosedChannelException {
         send(data, false);
     }
@@ -335,24 +369,19 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        if (data.length > 0) {
+            _writeQueue.add(data);
+        }
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_MARKER);
         }
         synchronized (this) {
             if (_key == null) {
@@ -375,17 +404,19 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_MARKER) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
+            if (_packetBuffer == null) {
+                _packetBuffer = s_packetBufferPool.acquire(getPacketBufferCapacity(_sslEngine));
+            }
 
-            doWrite(ch, raw_data, _sslEngine);
+            long written = doWrite(ch, data, _sslEngine, _packetBuffer, _headerBuffer, _gatherBuffers);
+            _connection.messageWritten(written);
         }
         return false;
     }
@@ -402,6 +433,21 @@ public class Link {
         _key = null;
     }
 
+    /**
+     * Hands the pooled buffers back.  Only called from the selector thread,
+     * which is also the only thread reading and writing through this link.
+     */
+    void releaseBuffers() {
+        s_packetBufferPool.release(_readBuffer);
+        _readBuffer = null;
+        s_packetBufferPool.release(_packetBuffer);
+        _packetBuffer = null;
+        s_plaintextBufferPool.release(_plaintextBuffer);
+        _plaintextBuffer = null;
+        _readHeader = true;
+        _gotFollowingPacket = false;
+    }
+
     public synchronized void schedule(Task task) throws ClosedChannelException {
         if (_key == null) {
             throw new ClosedChannelException();
@@ -32,17 +32,19 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -68,11 +70,27 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected boolean _isRunning;
     protected boolean _isStartup;
     protected int _port;
-    protected List<ChangeRequest> _todos;
+    protected Queue<ChangeRequest> _todos;
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
 
+    /*
+     * Number of selector threads serving the links.  With 0 the links are served by the
+     * selector of the connection itself; otherwise that selector only accepts, handshakes
+     * run on their own pool and the links are spread over the reactors.
+     */
+    protected int _reactorCount;
+    protected NioReactor[] _reactors;
+    protected ExecutorService _reactorExecutor;
+    protected ExecutorService _handshakeExecutor;
+    private final AtomicInteger _nextReactor = new AtomicInteger();
+
+    private final AtomicLong _bytesRead = new AtomicLong();
+    private final AtomicLong _bytesWritten = new AtomicLong();
+    private final AtomicLong _messagesRead = new AtomicLong();
+    private final AtomicLong _messagesWritten = new AtomicLong();
+
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
         _name = name;
         _isRunning = false;
@@ -83,7 +101,7 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void start() throws NioConnectionException {
-        _todos = new ArrayList<ChangeRequest>();
+        _todos = new ConcurrentLinkedQueue<ChangeRequest>();
 
         try {
             init();
@@ -99,12 +117,38 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
         _isStartup = true;
 
+        if (_reactorCount > 0) {
+            try {
+                startReactors();
+            } catch (final IOException e) {
+                s_logger.error("Unable to start the reactor threads.", e);
+                throw new NioConnectionException(e.getMessage(), e);
+            }
+        }
+
         _threadExecutor = Executors.newSingleThreadExecutor();
         _futureTask = _threadExecutor.submit(this);
 
         _isRunning = true;
     }
 
+    private void startReactors() throws IOException {
+        _reactors = new NioReactor[_reactorCount];
+        for (int i = 0; i < _reactorCount; i++) {
+            _reactors[i] = new NioReactor(this, Selector.open());
+        }
+        // the queue is unbounded so the pool never grows past its core size, let the core threads time out instead
+        final ThreadPoolExecutor handshakeExecutor = new ThreadPoolExecutor(4 * _reactorCount, 4 * _reactorCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(_name + "-Handshake"));
+        handshakeExecutor.allowCoreThreadTimeOut(true);
+        _handshakeExecutor = handshakeExecutor;
+        _reactorExecutor = Executors.newFixedThreadPool(_reactorCount, new NamedThreadFactory(_name + "-Reactor"));
+        for (final NioReactor reactor : _reactors) {
+            _reactorExecutor.submit(reactor);
+        }
+        s_logger.info("Started " + _reactorCount + " reactor threads for " + _name);
+    }
+
     public void stop() {
         _executor.shutdown();
         _isRunning = false;
@@ -112,6 +156,13 @@ public abstract class NioConnection implements Callable<Boolean> {
             _futureTask.cancel(false);
             _threadExecutor.shutdown();
         }
+        if (_reactors != null) {
+            for (final NioReactor reactor : _reactors) {
+                reactor.stop();
+            }
+            _reactorExecutor.shutdown();
+            _handshakeExecutor.shutdown();
+        }
     }
 
     public boolean isRunning() {
@@ -128,42 +179,9 @@ public abstract class NioConnection implements Callable<Boolean> {
             try {
                 _selector.select();
 
-                // Someone is ready for I/O, get the ready keys
-                final Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                final Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    final SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        final Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
-
-                s_logger.trace("Keys Done Processing.");
+                processSelectedKeys(_selector);
 
-                processTodos();
+                processTodos(_selector, _todos);
             } catch (final ClosedSelectorException e) {
                 /*
                  * Exception occurred when calling java.nio.channels.Selector.selectedKeys() method. It means the connection has not yet been established. Let's continue trying
@@ -178,6 +196,43 @@ public abstract class NioConnection implements Callable<Boolean> {
         return true;
     }
 
+    protected void processSelectedKeys(final Selector selector) throws IOException {
+        // Someone is ready for I/O, get the ready keys
+        final Set<SelectionKey> readyKeys = selector.selectedKeys();
+        final Iterator<SelectionKey> i = readyKeys.iterator();
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Keys Processing: " + readyKeys.size());
+        }
+        // Walk through the ready keys collection.
+        while (i.hasNext()) {
+            final SelectionKey sk = i.next();
+            i.remove();
+
+            if (!sk.isValid()) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Selection Key is invalid: " + sk.toString());
+                }
+                final Link link = (Link)sk.attachment();
+                if (link != null) {
+                    terminated(link);
+                } else {
+                    closeConnection(sk);
+                }
+            } else if (sk.isReadable()) {
+                read(sk);
+            } else if (sk.isWritable()) {
+                write(sk);
+            } else if (sk.isAcceptable()) {
+                accept(sk);
+            } else if (sk.isConnectable()) {
+                connect(sk);
+            }
+        }
+
+        s_logger.trace("Keys Done Processing.");
+    }
+
     abstract void init() throws IOException;
 
     abstract void registerLink(InetSocketAddress saddr, Link link);
@@ -188,6 +243,9 @@ public abstract class NioConnection implements Callable<Boolean> {
         final ServerSocketChannel serverSocketChannel = (ServerSocketChannel)key.channel();
 
         final SocketChannel socketChannel = serverSocketChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
         final Socket socket = socketChannel.socket();
         socket.setKeepAlive(true);
 
@@ -195,11 +253,45 @@ public abstract class NioConnection implements Callable<Boolean> {
             s_logger.trace("Connection accepted for " + socket);
         }
 
-        // Begin SSL handshake in BLOCKING mode
-        socketChannel.configureBlocking(true);
+        if (_reactors != null) {
+            // Keep the acceptor responsive: a slow handshake only occupies a handshake thread
+            try {
+                _handshakeExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Link link = handshake(socketChannel);
+                        if (link != null) {
+                            nextReactor().connected(socketChannel, link);
+                        }
+                    }
+                });
+            } catch (final Exception e) {
+                s_logger.warn("Exception occurred when submitting the handshake", e);
+                closeAutoCloseable(socketChannel, "accepting socketChannel");
+            }
+            return;
+        }
+
+        final Link link = handshake(socketChannel);
+        if (link == null) {
+            return;
+        }
+        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+        connected(link);
+    }
 
+    /**
+     * Does the SSL handshake of an accepted socket in blocking mode.
+     *
+     * @return the link for the socket, or null if the handshake failed and the socket got closed.
+     */
+    protected Link handshake(final SocketChannel socketChannel) {
+        final Socket socket = socketChannel.socket();
         SSLEngine sslEngine = null;
         try {
+            // Begin SSL handshake in BLOCKING mode
+            socketChannel.configureBlocking(true);
+
             final SSLContext sslContext = Link.initSSLContext(false);
             sslEngine = sslContext.createSSLEngine();
             sslEngine.setUseClientMode(false);
@@ -208,25 +300,29 @@ public abstract class NioConnection implements Callable<Boolean> {
 
             Link.doHandshake(socketChannel, sslEngine, false);
 
+            socketChannel.configureBlocking(false);
         } catch (final Exception e) {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Socket " + socket + " closed on read.  Probably -1 returned: " + e.getMessage());
             }
             closeAutoCloseable(socketChannel, "accepting socketChannel");
             closeAutoCloseable(socket, "opened socket");
-            return;
+            return null;
         }
 
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("SSL: Handshake done");
         }
-        socketChannel.configureBlocking(false);
         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
         final Link link = new Link(saddr, this);
         link.setSSLEngine(sslEngine);
-        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+        return link;
+    }
+
+    /* Announces a link of which the key has been registered */
+    protected void connected(final Link link) {
         final Task task = _factory.create(Task.Type.CONNECT, link, null);
-        registerLink(saddr, link);
+        registerLink(link.getSocketAddress(), link);
 
         try {
             _executor.submit(task);
@@ -235,11 +331,16 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
+    protected NioReactor nextReactor() {
+        final int next = _nextReactor.getAndIncrement() & Integer.MAX_VALUE;
+        return _reactors[next % _reactors.length];
+    }
+
     protected void terminate(final SelectionKey key) {
         final Link link = (Link)key.attachment();
         closeConnection(key);
         if (link != null) {
-            link.terminated();
+            terminated(link);
             final Task task = _factory.create(Task.Type.DISCONNECT, link, null);
             unregisterLink(link.getSocketAddress());
 
@@ -278,6 +379,12 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
+    /* Must run on the selector thread, which owns the buffers of the link */
+    private void terminated(final Link link) {
+        link.terminated();
+        link.releaseBuffers();
+    }
+
     protected void logTrace(final Exception e, final SelectionKey key, final int loc) {
         if (s_logger.isTraceEnabled()) {
             Socket socket = null;
@@ -306,22 +413,15 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
-    protected void processTodos() {
-        List<ChangeRequest> todos;
-        if (_todos.size() == 0) {
+    protected void processTodos(final Selector selector, final Queue<ChangeRequest> todos) {
+        if (todos.isEmpty()) {
             return;             // Nothing to do.
         }
 
-        synchronized (this) {
-            todos = _todos;
-            _todos = new ArrayList<ChangeRequest>();
-        }
-
-        if (s_logger.isTraceEnabled()) {
-            s_logger.trace("Todos Processing: " + todos.size());
-        }
+        s_logger.trace("Todos Processing");
         SelectionKey key;
-        for (final ChangeRequest todo : todos) {
+        ChangeRequest todo;
+        while ((todo = todos.poll()) != null) {
             switch (todo.type) {
             case ChangeRequest.CHANGEOPS:
                 try {
@@ -340,7 +440,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 break;
             case ChangeRequest.REGISTER:
                 try {
-                    key = ((SocketChannel)todo.key).register(_selector, todo.ops, todo.att);
+                    key = ((SocketChannel)todo.key).register(selector, todo.ops, todo.att);
                     if (todo.att != null) {
                         final Link link = (Link)todo.att;
                         link.setKey(key);
@@ -353,7 +453,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                         s_logger.info("[ignored] socket channel");
                     } finally {
                         final Link link = (Link)todo.att;
-                        link.terminated();
+                        terminated(link);
                     }
                 }
                 break;
@@ -366,10 +466,21 @@ public abstract class NioConnection implements Callable<Boolean> {
                 if (key != null) {
                     final Link link = (Link)key.attachment();
                     if (link != null) {
-                        link.terminated();
+                        terminated(link);
                     }
                 }
                 break;
+            case ChangeRequest.CONNECTED:
+                final Link link = (Link)todo.att;
+                try {
+                    link.setKey(((SocketChannel)todo.key).register(selector, todo.ops, link));
+                    connected(link);
+                } catch (final ClosedChannelException e) {
+                    s_logger.warn("Couldn't register socket: " + todo.key);
+                    closeAutoCloseable((SocketChannel)todo.key, "accepted socketChannel");
+                    terminated(link);
+                }
+                break;
             default:
                 s_logger.warn("Shouldn't be here");
                 throw new RuntimeException("Shouldn't be here");
@@ -424,7 +535,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             final boolean close = link.write((SocketChannel)key.channel());
             if (close) {
                 closeConnection(key);
-                link.terminated();
+                terminated(link);
             } else {
                 key.interestOps(SelectionKey.OP_READ);
             }
@@ -452,27 +563,68 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void register(final int ops, final SocketChannel key, final Object att) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.REGISTER, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        addTodo(_selector, _todos, new ChangeRequest(key, ChangeRequest.REGISTER, ops, att));
     }
 
     public void change(final int ops, final SelectionKey key, final Object att) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        addTodo(key.selector(), new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att));
     }
 
     public void close(final SelectionKey key) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
-        synchronized (this) {
-            _todos.add(todo);
+        addTodo(key.selector(), new ChangeRequest(key, ChangeRequest.CLOSE, 0, null));
+    }
+
+    /* Changes to a key have to be done by the thread selecting on it */
+    private void addTodo(final Selector selector, final ChangeRequest todo) {
+        if (_reactors != null) {
+            for (final NioReactor reactor : _reactors) {
+                if (reactor.getSelector() == selector) {
+                    reactor.addTodo(todo);
+                    return;
+                }
+            }
         }
-        _selector.wakeup();
+        addTodo(selector, _todos, todo);
+    }
+
+    private static void addTodo(final Selector selector, final Queue<ChangeRequest> todos, final ChangeRequest todo) {
+        todos.add(todo);
+        selector.wakeup();
+    }
+
+    void bytesRead(final long count) {
+        _bytesRead.addAndGet(count);
+    }
+
+    void messageRead() {
+        _messagesRead.incrementAndGet();
+    }
+
+    void messageWritten(final long bytes) {
+        _messagesWritten.incrementAndGet();
+        _bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * @return bytes read from the sockets of this connection, including SSL and framing overhead.
+     */
+    public long getBytesRead() {
+        return _bytesRead.get();
+    }
+
+    /**
+     * @return bytes written to the sockets of this connection, including SSL and framing overhead.
+     */
+    public long getBytesWritten() {
+        return _bytesWritten.get();
+    }
+
+    public long getMessagesRead() {
+        return _messagesRead.get();
+    }
+
+    public long getMessagesWritten() {
+        return _messagesWritten.get();
     }
 
     /* Release the resource used by the instance */
@@ -480,12 +632,22 @@ public abstract class NioConnection implements Callable<Boolean> {
         if (_selector != null) {
             _selector.close();
         }
+        if (_reactors != null) {
+            for (final NioReactor reactor : _reactors) {
+                reactor.getSelector().close();
+            }
+        }
+    }
+
+    public int getReactorCount() {
+        return _reactorCount;
     }
 
     public class ChangeRequest {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int CONNECTED = 4;
 
         public Object key;
         public int type;
@@ -0,0 +1,101 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.cloud.utils.nio.NioConnection.ChangeRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NioReactor is one selector thread of a NioConnection.  It serves the I/O of
+ * the links registered on its selector; every change to those links is handed
+ * over through its todo queue, which any thread may add to without locking.
+ */
+public class NioReactor implements Runnable {
+    private static final Logger s_logger = LoggerFactory.getLogger(NioReactor.class);
+
+    private final NioConnection _connection;
+    private final Selector _selector;
+    private final Queue<ChangeRequest> _todos;
+    private volatile boolean _isRunning;
+
+    public NioReactor(final NioConnection connection, final Selector selector) {
+        _connection = connection;
+        _selector = selector;
+        _todos = new ConcurrentLinkedQueue<ChangeRequest>();
+        _isRunning = true;
+    }
+
+    @Override
+    public void run() {
+        while (_isRunning) {
+            try {
+                _selector.select();
+
+                _connection.processSelectedKeys(_selector);
+
+                _connection.processTodos(_selector, _todos);
+            } catch (final ClosedSelectorException e) {
+                s_logger.debug("Selector closed, stopping reactor");
+                return;
+            } catch (final IOException e) {
+                s_logger.error("Reactor will die due to this IOException!", e);
+                return;
+            }
+        }
+    }
+
+    public Selector getSelector() {
+        return _selector;
+    }
+
+    /**
+     * @return number of links currently registered on this reactor.
+     */
+    public int getLinkCount() {
+        return _selector.keys().size();
+    }
+
+    void addTodo(final ChangeRequest todo) {
+        _todos.add(todo);
+        _selector.wakeup();
+    }
+
+    /**
+     * Registers a socket of which the handshake is done and announces its link.
+     */
+    void connected(final SocketChannel channel, final Link link) {
+        addTodo(_connection.new ChangeRequest(channel, ChangeRequest.CONNECTED, SelectionKey.OP_READ, link));
+    }
+
+    void stop() {
+        _isRunning = false;
+        _selector.wakeup();
+    }
+}
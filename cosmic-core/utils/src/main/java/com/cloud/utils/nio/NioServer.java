@@ -25,6 +25,8 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Map;
 import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
@@ -36,12 +38,22 @@ public class NioServer extends NioConnection {
     protected InetSocketAddress _localAddr;
     private ServerSocketChannel _serverSocket;
 
-    protected WeakHashMap<InetSocketAddress, Link> _links;
+    protected Map<InetSocketAddress, Link> _links;
 
     public NioServer(final String name, final int port, final int workers, final HandlerFactory factory) {
+        this(name, port, workers, 0, factory);
+    }
+
+    /**
+     * @param reactors number of selector threads serving the accepted links; with 0 a single
+     *                 thread accepts, handshakes and serves all links.
+     */
+    public NioServer(final String name, final int port, final int workers, final int reactors, final HandlerFactory factory) {
         super(name, port, workers, factory);
         _localAddr = null;
-        _links = new WeakHashMap<InetSocketAddress, Link>(1024);
+        _reactorCount = Math.max(0, reactors);
+        // Links get registered from the handshake threads and unregistered from the reactors
+        _links = Collections.synchronizedMap(new WeakHashMap<InetSocketAddress, Link>(1024));
     }
 
     @Override
@@ -19,19 +19,39 @@
 
 package org.apache.cloudstack.utils.graphite;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.HashMap;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
-public class GraphiteClient {
+/**
+ * Sends metrics to Graphite over UDP.  The client keeps one datagram channel
+ * open between calls and packs as many metric lines into a packet as fit in
+ * MAX_PACKET_SIZE.  Instances are thread safe, but callers sending from many
+ * threads are better off with a GraphiteReporter.
+ */
+public class GraphiteClient implements Closeable {
+
+    /**
+     * Payload that fits an Ethernet frame with the IP and UDP headers, so packets are never fragmented.
+     */
+    public static final int MAX_PACKET_SIZE = 1400;
 
     private String graphiteHost;
     private int graphitePort;
 
+    private DatagramChannel channel;
+    private final ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
+    private final ByteBuffer line = ByteBuffer.allocate(MAX_PACKET_SIZE);
+    private final StringBuilder lineBuilder = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
     /**
      * Create a new Graphite client
      *
@@ -49,8 +69,7 @@ public class GraphiteClient {
      * @param graphiteHost Hostname of the Graphite host. Will default to port 2003
      */
     public GraphiteClient(String graphiteHost) {
-        this.graphiteHost = graphiteHost;
-        graphitePort = 2003;
+        this(graphiteHost, 2003);
     }
 
     /**
@@ -67,7 +86,7 @@ public class GraphiteClient {
      *
      * @param metrics the metrics as key-value-pairs
      */
-    public void sendMetrics(Map<String, Integer> metrics) {
+    public void sendMetrics(Map<String, ? extends Number> metrics) {
         sendMetrics(metrics, getCurrentSystemTime());
     }
 
@@ -77,23 +96,79 @@ public class GraphiteClient {
      * @param metrics the metrics as key-value-pairs
      * @param timeStamp the timestamp
      */
-    public void sendMetrics(Map<String, Integer> metrics, long timeStamp) {
-        try (DatagramSocket sock = new DatagramSocket()){
-            java.security.Security.setProperty("networkaddress.cache.ttl", "0");
-            InetAddress addr = InetAddress.getByName(this.graphiteHost);
-
-            for (Map.Entry<String, Integer> metric: metrics.entrySet()) {
-                byte[] message = new String(metric.getKey() + " " + metric.getValue() + " " + timeStamp + "\n").getBytes();
-                DatagramPacket packet = new DatagramPacket(message, message.length, addr, graphitePort);
-                sock.send(packet);
-            }
-        } catch (UnknownHostException e) {
+    public void sendMetrics(Map<String, ? extends Number> metrics, long timeStamp) {
+        GraphiteMetrics batch = new GraphiteMetrics(timeStamp, metrics.size());
+        for (Map.Entry<String, ? extends Number> metric : metrics.entrySet()) {
+            batch.add("", metric.getKey(), metric.getValue().doubleValue());
+        }
+        sendMetrics(batch);
+    }
+
+    /**
+     * Send a batch of metrics to graphite, packing as many of them in a packet as fit.
+     *
+     * @param metrics the metrics
+     *
+     * @throws GraphiteException if sending data to graphite failed
+     */
+    public synchronized void sendMetrics(GraphiteMetrics metrics) {
+        InetSocketAddress addr = new InetSocketAddress(graphiteHost, graphitePort);
+        if (addr.isUnresolved()) {
             throw new GraphiteException("Unknown host: " + graphiteHost);
+        }
+
+        try {
+            if (channel == null || !channel.isOpen()) {
+                channel = DatagramChannel.open();
+            }
+
+            packet.clear();
+            for (int i = 0; i < metrics.size(); i++) {
+                if (!encodeLine(metrics, i)) {
+                    // A line that does not fit a packet on its own cannot be sent over UDP
+                    continue;
+                }
+                if (line.remaining() > packet.remaining()) {
+                    flush(addr);
+                }
+                packet.put(line);
+            }
+            flush(addr);
         } catch (IOException e) {
+            close();
             throw new GraphiteException("Error while writing to graphite: " + e.getMessage(), e);
         }
     }
 
+    private boolean encodeLine(GraphiteMetrics metrics, int index) {
+        lineBuilder.setLength(0);
+        lineBuilder.append(metrics.getPrefix(index)).append(metrics.getName(index)).append(' ');
+        double value = metrics.getValue(index);
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            lineBuilder.append((long)value);
+        } else {
+            lineBuilder.append(value);
+        }
+        lineBuilder.append(' ').append(metrics.getTimeStamp()).append('\n');
+
+        line.clear();
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(lineBuilder), line, true);
+        if (result.isOverflow() || encoder.flush(line).isOverflow()) {
+            return false;
+        }
+        line.flip();
+        return true;
+    }
+
+    private void flush(InetSocketAddress addr) throws IOException {
+        packet.flip();
+        if (packet.hasRemaining()) {
+            channel.send(packet, addr);
+        }
+        packet.clear();
+    }
+
     /**
      * Send a single metric with the current time as timestamp to graphite.
      *
@@ -116,8 +191,23 @@ public class GraphiteClient {
      * @throws GraphiteException if sending data to graphite failed
      */
     public void sendMetric(final String key, final int value, long timeStamp) {
-        HashMap metrics = new HashMap<String, Integer>();
-        metrics.put(key, value);
-        sendMetrics(metrics, timeStamp);
+        GraphiteMetrics metrics = new GraphiteMetrics(timeStamp, 1);
+        metrics.add("", key, value);
+        sendMetrics(metrics);
+    }
+
+    /**
+     * Closes the channel; the next send opens a new one.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+            channel = null;
+        }
     }
 }
@@ -0,0 +1,85 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package org.apache.cloudstack.utils.graphite;
+
+import java.util.Arrays;
+
+/**
+ * A batch of metrics sharing one timestamp.  A key is kept as the prefix and
+ * the name it was added with, so callers can reuse one prefix string for all
+ * metrics of an entity instead of building a key per metric.
+ */
+public class GraphiteMetrics {
+    private final long _timeStamp;
+    private String[] _prefixes;
+    private String[] _names;
+    private double[] _values;
+    private int _size;
+
+    /**
+     * @param timeStamp seconds since epoch.
+     */
+    public GraphiteMetrics(final long timeStamp) {
+        this(timeStamp, 16);
+    }
+
+    public GraphiteMetrics(final long timeStamp, final int capacity) {
+        _timeStamp = timeStamp;
+        _prefixes = new String[Math.max(capacity, 1)];
+        _names = new String[_prefixes.length];
+        _values = new double[_prefixes.length];
+    }
+
+    public void add(final String prefix, final String name, final double value) {
+        if (_size == _prefixes.length) {
+            final int capacity = _size * 2;
+            _prefixes = Arrays.copyOf(_prefixes, capacity);
+            _names = Arrays.copyOf(_names, capacity);
+            _values = Arrays.copyOf(_values, capacity);
+        }
+        _prefixes[_size] = prefix;
+        _names[_size] = name;
+        _values[_size] = value;
+        _size++;
+    }
+
+    public long getTimeStamp() {
+        return _timeStamp;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public String getPrefix(final int index) {
+        return _prefixes[index];
+    }
+
+    public String getName(final int index) {
+        return _names[index];
+    }
+
+    public double getValue(final int index) {
+        return _values[index];
+    }
+}
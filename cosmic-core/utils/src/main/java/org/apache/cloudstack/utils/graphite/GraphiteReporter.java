@@ -0,0 +1,134 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.utils.graphite;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends metrics to Graphite from its own thread, so collectors never wait
+ * on the network.  Batches are queued up to a fixed capacity; when Graphite
+ * cannot keep up, new batches are dropped rather than piling up in memory.
+ */
+public class GraphiteReporter extends StandardMBean implements GraphiteReporterMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(GraphiteReporter.class);
+
+    private final GraphiteClient _client;
+    private final BlockingQueue<GraphiteMetrics> _queue;
+    private final Thread _worker;
+    private volatile boolean _stopped;
+
+    private final AtomicLong _sent = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+
+    /**
+     * @param capacity number of batches that can wait to be sent.
+     */
+    public GraphiteReporter(final GraphiteClient client, final int capacity) {
+        super(GraphiteReporterMBean.class, false);
+        _client = client;
+        _queue = new ArrayBlockingQueue<GraphiteMetrics>(capacity);
+        _worker = new Thread(new Worker(), "GraphiteReporter");
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    /**
+     * Queues the batch for sending.
+     *
+     * @return false if the batch was dropped because the queue is full.
+     */
+    public boolean report(final GraphiteMetrics metrics) {
+        if (metrics.isEmpty()) {
+            return true;
+        }
+        if (_stopped || !_queue.offer(metrics)) {
+            _dropped.addAndGet(metrics.size());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the worker and closes the client.  Batches still queued are not sent.
+     */
+    public void stop() {
+        _stopped = true;
+        _worker.interrupt();
+    }
+
+    /**
+     * @return number of metrics handed to the network.
+     */
+    @Override
+    public long getSentCount() {
+        return _sent.get();
+    }
+
+    /**
+     * @return number of metrics dropped because the queue was full.
+     */
+    @Override
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    /**
+     * @return number of metrics that could not be sent.
+     */
+    @Override
+    public long getFailedCount() {
+        return _failed.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _queue.size();
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!_stopped) {
+                final GraphiteMetrics metrics;
+                try {
+                    metrics = _queue.take();
+                } catch (final InterruptedException e) {
+                    continue;
+                }
+                try {
+                    _client.sendMetrics(metrics);
+                    _sent.addAndGet(metrics.size());
+                } catch (final GraphiteException e) {
+                    _failed.addAndGet(metrics.size());
+                    s_logger.debug("Failed sending " + metrics.size() + " metrics to Graphite: " + e.getMessage());
+                }
+            }
+            _client.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.utils.prometheus;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4.
+ * Every metric family starts with family(), followed by its samples.
+ */
+public class PrometheusTextWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Writer _writer;
+
+    public PrometheusTextWriter(final Writer writer) {
+        _writer = writer;
+    }
+
+    /**
+     * @param type counter, gauge or untyped.
+     */
+    public void family(final String name, final String help, final String type) throws IOException {
+        _writer.write("# HELP ");
+        _writer.write(name);
+        _writer.write(' ');
+        _writer.write(help.replace("\\", "\\\\").replace("\n", "\\n"));
+        _writer.write("\n# TYPE ");
+        _writer.write(name);
+        _writer.write(' ');
+        _writer.write(type);
+        _writer.write('\n');
+    }
+
+    public void sample(final String name, final String labelName, final String labelValue, final double value) throws IOException {
+        _writer.write(name);
+        _writer.write('{');
+        _writer.write(labelName);
+        _writer.write("=\"");
+        writeLabelValue(labelValue);
+        _writer.write("\"} ");
+        _writer.write(formatValue(value));
+        _writer.write('\n');
+    }
+
+    public void flush() throws IOException {
+        _writer.flush();
+    }
+
+    private void writeLabelValue(final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    _writer.write("\\\\");
+                    break;
+                case '"':
+                    _writer.write("\\\"");
+                    break;
+                case '\n':
+                    _writer.write("\\n");
+                    break;
+                default:
+                    _writer.write(c);
+            }
+        }
+    }
+
+    static String formatValue(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long)value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,79 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void releasedBufferIsReused() {
+        final BufferPool pool = new BufferPool(true, 1024, 4096);
+
+        final ByteBuffer first = pool.acquire(512);
+        assertTrue(first.isDirect());
+        first.put((byte)1);
+        pool.release(first);
+
+        final ByteBuffer second = pool.acquire(512);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(512, second.limit());
+
+        assertEquals(1, pool.getAllocations());
+        assertEquals(512, pool.getAllocatedBytes());
+        assertEquals(1, pool.getPoolHits());
+    }
+
+    @Test
+    public void retainedBytesAreBounded() {
+        final BufferPool pool = new BufferPool(false, 1024, 1024);
+
+        final ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(512);
+        }
+        for (final ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+
+        assertEquals(2, pool.getIdleBuffers());
+        assertEquals(2, pool.getReleases());
+        assertEquals(2, pool.getDiscards());
+    }
+
+    @Test
+    public void oversizedAndForeignBuffersAreNotRetained() {
+        final BufferPool pool = new BufferPool(false, 1024, 4096);
+
+        pool.release(pool.acquire(2048));
+        pool.release(ByteBuffer.allocateDirect(512));
+        pool.release(null);
+
+        assertEquals(0, pool.getIdleBuffers());
+        assertEquals(2, pool.getDiscards());
+    }
+}
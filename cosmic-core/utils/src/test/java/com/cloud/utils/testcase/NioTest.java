@@ -82,14 +82,14 @@ public class NioTest extends TestCase {
         _testCount = 0;
         _completedCount = 0;
 
-        _server = new NioServer("NioTestServer", 7777, 5, new NioTestServer());
+        _server = createServer(new NioTestServer());
         try {
             _server.start();
         } catch (final NioConnectionException e) {
             fail(e.getMessage());
         }
 
-        _client = new NioClient("NioTestServer", "127.0.0.1", 7777, 5, new NioTestClient());
+        _client = new NioClient("NioTestServer", "127.0.0.1", getPort(), 5, new NioTestClient());
         try {
             _client.start();
         } catch (final NioConnectionException e) {
@@ -107,6 +107,14 @@ public class NioTest extends TestCase {
         }
     }
 
+    protected int getPort() {
+        return 7777;
+    }
+
+    protected NioServer createServer(final HandlerFactory factory) {
+        return new NioServer("NioTestServer", getPort(), 5, factory);
+    }
+
     @Override
     public void tearDown() {
         while (!isTestsDone()) {
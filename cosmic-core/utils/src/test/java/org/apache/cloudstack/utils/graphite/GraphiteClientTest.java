@@ -0,0 +1,89 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package org.apache.cloudstack.utils.graphite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphiteClientTest {
+    private DatagramChannel _server;
+    private GraphiteClient _client;
+
+    @Before
+    public void setUp() throws Exception {
+        _server = DatagramChannel.open();
+        _server.bind(new InetSocketAddress("127.0.0.1", 0));
+        _client = new GraphiteClient("127.0.0.1", ((InetSocketAddress)_server.getLocalAddress()).getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _client.close();
+        _server.close();
+    }
+
+    private List<String> receive(final int lines) throws Exception {
+        final List<String> received = new ArrayList<String>();
+        final ByteBuffer buffer = ByteBuffer.allocate(65536);
+        int packets = 0;
+        while (received.size() < lines) {
+            buffer.clear();
+            _server.receive(buffer);
+            buffer.flip();
+            assertTrue(buffer.remaining() <= GraphiteClient.MAX_PACKET_SIZE);
+            final String payload = StandardCharsets.UTF_8.decode(buffer).toString();
+            assertTrue(payload.endsWith("\n"));
+            Collections.addAll(received, payload.split("\n"));
+            packets++;
+        }
+        assertTrue("Metrics were not batched", packets < lines);
+        return received;
+    }
+
+    @Test
+    public void metricsArePackedIntoPackets() throws Exception {
+        final GraphiteMetrics metrics = new GraphiteMetrics(1500000000L, 1);
+        final String prefix = "cloudstack.stats.instances.0a1b2c3d-0000-4000-8000-000000000000.";
+        for (int i = 0; i < 100; i++) {
+            metrics.add(prefix, "cpu.num", i);
+        }
+        metrics.add(prefix, "cpu.utilization", 12.5);
+
+        _client.sendMetrics(metrics);
+        _client.sendMetric("single", 3, 1500000001L);
+
+        final List<String> lines = receive(102);
+        assertEquals(102, lines.size());
+        assertEquals(prefix + "cpu.num 0 1500000000", lines.get(0));
+        assertEquals(prefix + "cpu.utilization 12.5 1500000000", lines.get(100));
+        assertEquals("single 3 1500000001", lines.get(101));
+    }
+}
@@ -0,0 +1,51 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package org.apache.cloudstack.utils.prometheus;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class PrometheusTextWriterTest {
+
+    @Test
+    public void writesFamiliesAndEscapesLabels() throws Exception {
+        final StringWriter out = new StringWriter();
+        final PrometheusTextWriter writer = new PrometheusTextWriter(out);
+        writer.family("cloudstack_vm_cpu_num", "Number of vCPUs\nof the VM.", "gauge");
+        writer.sample("cloudstack_vm_cpu_num", "vm", "a\"b\\c", 4);
+        writer.sample("cloudstack_vm_cpu_num", "vm", "d", 0.25);
+        writer.flush();
+
+        assertEquals("# HELP cloudstack_vm_cpu_num Number of vCPUs\\nof the VM.\n"
+                + "# TYPE cloudstack_vm_cpu_num gauge\n"
+                + "cloudstack_vm_cpu_num{vm=\"a\\\"b\\\\c\"} 4\n"
+                + "cloudstack_vm_cpu_num{vm=\"d\"} 0.25\n", out.toString());
+    }
+
+    @Test
+    public void formatsSpecialValues() {
+        assertEquals("NaN", PrometheusTextWriter.formatValue(Double.NaN));
+        assertEquals("+Inf", PrometheusTextWriter.formatValue(Double.POSITIVE_INFINITY));
+        assertEquals("-3", PrometheusTextWriter.formatValue(-3));
+        assertEquals("1.0E20", PrometheusTextWriter.formatValue(1e20));
+    }
+}
@@ -31,6 +31,8 @@ import javax.naming.ConfigurationException;
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.HostVmStateReportTracker;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
@@ -94,6 +96,7 @@ import com.cloud.network.Networks.RouterPrivateIpStrategy;
 import com.cloud.network.Networks.TrafficType;
 import com.cloud.resource.ServerResource;
 import com.cloud.resource.ServerResourceBase;
+import com.cloud.resource.VmStateReportingResource;
 import com.cloud.storage.JavaStorageLayer;
 import com.cloud.storage.Storage;
 import com.cloud.storage.Storage.StoragePoolType;
@@ -150,7 +153,7 @@ import org.slf4j.LoggerFactory;
  *         hierarchy * }
  **/
 @Local(value = { ServerResource.class })
-public class LibvirtComputingResource extends ServerResourceBase implements ServerResource, VirtualRouterDeployer {
+public class LibvirtComputingResource extends ServerResourceBase implements ServerResource, VirtualRouterDeployer, VmStateReportingResource {
 
   public static final String SSHKEYSPATH = "/root/.ssh";
   public static final String SSHPRVKEYPATH = SSHKEYSPATH + File.separator + "id_rsa.cloud";
@@ -197,6 +200,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
   private int timeout;
 
   private VirtualRoutingResource virtRouterResource;
+  private final HostVmStateReportTracker vmStateReports = new HostVmStateReportTracker(HostVmStateReportTracker.DEFAULT_FULL_REPORT_INTERVAL);
   private String pingTestPath;
   private String updateHostPasswdPath;
   private long dom0MinMem;
@@ -2356,12 +2360,26 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
   @Override
   public PingCommand getCurrentStatus(final long id) {
 
+    final Map<String, HostVmStateReportEntry> report = this.getHostVmStateReport();
+    final PingRoutingCommand ping;
     if (!canBridgeFirewall) {
-      return new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, this.getHostVmStateReport());
+      ping = new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id, report);
     } else {
       final HashMap<String, Pair<Long, Long>> nwGrpStates = syncNetworkGroups(id);
-      return new PingRoutingWithNwGroupsCommand(getType(), id, this.getHostVmStateReport(), nwGrpStates);
+      ping = new PingRoutingWithNwGroupsCommand(getType(), id, report, nwGrpStates);
     }
+    vmStateReports.fill(ping, report);
+    return ping;
+  }
+
+  @Override
+  public void processPingAnswer(final PingAnswer answer) {
+    vmStateReports.processAnswer(answer);
+  }
+
+  @Override
+  public void disconnected() {
+    vmStateReports.reset();
   }
 
   @Override
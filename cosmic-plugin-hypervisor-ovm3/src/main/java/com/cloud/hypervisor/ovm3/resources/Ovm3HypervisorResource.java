@@ -42,11 +42,14 @@ import com.cloud.agent.api.GetHostStatsCommand;
 import com.cloud.agent.api.GetStorageStatsCommand;
 import com.cloud.agent.api.GetVmStatsCommand;
 import com.cloud.agent.api.GetVncPortCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.HostVmStateReportTracker;
 import com.cloud.agent.api.MaintainCommand;
 import com.cloud.agent.api.MigrateCommand;
 import com.cloud.agent.api.ModifyStoragePoolCommand;
 import com.cloud.agent.api.NetworkRulesSystemVmCommand;
 import com.cloud.agent.api.NetworkUsageCommand;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.PingTestCommand;
@@ -88,6 +91,7 @@ import com.cloud.hypervisor.ovm3.resources.helpers.Ovm3VmGuestTypes;
 import com.cloud.hypervisor.ovm3.resources.helpers.Ovm3VmSupport;
 import com.cloud.network.Networks.TrafficType;
 import com.cloud.resource.ServerResourceBase;
+import com.cloud.resource.VmStateReportingResource;
 import com.cloud.resource.hypervisor.HypervisorResource;
 import com.cloud.storage.resource.StorageSubsystemCommandHandler;
 import com.cloud.storage.resource.StorageSubsystemCommandHandlerBase;
@@ -106,7 +110,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Local(value = HypervisorResource.class)
-public class Ovm3HypervisorResource extends ServerResourceBase implements HypervisorResource {
+public class Ovm3HypervisorResource extends ServerResourceBase implements HypervisorResource, VmStateReportingResource {
   private static final Logger LOGGER = LoggerFactory.getLogger(Ovm3HypervisorResource.class);
   @Inject
   private VirtualRoutingResource vrResource;
@@ -122,6 +126,7 @@ public class Ovm3HypervisorResource extends ServerResourceBase implements Hyperv
   private Ovm3Configuration configuration;
   private Ovm3VmGuestTypes guesttypes;
   private final OvmObject ovmObject = new OvmObject();
+  private final HostVmStateReportTracker vmStateReports = new HostVmStateReportTracker(HostVmStateReportTracker.DEFAULT_FULL_REPORT_INTERVAL);
 
   /*
    * TODO: Add a network map, so we know which tagged interfaces we can remove and switch to ConcurrentHashMap
@@ -181,8 +186,10 @@ public class Ovm3HypervisorResource extends ServerResourceBase implements Hyperv
           LOGGER.debug("Storage health check running on "
               + configuration.getAgentHostname());
         }
-        return new PingRoutingCommand(getType(), id,
-            hypervisorsupport.hostVmStateReport());
+        final Map<String, HostVmStateReportEntry> report = hypervisorsupport.hostVmStateReport();
+        final PingRoutingCommand pingRouting = new PingRoutingCommand(getType(), id, report);
+        vmStateReports.fill(pingRouting, report);
+        return pingRouting;
       } else {
         LOGGER.debug("Agent did not respond correctly: " + ping
             + " but got " + pong);
@@ -283,7 +290,12 @@ public class Ovm3HypervisorResource extends ServerResourceBase implements Hyperv
 
   @Override
   public void disconnected() {
-    LOGGER.debug("disconnected seems unused everywhere else");
+    vmStateReports.reset();
+  }
+
+  @Override
+  public void processPingAnswer(PingAnswer answer) {
+    vmStateReports.processAnswer(answer);
   }
 
   @Override
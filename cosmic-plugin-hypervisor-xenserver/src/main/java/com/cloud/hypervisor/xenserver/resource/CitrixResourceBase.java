@@ -56,6 +56,8 @@ import com.cloud.agent.api.GetHostStatsCommand;
 import com.cloud.agent.api.GetVmStatsCommand;
 import com.cloud.agent.api.HostStatsEntry;
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.HostVmStateReportTracker;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
 import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
@@ -96,6 +98,7 @@ import com.cloud.network.Networks;
 import com.cloud.network.Networks.BroadcastDomainType;
 import com.cloud.network.Networks.TrafficType;
 import com.cloud.resource.ServerResource;
+import com.cloud.resource.VmStateReportingResource;
 import com.cloud.resource.hypervisor.HypervisorResource;
 import com.cloud.storage.Storage;
 import com.cloud.storage.Storage.StoragePoolType;
@@ -163,7 +166,7 @@ import org.xml.sax.SAXException;
  *
  */
 @Local(value = ServerResource.class)
-public abstract class CitrixResourceBase implements ServerResource, HypervisorResource, VirtualRouterDeployer {
+public abstract class CitrixResourceBase implements ServerResource, HypervisorResource, VirtualRouterDeployer, VmStateReportingResource {
 
   public enum SRType {
     EXT, FILE, ISCSI, ISO, LVM, LVMOHBA, LVMOISCSI, NFS;
@@ -218,6 +221,7 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
   }
 
   protected IAgentControl _agentControl;
+  protected final HostVmStateReportTracker _vmStateReports = new HostVmStateReportTracker(HostVmStateReportTracker.DEFAULT_FULL_REPORT_INTERVAL);
   protected boolean _canBridgeFirewall = false;
   protected String _cluster;
   // Guest and Host Performance Statistics
@@ -1552,6 +1556,7 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
   @Override
   public void disconnected() {
+    _vmStateReports.reset();
   }
 
   public boolean doPingTest(final Connection conn, final String computingHostIp) {
@@ -2020,18 +2025,27 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         }
       }
       final Connection conn = getConnection();
+      final HashMap<String, HostVmStateReportEntry> report = getHostVmStateReport(conn);
+      final PingRoutingCommand ping;
       if (!_canBridgeFirewall) {
-        return new PingRoutingCommand(getType(), id, getHostVmStateReport(conn));
+        ping = new PingRoutingCommand(getType(), id, report);
       } else {
         final HashMap<String, Pair<Long, Long>> nwGrpStates = syncNetworkGroups(conn, id);
-        return new PingRoutingWithNwGroupsCommand(getType(), id, getHostVmStateReport(conn), nwGrpStates);
+        ping = new PingRoutingWithNwGroupsCommand(getType(), id, report, nwGrpStates);
       }
+      _vmStateReports.fill(ping, report);
+      return ping;
     } catch (final Exception e) {
       s_logger.warn("Unable to get current status", e);
       return null;
     }
   }
 
+  @Override
+  public void processPingAnswer(final PingAnswer answer) {
+    _vmStateReports.processAnswer(answer);
+  }
+
   protected double getDataAverage(final Node dataNode, final int col, final int numRows) {
     double value = 0;
     final double dummy = 0;